@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes their results as JMH JSON to
+ * results/&lt;label&gt;.json, so runs of different commits can be compared
+ * with {@link CompareResults}.
+ *
+ * Usage: java -jar target/benchmarks.jar &lt;label&gt; [JMH options], where
+ * the label is typically the commit being measured (git rev-parse --short
+ * HEAD). Any JMH command line option, such as a benchmark regex, can follow.
+ *
+ * @author wallstop
+ */
+public final class BenchmarkRunner
+{
+    private static final String RESULTS_DIRECTORY = "results";
+
+    private BenchmarkRunner()
+    {
+    }
+
+    public static void main(final String[] args) throws RunnerException,
+            CommandLineOptionException
+    {
+        if(args.length == 0)
+        {
+            System.err.println("Usage: java -jar benchmarks.jar <label> [JMH options]");
+            System.exit(1);
+        }
+        final String label = args[0];
+        final String[] jmhArgs = new String[args.length - 1];
+        System.arraycopy(args, 1, jmhArgs, 0, jmhArgs.length);
+
+        final File results = new File(RESULTS_DIRECTORY, label + ".json");
+        results.getParentFile().mkdirs();
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(jmhArgs))
+                .resultFormat(ResultFormatType.JSON).result(results.getPath()).build()).run();
+        System.out.println("Wrote results to " + results.getPath());
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Lines up two JMH JSON result files (see {@link BenchmarkRunner}) benchmark
+ * by benchmark and prints how much each score moved.
+ *
+ * Usage: java -cp target/benchmarks.jar benchmarks.CompareResults
+ * &lt;baseline.json&gt; &lt;candidate.json&gt;
+ *
+ * @author wallstop
+ */
+public final class CompareResults
+{
+    private CompareResults()
+    {
+    }
+
+    public static void main(final String[] args) throws IOException
+    {
+        if(args.length != 2)
+        {
+            System.err.println("Usage: CompareResults <baseline.json> <candidate.json>");
+            System.exit(1);
+        }
+        final Map<String, JsonNode> baseline = read(new File(args[0]));
+        final Map<String, JsonNode> candidate = read(new File(args[1]));
+
+        System.out.println(String.format("%-90s %14s %14s %9s", "Benchmark", "Baseline",
+                "Candidate", "Change"));
+        candidate.forEach((key, result) ->
+        {
+            final JsonNode before = baseline.get(key);
+            final double score = score(result);
+            if(before == null)
+            {
+                System.out.println(String.format("%-90s %14s %14.3f %9s", key, "-", score, "new"));
+                return;
+            }
+            final double previous = score(before);
+            System.out.println(String.format("%-90s %14.3f %14.3f %+8.1f%% %s", key, previous,
+                    score, (score - previous) / previous * 100, unit(result)));
+        });
+        baseline.keySet().stream().filter(key -> !candidate.containsKey(key))
+                .forEach(key -> System.out.println(String.format("%-90s %14.3f %14s %9s", key,
+                        score(baseline.get(key)), "-", "removed")));
+    }
+
+    /* Results keyed by benchmark, mode and parameters */
+    private static Map<String, JsonNode> read(final File file) throws IOException
+    {
+        final Map<String, JsonNode> results = new LinkedHashMap<>();
+        for(final JsonNode result : new ObjectMapper().readTree(file))
+        {
+            final StringBuilder key = new StringBuilder(result.get("benchmark").asText())
+                    .append(" [").append(result.get("mode").asText());
+            final JsonNode params = result.get("params");
+            if(params != null)
+            {
+                final Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+                while(fields.hasNext())
+                {
+                    final Map.Entry<String, JsonNode> param = fields.next();
+                    key.append(", ").append(param.getKey()).append('=')
+                            .append(param.getValue().asText());
+                }
+            }
+            results.put(key.append(']').toString(), result);
+        }
+        return results;
+    }
+
+    private static double score(final JsonNode result)
+    {
+        return result.get("primaryMetric").get("score").asDouble();
+    }
+
+    private static String unit(final JsonNode result)
+    {
+        return result.get("primaryMetric").get("scoreUnit").asText();
+    }
+}
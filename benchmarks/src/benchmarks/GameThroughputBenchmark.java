@@ -0,0 +1,136 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+
+import core.Player;
+import core.network.GameClient;
+import core.network.GameHub;
+import core.network.ListenerPool;
+import core.network.NetworkAutomator;
+import core.policies.RandomPolicy;
+import tictactoe.TicTacToeAction;
+import tictactoe.TicTacToeRules;
+import tictactoe.TicTacToeState;
+
+/**
+ * Complete tic-tac-toe games between two {@link RandomPolicy} clients, played
+ * with {@link NetworkAutomator#playGameToCompletion()}. Each operation is one
+ * game, so the score is games per second.
+ *
+ * The transport decides what a game costs besides its turns: "sockets" binds
+ * fresh listeners and connects fresh clients for every game, "pool" leases
+ * the listeners from a {@link ListenerPool} instead, and "sessions" plays
+ * every game over the same two {@link GameHub} session connections.
+ *
+ * @author wallstop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class GameThroughputBenchmark
+{
+    @Param({ "sockets", "pool", "sessions" })
+    public String transport;
+
+    private final TicTacToeRules rules_ = new TicTacToeRules();
+    private final ExecutorService clients_ = Executors.newCachedThreadPool();
+    private ListenerPool pool_;
+    private GameHub hub_;
+    private Map<Player, String> playersToSessions_;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        switch(transport)
+        {
+            case "sockets":
+                break;
+            case "pool":
+                pool_ = new ListenerPool(TicTacToeStates.PLAYERS.size());
+                break;
+            case "sessions":
+                hub_ = new GameHub(0);
+                playersToSessions_ = ImmutableMap.of(TicTacToeStates.PLAYERS.get(0), "session-1",
+                        TicTacToeStates.PLAYERS.get(1), "session-2");
+                final int port = hub_.getPort();
+                playersToSessions_.values().forEach(
+                        sessionId -> clients_.execute(() -> new GameClient<>(rules_,
+                                new RandomPolicy<TicTacToeState, TicTacToeAction>(), "localhost",
+                                port, TicTacToeState.class, sessionId).run()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transport " + transport);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        if(pool_ != null)
+        {
+            pool_.shutdown();
+        }
+        if(hub_ != null)
+        {
+            playersToSessions_.values().forEach(hub_::closeSession);
+            hub_.shutdown();
+        }
+        clients_.shutdownNow();
+        clients_.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public TicTacToeState playGame()
+    {
+        final NetworkAutomator<TicTacToeState, TicTacToeAction, TicTacToeRules> game = newGame();
+        try
+        {
+            return game.playGameToCompletion();
+        }
+        finally
+        {
+            game.shutdown();
+        }
+    }
+
+    private NetworkAutomator<TicTacToeState, TicTacToeAction, TicTacToeRules> newGame()
+    {
+        if(hub_ != null)
+        {
+            return NetworkAutomator.onSessions(rules_, TicTacToeStates.PLAYERS,
+                    TicTacToeAction.class, hub_, playersToSessions_);
+        }
+        final NetworkAutomator<TicTacToeState, TicTacToeAction, TicTacToeRules> game = pool_ == null ? new NetworkAutomator<>(
+                rules_, TicTacToeStates.PLAYERS, TicTacToeAction.class)
+                : new NetworkAutomator<>(rules_, TicTacToeStates.PLAYERS, TicTacToeAction.class,
+                        pool_);
+        /* Clients block on their handshake, so they're created off this thread */
+        game.getPlayersToPorts().values().forEach(
+                port -> clients_.execute(() -> new GameClient<>(rules_,
+                        new RandomPolicy<TicTacToeState, TicTacToeAction>(), "localhost", port,
+                        TicTacToeState.class).run()));
+        return game;
+    }
+}
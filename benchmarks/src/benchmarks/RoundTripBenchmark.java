@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+import core.network.FramedGameListener;
+import core.network.GameClient;
+import core.network.SocketGameListener;
+import core.policies.RandomPolicy;
+import tictactoe.TicTacToeAction;
+import tictactoe.TicTacToeRules;
+import tictactoe.TicTacToeState;
+
+/**
+ * One state out to a {@link GameClient} and its action back, over a loopback
+ * socket: everything a turn costs apart from the rules themselves.
+ *
+ * @author wallstop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RoundTripBenchmark
+{
+    @Param({ "json", "smile" })
+    public String codec;
+
+    private final ExecutorService clientThread_ = Executors.newSingleThreadExecutor();
+    private FramedGameListener<TicTacToeState, TicTacToeAction> listener_;
+    private TicTacToeState state_;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        final TicTacToeRules rules = new TicTacToeRules();
+        state_ = TicTacToeStates.afterTurns(rules, 0);
+        listener_ = new SocketGameListener<>(TicTacToeAction.class);
+        final int port = listener_.getPort();
+        /* The client blocks on its handshake until the listener has connected */
+        clientThread_.execute(() ->
+        {
+            new GameClient<>(rules, new RandomPolicy<TicTacToeState, TicTacToeAction>(),
+                    "localhost", port, TicTacToeState.class, null, null, ImmutableList.of(codec))
+                    .run();
+        });
+        listener_.connect();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        listener_.disconnect();
+        clientThread_.shutdownNow();
+        clientThread_.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public TicTacToeAction roundTrip()
+    {
+        return listener_.requestChooseAction(state_);
+    }
+}
@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.WireCodec;
+
+import com.google.common.collect.ImmutableMap;
+
+import core.Player;
+import tictactoe.TicTacToeRules;
+import tictactoe.TicTacToeState;
+
+/**
+ * Encoding and decoding of tic-tac-toe states, whose boards are Vector2-keyed
+ * maps, and of Player-keyed maps, both through the String API of
+ * SerializationUtils and straight to and from a reused buffer with each
+ * codec.
+ *
+ * @author wallstop
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class SerializationBenchmark
+{
+    /* Random moves played from the initial state; 9 is a finished game */
+    @Param({ "0", "4", "9" })
+    public int turns;
+
+    @Param({ "json", "smile" })
+    public String codec;
+
+    private TicTacToeState state_;
+    private String stateJson_;
+    private PlayerTally tally_;
+    private String tallyJson_;
+
+    private WireCodec codec_;
+    private final ByteBufferOutputStream out_ = new ByteBufferOutputStream(ByteBuffer
+            .allocate(4 * 1024));
+    private final ByteBufferInputStream in_ = new ByteBufferInputStream();
+    private ByteBuffer encodedState_;
+
+    @Setup
+    public void setUp()
+    {
+        state_ = TicTacToeStates.afterTurns(new TicTacToeRules(), turns);
+        stateJson_ = SerializationUtils.writeValue(state_);
+        tally_ = new PlayerTally(ImmutableMap.of(TicTacToeStates.PLAYERS.get(0), turns,
+                TicTacToeStates.PLAYERS.get(1), turns + 1));
+        tallyJson_ = SerializationUtils.writeValue(tally_);
+
+        codec_ = SerializationUtils.codec(codec);
+        codec_.writeValue(state_, out_);
+        final ByteBuffer written = out_.buffer();
+        written.flip();
+        encodedState_ = ByteBuffer.allocate(written.remaining());
+        encodedState_.put(written);
+        written.clear();
+    }
+
+    @Benchmark
+    public String writeStateString()
+    {
+        return SerializationUtils.writeValue(state_);
+    }
+
+    @Benchmark
+    public TicTacToeState readStateString()
+    {
+        return SerializationUtils.readValue(stateJson_, TicTacToeState.class);
+    }
+
+    @Benchmark
+    public String writePlayerMapString()
+    {
+        return SerializationUtils.writeValue(tally_);
+    }
+
+    @Benchmark
+    public PlayerTally readPlayerMapString()
+    {
+        return SerializationUtils.readValue(tallyJson_, PlayerTally.class);
+    }
+
+    @Benchmark
+    public int writeStateToBuffer()
+    {
+        final ByteBuffer buffer = out_.buffer();
+        buffer.clear();
+        codec_.writeValue(state_, out_);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public TicTacToeState readStateFromBuffer()
+    {
+        return codec_.readValue(in_.wrap(encodedState_, 0, encodedState_.capacity()),
+                TicTacToeState.class);
+    }
+
+    /**
+     * Wrapper so the Player keys are decoded as Players, not Strings
+     */
+    public static final class PlayerTally
+    {
+        private final Map<Player, Integer> tally_;
+
+        private PlayerTally()
+        {
+            this(null);
+        }
+
+        PlayerTally(final Map<Player, Integer> tally)
+        {
+            tally_ = tally;
+        }
+    }
+}
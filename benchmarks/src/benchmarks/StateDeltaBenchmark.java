@@ -0,0 +1,125 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.WireCodec;
+
+import core.network.StateDelta;
+import tictactoe.TicTacToeRules;
+import tictactoe.TicTacToeState;
+
+/**
+ * What a turn costs each side with and without a keyframe interval: the
+ * server encoding a tic-tac-toe state in full or as a {@link StateDelta}
+ * against the previous one, and the client decoding either back into a state.
+ *
+ * @author wallstop
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class StateDeltaBenchmark
+{
+    /* Random moves played before the one that is sent; nobody can have won yet */
+    @Param({ "0", "2", "4" })
+    public int turns;
+
+    @Param({ "json", "smile" })
+    public String codec;
+
+    private TicTacToeState state_;
+    /* What the client already has */
+    private byte[] previous_;
+
+    private WireCodec codec_;
+    private final ByteBufferOutputStream out_ = new ByteBufferOutputStream(ByteBuffer
+            .allocate(4 * 1024));
+    /* Where the listener encodes each state before diffing it against the last */
+    private final ByteBufferOutputStream stateOut_ = new ByteBufferOutputStream(ByteBuffer
+            .allocate(4 * 1024));
+    private final ByteBufferInputStream in_ = new ByteBufferInputStream();
+    private ByteBuffer encodedState_;
+    private ByteBuffer encodedDelta_;
+
+    @Setup
+    public void setUp()
+    {
+        final TicTacToeRules rules = new TicTacToeRules();
+        final TicTacToeState previous = TicTacToeStates.afterTurns(rules, turns);
+        state_ = rules.transition(previous, rules.getAvailableActions(rules.getCurrentPlayer(
+                previous), previous).iterator().next());
+
+        codec_ = SerializationUtils.codec(codec);
+        previous_ = encode(previous);
+        encodedState_ = ByteBuffer.wrap(encode(state_));
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        StateDelta.CODEC.writeValue(StateDelta.between(previous_, encode(state_), 1), delta);
+        encodedDelta_ = ByteBuffer.wrap(delta.toByteArray());
+    }
+
+    private byte[] encode(final Object value)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec_.writeValue(value, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public int writeState()
+    {
+        final ByteBuffer buffer = out_.buffer();
+        buffer.clear();
+        codec_.writeValue(state_, out_);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public int writeDelta()
+    {
+        stateOut_.buffer().clear();
+        codec_.writeValue(state_, stateOut_);
+        final ByteBuffer state = stateOut_.buffer();
+        final ByteBuffer buffer = out_.buffer();
+        buffer.clear();
+        StateDelta.CODEC.writeValue(StateDelta.between(previous_, previous_.length, state
+                .array(), state.position(), 1), out_);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public TicTacToeState readState()
+    {
+        return codec_.readValue(in_.wrap(encodedState_, 0, encodedState_.capacity()),
+                TicTacToeState.class);
+    }
+
+    @Benchmark
+    public TicTacToeState readDelta()
+    {
+        final StateDelta delta = StateDelta.CODEC.readValue(in_.wrap(encodedDelta_, 0,
+                encodedDelta_.capacity()), StateDelta.class);
+        return codec_.readValue(new ByteArrayInputStream(delta.applyTo(previous_)),
+                TicTacToeState.class);
+    }
+}
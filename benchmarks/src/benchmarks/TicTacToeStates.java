@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import core.Player;
+import core.Policy;
+import core.policies.RandomPolicy;
+import tictactoe.TicTacToeAction;
+import tictactoe.TicTacToeRules;
+import tictactoe.TicTacToeState;
+
+/**
+ * Representative tic-tac-toe states shared by the benchmarks.
+ *
+ * @author wallstop
+ */
+final class TicTacToeStates
+{
+    static final List<Player> PLAYERS = ImmutableList.of(new Player("Player 1"), new Player(
+            "Player 2"));
+
+    private TicTacToeStates()
+    {
+    }
+
+    /**
+     * @param rules
+     *            Rules to play by
+     * @param turns
+     *            Number of random moves to play from the initial state. The
+     *            game is never played past its end
+     * @return The state after those moves
+     */
+    static TicTacToeState afterTurns(final TicTacToeRules rules, final int turns)
+    {
+        final Policy<TicTacToeState, TicTacToeAction> policy = new RandomPolicy<>();
+        TicTacToeState state = rules.generateInitialState(PLAYERS);
+        for(int i = 0; i < turns && !rules.isTerminal(state); ++i)
+        {
+            final Player player = rules.getCurrentPlayer(state);
+            state = rules.transition(state, policy.chooseAction(state, rules.getAvailableActions(
+                    player, state)));
+        }
+        return state;
+    }
+}
@@ -0,0 +1,81 @@
+package core.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import core.network.MatchmakingQueue.Ticket;
+
+/**
+ * Sessions joining the {@link Lobby}'s matchmaking queues from several
+ * threads at once, without any games being played. Each operation is one
+ * session getting in line for every game and draining their queues, so
+ * matches per second are the score divided by the match size.
+ *
+ * Lives in core.network since the queue is package-private. With more than
+ * one game, every session waits in each of their queues with a single
+ * ticket, so queues compete to claim the same sessions.
+ *
+ * @author wallstop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(4)
+@Fork(2)
+public class MatchmakingQueueBenchmark
+{
+    /* Starting games is the Lobby's cost, not the queue's */
+    private static final Consumer<List<Ticket>> IGNORE_MATCH = match -> {
+    };
+
+    /* Number of games each session is willing to play */
+    @Param({ "1", "2" })
+    public int games;
+
+    @Param({ "2", "4" })
+    public int matchSize;
+
+    private List<MatchmakingQueue> queues_;
+
+    @Setup
+    public void setUp()
+    {
+        queues_ = new ArrayList<>(games);
+        for(int i = 0; i < games; ++i)
+        {
+            queues_.add(new MatchmakingQueue(matchSize));
+        }
+    }
+
+    @Benchmark
+    public Ticket join()
+    {
+        final Ticket ticket = new Ticket("session");
+        for(final MatchmakingQueue queue : queues_)
+        {
+            queue.add(ticket);
+        }
+        for(final MatchmakingQueue queue : queues_)
+        {
+            queue.drain(IGNORE_MATCH);
+        }
+        return ticket;
+    }
+}
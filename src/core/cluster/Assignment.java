@@ -0,0 +1,60 @@
+package core.cluster;
+
+import utils.SerializationUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import core.network.MessageType;
+
+/**
+ * Payload of a {@link MessageType#ASSIGNMENT} frame: a game for a
+ * {@link GameWorker} to play.
+ *
+ * @author wallstop
+ */
+public final class Assignment
+{
+    private long assignmentId_;
+    /* The task itself when sent, a tree when received */
+    @JsonDeserialize(as = JsonNode.class)
+    private Object task_;
+
+    /* For Jackson */
+    private Assignment()
+    {
+    }
+
+    public Assignment(final long assignmentId, final Object task)
+    {
+        assignmentId_ = assignmentId;
+        task_ = task;
+    }
+
+    public long getAssignmentId()
+    {
+        return assignmentId_;
+    }
+
+    /**
+     * @param taskClass
+     *            Class of the coordinator's tasks
+     * @return The task
+     */
+    public <T> T getTask(final Class<T> taskClass)
+    {
+        if(taskClass.isInstance(task_))
+        {
+            return taskClass.cast(task_);
+        }
+        final JsonNode tree = task_ instanceof JsonNode ? (JsonNode) task_ : SerializationUtils
+                .valueToTree(task_);
+        return SerializationUtils.treeToValue(tree, taskClass);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Assignment [assignmentId=%d, task=%s]", assignmentId_, task_);
+    }
+}
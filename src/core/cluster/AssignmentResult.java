@@ -0,0 +1,112 @@
+package core.cluster;
+
+import utils.SerializationUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import core.network.MessageType;
+
+/**
+ * Payload of a {@link MessageType#ASSIGNMENT_RESULT} frame: how an
+ * {@link Assignment} went, along with the load the {@link GameWorker} was
+ * under once it finished, which the {@link GameCoordinator} schedules by.
+ *
+ * @author wallstop
+ */
+public final class AssignmentResult
+{
+    private long assignmentId_;
+    /* The result itself when sent, a tree when received. Null on failure */
+    @JsonDeserialize(as = JsonNode.class)
+    private Object result_;
+    /* Null on success */
+    private String error_;
+    private long durationNanos_;
+    private int inFlight_;
+    private double systemLoad_;
+
+    /* For Jackson */
+    private AssignmentResult()
+    {
+    }
+
+    /**
+     * @param assignmentId
+     *            Id of the finished assignment
+     * @param result
+     *            What the game's runner returned, or null if it failed
+     * @param error
+     *            Why the runner failed, or null if it didn't
+     * @param durationNanos
+     *            How long the game took
+     * @param inFlight
+     *            Games the worker is still playing
+     * @param systemLoad
+     *            The worker's host's load average, or a negative number if
+     *            unknown
+     */
+    public AssignmentResult(final long assignmentId, final Object result, final String error,
+            final long durationNanos, final int inFlight, final double systemLoad)
+    {
+        assignmentId_ = assignmentId;
+        result_ = result;
+        error_ = error;
+        durationNanos_ = durationNanos;
+        inFlight_ = inFlight;
+        systemLoad_ = systemLoad;
+    }
+
+    public long getAssignmentId()
+    {
+        return assignmentId_;
+    }
+
+    /**
+     * @param resultClass
+     *            Class of the coordinator's results
+     * @return The result, or null if the game failed
+     */
+    public <R> R getResult(final Class<R> resultClass)
+    {
+        if(result_ == null || resultClass.isInstance(result_))
+        {
+            return resultClass.cast(result_);
+        }
+        final JsonNode tree = result_ instanceof JsonNode ? (JsonNode) result_
+                : SerializationUtils.valueToTree(result_);
+        return tree.isNull() ? null : SerializationUtils.treeToValue(tree, resultClass);
+    }
+
+    /**
+     * @return Why the game failed, or null if it didn't
+     */
+    public String getError()
+    {
+        return error_;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos_;
+    }
+
+    public int getInFlight()
+    {
+        return inFlight_;
+    }
+
+    public double getSystemLoad()
+    {
+        return systemLoad_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+                "AssignmentResult [assignmentId=%d, error=%s, durationNanos=%d, inFlight=%d,"
+                        + " systemLoad=%.2f]", assignmentId_, error_, durationNanos_, inFlight_,
+                systemLoad_);
+    }
+}
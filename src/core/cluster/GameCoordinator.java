@@ -0,0 +1,586 @@
+package core.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import core.network.FramedConnection;
+import core.network.MessageType;
+
+/**
+ * Hands games out to {@link GameWorker}s, typically one per JVM across many
+ * hosts, so evaluation scales past what a single JVM can play. Workers connect
+ * to the coordinator and say how many games they play at once; each submitted
+ * task is assigned to the worker with the most free capacity, ties going to
+ * the worker whose host last reported the lightest load. Tasks wait in a queue
+ * while every worker is full.
+ *
+ * Games a worker was playing when it went away are reassigned to the others,
+ * up to {@link #MAX_ATTEMPTS} times per task.
+ *
+ * To try it out on a single host, see
+ * {@link #launchLocalWorkers(int, int, Class, Class)}.
+ *
+ * @author wallstop
+ *
+ * @param <T>
+ *            Type of the tasks describing games. Must survive a trip through
+ *            JSON
+ * @param <R>
+ *            Type of the results. Must survive a trip through JSON
+ */
+public class GameCoordinator<T, R>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GameCoordinator.class);
+
+    /* We define valid ports to be within [0, 65536), where 0 is ephemeral */
+    private static final int MAX_PORT = (1 << 16);
+    private static final int MIN_PORT = -1;
+
+    /* Times a task is assigned before it is failed for good */
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final class Task
+    {
+        private final T task_;
+        private final SettableFuture<R> result_ = SettableFuture.create();
+        private int attempts_ = 0;
+
+        private Task(final T task)
+        {
+            task_ = task;
+        }
+    }
+
+    private final class Worker
+    {
+        private final String workerId_;
+        private final int capacity_;
+        private final FramedConnection connection_;
+        /* Assignments are sent from whichever thread dispatches them */
+        private final Object writeLock_ = new Object();
+        /* Guarded by lock_, in the order the tasks were assigned to this worker */
+        private final Map<Long, Task> inFlight_ = new LinkedHashMap<>();
+        private double systemLoad_ = -1;
+
+        private Worker(final WorkerHello hello, final FramedConnection connection)
+        {
+            workerId_ = hello.getWorkerId();
+            capacity_ = hello.getCapacity();
+            connection_ = connection;
+        }
+
+        private int freeSlots()
+        {
+            return capacity_ - inFlight_.size();
+        }
+
+        /* Known load per slot, unknown loads sort last */
+        private double loadPerSlot()
+        {
+            return systemLoad_ < 0 ? Double.MAX_VALUE : systemLoad_ / capacity_;
+        }
+    }
+
+    private final ServerSocketChannel serverChannel_;
+    private final Class<R> resultClass_;
+    private final Thread acceptor_;
+    private volatile boolean running_ = true;
+
+    private final Object lock_ = new Object();
+    /* Guarded by lock_ */
+    private final Map<String, Worker> workers_ = new LinkedHashMap<>();
+    private final Deque<Task> queue_ = new ArrayDeque<>();
+
+    private final AtomicLong assignmentIds_ = new AtomicLong(0);
+    private final LongAdder completed_ = new LongAdder();
+    private final LongAdder failed_ = new LongAdder();
+    private final LongAdder reassigned_ = new LongAdder();
+
+    /**
+     * Binds a new coordinator to the provided port and starts accepting
+     * workers.
+     *
+     * @param port
+     *            Port to listen on, or 0 to let the OS pick an ephemeral port
+     * @param resultClass
+     *            Class of the results
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public GameCoordinator(final int port, final Class<R> resultClass) throws IOException
+    {
+        Validate.inOpenInterval(port, MIN_PORT, MAX_PORT);
+        Validate.notNull(resultClass, "Cannot create a GameCoordinator with a null Result class");
+        resultClass_ = resultClass;
+        serverChannel_ = ServerSocketChannel.open();
+        serverChannel_.bind(new InetSocketAddress(port));
+
+        acceptor_ = new Thread(this::acceptWorkers, String.format("%s-%d",
+                GameCoordinator.class.getSimpleName(), getPort()));
+        acceptor_.setDaemon(true);
+        acceptor_.start();
+        LOG.info("Started {} on port {}", GameCoordinator.class.getSimpleName(), getPort());
+    }
+
+    /**
+     * Queues a game to be played by whichever worker has room for it first.
+     *
+     * @param task
+     *            Game to play
+     * @return Future of the game's result. Fails if the worker's runner
+     *         failed, or the game could not be completed in
+     *         {@link #MAX_ATTEMPTS} attempts
+     */
+    public ListenableFuture<R> submit(final T task)
+    {
+        Validate.notNull(task, "Cannot submit a null task");
+        Validate.isTrue(running_, "Cannot submit a task to a GameCoordinator that was shut down");
+        final Task queued = new Task(task);
+        synchronized(lock_)
+        {
+            queue_.addLast(queued);
+        }
+        dispatch();
+        return queued.result_;
+    }
+
+    /**
+     * Blocks until at least the provided number of workers are connected.
+     *
+     * @param workers
+     *            Number of workers to wait for
+     * @param timeout
+     *            Maximum amount of time to wait
+     * @param unit
+     *            Unit of the timeout
+     * @return True if enough workers connected in time
+     */
+    public boolean awaitWorkers(final int workers, final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot wait for workers with a negative timeout");
+        Validate.notNull(unit, "Cannot wait for workers with a null TimeUnit");
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized(lock_)
+        {
+            try
+            {
+                long remaining;
+                while(workers_.size() < workers && (remaining = deadline - System.nanoTime()) > 0)
+                {
+                    TimeUnit.NANOSECONDS.timedWait(lock_, remaining);
+                }
+            }
+            catch(final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while waiting for {} workers", workers);
+            }
+            return workers_.size() >= workers;
+        }
+    }
+
+    /**
+     * Starts worker JVMs on this host, with the same classpath as this one,
+     * connected to this coordinator. Handy to spread games over cores without
+     * sharing a heap, or to try a cluster out before deploying it.
+     *
+     * @param count
+     *            Number of workers to start
+     * @param capacity
+     *            Most games each worker plays at once
+     * @param runnerClass
+     *            GameRunner with a public no-argument constructor
+     * @param taskClass
+     *            Class of the tasks
+     * @return The worker processes. They exit once the coordinator shuts down
+     * @throws IOException
+     *             if a process could not be started
+     */
+    public List<Process> launchLocalWorkers(final int count, final int capacity,
+            final Class<? extends GameRunner<T, R>> runnerClass, final Class<T> taskClass)
+            throws IOException
+    {
+        Validate.isTrue(count > 0, String.format("Cannot launch %d workers", count));
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final List<Process> processes = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i)
+        {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    GameWorker.class.getName(), "localhost", Integer.toString(getPort()), Integer
+                            .toString(capacity), runnerClass.getName(), taskClass.getName())
+                    .redirectErrorStream(true).redirectOutput(
+                            ProcessBuilder.Redirect.appendTo(new File(System
+                                    .getProperty("java.io.tmpdir"), String.format(
+                                    "markov-worker-%d-%d.log", getPort(), i)))).start());
+        }
+        LOG.info("Launched {} local workers with capacity {}", count, capacity);
+        return processes;
+    }
+
+    /**
+     * @return Number of games each connected worker is playing, by worker id
+     */
+    public Map<String, Integer> getWorkerLoads()
+    {
+        synchronized(lock_)
+        {
+            final ImmutableMap.Builder<String, Integer> loads = ImmutableMap.builder();
+            workers_.forEach((workerId, worker) -> loads.put(workerId, worker.inFlight_.size()));
+            return loads.build();
+        }
+    }
+
+    public int getWorkerCount()
+    {
+        synchronized(lock_)
+        {
+            return workers_.size();
+        }
+    }
+
+    /**
+     * @return Number of tasks waiting for a worker with room
+     */
+    public int getQueuedCount()
+    {
+        synchronized(lock_)
+        {
+            return queue_.size();
+        }
+    }
+
+    public long getCompletedCount()
+    {
+        return completed_.sum();
+    }
+
+    public long getFailedCount()
+    {
+        return failed_.sum();
+    }
+
+    /**
+     * @return Number of times a task was reassigned after its worker went away
+     */
+    public long getReassignedCount()
+    {
+        return reassigned_.sum();
+    }
+
+    public int getPort()
+    {
+        return serverChannel_.socket().getLocalPort();
+    }
+
+    /* Assigns queued tasks to the least loaded workers with room for them */
+    private void dispatch()
+    {
+        final List<Worker> assignedTo = new ArrayList<>();
+        final List<Assignment> assignments = new ArrayList<>();
+        synchronized(lock_)
+        {
+            while(!queue_.isEmpty())
+            {
+                final Worker worker = leastLoadedWorker();
+                if(worker == null)
+                {
+                    break;
+                }
+                final Task task = queue_.pollFirst();
+                if(task.result_.isDone())
+                {
+                    /* Cancelled while queued */
+                    continue;
+                }
+                final long assignmentId = assignmentIds_.incrementAndGet();
+                ++task.attempts_;
+                worker.inFlight_.put(assignmentId, task);
+                assignedTo.add(worker);
+                assignments.add(new Assignment(assignmentId, task.task_));
+            }
+        }
+        for(int i = 0; i < assignments.size(); ++i)
+        {
+            final Worker worker = assignedTo.get(i);
+            try
+            {
+                synchronized(worker.writeLock_)
+                {
+                    worker.connection_.send(MessageType.ASSIGNMENT, assignments.get(i));
+                }
+            }
+            catch(final IOException | RuntimeException e)
+            {
+                LOG.warn("Could not send {} to worker {}", assignments.get(i), worker.workerId_,
+                        e);
+                close(worker.connection_);
+            }
+        }
+    }
+
+    /* Guarded by lock_ */
+    private Worker leastLoadedWorker()
+    {
+        Worker best = null;
+        for(final Worker worker : workers_.values())
+        {
+            if(worker.freeSlots() <= 0)
+            {
+                continue;
+            }
+            if(best == null || worker.freeSlots() > best.freeSlots()
+                    || (worker.freeSlots() == best.freeSlots() && worker.loadPerSlot() < best
+                            .loadPerSlot()))
+            {
+                best = worker;
+            }
+        }
+        return best;
+    }
+
+    private void acceptWorkers()
+    {
+        while(running_)
+        {
+            try
+            {
+                final SocketChannel channel = serverChannel_.accept();
+                channel.socket().setTcpNoDelay(true);
+                final Thread reader = new Thread(() -> serveWorker(new FramedConnection(channel)),
+                        String.format("%s-%s", GameCoordinator.class.getSimpleName(), channel
+                                .getRemoteAddress()));
+                reader.setDaemon(true);
+                reader.start();
+            }
+            catch(final IOException e)
+            {
+                if(running_)
+                {
+                    LOG.error("Caught unexpected exception while accepting a worker on port {}",
+                            getPort(), e);
+                }
+            }
+        }
+    }
+
+    private void serveWorker(final FramedConnection connection)
+    {
+        Worker worker = null;
+        try
+        {
+            worker = new Worker(connection.readFrame(MessageType.WORKER_HELLO,
+                    WorkerHello.class), connection);
+            if(!register(worker))
+            {
+                return;
+            }
+            while(true)
+            {
+                final MessageType type = connection.readFrame();
+                if(type == null)
+                {
+                    LOG.info("Worker {} closed the connection", worker.workerId_);
+                    break;
+                }
+                if(type != MessageType.ASSIGNMENT_RESULT)
+                {
+                    throw new IOException(String.format(
+                            "Expected a %s frame, but received a %s frame",
+                            MessageType.ASSIGNMENT_RESULT, type));
+                }
+                complete(worker, connection.decodePayload(AssignmentResult.class));
+                dispatch();
+            }
+        }
+        catch(final Exception e)
+        {
+            if(running_)
+            {
+                LOG.warn("Lost worker {}", worker == null ? connection : worker.workerId_, e);
+            }
+        }
+        finally
+        {
+            close(connection);
+            if(worker != null)
+            {
+                unregister(worker);
+            }
+        }
+    }
+
+    private boolean register(final Worker worker)
+    {
+        synchronized(lock_)
+        {
+            if(!running_ || workers_.containsKey(worker.workerId_))
+            {
+                LOG.warn("Refusing worker {}, {}", worker.workerId_, running_
+                        ? "its id is already taken" : "the coordinator was shut down");
+                return false;
+            }
+            workers_.put(worker.workerId_, worker);
+            lock_.notifyAll();
+        }
+        LOG.info("Worker {} joined with capacity {}", worker.workerId_, worker.capacity_);
+        dispatch();
+        return true;
+    }
+
+    private void complete(final Worker worker, final AssignmentResult result)
+    {
+        final Task task;
+        synchronized(lock_)
+        {
+            task = worker.inFlight_.remove(result.getAssignmentId());
+            worker.systemLoad_ = result.getSystemLoad();
+        }
+        if(task == null)
+        {
+            LOG.warn("Worker {} sent {} for an assignment it doesn't have", worker.workerId_,
+                    result);
+            return;
+        }
+        if(result.getError() != null)
+        {
+            failed_.increment();
+            task.result_.setException(new IllegalStateException(String.format(
+                    "Worker %s failed %s:%s%s", worker.workerId_, task.task_, System
+                            .lineSeparator(), result.getError())));
+            return;
+        }
+        try
+        {
+            task.result_.set(result.getResult(resultClass_));
+            completed_.increment();
+        }
+        catch(final RuntimeException e)
+        {
+            failed_.increment();
+            task.result_.setException(e);
+        }
+    }
+
+    /* Reassigns whatever the worker was playing */
+    private void unregister(final Worker worker)
+    {
+        final List<Task> abandoned;
+        synchronized(lock_)
+        {
+            if(workers_.get(worker.workerId_) != worker)
+            {
+                return;
+            }
+            workers_.remove(worker.workerId_);
+            abandoned = new ArrayList<>(worker.inFlight_.values());
+            worker.inFlight_.clear();
+            if(running_)
+            {
+                /* Ahead of newer tasks, in the order they were assigned to this worker */
+                Collections.reverse(abandoned);
+                for(final Task task : abandoned)
+                {
+                    if(task.attempts_ < MAX_ATTEMPTS)
+                    {
+                        queue_.addFirst(task);
+                        reassigned_.increment();
+                    }
+                }
+            }
+        }
+        LOG.info("Worker {} left, {} of its games abandoned", worker.workerId_, abandoned.size());
+        for(final Task task : abandoned)
+        {
+            if(!running_ || task.attempts_ >= MAX_ATTEMPTS)
+            {
+                failed_.increment();
+                task.result_.setException(new IllegalStateException(String.format(
+                        "Could not complete %s in %d attempts", task.task_, task.attempts_)));
+            }
+        }
+        dispatch();
+    }
+
+    private static void close(final FramedConnection connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing {}, swallowing", connection, e);
+        }
+    }
+
+    /**
+     * Stops accepting workers and tells every connected worker to exit. Tasks
+     * that haven't finished yet fail.
+     */
+    public void shutdown()
+    {
+        final List<Worker> workers;
+        final List<Task> queued;
+        synchronized(lock_)
+        {
+            if(!running_)
+            {
+                return;
+            }
+            running_ = false;
+            workers = ImmutableList.copyOf(workers_.values());
+            queued = new ArrayList<>(queue_);
+            queue_.clear();
+        }
+        try
+        {
+            serverChannel_.close();
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while closing server channel, swallowing", e);
+        }
+        queued.forEach(task -> task.result_.setException(new IllegalStateException(
+                "GameCoordinator was shut down")));
+        for(final Worker worker : workers)
+        {
+            try
+            {
+                synchronized(worker.writeLock_)
+                {
+                    worker.connection_.send(MessageType.SHUTDOWN, worker.workerId_);
+                }
+            }
+            catch(final IOException e)
+            {
+                LOG.warn("Could not tell worker {} to shut down", worker.workerId_, e);
+            }
+            close(worker.connection_);
+        }
+        LOG.info("{} on port {} shut down", GameCoordinator.class.getSimpleName(), getPort());
+    }
+}
@@ -0,0 +1,29 @@
+package core.cluster;
+
+/**
+ * Plays the game a {@link GameWorker} was assigned, typically by creating a
+ * {@link core.network.NetworkAutomator} for it and playing it to completion,
+ * and sums it up as a result for the {@link GameCoordinator}.
+ *
+ * Runners started from the command line (see {@link GameWorker#main(String[])})
+ * need a public no-argument constructor.
+ *
+ * @author wallstop
+ *
+ * @param <T>
+ *            Type of the tasks describing games
+ * @param <R>
+ *            Type of the results
+ */
+@FunctionalInterface
+public interface GameRunner<T, R>
+{
+    /**
+     * Called from many threads at once, up to the worker's capacity.
+     *
+     * @param task
+     *            Game to play
+     * @return Result of the game, sent back to the coordinator
+     */
+    R run(T task);
+}
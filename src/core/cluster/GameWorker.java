@@ -0,0 +1,269 @@
+package core.cluster;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.SerializationUtils;
+import utils.Validate;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import core.network.FrameTransport;
+import core.network.GameClient;
+import core.network.MessageType;
+
+/**
+ * Plays the games a {@link GameCoordinator} assigns it, up to its capacity at
+ * once, and reports each result back along with its current load. Usually one
+ * per JVM, see {@link #main(String[])}.
+ *
+ * @author wallstop
+ *
+ * @param <T>
+ *            Type of the tasks describing games
+ * @param <R>
+ *            Type of the results
+ */
+public class GameWorker<T, R> implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GameWorker.class);
+
+    private final FrameTransport coordinator_;
+    /* Results are sent from many game threads */
+    private final Object writeLock_ = new Object();
+    private final String workerId_;
+    private final int capacity_;
+    private final Class<T> taskClass_;
+    private final GameRunner<T, R> runner_;
+    private final ExecutorService games_;
+    private final AtomicInteger inFlight_ = new AtomicInteger(0);
+    private volatile boolean shuttingDown_ = false;
+
+    /**
+     * Connects to the coordinator and introduces itself. Nothing is played
+     * until the worker is run.
+     *
+     * @param host
+     *            Host the coordinator runs on
+     * @param port
+     *            Port the coordinator is listening on
+     * @param workerId
+     *            Id of the worker, unique among the coordinator's workers
+     * @param capacity
+     *            Most games to play at once
+     * @param taskClass
+     * @param runner
+     *            Plays each assigned game
+     */
+    public GameWorker(final String host, final int port, final String workerId,
+            final int capacity, final Class<T> taskClass, final GameRunner<T, R> runner)
+    {
+        Validate.notNull(workerId, "Cannot create a GameWorker with a null worker id");
+        Validate.isTrue(capacity > 0, String.format(
+                "Cannot create a GameWorker with a capacity of %d", capacity));
+        Validate.notNull(taskClass, "Cannot create a GameWorker with a null Task class");
+        Validate.notNull(runner, "Cannot create a GameWorker with a null GameRunner");
+        workerId_ = workerId;
+        capacity_ = capacity;
+        taskClass_ = taskClass;
+        runner_ = runner;
+        SerializationUtils.prepareTypes(taskClass);
+        coordinator_ = GameClient.connect(host, port);
+        games_ = Executors.newFixedThreadPool(capacity, new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("GameWorker-" + workerId + "-%d").build());
+        send(MessageType.WORKER_HELLO, new WorkerHello(workerId, capacity));
+        LOG.info("Started {} {} with capacity {}, connected to {}:{}",
+                GameWorker.class.getSimpleName(), workerId, capacity, host, port);
+    }
+
+    /**
+     * @return An id unique to this JVM on this host
+     */
+    public static String defaultWorkerId()
+    {
+        /* pid@hostname on every JVM we know of */
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    public String getWorkerId()
+    {
+        return workerId_;
+    }
+
+    public int getCapacity()
+    {
+        return capacity_;
+    }
+
+    /**
+     * Plays assigned games until the coordinator shuts the worker down or
+     * goes away.
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while(true)
+            {
+                final MessageType type = coordinator_.readFrame();
+                if(type == null)
+                {
+                    LOG.info("Coordinator closed the connection, stopping {}", workerId_);
+                    break;
+                }
+                if(type == MessageType.SHUTDOWN)
+                {
+                    LOG.info("Coordinator shut down {}", coordinator_
+                            .decodePayload(String.class));
+                    break;
+                }
+                if(type != MessageType.ASSIGNMENT)
+                {
+                    throw new IOException(String.format(
+                            "Expected a %s frame, but received a %s frame",
+                            MessageType.ASSIGNMENT, type));
+                }
+                final Assignment assignment = coordinator_.decodePayload(Assignment.class);
+                inFlight_.incrementAndGet();
+                games_.execute(() -> play(assignment));
+            }
+        }
+        catch(final Exception e)
+        {
+            if(shuttingDown_)
+            {
+                LOG.info("Worker was shut down, stopping");
+            }
+            else
+            {
+                LOG.error("Caught unexpected exception while running {}", workerId_, e);
+            }
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    private void play(final Assignment assignment)
+    {
+        final long start = System.nanoTime();
+        R result = null;
+        String error = null;
+        try
+        {
+            result = runner_.run(assignment.getTask(taskClass_));
+        }
+        catch(final Throwable e)
+        {
+            LOG.warn("{} failed {}", workerId_, assignment, e);
+            error = Throwables.getStackTraceAsString(e);
+            /* Reported to the coordinator below either way, but Errors still end the thread */
+            if(e instanceof Error)
+            {
+                throw (Error) e;
+            }
+        }
+        finally
+        {
+            /* The coordinator hears back about every assignment, or it never reassigns it */
+            final long duration = System.nanoTime() - start;
+            final int inFlight = inFlight_.decrementAndGet();
+            send(MessageType.ASSIGNMENT_RESULT, new AssignmentResult(assignment
+                    .getAssignmentId(), result, error, duration, inFlight, ManagementFactory
+                    .getOperatingSystemMXBean().getSystemLoadAverage()));
+        }
+    }
+
+    private void send(final MessageType type, final Object value)
+    {
+        synchronized(writeLock_)
+        {
+            try
+            {
+                coordinator_.send(type, value);
+            }
+            catch(final IOException e)
+            {
+                if(shuttingDown_)
+                {
+                    return;
+                }
+                LOG.error("Encountered unexpected exception while writing {} out to the"
+                        + " coordinator", value, e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Hangs up on the coordinator, abandoning any games still being played.
+     * The coordinator reassigns them.
+     */
+    public void shutdown()
+    {
+        if(shuttingDown_)
+        {
+            return;
+        }
+        shuttingDown_ = true;
+        games_.shutdownNow();
+        try
+        {
+            coordinator_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing coordinator connection,"
+                    + " swallowing", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GameRunner<Object, Object> newRunner(final String runnerClass)
+    {
+        try
+        {
+            return (GameRunner<Object, Object>) Class.forName(runnerClass)
+                    .getDeclaredConstructor().newInstance();
+        }
+        catch(final ReflectiveOperationException e)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Could not create a %s from %s, it needs a public no-argument constructor",
+                    GameRunner.class.getSimpleName(), runnerClass), e);
+        }
+    }
+
+    /**
+     * Runs a worker until its coordinator shuts it down. Arguments are the
+     * coordinator's host and port, the worker's capacity, the class name of a
+     * {@link GameRunner} with a public no-argument constructor, the class name
+     * of its tasks and, optionally, the worker's id.
+     *
+     * @param args
+     *            host port capacity runnerClass taskClass [workerId]
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        Validate.isTrue(args.length == 5 || args.length == 6, String.format(
+                "Usage: %s host port capacity runnerClass taskClass [workerId]",
+                GameWorker.class.getName()));
+        final GameRunner<Object, Object> runner = newRunner(args[3]);
+        @SuppressWarnings("unchecked")
+        final Class<Object> taskClass = (Class<Object>) Class.forName(args[4]);
+        final GameWorker<Object, Object> worker = new GameWorker<>(args[0], Integer
+                .parseInt(args[1]), args.length == 6 ? args[5] : defaultWorkerId(), Integer
+                .parseInt(args[2]), taskClass, runner);
+        SerializationUtils.finishStartup();
+        worker.run();
+    }
+}
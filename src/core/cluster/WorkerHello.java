@@ -0,0 +1,53 @@
+package core.cluster;
+
+import utils.Validate;
+
+import core.network.MessageType;
+
+/**
+ * Payload of a {@link MessageType#WORKER_HELLO} frame, the first frame a
+ * {@link GameWorker} sends its {@link GameCoordinator}.
+ *
+ * @author wallstop
+ */
+public final class WorkerHello
+{
+    private String workerId_;
+    private int capacity_;
+
+    /* For Jackson */
+    private WorkerHello()
+    {
+    }
+
+    /**
+     * @param workerId
+     *            Id of the worker, unique among the coordinator's workers
+     * @param capacity
+     *            Most games the worker plays at once
+     */
+    public WorkerHello(final String workerId, final int capacity)
+    {
+        Validate.notNull(workerId, "Cannot create a WorkerHello with a null worker id");
+        Validate.isTrue(capacity > 0, String.format(
+                "Cannot create a WorkerHello with a capacity of %d", capacity));
+        workerId_ = workerId;
+        capacity_ = capacity;
+    }
+
+    public String getWorkerId()
+    {
+        return workerId_;
+    }
+
+    public int getCapacity()
+    {
+        return capacity_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("WorkerHello [workerId=%s, capacity=%d]", workerId_, capacity_);
+    }
+}
@@ -0,0 +1,453 @@
+package core.load;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+
+import core.Player;
+import core.Policy;
+import core.Rules;
+import core.metrics.LatencyHistogram;
+import core.network.GameClient;
+import core.network.NetworkAutomator;
+
+/**
+ * Soak tests the network layer on a single host: plays as many concurrent
+ * games as asked, each a socket {@link NetworkAutomator} with a
+ * {@link GameClient} per player, starting a new game whenever one ends, and
+ * samples throughput, turn latency, heap and thread usage as it goes. Ramping
+ * the number of games up step by step (see
+ * {@link #ramp(int, int, int, long, TimeUnit)}) shows how latency degrades as
+ * the server approaches what it can sustain.
+ *
+ * Clients are synthetic: each decision waits for an exponentially distributed
+ * think time, a fixed injected delay and a uniformly distributed jitter before
+ * the real policy is asked, and clients hang up mid-game at the configured
+ * disconnect rate.
+ *
+ * Every game and client has a thread of its own, so thousands of clients need
+ * thousands of threads; mind the JVM's thread stack size and the host's
+ * limits.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ * @param <R>
+ */
+public class LoadGenerator<S, A, R extends Rules<S, A>>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final R rules_;
+    private final List<Player> players_;
+    private final Class<S> stateClass_;
+    private final Class<A> actionClass_;
+    private final Supplier<? extends Policy<S, A>> policies_;
+
+    private volatile long thinkTimeNanos_ = 0;
+    private volatile long delayNanos_ = 0;
+    private volatile long jitterNanos_ = 0;
+    private volatile double disconnectRate_ = 0;
+    private volatile long turnTimeoutNanos_ = Long.MAX_VALUE;
+    private volatile long connectionTimeoutNanos_ = TimeUnit.SECONDS.toNanos(30);
+    private volatile long sampleIntervalNanos_ = TimeUnit.SECONDS.toNanos(1);
+
+    /* State of the current run */
+    private final AtomicInteger targetGames_ = new AtomicInteger(0);
+    private final List<Thread> slots_ = new ArrayList<>();
+    private final AtomicInteger activeGames_ = new AtomicInteger(0);
+    private final AtomicInteger connectedClients_ = new AtomicInteger(0);
+    private final LongAdder gamesCompleted_ = new LongAdder();
+    private final LongAdder gamesFailed_ = new LongAdder();
+    private final LongAdder disconnects_ = new LongAdder();
+    private final LongAdder turns_ = new LongAdder();
+    /* Swapped for a fresh one every sample */
+    private volatile LatencyHistogram turnLatency_ = new LatencyHistogram();
+    private volatile LatencyHistogram totalTurnLatency_ = new LatencyHistogram();
+
+    /**
+     * @param rules
+     * @param players
+     *            Players of every game
+     * @param stateClass
+     * @param actionClass
+     * @param policies
+     *            Creates the policy of each synthetic client
+     */
+    public LoadGenerator(final R rules, final Collection<Player> players,
+            final Class<S> stateClass, final Class<A> actionClass,
+            final Supplier<? extends Policy<S, A>> policies)
+    {
+        Validate.notNull(rules, "Cannot create a LoadGenerator with a null rule set");
+        Validate.notNull(players, "Cannot create a LoadGenerator with null players");
+        Validate.isTrue(!players.isEmpty(), "Cannot create a LoadGenerator without players");
+        Validate.notNull(stateClass, "Cannot create a LoadGenerator with a null State class");
+        Validate.notNull(actionClass, "Cannot create a LoadGenerator with a null Action class");
+        Validate.notNull(policies, "Cannot create a LoadGenerator with null policies");
+        rules_ = rules;
+        players_ = ImmutableList.copyOf(players);
+        stateClass_ = stateClass;
+        actionClass_ = actionClass;
+        policies_ = policies;
+    }
+
+    /**
+     * Sets the mean of the exponentially distributed time each synthetic
+     * client thinks before every decision. Defaults to 0.
+     */
+    public void setThinkTime(final long thinkTime, final TimeUnit unit)
+    {
+        thinkTimeNanos_ = validNanos(thinkTime, unit, "think time");
+    }
+
+    /**
+     * Sets a fixed delay added to every decision, to stand in for a slow
+     * network or policy server. Defaults to 0.
+     */
+    public void setInjectedDelay(final long delay, final TimeUnit unit)
+    {
+        delayNanos_ = validNanos(delay, unit, "injected delay");
+    }
+
+    /**
+     * Sets the bound of a uniformly distributed delay added to every
+     * decision. Defaults to 0.
+     */
+    public void setJitter(final long jitter, final TimeUnit unit)
+    {
+        jitterNanos_ = validNanos(jitter, unit, "jitter");
+    }
+
+    /**
+     * Sets the probability that a synthetic client hangs up instead of making
+     * a decision, failing its game. Defaults to 0.
+     *
+     * @param disconnectRate
+     *            Probability per decision, in [0, 1]
+     */
+    public void setDisconnectRate(final double disconnectRate)
+    {
+        Validate.isTrue(0 <= disconnectRate && disconnectRate <= 1, String.format(
+                "Cannot have a disconnect rate of %f, it must be in [0, 1]", disconnectRate));
+        disconnectRate_ = disconnectRate;
+    }
+
+    /**
+     * Sets every game's turn timeout, see
+     * {@link NetworkAutomator#setTurnTimeout(long, TimeUnit)}. By default,
+     * turns have no deadline.
+     */
+    public void setTurnTimeout(final long timeout, final TimeUnit unit)
+    {
+        turnTimeoutNanos_ = validNanos(timeout, unit, "turn timeout");
+    }
+
+    /**
+     * Sets how long every game waits for its clients to connect, see
+     * {@link NetworkAutomator#setConnectionTimeout(long, TimeUnit)}. A game
+     * whose clients don't all connect in time fails. Defaults to 30 seconds.
+     */
+    public void setConnectionTimeout(final long timeout, final TimeUnit unit)
+    {
+        connectionTimeoutNanos_ = validNanos(timeout, unit, "connection timeout");
+    }
+
+    /**
+     * Sets how often a {@link LoadSample} is taken. Defaults to once a
+     * second.
+     */
+    public void setSampleInterval(final long interval, final TimeUnit unit)
+    {
+        final long intervalNanos = validNanos(interval, unit, "sample interval");
+        Validate.isTrue(intervalNanos > 0, "Cannot have an empty sample interval");
+        sampleIntervalNanos_ = intervalNanos;
+    }
+
+    private static long validNanos(final long duration, final TimeUnit unit, final String name)
+    {
+        Validate.isTrue(duration >= 0, String.format("Cannot have a negative %s", name));
+        Validate.notNull(unit, String.format("Cannot have a %s with a null TimeUnit", name));
+        return unit.toNanos(duration);
+    }
+
+    /**
+     * Keeps the provided number of games going for the provided amount of
+     * time.
+     *
+     * @param concurrentGames
+     *            Number of games to play at once
+     * @param duration
+     *            How long to play for
+     * @param unit
+     *            Unit of the duration
+     * @return What was measured
+     */
+    public LoadReport run(final int concurrentGames, final long duration, final TimeUnit unit)
+    {
+        return ramp(concurrentGames, concurrentGames, 1, duration, unit);
+    }
+
+    /**
+     * Starts with from concurrent games, then adds step more at a time until
+     * there are to of them, holding each level for the provided amount of
+     * time. The last step adds fewer if need be, so the final level is always
+     * to.
+     *
+     * @param from
+     *            Number of games to play at once to begin with
+     * @param to
+     *            Number of games to play at once in the last step
+     * @param step
+     *            Number of games to add every step
+     * @param stepDuration
+     *            How long to hold each level for
+     * @param unit
+     *            Unit of the step duration
+     * @return What was measured
+     */
+    public synchronized LoadReport ramp(final int from, final int to, final int step,
+            final long stepDuration, final TimeUnit unit)
+    {
+        Validate.isTrue(0 < from && from <= to, String.format(
+                "Cannot ramp from %d to %d concurrent games", from, to));
+        Validate.isTrue(step > 0, String.format("Cannot ramp up %d games at a time", step));
+        final long stepNanos = validNanos(stepDuration, unit, "step duration");
+
+        resetCounters();
+        final long start = System.nanoTime();
+        final List<LoadSample> samples = new ArrayList<>();
+        long lastSample = start;
+        try
+        {
+            int games = from;
+            while(true)
+            {
+                LOG.info("Ramping up to {} concurrent games", games);
+                targetGames_.set(games);
+                while(slots_.size() < games)
+                {
+                    startSlot(slots_.size());
+                }
+                final long stepEnd = System.nanoTime() + stepNanos;
+                long now;
+                while((now = System.nanoTime()) < stepEnd)
+                {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(sampleIntervalNanos_, stepEnd - now));
+                    if(System.nanoTime() - lastSample >= sampleIntervalNanos_
+                            || System.nanoTime() >= stepEnd)
+                    {
+                        final LoadSample sample = sample(start, lastSample);
+                        lastSample = start + sample.getElapsedNanos();
+                        samples.add(sample);
+                        LOG.info("{}", sample);
+                    }
+                }
+                if(games == to)
+                {
+                    break;
+                }
+                /* The last step is cut short so the final level is exactly to */
+                games = (int) Math.min(to, (long) games + step);
+            }
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while generating load, stopping early");
+        }
+        finally
+        {
+            stopSlots();
+        }
+        /* Games still in progress at the end were played to completion */
+        samples.add(sample(start, lastSample));
+        return new LoadReport(samples, System.nanoTime() - start, totalTurnLatency_.snapshot());
+    }
+
+    private void resetCounters()
+    {
+        gamesCompleted_.reset();
+        gamesFailed_.reset();
+        disconnects_.reset();
+        turns_.reset();
+        turnLatency_ = new LatencyHistogram();
+        totalTurnLatency_ = new LatencyHistogram();
+    }
+
+    /* Counters are reset as they are read, so each sample covers its own interval */
+    private LoadSample sample(final long start, final long lastSample)
+    {
+        final long now = System.nanoTime();
+        final LatencyHistogram turnLatency = turnLatency_;
+        turnLatency_ = new LatencyHistogram();
+        final Runtime runtime = Runtime.getRuntime();
+        return new LoadSample(now - start, now - lastSample, targetGames_.get(), activeGames_
+                .get(), connectedClients_.get(), gamesCompleted_.sumThenReset(), gamesFailed_
+                .sumThenReset(), disconnects_.sumThenReset(), turns_.sumThenReset(), turnLatency
+                .snapshot(), runtime.totalMemory() - runtime.freeMemory(), ManagementFactory
+                .getThreadMXBean().getThreadCount());
+    }
+
+    /* Slot i keeps a game going for as long as the target is above i */
+    private void startSlot(final int index)
+    {
+        final Thread slot = new Thread(() -> {
+            while(index < targetGames_.get())
+            {
+                playGame();
+            }
+        }, "LoadGenerator-" + index);
+        slot.setDaemon(true);
+        slots_.add(slot);
+        slot.start();
+    }
+
+    private void stopSlots()
+    {
+        targetGames_.set(0);
+        for(final Thread slot : slots_)
+        {
+            try
+            {
+                slot.join();
+            }
+            catch(final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while waiting for games to finish, abandoning them");
+                break;
+            }
+        }
+        slots_.clear();
+    }
+
+    private void playGame()
+    {
+        final NetworkAutomator<S, A, R> game = new NetworkAutomator<>(rules_, players_,
+                actionClass_);
+        final List<GameClient<S, A, R>> clients = new CopyOnWriteArrayList<>();
+        activeGames_.incrementAndGet();
+        try
+        {
+            game.setTurnTimeout(turnTimeoutNanos_, TimeUnit.NANOSECONDS);
+            game.setConnectionTimeout(connectionTimeoutNanos_, TimeUnit.NANOSECONDS);
+            game.getPlayersToPorts().forEach((player, port) -> {
+                /* Handshaking blocks until the listener answers, so it happens on the thread too */
+                final Thread clientThread = new Thread(() -> {
+                    try
+                    {
+                        final SyntheticPolicy policy = new SyntheticPolicy(policies_.get());
+                        final GameClient<S, A, R> client = new GameClient<>(rules_, policy,
+                                "localhost", port, stateClass_);
+                        policy.client_ = client;
+                        clients.add(client);
+                        connectedClients_.incrementAndGet();
+                        try
+                        {
+                            client.run();
+                        }
+                        finally
+                        {
+                            connectedClients_.decrementAndGet();
+                        }
+                    }
+                    catch(final RuntimeException | Error e)
+                    {
+                        /* Otherwise the game waits on a client that will never answer */
+                        LOG.debug("Client of Player {} in game {} died, shutting the game down",
+                                player, game.getGameId(), e);
+                        game.shutdown();
+                        if(e instanceof Error)
+                        {
+                            throw (Error) e;
+                        }
+                    }
+                }, String.format("LoadClient-%s-%s", game.getGameId(), player));
+                clientThread.setDaemon(true);
+                clientThread.start();
+            });
+            /* So the first turn's latency doesn't include connecting */
+            Validate.isTrue(game.awaitAllClientConnections(), String.format(
+                    "Clients of game %s failed to connect", game.getGameId()));
+            S state = game.currentState();
+            while(!rules_.isTerminal(state))
+            {
+                final long start = System.nanoTime();
+                state = game.advanceSingleAction();
+                final long elapsed = System.nanoTime() - start;
+                turnLatency_.record(elapsed);
+                totalTurnLatency_.record(elapsed);
+                turns_.increment();
+            }
+            gamesCompleted_.increment();
+        }
+        catch(final RuntimeException e)
+        {
+            LOG.debug("Game {} failed", game.getGameId(), e);
+            gamesFailed_.increment();
+        }
+        finally
+        {
+            activeGames_.decrementAndGet();
+            clients.forEach(GameClient::shutdown);
+            game.shutdown();
+        }
+    }
+
+    /* Waits out the configured delays, then hangs up or asks the real policy */
+    private final class SyntheticPolicy implements Policy<S, A>
+    {
+        private final Policy<S, A> policy_;
+        private volatile GameClient<S, A, R> client_ = null;
+
+        private SyntheticPolicy(final Policy<S, A> policy)
+        {
+            policy_ = policy;
+        }
+
+        @Override
+        public A chooseAction(final S state, final Collection<A> actions)
+        {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final long thinkTime = thinkTimeNanos_;
+            final long jitter = jitterNanos_;
+            /* Exponentially distributed think time, by inverse transform sampling */
+            final long think = thinkTime == 0 ? 0 : (long) (-Math.log(1 - random.nextDouble())
+                    * thinkTime);
+            final long wait = delayNanos_ + think + (jitter == 0 ? 0 : random.nextLong(jitter));
+            if(wait > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                catch(final InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final GameClient<S, A, R> client = client_;
+            if(client != null && random.nextDouble() < disconnectRate_)
+            {
+                disconnects_.increment();
+                client.shutdown();
+            }
+            return policy_.chooseAction(state, actions);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package core.load;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import core.metrics.HistogramSnapshot;
+
+/**
+ * Everything a {@link LoadGenerator} run measured: one {@link LoadSample} per
+ * sample interval, in order, and the totals over the whole run.
+ *
+ * @author wallstop
+ */
+public final class LoadReport
+{
+    private final List<LoadSample> samples_;
+    private final long durationNanos_;
+    private final long gamesCompleted_;
+    private final long gamesFailed_;
+    private final long disconnects_;
+    private final long turns_;
+    private final HistogramSnapshot turnLatency_;
+
+    LoadReport(final List<LoadSample> samples, final long durationNanos,
+            final HistogramSnapshot turnLatency)
+    {
+        samples_ = ImmutableList.copyOf(samples);
+        durationNanos_ = durationNanos;
+        turnLatency_ = turnLatency;
+        gamesCompleted_ = samples.stream().mapToLong(LoadSample::getGamesCompleted).sum();
+        gamesFailed_ = samples.stream().mapToLong(LoadSample::getGamesFailed).sum();
+        disconnects_ = samples.stream().mapToLong(LoadSample::getDisconnects).sum();
+        turns_ = samples.stream().mapToLong(LoadSample::getTurns).sum();
+    }
+
+    public List<LoadSample> getSamples()
+    {
+        return samples_;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos_;
+    }
+
+    public long getGamesCompleted()
+    {
+        return gamesCompleted_;
+    }
+
+    public long getGamesFailed()
+    {
+        return gamesFailed_;
+    }
+
+    public long getDisconnects()
+    {
+        return disconnects_;
+    }
+
+    public long getTurns()
+    {
+        return turns_;
+    }
+
+    /**
+     * @return Turn latencies over the whole run
+     */
+    public HistogramSnapshot getTurnLatency()
+    {
+        return turnLatency_;
+    }
+
+    public long getPeakHeapUsedBytes()
+    {
+        return samples_.stream().mapToLong(LoadSample::getHeapUsedBytes).max().orElse(0);
+    }
+
+    public int getPeakThreads()
+    {
+        return samples_.stream().mapToInt(LoadSample::getThreads).max().orElse(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder builder = new StringBuilder(String.format(
+                "%s [duration=%.1fs, gamesCompleted=%d, gamesFailed=%d, disconnects=%d, turns=%d,"
+                        + " turnLatency=%s, peakHeap=%dMiB, peakThreads=%d]", LoadReport.class
+                        .getSimpleName(), durationNanos_ / 1e9, gamesCompleted_, gamesFailed_,
+                disconnects_, turns_, turnLatency_, getPeakHeapUsedBytes() >> 20,
+                getPeakThreads()));
+        samples_.forEach(sample -> builder.append(System.lineSeparator()).append(sample));
+        return builder.toString();
+    }
+}
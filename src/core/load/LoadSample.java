@@ -0,0 +1,157 @@
+package core.load;
+
+import java.util.concurrent.TimeUnit;
+
+import core.metrics.HistogramSnapshot;
+
+/**
+ * What a {@link LoadGenerator} measured over one sample interval. Counts and
+ * latencies cover the interval alone; gauges, like the heap and thread count,
+ * are as of its end.
+ *
+ * @author wallstop
+ */
+public final class LoadSample
+{
+    private final long elapsedNanos_;
+    private final long intervalNanos_;
+    private final int targetGames_;
+    private final int activeGames_;
+    private final int connectedClients_;
+    private final long gamesCompleted_;
+    private final long gamesFailed_;
+    private final long disconnects_;
+    private final long turns_;
+    private final HistogramSnapshot turnLatency_;
+    private final long heapUsedBytes_;
+    private final int threads_;
+
+    LoadSample(final long elapsedNanos, final long intervalNanos, final int targetGames,
+            final int activeGames, final int connectedClients, final long gamesCompleted,
+            final long gamesFailed, final long disconnects, final long turns,
+            final HistogramSnapshot turnLatency, final long heapUsedBytes, final int threads)
+    {
+        elapsedNanos_ = elapsedNanos;
+        intervalNanos_ = intervalNanos;
+        targetGames_ = targetGames;
+        activeGames_ = activeGames;
+        connectedClients_ = connectedClients;
+        gamesCompleted_ = gamesCompleted;
+        gamesFailed_ = gamesFailed;
+        disconnects_ = disconnects;
+        turns_ = turns;
+        turnLatency_ = turnLatency;
+        heapUsedBytes_ = heapUsedBytes;
+        threads_ = threads;
+    }
+
+    /**
+     * @return Time from the start of the run to the end of the interval
+     */
+    public long getElapsedNanos()
+    {
+        return elapsedNanos_;
+    }
+
+    public long getIntervalNanos()
+    {
+        return intervalNanos_;
+    }
+
+    /**
+     * @return Number of concurrent games the generator was aiming for
+     */
+    public int getTargetGames()
+    {
+        return targetGames_;
+    }
+
+    public int getActiveGames()
+    {
+        return activeGames_;
+    }
+
+    public int getConnectedClients()
+    {
+        return connectedClients_;
+    }
+
+    public long getGamesCompleted()
+    {
+        return gamesCompleted_;
+    }
+
+    /**
+     * @return Number of games that ended early, whether a client disconnected,
+     *         failed to connect, or the server failed
+     */
+    public long getGamesFailed()
+    {
+        return gamesFailed_;
+    }
+
+    /**
+     * @return Number of clients that hung up on purpose
+     */
+    public long getDisconnects()
+    {
+        return disconnects_;
+    }
+
+    public long getTurns()
+    {
+        return turns_;
+    }
+
+    public double getTurnsPerSecond()
+    {
+        return perSecond(turns_);
+    }
+
+    public double getGamesPerSecond()
+    {
+        return perSecond(gamesCompleted_);
+    }
+
+    private double perSecond(final long count)
+    {
+        return intervalNanos_ <= 0 ? 0 : count * 1e9 / intervalNanos_;
+    }
+
+    /**
+     * @return How long turns took as seen by the server, from asking the
+     *         client to applying its action
+     */
+    public HistogramSnapshot getTurnLatency()
+    {
+        return turnLatency_;
+    }
+
+    public long getHeapUsedBytes()
+    {
+        return heapUsedBytes_;
+    }
+
+    /**
+     * @return Number of live threads in the JVM
+     */
+    public int getThreads()
+    {
+        return threads_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%6.1fs target=%d active=%d clients=%d games/s=%.1f turns/s=%.1f "
+                + "failed=%d disconnects=%d p50=%dus p99=%dus p99.9=%dus heap=%dMiB threads=%d",
+                elapsedNanos_ / 1e9, targetGames_, activeGames_, connectedClients_,
+                getGamesPerSecond(), getTurnsPerSecond(), gamesFailed_, disconnects_,
+                micros(50), micros(99), micros(99.9), heapUsedBytes_ >> 20, threads_);
+    }
+
+    private long micros(final double percentile)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(turnLatency_.getValueAtPercentile(percentile));
+    }
+}
@@ -0,0 +1,99 @@
+package core.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram}. All values are in
+ * nanoseconds.
+ *
+ * @author wallstop
+ */
+public final class HistogramSnapshot
+{
+    private final long[] counts_;
+    private final long count_;
+    private final long min_;
+    private final long max_;
+    private final long sum_;
+
+    HistogramSnapshot(final long[] counts, final long count, final long min, final long max,
+            final long sum)
+    {
+        counts_ = counts;
+        count_ = count;
+        min_ = min;
+        max_ = max;
+        sum_ = sum;
+    }
+
+    public long getCount()
+    {
+        return count_;
+    }
+
+    public long getMin()
+    {
+        return min_;
+    }
+
+    public long getMax()
+    {
+        return max_;
+    }
+
+    public double getMean()
+    {
+        return count_ == 0 ? 0 : (double) sum_ / count_;
+    }
+
+    /**
+     * @param percentile
+     *            Percentile in [0, 100]
+     * @return The value at or below which the percentile of recorded values
+     *         fall, accurate to within 1/32 of itself, or 0 if nothing was
+     *         recorded
+     */
+    public long getValueAtPercentile(final double percentile)
+    {
+        final long recorded = sum(counts_);
+        if(recorded == 0)
+        {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile))
+                / 100 * recorded));
+        long seen = 0;
+        for(int i = 0; i < counts_.length; ++i)
+        {
+            seen += counts_[i];
+            if(seen >= rank)
+            {
+                return Math.min(LatencyHistogram.highestValueIn(i), max_);
+            }
+        }
+        return max_;
+    }
+
+    private static long sum(final long[] counts)
+    {
+        long sum = 0;
+        for(final long count : counts)
+        {
+            sum += count;
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("[count=%d, mean=%.1fus, p50=%dus, p99=%dus, p99.9=%dus, max=%dus]",
+                count_, getMean() / TimeUnit.MICROSECONDS.toNanos(1), micros(50), micros(99),
+                micros(99.9), TimeUnit.NANOSECONDS.toMicros(max_));
+    }
+
+    private long micros(final double percentile)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(percentile));
+    }
+}
@@ -0,0 +1,85 @@
+package core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of nanosecond latencies, bucketed the way HdrHistogram
+ * does it: exact below 64ns, and above that 32 equally sized buckets per
+ * power of two, so every recorded value is off by at most 1/32 of itself.
+ * Recording is a handful of atomic increments and never allocates.
+ *
+ * @author wallstop
+ */
+public final class LatencyHistogram
+{
+    /* Values below this get a bucket each */
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /* Largest shift a non-negative long can need */
+    private static final int MAX_SHIFT = (Long.SIZE - 2) - SUB_BUCKET_BITS;
+    static final int BUCKETS = LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+    private final AtomicLongArray counts_ = new AtomicLongArray(BUCKETS);
+    private final LongAdder total_ = new LongAdder();
+    private final LongAdder sum_ = new LongAdder();
+    private final AtomicLong min_ = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max_ = new AtomicLong(0);
+
+    /**
+     * @param nanos
+     *            Latency to record. Negative values are recorded as 0
+     */
+    public void record(final long nanos)
+    {
+        final long value = Math.max(0, nanos);
+        counts_.incrementAndGet(bucketOf(value));
+        total_.increment();
+        sum_.add(value);
+        min_.accumulateAndGet(value, Math::min);
+        max_.accumulateAndGet(value, Math::max);
+    }
+
+    static int bucketOf(final long value)
+    {
+        if(value < LINEAR_BUCKETS)
+        {
+            return (int) value;
+        }
+        final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The largest value that lands in the bucket
+     */
+    static long highestValueIn(final int bucket)
+    {
+        if(bucket < LINEAR_BUCKETS)
+        {
+            return bucket;
+        }
+        final int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Copies the histogram as it is now. Values recorded while the copy is
+     * being made may or may not be in it.
+     */
+    public HistogramSnapshot snapshot()
+    {
+        final long[] counts = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            counts[i] = counts_.get(i);
+        }
+        final long total = total_.sum();
+        return new HistogramSnapshot(counts, total, total == 0 ? 0 : min_.get(), max_.get(),
+                sum_.sum());
+    }
+}
@@ -0,0 +1,132 @@
+package core.metrics;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Immutable copy of every counter and latency histogram of a
+ * {@link NetworkMetrics}, taken at one point in time. Two snapshots can be
+ * subtracted counter by counter to get rates over the time between them.
+ *
+ * @author wallstop
+ */
+public final class MetricsSnapshot
+{
+    private final long takenNanos_;
+    private final long gamesStarted_;
+    private final long gamesCompleted_;
+    private final long turns_;
+    private final long bytesIn_;
+    private final long bytesOut_;
+    private final long connections_;
+    private final long connectionFailures_;
+    private final Map<TurnPhase, HistogramSnapshot> latencies_;
+
+    MetricsSnapshot(final long takenNanos, final long gamesStarted, final long gamesCompleted,
+            final long turns, final long bytesIn, final long bytesOut, final long connections,
+            final long connectionFailures, final Map<TurnPhase, HistogramSnapshot> latencies)
+    {
+        takenNanos_ = takenNanos;
+        gamesStarted_ = gamesStarted;
+        gamesCompleted_ = gamesCompleted;
+        turns_ = turns;
+        bytesIn_ = bytesIn;
+        bytesOut_ = bytesOut;
+        connections_ = connections;
+        connectionFailures_ = connectionFailures;
+        latencies_ = ImmutableMap.copyOf(latencies);
+    }
+
+    /**
+     * @return System.nanoTime() at the time the snapshot was taken
+     */
+    public long getTakenNanos()
+    {
+        return takenNanos_;
+    }
+
+    public long getGamesStarted()
+    {
+        return gamesStarted_;
+    }
+
+    public long getGamesCompleted()
+    {
+        return gamesCompleted_;
+    }
+
+    public long getTurns()
+    {
+        return turns_;
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn_;
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut_;
+    }
+
+    public long getConnections()
+    {
+        return connections_;
+    }
+
+    public long getConnectionFailures()
+    {
+        return connectionFailures_;
+    }
+
+    public HistogramSnapshot getLatency(final TurnPhase phase)
+    {
+        return latencies_.get(phase);
+    }
+
+    public Map<TurnPhase, HistogramSnapshot> getLatencies()
+    {
+        return latencies_;
+    }
+
+    /**
+     * @param earlier
+     *            Snapshot taken before this one
+     * @return Turns played per second between the two snapshots
+     */
+    public double getTurnsPerSecondSince(final MetricsSnapshot earlier)
+    {
+        return perSecond(turns_ - earlier.turns_, earlier);
+    }
+
+    /**
+     * @param earlier
+     *            Snapshot taken before this one
+     * @return Games completed per second between the two snapshots
+     */
+    public double getGamesPerSecondSince(final MetricsSnapshot earlier)
+    {
+        return perSecond(gamesCompleted_ - earlier.gamesCompleted_, earlier);
+    }
+
+    private double perSecond(final long delta, final MetricsSnapshot earlier)
+    {
+        final long elapsed = takenNanos_ - earlier.takenNanos_;
+        return elapsed <= 0 ? 0 : delta * 1e9 / elapsed;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder builder = new StringBuilder(String.format(
+                "%s [gamesStarted=%d, gamesCompleted=%d, turns=%d, bytesIn=%d, bytesOut=%d, "
+                        + "connections=%d, connectionFailures=%d", MetricsSnapshot.class
+                        .getSimpleName(), gamesStarted_, gamesCompleted_, turns_, bytesIn_,
+                bytesOut_, connections_, connectionFailures_));
+        latencies_.forEach((phase, latency) -> builder.append(", ").append(phase).append('=')
+                .append(latency));
+        return builder.append(']').toString();
+    }
+}
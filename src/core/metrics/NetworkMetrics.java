@@ -0,0 +1,228 @@
+package core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Counters and per-phase turn latencies of every game served by this process.
+ * Recording is lock-free and allocation-free, so it is always on; the
+ * numbers can be polled with {@link #snapshot()} or watched over JMX under
+ * {@link #OBJECT_NAME}.
+ *
+ * @author wallstop
+ */
+public final class NetworkMetrics implements NetworkMetricsMXBean
+{
+    private static final Logger LOG = LoggerFactory.getLogger(NetworkMetrics.class);
+
+    public static final String OBJECT_NAME = "core.network:type=NetworkMetrics";
+
+    private static final NetworkMetrics GLOBAL = new NetworkMetrics();
+
+    static
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL,
+                    new ObjectName(OBJECT_NAME));
+        }
+        catch(final JMException | SecurityException e)
+        {
+            LOG.warn("Could not register {} with JMX, it can still be polled", OBJECT_NAME, e);
+        }
+    }
+
+    private final Map<TurnPhase, LatencyHistogram> latencies_ = new EnumMap<>(TurnPhase.class);
+    private final LongAdder gamesStarted_ = new LongAdder();
+    private final LongAdder gamesCompleted_ = new LongAdder();
+    private final LongAdder turns_ = new LongAdder();
+    private final LongAdder bytesIn_ = new LongAdder();
+    private final LongAdder bytesOut_ = new LongAdder();
+    private final LongAdder connections_ = new LongAdder();
+    private final LongAdder connectionFailures_ = new LongAdder();
+
+    private NetworkMetrics()
+    {
+        for(final TurnPhase phase : TurnPhase.values())
+        {
+            latencies_.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @return The metrics every game of this process records to
+     */
+    public static NetworkMetrics global()
+    {
+        return GLOBAL;
+    }
+
+    /**
+     * @param phase
+     *            Phase of a turn that was timed
+     * @param nanos
+     *            How long the phase took
+     */
+    public void record(final TurnPhase phase, final long nanos)
+    {
+        Validate.notNull(phase, "Cannot record the latency of a null phase");
+        latencies_.get(phase).record(nanos);
+    }
+
+    /**
+     * Records the time since the provided start, and returns the end so the
+     * next phase can be timed from it.
+     *
+     * @param phase
+     *            Phase of a turn that was timed
+     * @param startNanos
+     *            System.nanoTime() when the phase began
+     * @return System.nanoTime() now
+     */
+    public long recordSince(final TurnPhase phase, final long startNanos)
+    {
+        final long now = System.nanoTime();
+        record(phase, now - startNanos);
+        return now;
+    }
+
+    public void gameStarted()
+    {
+        gamesStarted_.increment();
+    }
+
+    public void gameCompleted()
+    {
+        gamesCompleted_.increment();
+    }
+
+    public void turnPlayed()
+    {
+        turns_.increment();
+    }
+
+    public void bytesIn(final long bytes)
+    {
+        bytesIn_.add(bytes);
+    }
+
+    public void bytesOut(final long bytes)
+    {
+        bytesOut_.add(bytes);
+    }
+
+    public void connectionSucceeded()
+    {
+        connections_.increment();
+    }
+
+    public void connectionFailed()
+    {
+        connectionFailures_.increment();
+    }
+
+    /**
+     * @return Every counter and latency histogram as they are now
+     */
+    public MetricsSnapshot snapshot()
+    {
+        final Map<TurnPhase, HistogramSnapshot> latencies = new EnumMap<>(TurnPhase.class);
+        latencies_.forEach((phase, histogram) -> latencies.put(phase, histogram.snapshot()));
+        return new MetricsSnapshot(System.nanoTime(), gamesStarted_.sum(), gamesCompleted_.sum(),
+                turns_.sum(), bytesIn_.sum(), bytesOut_.sum(), connections_.sum(),
+                connectionFailures_.sum(), latencies);
+    }
+
+    @Override
+    public long getGamesStarted()
+    {
+        return gamesStarted_.sum();
+    }
+
+    @Override
+    public long getGamesCompleted()
+    {
+        return gamesCompleted_.sum();
+    }
+
+    @Override
+    public long getTurns()
+    {
+        return turns_.sum();
+    }
+
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn_.sum();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return bytesOut_.sum();
+    }
+
+    @Override
+    public long getConnections()
+    {
+        return connections_.sum();
+    }
+
+    @Override
+    public long getConnectionFailures()
+    {
+        return connectionFailures_.sum();
+    }
+
+    @Override
+    public Map<String, Long> getLatencyCounts()
+    {
+        return byPhase(HistogramSnapshot::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50()
+    {
+        return byPhase(latency -> latency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99()
+    {
+        return byPhase(latency -> latency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP999()
+    {
+        return byPhase(latency -> latency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMax()
+    {
+        return byPhase(HistogramSnapshot::getMax);
+    }
+
+    private Map<String, Long> byPhase(final ToLongFunction<HistogramSnapshot> statistic)
+    {
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        latencies_.forEach((phase, histogram) -> builder.put(phase.name(), statistic
+                .applyAsLong(histogram.snapshot())));
+        return builder.build();
+    }
+}
@@ -0,0 +1,36 @@
+package core.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link NetworkMetrics}. Latencies are keyed by
+ * {@link TurnPhase} name and given in nanoseconds.
+ *
+ * @author wallstop
+ */
+public interface NetworkMetricsMXBean
+{
+    long getGamesStarted();
+
+    long getGamesCompleted();
+
+    long getTurns();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getConnections();
+
+    long getConnectionFailures();
+
+    Map<String, Long> getLatencyCounts();
+
+    Map<String, Long> getLatencyP50();
+
+    Map<String, Long> getLatencyP99();
+
+    Map<String, Long> getLatencyP999();
+
+    Map<String, Long> getLatencyMax();
+}
@@ -0,0 +1,23 @@
+package core.metrics;
+
+/**
+ * The steps a single turn of a {@link core.network.NetworkAutomator} goes
+ * through, each timed separately by {@link NetworkMetrics}.
+ *
+ * @author wallstop
+ */
+public enum TurnPhase
+{
+    /* Rules filtering the state down to what the current player may see */
+    FILTER_STATE,
+    /* Encoding the state and handing it to the connection */
+    SERIALIZE,
+    /* From the state being sent until the client's answer has arrived */
+    ROUND_TRIP,
+    /* Decoding the client's answer */
+    DESERIALIZE,
+    /* Checking the answer is one of the available actions */
+    VALIDATE,
+    /* Rules applying the action to the state */
+    TRANSITION
+}
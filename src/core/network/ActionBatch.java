@@ -0,0 +1,39 @@
+package core.network;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Payload of a {@link MessageType#BATCH_ACTIONS} frame: one action per entry
+ * of the {@link StateBatch} with the same id, in the same order, encoded like
+ * the batch's states.
+ *
+ * @author wallstop
+ */
+public final class ActionBatch
+{
+    private long batchId_;
+    private List<byte[]> actions_;
+
+    /* For Jackson */
+    private ActionBatch()
+    {
+    }
+
+    public ActionBatch(final long batchId, final List<byte[]> actions)
+    {
+        batchId_ = batchId;
+        actions_ = actions;
+    }
+
+    public long getBatchId()
+    {
+        return batchId_;
+    }
+
+    public List<byte[]> getActions()
+    {
+        return actions_ == null ? Collections.emptyList() : Collections
+                .unmodifiableList(actions_);
+    }
+}
@@ -0,0 +1,151 @@
+package core.network;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+/**
+ * Client that plays every game a {@link GameHub} assigned to its client id
+ * over a single connection. Each {@link StateBatch} the hub sends is handed to
+ * the {@link BatchPolicy} in one call, and answered with a single
+ * {@link ActionBatch}.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public class BatchGameClient<S, A> implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BatchGameClient.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final BatchPolicy<S, A> policy_;
+    private final FramedConnection server_;
+    private final Class<S> stateClass_;
+    private final Class<A[]> actionsClass_;
+    private final String clientId_;
+
+    public BatchGameClient(final BatchPolicy<S, A> policy, final String host, final int port,
+            final String clientId, final Class<S> stateClass, final Class<A> actionClass)
+    {
+        this(policy, host, port, clientId, DEFAULT_MAX_BATCH_SIZE, stateClass, actionClass);
+    }
+
+    /**
+     * Creates a batch client and handshakes with the GameHub on the provided
+     * host and port. Blocks until the hub has answered the handshake.
+     *
+     * @param policy
+     * @param host
+     *            Host the GameHub runs on
+     * @param port
+     *            Port the GameHub is listening on
+     * @param clientId
+     *            Id the client's games were assigned to, see
+     *            {@link GameHub#newBatchedListener(String, String, core.Player, Class)}
+     * @param maxBatchSize
+     *            Maximum number of states to be sent in a single batch
+     * @param stateClass
+     * @param actionClass
+     */
+    public BatchGameClient(final BatchPolicy<S, A> policy, final String host, final int port,
+            final String clientId, final int maxBatchSize, final Class<S> stateClass,
+            final Class<A> actionClass)
+    {
+        Validate.notNull(policy, "Cannot create a BatchGameClient from a null policy");
+        Validate.notNull(clientId, "Cannot create a BatchGameClient with a null client id");
+        Validate.notNull(stateClass, "Cannot create a BatchGameClient with a null State class");
+        Validate.notNull(actionClass, "Cannot create a BatchGameClient with a null Action class");
+        policy_ = policy;
+        clientId_ = clientId;
+        stateClass_ = stateClass;
+        actionsClass_ = actionsClass(actionClass);
+        SerializationUtils.prepareTypes(stateClass, actionClass, actionsClass_);
+        server_ = GameClient.connect(host, port);
+        final Handshake handshake = new Handshake(clientId, maxBatchSize,
+                GameClient.DEFAULT_CODECS);
+        try
+        {
+            final HandshakeResponse response = GameClient.handshake(server_, handshake);
+            LOG.info("Sent {}, server answered with {}", handshake, response);
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Could not handshake batch client {} with {}:{}", clientId, host, port, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ActionBatch chooseActions(final StateBatch batch)
+    {
+        final WireCodec codec = server_.getCodec();
+        final List<StateBatch.Entry> entries = batch.getEntries();
+        final List<S> states = new ArrayList<>(entries.size());
+        final List<Collection<A>> availableActions = new ArrayList<>(entries.size());
+        for(final StateBatch.Entry entry : entries)
+        {
+            states.add(StateBatch.decode(codec, entry.getState(), stateClass_));
+            availableActions.add(Arrays.asList(StateBatch.decode(codec, entry.getActions(),
+                    actionsClass_)));
+        }
+
+        final List<A> chosen = policy_.chooseActions(states, availableActions);
+        Validate.isTrue(chosen.size() == entries.size(), String.format(
+                "Policy chose %d actions for %d states", chosen.size(), entries.size()));
+        final List<byte[]> actions = new ArrayList<>(chosen.size());
+        for(final A action : chosen)
+        {
+            actions.add(StateBatch.encode(codec, action));
+        }
+        return new ActionBatch(batch.getBatchId(), actions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A> Class<A[]> actionsClass(final Class<A> actionClass)
+    {
+        return (Class<A[]>) Array.newInstance(actionClass, 0).getClass();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while(true)
+            {
+                final MessageType type = server_.readFrame();
+                if(type == null)
+                {
+                    LOG.info("Server closed the connection, stopping batch client {}", clientId_);
+                    break;
+                }
+                if(type != MessageType.BATCH_STATES)
+                {
+                    throw new IOException(String.format(
+                            "Expected a %s frame, but received a %s frame",
+                            MessageType.BATCH_STATES, type));
+                }
+                final StateBatch batch = server_.decodePayload(StateBatch.class);
+                LOG.debug("Batch client {} received batch {} of {} states", clientId_,
+                        batch.getBatchId(), batch.getEntries().size());
+                server_.send(MessageType.BATCH_ACTIONS, chooseActions(batch));
+            }
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while running batch client {}", clientId_, e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package core.network;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import utils.Validate;
+
+import core.Policy;
+
+/**
+ * A Policy that chooses actions for many states at once, as a
+ * {@link BatchGameClient} is asked to. Policies that evaluate states in bulk
+ * (neural networks, for instance) should implement this directly.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+@FunctionalInterface
+public interface BatchPolicy<S, A>
+{
+    /**
+     * @param states
+     *            States to choose actions for, possibly from different games
+     * @param availableActions
+     *            Actions available in each state, in the same order
+     * @return One chosen action per state, in the same order
+     */
+    List<A> chooseActions(List<S> states, List<Collection<A>> availableActions);
+
+    /**
+     * Adapts a Policy that chooses one action at a time.
+     */
+    static <S, A> BatchPolicy<S, A> of(final Policy<S, A> policy)
+    {
+        Validate.notNull(policy, "Cannot batch a null policy");
+        return (states, availableActions) -> {
+            final List<A> actions = new ArrayList<>(states.size());
+            for(int i = 0; i < states.size(); ++i)
+            {
+                actions.add(policy.chooseAction(states.get(i), availableActions.get(i)));
+            }
+            return actions;
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package core.network;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+import utils.WireCodec;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import core.Player;
+import core.metrics.NetworkMetrics;
+import core.metrics.TurnPhase;
+
+/**
+ * GameListener whose Player is played by a batch client on a {@link GameHub}.
+ * The client may be playing any number of other games at the same time; every
+ * request goes through the client's {@link HubBatchClient}, which sends it
+ * along with whatever other requests are pending in a single
+ * {@link StateBatch}.
+ *
+ * Frames belong to the batch client's connection rather than to any one
+ * listener, so unlike a {@link FramedGameListener} this has no frames of its
+ * own to send or receive.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+final class BatchedGameListener<S, A> extends GameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedGameListener.class);
+
+    private final GameHub hub_;
+    private final HubBatchClient client_;
+    private final String gameId_;
+    private final Player player_;
+
+    BatchedGameListener(final GameHub hub, final HubBatchClient client, final String gameId,
+            final Player player, final Class<A> actionClass)
+    {
+        super(actionClass);
+        hub_ = hub;
+        client_ = client;
+        gameId_ = gameId;
+        player_ = player;
+    }
+
+    /* A late answer completes a future nobody is waiting on, so it needs no skipping */
+    @SuppressWarnings("unchecked")
+    @Override
+    public A requestChooseAction(final S gameState, final Collection<A> availableActions,
+            final long timeout, final TimeUnit unit) throws TimeoutException
+    {
+        final WireCodec codec = client_.getCodec();
+        Validate.isTrue(isConnected() && codec != null, String.format(
+                "Batch client %s is not connected", client_.getClientId()));
+        final NetworkMetrics metrics = NetworkMetrics.global();
+        final long start = System.nanoTime();
+        /* A typed array, so the client can decode it without knowing about generics */
+        final A[] actions = availableActions.toArray((A[]) Array.newInstance(actionType_,
+                availableActions.size()));
+        final StateBatch.Entry entry = new StateBatch.Entry(gameId_, player_, StateBatch.encode(
+                codec, gameState), StateBatch.encode(codec, actions));
+        try
+        {
+            final long sent = metrics.recordSince(TurnPhase.SERIALIZE, start);
+            final ListenableFuture<byte[]> request = client_.submit(entry, codec);
+            final byte[] action = unit.toNanos(timeout) == NO_TIMEOUT ? request.get() : request
+                    .get(timeout, unit);
+            final long received = metrics.recordSince(TurnPhase.ROUND_TRIP, sent);
+            final A chosen = StateBatch.decode(codec, action, actionType_);
+            metrics.recordSince(TurnPhase.DESERIALIZE, received);
+            return chosen;
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(String.format(
+                    "Interrupted while awaiting an action for Player %s of game %s", player_,
+                    gameId_), e);
+        }
+        catch(final ExecutionException e)
+        {
+            LOG.error("Encountered unexpected exception while "
+                    + "attempting to receive an action from batch client {}",
+                    client_.getClientId(), e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /* The batch client sends the state along with the rest of its batch, nothing to send here */
+    @Override
+    public ListenableFuture<A> requestChooseActionAsync(final S gameState,
+            final Collection<A> availableActions, final long timeout, final TimeUnit unit,
+            final Executor executor)
+    {
+        Validate.notNull(executor, "Cannot request an action on a null Executor");
+        final ListenableFutureTask<A> response = ListenableFutureTask.create(
+                () -> requestChooseAction(gameState, availableActions, timeout, unit));
+        executor.execute(response);
+        return response;
+    }
+
+    @Override
+    public void connect()
+    {
+        Futures.getUnchecked(connectionFuture());
+    }
+
+    /* The hub attaches the client from its event loop */
+    @Override
+    public boolean connectBlocks()
+    {
+        return false;
+    }
+
+    @Override
+    public void disconnect()
+    {
+        client_.forget(this);
+        markDisconnected();
+        if(!connectionFuture().isDone())
+        {
+            markConnectionFailed(new IOException(String.format(
+                    "Disconnected before batch client %s connected", client_.getClientId())));
+        }
+        LOG.info("Player {} of game {} released batch client {}", player_, gameId_,
+                client_.getClientId());
+    }
+
+    @Override
+    public int getPort()
+    {
+        return hub_.getPort();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [clientId=%s, gameId=%s, player=%s]",
+                BatchedGameListener.class.getSimpleName(), client_.getClientId(), gameId_,
+                player_);
+    }
+}
@@ -0,0 +1,216 @@
+package core.network;
+
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+import utils.SerializationUtils;
+import utils.Validate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import core.Policy;
+
+/**
+ * Size-bounded cache of the actions a deterministic policy chose, for
+ * {@link GameClient#setDecisionCache(DecisionCache)}. States seen before, like
+ * repeated openings and transpositions, are answered from the cache without
+ * asking the policy at all. Only sound for policies that always choose the
+ * same action in the same state.
+ *
+ * Decisions are remembered as the position of the chosen action among those
+ * available, and answered with the action at that position of the current
+ * turn's collection. Answers are therefore always one of the instances the
+ * caller handed over, which clients that reply with action indices rely on,
+ * but the same state must always offer its actions in the same order.
+ *
+ * Thread safe; clients whose policies would choose alike may share a cache.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public final class DecisionCache<S, A>
+{
+    /**
+     * What states are told apart by
+     */
+    public enum Key
+    {
+        /* The state itself, which must implement equals and hashCode */
+        STATE,
+        /*
+         * A 128 bit hash of the state's JSON. For states without equals and
+         * hashCode; equal states must serialize to the same bytes
+         */
+        SERIALIZED_STATE
+    }
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Cache<Object, Integer> cache_;
+    private final Key key_;
+    /* Counted here, since a cached decision that no longer fits is a miss */
+    private final LongAdder hits_ = new LongAdder();
+    private final LongAdder misses_ = new LongAdder();
+
+    /**
+     * Creates a cache that evicts the least recently used decisions once it
+     * holds the provided number of them.
+     *
+     * @param maximumSize
+     *            Most decisions to hold
+     * @param key
+     *            What states are told apart by
+     */
+    public DecisionCache(final long maximumSize, final Key key)
+    {
+        this(CacheBuilder.newBuilder().maximumSize(validSize(maximumSize)), key);
+    }
+
+    /**
+     * Creates a cache with an eviction policy of your own, such as a maximum
+     * weight, or expiring decisions after a while alongside a maximum size.
+     * The builder should bound the cache's size; an unbounded cache grows with
+     * every state the client sees. It is also told to record stats, so
+     * evictions can be counted, which carries over to any other cache it
+     * builds.
+     *
+     * @param cacheBuilder
+     *            Builder configured with the eviction policy
+     * @param key
+     *            What states are told apart by
+     */
+    public DecisionCache(final CacheBuilder<Object, Object> cacheBuilder, final Key key)
+    {
+        Validate.notNull(cacheBuilder, "Cannot create a DecisionCache from a null CacheBuilder");
+        Validate.notNull(key, "Cannot create a DecisionCache with a null Key");
+        cache_ = cacheBuilder.recordStats().build();
+        key_ = key;
+    }
+
+    private static long validSize(final long maximumSize)
+    {
+        Validate.isTrue(maximumSize > 0, String.format(
+                "Cannot create a DecisionCache holding %d decisions", maximumSize));
+        return maximumSize;
+    }
+
+    /**
+     * Answers from the cache if the state was decided before, otherwise asks
+     * the policy and remembers its decision.
+     *
+     * @param state
+     *            State to choose an action in
+     * @param actions
+     *            Actions available in the state
+     * @param policy
+     *            Policy to ask on a miss
+     * @return The chosen action
+     */
+    public A chooseAction(final S state, final Collection<A> actions, final Policy<S, A> policy)
+    {
+        final Object key = keyFor(state);
+        final Integer cached = cache_.getIfPresent(key);
+        if(cached != null)
+        {
+            if(cached < actions.size())
+            {
+                hits_.increment();
+                return Iterables.get(actions, cached);
+            }
+            /* Fewer actions than when it was decided, so it can't be the same state */
+            cache_.invalidate(key);
+        }
+        misses_.increment();
+        final A chosen = policy.chooseAction(state, actions);
+        final int index = indexOf(chosen, actions);
+        if(index >= 0)
+        {
+            cache_.put(key, index);
+        }
+        return chosen;
+    }
+
+    /* Policies hand back one of the actions they were given, so try identity first */
+    private static <A> int indexOf(final A action, final Collection<A> actions)
+    {
+        if(action == null)
+        {
+            return -1;
+        }
+        int index = 0;
+        for(final A available : actions)
+        {
+            if(available == action)
+            {
+                return index;
+            }
+            ++index;
+        }
+        return Iterables.indexOf(actions, action::equals);
+    }
+
+    private Object keyFor(final S state)
+    {
+        if(key_ == Key.STATE)
+        {
+            return state;
+        }
+        final Hasher hasher = HASH.newHasher();
+        final OutputStream out = Funnels.asOutputStream(hasher);
+        SerializationUtils.writeValue(state, out);
+        return hasher.hash();
+    }
+
+    /**
+     * @return Number of decisions answered from the cache
+     */
+    public long getHits()
+    {
+        return hits_.sum();
+    }
+
+    /**
+     * @return Number of decisions the policy had to be asked for
+     */
+    public long getMisses()
+    {
+        return misses_.sum();
+    }
+
+    /**
+     * @return Number of decisions evicted to keep within the cache's bounds
+     */
+    public long getEvictions()
+    {
+        return cache_.stats().evictionCount();
+    }
+
+    /**
+     * @return Approximate number of decisions held
+     */
+    public long size()
+    {
+        return cache_.size();
+    }
+
+    public void clear()
+    {
+        cache_.invalidateAll();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("DecisionCache [key=%s, size=%d, hits=%d, misses=%d, evictions=%d]",
+                key_, size(), getHits(), getMisses(), getEvictions());
+    }
+}
@@ -0,0 +1,78 @@
+package core.network;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+import utils.Validate;
+
+import core.Player;
+
+/**
+ * Chooses an action on a client's behalf when it doesn't answer within its
+ * turn's deadline (see {@link NetworkAutomator#setTurnTimeout(long,
+ * java.util.concurrent.TimeUnit)}).
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+@FunctionalInterface
+public interface FallbackPolicy<S, A>
+{
+    /**
+     * @param player
+     *            Player whose client timed out
+     * @param state
+     *            State the client was asked about, filtered for the player
+     * @param availableActions
+     *            Actions available to the player in that state
+     * @param previousAction
+     *            Last action the player's client chose itself this game, or
+     *            null if it hasn't chosen one
+     * @return One of the available actions
+     */
+    A chooseAction(Player player, S state, Collection<A> availableActions, A previousAction);
+
+    /**
+     * Picks uniformly at random from the available actions.
+     */
+    static <S, A> FallbackPolicy<S, A> random()
+    {
+        return (player, state, availableActions, previousAction) -> {
+            Validate.isTrue(!availableActions.isEmpty(), String.format(
+                    "Cannot choose a fallback action for Player %s, none are available", player));
+            final Iterator<A> actions = availableActions.iterator();
+            final int chosen = ThreadLocalRandom.current().nextInt(availableActions.size());
+            for(int i = 0; i < chosen; ++i)
+            {
+                actions.next();
+            }
+            return actions.next();
+        };
+    }
+
+    /**
+     * Ends the game instead of choosing, by throwing a {@link ForfeitException}
+     * for the player out of the NetworkAutomator.
+     */
+    static <S, A> FallbackPolicy<S, A> forfeit()
+    {
+        return (player, state, availableActions, previousAction) -> {
+            throw new ForfeitException(player);
+        };
+    }
+
+    /**
+     * Repeats the player's previous choice if it's still available, and
+     * otherwise asks the provided policy.
+     */
+    static <S, A> FallbackPolicy<S, A> previousChoice(final FallbackPolicy<S, A> otherwise)
+    {
+        Validate.notNull(otherwise, "Cannot fall back to a null FallbackPolicy");
+        return (player, state, availableActions, previousAction) -> previousAction != null
+                && availableActions.contains(previousAction) ? previousAction : otherwise
+                .chooseAction(player, state, availableActions, previousAction);
+    }
+}
@@ -0,0 +1,28 @@
+package core.network;
+
+import core.Player;
+
+/**
+ * Thrown out of a {@link NetworkAutomator} whose {@link FallbackPolicy}
+ * forfeits a player that missed its turn's deadline. The game is over, and
+ * the player lost it.
+ *
+ * @author wallstop
+ */
+public class ForfeitException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Player player_;
+
+    public ForfeitException(final Player player)
+    {
+        super(String.format("Player %s forfeited by missing its turn's deadline", player));
+        player_ = player;
+    }
+
+    public Player getPlayer()
+    {
+        return player_;
+    }
+}
@@ -0,0 +1,119 @@
+package core.network;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import utils.WireCodec;
+
+/**
+ * One end of a connection that carries typed frames (see {@link MessageType})
+ * between a {@link GameListener} and a {@link GameClient}. Sockets use a
+ * {@link FramedConnection}; listeners and clients in the same JVM can skip the
+ * network entirely with an {@link InProcessTransport}.
+ *
+ * Not thread safe; one thread may read while another writes, but no more.
+ *
+ * @author wallstop
+ */
+public interface FrameTransport extends Closeable
+{
+    /**
+     * Sends a single frame right away.
+     *
+     * @param type
+     *            Type of the frame
+     * @param value
+     *            Value to send as the frame's payload
+     * @throws IOException
+     *             if the transport could not be written to
+     */
+    void send(MessageType type, Object value) throws IOException;
+
+    /**
+     * Blocks until a complete frame has arrived or the timeout elapses. Its
+     * payload can then be decoded with {@link #decodePayload(Class)} until the
+     * next call to readFrame.
+     *
+     * @param timeout
+     *            Maximum amount of time to wait. Long.MAX_VALUE waits forever
+     * @param unit
+     *            Unit of the timeout
+     * @return The type of the frame, or null if the other side closed the
+     *         transport cleanly between frames
+     * @throws SocketTimeoutException
+     *             if no complete frame arrived in time
+     * @throws IOException
+     *             if the transport could not be read from or the frame is
+     *             garbage
+     */
+    MessageType readFrame(long timeout, TimeUnit unit) throws IOException;
+
+    /**
+     * Blocks until a complete frame has arrived.
+     *
+     * @see #readFrame(long, TimeUnit)
+     */
+    default MessageType readFrame() throws IOException
+    {
+        return readFrame(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Blocks until a complete frame has arrived and decodes its payload.
+     *
+     * @param expected
+     *            Type the frame must have
+     * @param clazz
+     *            Class to decode the payload as
+     * @return The decoded payload
+     * @throws IOException
+     *             if the transport closed, could not be read from, or sent a
+     *             frame of a different type
+     */
+    default <T> T readFrame(final MessageType expected, final Class<T> clazz) throws IOException
+    {
+        final MessageType type = readFrame();
+        if(type == null)
+        {
+            throw new EOFException("Connection closed while awaiting a " + expected + " frame");
+        }
+        if(type != expected)
+        {
+            throw new IOException(String.format("Expected a %s frame, but received a %s frame",
+                    expected, type));
+        }
+        return decodePayload(clazz);
+    }
+
+    /**
+     * Decodes the payload of the frame last returned by {@link #readFrame()}
+     *
+     * @param clazz
+     *            Class to decode the payload as
+     * @return The decoded payload
+     */
+    <T> T decodePayload(Class<T> clazz);
+
+    /**
+     * Copies out the payload of the frame last returned by
+     * {@link #readFrame()} exactly as it was encoded. The payload can still be
+     * decoded afterwards.
+     *
+     * @return The encoded payload
+     */
+    byte[] copyPayload();
+
+    /**
+     * Switches the codec every non-handshake frame is encoded with from now
+     * on.
+     *
+     * @param codec
+     *            Negotiated codec
+     */
+    void setCodec(WireCodec codec);
+
+    WireCodec getCodec();
+}
@@ -0,0 +1,371 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import core.metrics.NetworkMetrics;
+
+/**
+ * A long-lived, blocking, framed connection (see {@link Frames}) over a
+ * ByteChannel. Both directions use a single buffer that is reused for the life
+ * of the connection, so steady-state reads and writes allocate nothing on their
+ * own.
+ *
+ * Writes are coalesced: any number of frames can be written before a single
+ * {@link #flush()} pushes all of them out at once.
+ *
+ * Payloads are encoded with the connection's codec, JSON until another one is
+ * negotiated. Handshake frames are always JSON.
+ *
+ * Reads may also be given a timeout (see {@link #readFrame(long, TimeUnit)}).
+ * Only connections over a SelectableChannel support them; the first timed
+ * read switches the channel to non-blocking mode for good, and every read
+ * after it waits on a Selector instead.
+ *
+ * Not thread safe; one thread may read while another writes, but no more.
+ *
+ * @author wallstop
+ */
+public final class FramedConnection implements FrameTransport
+{
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    private final ByteChannel channel_;
+    private final ByteBufferOutputStream writeStream_;
+    private final ByteBufferInputStream payloadStream_ = new ByteBufferInputStream();
+
+    /* Received bytes live in [0, position), the current frame ends at consumed_ */
+    private ByteBuffer readBuffer_;
+    private int consumed_ = 0;
+    private MessageType frameType_ = null;
+
+    private volatile WireCodec codec_ = SerializationUtils.JSON;
+
+    /* Null until the first timed read */
+    private Selector readSelector_ = null;
+    private volatile Selector writeSelector_ = null;
+    /* Held while flushing and while the channel switches to non-blocking mode */
+    private final Object writeLock_ = new Object();
+
+    public FramedConnection(final ByteChannel channel)
+    {
+        this(channel, DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * @param channel
+     *            Blocking channel to frame
+     * @param bufferSize
+     *            Initial size of the read and write buffers. They will grow to
+     *            fit the largest frame seen.
+     * @param direct
+     *            Whether to use direct buffers
+     */
+    public FramedConnection(final ByteChannel channel, final int bufferSize, final boolean direct)
+    {
+        Validate.notNull(channel, "Cannot frame a null channel");
+        Validate.isTrue(bufferSize >= Frames.HEADER_SIZE, String.format(
+                "Cannot create a FramedConnection with a buffer smaller than %d bytes",
+                Frames.HEADER_SIZE));
+        channel_ = channel;
+        readBuffer_ = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer
+                .allocate(bufferSize);
+        writeStream_ = new ByteBufferOutputStream(direct ? ByteBuffer.allocateDirect(bufferSize)
+                : ByteBuffer.allocate(bufferSize));
+    }
+
+    /**
+     * Buffers a frame holding the provided value. Nothing is sent until
+     * {@link #flush()}.
+     *
+     * @param type
+     *            Type of the frame
+     * @param value
+     *            Value to serialize into the frame's payload
+     * @throws IllegalArgumentException
+     *             if the value could not be serialized, in which case nothing
+     *             is buffered
+     */
+    public void writeFrame(final MessageType type, final Object value)
+    {
+        final int start = Frames.beginFrame(writeStream_, type);
+        try
+        {
+            codecFor(type).writeValue(value, writeStream_);
+        }
+        catch(final RuntimeException e)
+        {
+            writeStream_.buffer().position(start);
+            throw e;
+        }
+        Frames.endFrame(writeStream_.buffer(), start);
+    }
+
+    /**
+     * Sends every buffered frame.
+     *
+     * @throws IOException
+     *             if the channel could not be written to
+     */
+    public void flush() throws IOException
+    {
+        final ByteBuffer buffer = writeStream_.buffer();
+        buffer.flip();
+        NetworkMetrics.global().bytesOut(buffer.remaining());
+        /* Once a timed read has switched modes, the write selector is always set */
+        synchronized(writeLock_)
+        {
+            try
+            {
+                while(buffer.hasRemaining())
+                {
+                    if(channel_.write(buffer) == 0 && writeSelector_ != null)
+                    {
+                        /* Non-blocking since a timed read, wait for room instead of spinning */
+                        writeSelector_.select();
+                        writeSelector_.selectedKeys().clear();
+                    }
+                }
+            }
+            finally
+            {
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Buffers and immediately sends a single frame.
+     */
+    @Override
+    public void send(final MessageType type, final Object value) throws IOException
+    {
+        writeFrame(type, value);
+        flush();
+    }
+
+    /**
+     * Blocks until a complete frame has arrived. Its payload is then available
+     * via {@link #payload()} until the next call to readFrame.
+     *
+     * @return The type of the frame, or null if the other side closed the
+     *         connection cleanly between frames
+     * @throws IOException
+     *             if the channel could not be read from, it closed mid-frame,
+     *             or the frame is garbage
+     */
+    @Override
+    public MessageType readFrame() throws IOException
+    {
+        return readFrame(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Blocks until a complete frame has arrived or the timeout elapses. Its
+     * payload is then available via {@link #payload()} until the next call to
+     * readFrame. A partial frame that doesn't arrive in time is kept, and
+     * completed by the next read.
+     *
+     * @param timeout
+     *            Maximum amount of time to wait. Long.MAX_VALUE waits forever
+     * @param unit
+     *            Unit of the timeout
+     * @return The type of the frame, or null if the other side closed the
+     *         connection cleanly between frames
+     * @throws SocketTimeoutException
+     *             if no complete frame arrived in time
+     * @throws IOException
+     *             if the channel could not be read from, it closed mid-frame,
+     *             or the frame is garbage
+     */
+    @Override
+    public MessageType readFrame(final long timeout, final TimeUnit unit) throws IOException
+    {
+        Validate.isTrue(timeout >= 0, "Cannot read a frame with a negative timeout");
+        Validate.notNull(unit, "Cannot read a frame with a null TimeUnit");
+        final long timeoutNanos = unit.toNanos(timeout);
+        final boolean timed = timeoutNanos != Long.MAX_VALUE;
+        if(timed && readSelector_ == null)
+        {
+            enableTimedReads();
+        }
+        final long deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+
+        Frames.discard(readBuffer_, consumed_);
+        consumed_ = 0;
+        frameType_ = null;
+
+        int frameEnd;
+        while((frameEnd = Frames.frameEnd(readBuffer_, 0, readBuffer_.position())) < 0)
+        {
+            if(readBuffer_.position() >= Frames.HEADER_SIZE)
+            {
+                ensureCapacity(Frames.frameSize(readBuffer_, 0));
+            }
+            if(readSelector_ != null && !awaitReadable(timed, deadline))
+            {
+                throw new SocketTimeoutException(String.format(
+                        "No frame arrived within %d %s", timeout, unit));
+            }
+            final int read = channel_.read(readBuffer_);
+            if(read < 0)
+            {
+                if(readBuffer_.position() == 0)
+                {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            NetworkMetrics.global().bytesIn(read);
+        }
+
+        payloadStream_.wrap(readBuffer_, Frames.HEADER_SIZE, frameEnd);
+        consumed_ = frameEnd;
+        frameType_ = Frames.type(readBuffer_, 0);
+        return frameType_;
+    }
+
+    private void enableTimedReads() throws IOException
+    {
+        Validate.isTrue(channel_ instanceof SelectableChannel, String.format(
+                "Cannot time reads on a %s", channel_.getClass().getSimpleName()));
+        final SelectableChannel channel = (SelectableChannel) channel_;
+        final Selector readSelector = Selector.open();
+        final Selector writeSelector = Selector.open();
+        /* Channels only register while non-blocking, so no flush may see one without the other */
+        synchronized(writeLock_)
+        {
+            channel.configureBlocking(false);
+            channel.register(readSelector, SelectionKey.OP_READ);
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+            writeSelector_ = writeSelector;
+        }
+        readSelector_ = readSelector;
+    }
+
+    /* Returns false if the deadline passed first */
+    private boolean awaitReadable(final boolean timed, final long deadline) throws IOException
+    {
+        while(true)
+        {
+            final int ready;
+            if(timed)
+            {
+                final long remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                {
+                    ready = readSelector_.selectNow();
+                    readSelector_.selectedKeys().clear();
+                    return ready > 0;
+                }
+                /* select(0) would wait forever, so wait at least a millisecond */
+                ready = readSelector_.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+            else
+            {
+                ready = readSelector_.select();
+            }
+            readSelector_.selectedKeys().clear();
+            if(ready > 0)
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decodes the payload of the frame last returned by {@link #readFrame()}
+     *
+     * @param clazz
+     *            Class to decode the payload as
+     * @return The decoded payload
+     */
+    @Override
+    public <T> T decodePayload(final Class<T> clazz)
+    {
+        Validate.notNull(frameType_, "Cannot decode a payload before reading a frame");
+        return codecFor(frameType_).readValue(payloadStream_, clazz);
+    }
+
+    /**
+     * @return Stream over the raw payload of the frame last returned by
+     *         {@link #readFrame()}
+     */
+    public InputStream payload()
+    {
+        return payloadStream_;
+    }
+
+    /**
+     * Switches the codec every non-handshake frame is encoded with from now
+     * on.
+     *
+     * @param codec
+     *            Negotiated codec
+     */
+    @Override
+    public byte[] copyPayload()
+    {
+        Validate.notNull(frameType_, "Cannot copy a payload before reading a frame");
+        return payloadStream_.copyRemaining();
+    }
+
+    @Override
+    public void setCodec(final WireCodec codec)
+    {
+        Validate.notNull(codec, "Cannot frame with a null codec");
+        codec_ = codec;
+    }
+
+    @Override
+    public WireCodec getCodec()
+    {
+        return codec_;
+    }
+
+    private WireCodec codecFor(final MessageType type)
+    {
+        return Frames.codecFor(type, codec_);
+    }
+
+    private void ensureCapacity(final int capacity)
+    {
+        if(readBuffer_.capacity() >= capacity)
+        {
+            return;
+        }
+        final ByteBuffer grown = readBuffer_.isDirect() ? ByteBuffer.allocateDirect(capacity)
+                : ByteBuffer.allocate(capacity);
+        readBuffer_.flip();
+        grown.put(readBuffer_);
+        readBuffer_ = grown;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel_.close();
+        if(readSelector_ != null)
+        {
+            readSelector_.close();
+        }
+        if(writeSelector_ != null)
+        {
+            writeSelector_.close();
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package core.network;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+import core.metrics.NetworkMetrics;
+import core.metrics.TurnPhase;
+
+/**
+ * GameListener whose client has a connection of its own, over which states
+ * and actions travel one frame (see {@link Frames}) at a time.
+ *
+ * Subclasses only need to decide how a client is attached and how frames
+ * move over the wire; the request/response semantics of
+ * {@link #requestChooseAction(Object)} are the same for all of them.
+ *
+ * With a keyframe interval set (see {@link #setKeyframeInterval(int)}) and a
+ * client that agreed to {@link Handshake#DELTA_STATES}, only the first state
+ * and every keyframe interval-th state after it are sent in full, as plain
+ * {@link MessageType#STATE} frames. Every other state is sent as a change
+ * against the previous one. Without an interval, every state is sent in full.
+ *
+ * If a {@link StateDiffer} is registered for the state's class and the client
+ * agreed to {@link Handshake#STATE_PATCHES}, changes are sent as the differ's
+ * diffs, and the state is never encoded in full between keyframes. Otherwise
+ * they are sent as {@link StateDelta}s against the previous state's encoding,
+ * which the listener keeps in one of two buffers it swaps every state. Byte
+ * deltas still encode every state in full to diff it, so they save bandwidth
+ * rather than CPU.
+ *
+ * A client that agreed to {@link Handshake#ACTION_INDICES} is sent the actions
+ * available in each state, in order, and answers with the index of the one it
+ * chose. Its answers are then never deserialized into actions, and are
+ * validated with a bounds check; see {@link #sendsActionIndices()}.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public abstract class FramedGameListener<S, A> extends GameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FramedGameListener.class);
+    private static final int INITIAL_STATE_BUFFER_SIZE = 256;
+
+    /* 0 disables deltas */
+    private volatile int keyframeInterval_ = 0;
+    private volatile boolean deltaStates_ = false;
+    /*
+     * Last state the client was sent, in full or as a delta, as the client's
+     * codec wrote it up to the buffer's position. Null if the client has none
+     */
+    private volatile ByteBufferOutputStream lastState_ = null;
+    /* Where the next state is encoded, becoming lastState_ once it's sent */
+    private ByteBufferOutputStream nextState_ = null;
+    private volatile WireCodec codec_ = SerializationUtils.JSON;
+    private long sequence_ = 0;
+    private volatile boolean statePatches_ = false;
+    /* What the last diff was taken to, as the StateDiffer retained it. Null if none was */
+    private volatile S lastPatched_ = null;
+    /* The state whose answer is awaited, resent in full if the client asks */
+    private volatile S lastSent_ = null;
+
+    private volatile boolean actionIndices_ = false;
+    /* Actions the client was last sent, which its ACTION_INDEX answers index into */
+    private volatile A[] lastActions_ = null;
+
+    /* Requests that timed out, whose answers are still to arrive */
+    private int lateResponses_ = 0;
+
+    protected FramedGameListener(final Class<A> actionClass)
+    {
+        super(actionClass);
+    }
+
+    public A requestChooseAction(final S gameState)
+    {
+        try
+        {
+            return requestChooseAction(gameState, null, NO_TIMEOUT);
+        }
+        catch(final TimeoutException e)
+        {
+            throw new IllegalStateException("Timed out on a request without a timeout", e);
+        }
+    }
+
+    private A requestChooseAction(final S gameState, final Collection<A> availableActions,
+            final long timeoutNanos) throws TimeoutException
+    {
+        Validate.isTrue(isConnected(), "Cannot make transactions with a null client connection");
+        final long start = System.nanoTime();
+        writeStateToClient(gameState, availableActions);
+        final long sent = NetworkMetrics.global().recordSince(TurnPhase.SERIALIZE, start);
+        final A action = readResponseFromClient(sent, timeoutNanos);
+        return action;
+    }
+
+    /* A late answer is dropped when it arrives, so the next request gets its own */
+    @Override
+    public A requestChooseAction(final S gameState, final Collection<A> availableActions,
+            final long timeout, final TimeUnit unit) throws TimeoutException
+    {
+        Validate.isTrue(timeout >= 0, "Cannot request an action with a negative timeout");
+        Validate.notNull(unit, "Cannot request an action with a null TimeUnit");
+        return requestChooseAction(gameState, availableActions, unit.toNanos(timeout));
+    }
+
+    /* Sends the state right away, on the calling thread */
+    @Override
+    public ListenableFuture<A> requestChooseActionAsync(final S gameState,
+            final Collection<A> availableActions, final long timeout, final TimeUnit unit,
+            final Executor executor)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot request an action with a negative timeout");
+        Validate.notNull(unit, "Cannot request an action with a null TimeUnit");
+        Validate.notNull(executor, "Cannot request an action on a null Executor");
+        Validate.isTrue(isConnected(), "Cannot make transactions with a null client connection");
+        final long timeoutNanos = unit.toNanos(timeout);
+        final long start = System.nanoTime();
+        writeStateToClient(gameState, availableActions);
+        final long sent = NetworkMetrics.global().recordSince(TurnPhase.SERIALIZE, start);
+        final long deadline = sent + timeoutNanos;
+        final ListenableFutureTask<A> response = ListenableFutureTask.create(
+                () -> readResponseFromClient(sent, timeoutNanos == NO_TIMEOUT ? NO_TIMEOUT
+                        : Math.max(0, deadline - System.nanoTime())));
+        executor.execute(response);
+        return response;
+    }
+
+    private void writeStateToClient(final S gameState, final Collection<A> availableActions)
+    {
+        try
+        {
+            if(actionIndices_)
+            {
+                Validate.notNull(availableActions, String.format(
+                        "Cannot request an action index for %s without the available actions",
+                        gameState));
+                sendActions(availableActions);
+            }
+            /* Read once per state, so the interval can change mid-game */
+            final int keyframeInterval = keyframeInterval_;
+            if(!deltaStates_ || keyframeInterval <= 1)
+            {
+                lastState_ = null;
+                lastPatched_ = null;
+                lastSent_ = null;
+                sendFrame(MessageType.STATE, gameState);
+                return;
+            }
+            lastSent_ = gameState;
+
+            @SuppressWarnings("unchecked")
+            final StateDiffer<S, ?> differ = statePatches_ ? StateDiffers
+                    .forClass((Class<? extends S>) gameState.getClass()) : null;
+            if(differ != null)
+            {
+                lastState_ = null;
+                sendPatch(differ, gameState, keyframeInterval);
+                return;
+            }
+            lastPatched_ = null;
+
+            final ByteBufferOutputStream lastState = lastState_;
+            final ByteBufferOutputStream state = nextState_ != null ? nextState_
+                    : new ByteBufferOutputStream(ByteBuffer.allocate(INITIAL_STATE_BUFFER_SIZE));
+            state.buffer().clear();
+            codec_.writeValue(gameState, state);
+            /* The buffers swap, so the one just written is diffed against next turn */
+            nextState_ = lastState;
+            lastState_ = state;
+            if(lastState == null || sequence_ + 1 >= keyframeInterval)
+            {
+                /* Encoded again by the frame, to the same bytes the client will keep */
+                sendKeyframe(gameState);
+                return;
+            }
+            ++sequence_;
+            final ByteBuffer before = lastState.buffer();
+            final ByteBuffer after = state.buffer();
+            sendFrame(MessageType.STATE_DELTA, StateDelta.between(before.array(), before
+                    .position(), after.array(), after.position(), sequence_));
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Encountered unexpected exception while writing {} out to the client",
+                    gameState, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sendActions(final Collection<A> availableActions) throws IOException
+    {
+        /* A typed array, so clients can decode it without knowing about generics */
+        final A[] actions = availableActions.toArray((A[]) Array.newInstance(actionType_,
+                availableActions.size()));
+        lastActions_ = actions;
+        sendFrame(MessageType.ACTIONS, actions);
+    }
+
+    private <D> void sendPatch(final StateDiffer<S, D> differ, final S gameState,
+            final int keyframeInterval) throws IOException
+    {
+        final S lastPatched = lastPatched_;
+        final D diff = lastPatched == null || sequence_ + 1 >= keyframeInterval ? null : differ
+                .diff(lastPatched, gameState);
+        lastPatched_ = differ.retain(gameState);
+        if(diff == null)
+        {
+            sendKeyframe(gameState);
+            return;
+        }
+        ++sequence_;
+        sendFrame(MessageType.STATE_PATCH, diff);
+    }
+
+    /* Whatever the client had, it starts over from this state */
+    private void sendKeyframe(final S gameState) throws IOException
+    {
+        sequence_ = 0;
+        sendFrame(MessageType.STATE, gameState);
+    }
+
+    private A readResponseFromClient(final long sentNanos, final long timeoutNanos)
+            throws TimeoutException
+    {
+        final NetworkMetrics metrics = NetworkMetrics.global();
+        final long deadline = System.nanoTime() + timeoutNanos;
+        try
+        {
+            while(true)
+            {
+                final MessageType type = receiveFrame(timeoutNanos == NO_TIMEOUT ? NO_TIMEOUT
+                        : Math.max(0, deadline - System.nanoTime()));
+                /* Every state gets exactly one ACTION or RESYNC, late ones are skipped */
+                if(lateResponses_ > 0 && isAnswer(type))
+                {
+                    --lateResponses_;
+                    continue;
+                }
+                if(type == MessageType.ACTION)
+                {
+                    final long received = metrics.recordSince(TurnPhase.ROUND_TRIP, sentNanos);
+                    final A action = decodeFrame(actionType_);
+                    metrics.recordSince(TurnPhase.DESERIALIZE, received);
+                    return action;
+                }
+                if(type == MessageType.ACTION_INDEX && actionIndices_)
+                {
+                    final long received = metrics.recordSince(TurnPhase.ROUND_TRIP, sentNanos);
+                    final A action = actionAt(decodeFrame(Integer.class));
+                    metrics.recordSince(TurnPhase.DESERIALIZE, received);
+                    return action;
+                }
+                final S lastSent = lastSent_;
+                if(type != MessageType.RESYNC || lastSent == null)
+                {
+                    throw new IOException(String.format(
+                            "Expected a %s frame, but received a %s frame", MessageType.ACTION,
+                            type));
+                }
+                LOG.info("Client could not apply delta {}, resending the full state", sequence_);
+                sendKeyframe(lastSent);
+            }
+        }
+        catch(final SocketTimeoutException e)
+        {
+            ++lateResponses_;
+            throw new TimeoutException(String.format("Client did not answer within %dns",
+                    timeoutNanos));
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Encountered unexpected exception while "
+                    + "attempting to receive an action response from client", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private A actionAt(final Integer index) throws IOException
+    {
+        final A[] actions = lastActions_;
+        if(index == null || index < 0 || index >= actions.length)
+        {
+            throw new IOException(String.format(
+                    "Client chose action index %s, but only %d actions were available", index,
+                    actions.length));
+        }
+        return actions[index];
+    }
+
+    @Override
+    public boolean sendsActionIndices()
+    {
+        return actionIndices_;
+    }
+
+    /**
+     * @return True for the frames a client answers each state with
+     */
+    static boolean isAnswer(final MessageType type)
+    {
+        return type == MessageType.ACTION || type == MessageType.ACTION_INDEX
+                || type == MessageType.RESYNC;
+    }
+
+    /**
+     * @return Number of requests that timed out whose answers haven't been
+     *         received yet. Some of them may have arrived already
+     */
+    int getLateResponses()
+    {
+        return lateResponses_;
+    }
+
+    /**
+     * Sets how often a full state is sent to a client that accepts deltas.
+     * Takes effect from the next state sent, whether the client is connected
+     * yet or not.
+     *
+     * @param keyframeInterval
+     *            A full state is sent at least once every this many states. 0
+     *            (the default) sends every state in full
+     */
+    public void setKeyframeInterval(final int keyframeInterval)
+    {
+        Validate.isTrue(keyframeInterval >= 0, String.format(
+                "Cannot have a negative keyframe interval, was %d", keyframeInterval));
+        keyframeInterval_ = keyframeInterval;
+    }
+
+    public int getKeyframeInterval()
+    {
+        return keyframeInterval_;
+    }
+
+    /**
+     * Negotiates a codec and the optional features for a newly connected
+     * client. Subclasses should answer the client's handshake with the result.
+     *
+     * @param handshake
+     *            Handshake the client opened with
+     * @return The response to send back
+     */
+    protected HandshakeResponse acceptHandshake(final Handshake handshake)
+    {
+        final WireCodec codec = SerializationUtils.negotiateCodec(handshake.getCodecs());
+        final List<String> features = new ArrayList<>();
+        /* Whether deltas are actually sent is up to the interval as each state goes out */
+        deltaStates_ = handshake.getFeatures().contains(Handshake.DELTA_STATES);
+        if(deltaStates_)
+        {
+            features.add(Handshake.DELTA_STATES);
+        }
+        /* Whether patches are actually sent is up to whether the states have a StateDiffer */
+        statePatches_ = deltaStates_ && handshake.getFeatures().contains(Handshake.STATE_PATCHES);
+        if(statePatches_)
+        {
+            features.add(Handshake.STATE_PATCHES);
+        }
+        actionIndices_ = handshake.getFeatures().contains(Handshake.ACTION_INDICES);
+        if(actionIndices_)
+        {
+            features.add(Handshake.ACTION_INDICES);
+        }
+        codec_ = codec;
+        lastState_ = null;
+        lastPatched_ = null;
+        lastSent_ = null;
+        lastActions_ = null;
+        return new HandshakeResponse(codec.name(), features);
+    }
+
+    /**
+     * Reads the handshake a client opens with off a transport that belongs to
+     * it alone, answers it and switches the transport to the negotiated codec.
+     *
+     * @param client
+     *            Transport to the client
+     * @throws IOException
+     *             if the client closed or didn't open with a handshake
+     */
+    protected void handshake(final FrameTransport client) throws IOException
+    {
+        final Handshake handshake = client.readFrame(MessageType.HANDSHAKE, Handshake.class);
+        final HandshakeResponse response = acceptHandshake(handshake);
+        client.send(MessageType.HANDSHAKE_RESPONSE, response);
+        client.setCodec(SerializationUtils.codec(response.getCodec()));
+        LOG.info("Received {} on port {}, answered with {}", handshake, getPort(), response);
+    }
+
+    /**
+     * Sends a single frame holding the provided value to the client.
+     *
+     * @param type
+     *            Type of the frame
+     * @param value
+     *            Non-null value to send
+     * @throws IOException
+     *             if the underlying connection could not be written to
+     */
+    protected abstract void sendFrame(final MessageType type, final Object value)
+            throws IOException;
+
+    /**
+     * Blocks until the client has sent a single, complete frame. Its payload
+     * can then be decoded with {@link #decodeFrame(Class)} until the next call
+     * to receiveFrame.
+     *
+     * @param timeoutNanos
+     *            Maximum amount of time to wait, or {@link #NO_TIMEOUT}
+     * @return Type of the frame
+     * @throws SocketTimeoutException
+     *             if no frame arrived in time
+     * @throws IOException
+     *             if the underlying connection could not be read from or was
+     *             closed
+     */
+    protected abstract MessageType receiveFrame(final long timeoutNanos) throws IOException;
+
+    /**
+     * Decodes the payload of the frame last returned by
+     * {@link #receiveFrame(long)}.
+     *
+     * @param clazz
+     *            Class to decode the frame's payload as
+     * @return The value the client sent
+     */
+    protected abstract <T> T decodeFrame(final Class<T> clazz);
+}
@@ -0,0 +1,200 @@
+package core.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.WireCodec;
+
+/**
+ * Helpers for the wire format shared by every connection. A frame is
+ *
+ * <pre>
+ * +-------------------------+-------------+---------------------+
+ * | payload length (int32)  | type (int8) | payload (length B)  |
+ * +-------------------------+-------------+---------------------+
+ * </pre>
+ *
+ * where the length is big-endian and does not include the 5 byte header, and
+ * the type is one of {@link MessageType}. All index arguments are absolute, so
+ * none of these touch a buffer's position or limit unless they say so.
+ *
+ * @author wallstop
+ */
+public final class Frames
+{
+    public static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES;
+
+    /* Anything larger than this is considered garbage on the wire */
+    public static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    private Frames()
+    {
+    }
+
+    /**
+     * Reserves room for a frame header at the stream's current position. Write
+     * the payload to the stream afterwards, then call
+     * {@link #endFrame(ByteBuffer, int)}.
+     *
+     * @param out
+     *            Stream to write the frame into
+     * @param type
+     *            Type of the frame
+     * @return Absolute index of the start of the frame
+     */
+    public static int beginFrame(final ByteBufferOutputStream out, final MessageType type)
+    {
+        out.ensureRemaining(HEADER_SIZE);
+        final ByteBuffer buffer = out.buffer();
+        final int start = buffer.position();
+        buffer.putInt(0);
+        buffer.put(type.id());
+        return start;
+    }
+
+    /**
+     * Fills in the length of a frame started by
+     * {@link #beginFrame(ByteBufferOutputStream, MessageType)}, assuming the
+     * payload ends at the buffer's position.
+     *
+     * @param buffer
+     *            Buffer the frame was written into
+     * @param start
+     *            Index returned from beginFrame
+     */
+    public static void endFrame(final ByteBuffer buffer, final int start)
+    {
+        final int payloadLength = buffer.position() - start - HEADER_SIZE;
+        if(payloadLength > MAX_PAYLOAD_SIZE)
+        {
+            buffer.position(start);
+            throw new IllegalArgumentException(String.format(
+                    "Cannot send a frame of %d bytes, the maximum is %d", payloadLength,
+                    MAX_PAYLOAD_SIZE));
+        }
+        buffer.putInt(start, payloadLength);
+    }
+
+    /**
+     * Determines whether a complete frame starts at the provided index.
+     *
+     * @param buffer
+     *            Buffer holding received bytes
+     * @param start
+     *            Index the frame starts at
+     * @param end
+     *            Index one past the last received byte
+     * @return Index one past the end of the frame if it is complete, -1
+     *         otherwise
+     * @throws IOException
+     *             if the frame header is garbage
+     */
+    public static int frameEnd(final ByteBuffer buffer, final int start, final int end)
+            throws IOException
+    {
+        if(end - start < HEADER_SIZE)
+        {
+            return -1;
+        }
+        final int frameEnd = start + frameSize(buffer, start);
+        return frameEnd <= end ? frameEnd : -1;
+    }
+
+    /**
+     * @param buffer
+     *            Buffer holding at least a frame header at start
+     * @param start
+     *            Index the frame starts at
+     * @return Total size of the frame, including its header
+     * @throws IOException
+     *             if the frame header is garbage
+     */
+    public static int frameSize(final ByteBuffer buffer, final int start) throws IOException
+    {
+        final int payloadLength = buffer.getInt(start);
+        if(payloadLength < 0 || payloadLength > MAX_PAYLOAD_SIZE)
+        {
+            throw new IOException(String.format("Received a frame with an invalid length of %d",
+                    payloadLength));
+        }
+        return HEADER_SIZE + payloadLength;
+    }
+
+    /**
+     * @param buffer
+     *            Buffer holding at least a frame header at start
+     * @param start
+     *            Index the frame starts at
+     * @return The type of the frame
+     * @throws IOException
+     *             if the frame is tagged with an unknown type
+     */
+    public static MessageType type(final ByteBuffer buffer, final int start) throws IOException
+    {
+        final byte id = buffer.get(start + Integer.BYTES);
+        final MessageType type = MessageType.fromId(id);
+        if(type == null)
+        {
+            throw new IOException(String.format("Received a frame with unknown type %d", id));
+        }
+        return type;
+    }
+
+    /**
+     * Drops everything before the provided index, moving the rest of the data
+     * to the front of the buffer. The buffer is expected to be in "write mode",
+     * with its position one past the last received byte.
+     *
+     * @param buffer
+     *            Buffer to compact
+     * @param consumed
+     *            Index of the first byte to keep
+     */
+    public static void discard(final ByteBuffer buffer, final int consumed)
+    {
+        if(consumed == 0)
+        {
+            return;
+        }
+        buffer.limit(buffer.position());
+        buffer.position(consumed);
+        buffer.compact();
+    }
+
+    /**
+     * Copies the frame between start and end of source onto the end of the
+     * destination stream. Source's position and limit are left as they were.
+     */
+    public static void copyFrame(final ByteBuffer source, final int start, final int end,
+            final ByteBufferOutputStream destination)
+    {
+        destination.ensureRemaining(end - start);
+        final int position = source.position();
+        final int limit = source.limit();
+        source.limit(end);
+        source.position(start);
+        destination.buffer().put(source);
+        source.limit(limit);
+        source.position(position);
+    }
+
+    /**
+     * @param type
+     *            Type of a frame
+     * @param negotiated
+     *            Codec the connection negotiated
+     * @return The codec frames of that type are encoded with on the
+     *         connection. Handshakes are always JSON and deltas always in
+     *         {@link StateDelta#CODEC their own format}
+     */
+    public static WireCodec codecFor(final MessageType type, final WireCodec negotiated)
+    {
+        if(type.isHandshake())
+        {
+            return SerializationUtils.JSON;
+        }
+        return type == MessageType.STATE_DELTA ? StateDelta.CODEC : negotiated;
+    }
+}
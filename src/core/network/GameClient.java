@@ -1,119 +1,680 @@
 package core.network;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.Socket;
+import java.lang.reflect.Array;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import utils.NetworkUtils;
 import utils.SerializationUtils;
 import utils.Validate;
+import utils.WireCodec;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
 import core.Player;
 import core.Policy;
 import core.Rules;
+import core.Score;
 
 public class GameClient<S, A, R extends Rules<S, A>> implements Runnable
 {
     private static final Logger LOG = LoggerFactory.getLogger(GameClient.class);
 
+    /* Binary first; the server falls back to JSON if it doesn't know Smile */
+    public static final List<String> DEFAULT_CODECS = ImmutableList.of(
+            SerializationUtils.SMILE.name(), SerializationUtils.JSON.name());
+    /* Optional protocol features this client knows how to handle */
+    public static final List<String> FEATURES = ImmutableList.of(Handshake.DELTA_STATES);
+    /* Session clients also understand GAME_START, GAME_END and SHUTDOWN frames */
+    public static final List<String> SESSION_FEATURES = ImmutableList.of(Handshake.DELTA_STATES,
+            Handshake.SESSIONS);
+    /* Clients without Rules are handed the available actions and answer with indices */
+    public static final List<String> INDEX_FEATURES = ImmutableList.of(Handshake.DELTA_STATES,
+            Handshake.ACTION_INDICES);
+    public static final List<String> INDEX_SESSION_FEATURES = ImmutableList.of(
+            Handshake.DELTA_STATES, Handshake.SESSIONS, Handshake.ACTION_INDICES);
+
     private final Policy<S, A> policy_;
-    private final Socket server_;
+    /* Lives as long as the client, so nothing it buffered is lost */
+    private final FrameTransport server_;
     private final Class<S> stateClass_;
+    /* Null for clients that work out the available actions with their Rules */
+    private final Class<A[]> actionsClass_;
     private final R rules_;
 
-    public GameClient(final R rules, final Policy<S, A> policy, final int port,
+    /* Set if the server may send deltas, which apply against lastState_ */
+    private boolean deltaStates_ = false;
+    /* Encoding of the last state, as the server sent it */
+    private byte[] lastState_ = null;
+    private long sequence_ = 0;
+    /* Set if the server may send patches, which stateDiffer_ applies against lastPatched_ */
+    private boolean statePatches_ = false;
+    private final StateDiffer<S, ?> stateDiffer_;
+    private S lastPatched_ = null;
+
+    /* Set if the server sends the available actions, and takes indices into them */
+    private boolean actionIndices_ = false;
+    private A[] actions_ = null;
+
+    private final AtomicLong gamesPlayed_ = new AtomicLong(0);
+    private final Multiset<Score> scores_ = ConcurrentHashMultiset.create();
+    private volatile boolean shuttingDown_ = false;
+    /* Null unless decisions are cached */
+    private volatile DecisionCache<S, A> decisionCache_ = null;
+
+    public GameClient(final R rules, final Policy<S, A> policy, final String host,
+            final int port, final Class<S> stateClass)
+    {
+        this(rules, policy, host, port, stateClass, null, null, DEFAULT_CODECS);
+    }
+
+    /**
+     * Creates a client for a game hosted on a {@link GameHub}. The client
+     * immediately handshakes as the provided player of the provided game.
+     *
+     * @param rules
+     * @param policy
+     * @param host
+     *            Host the GameHub runs on
+     * @param port
+     *            Port the GameHub is listening on
+     * @param stateClass
+     * @param gameId
+     *            Id of the game to join, see {@link NetworkAutomator#getGameId()}
+     * @param player
+     *            Player to join the game as
+     */
+    public GameClient(final R rules, final Policy<S, A> policy, final String host,
+            final int port, final Class<S> stateClass, final String gameId, final Player player)
+    {
+        this(rules, policy, host, port, stateClass, gameId, player, DEFAULT_CODECS);
+    }
+
+    /**
+     * Creates a session client for a game hosted on a {@link GameHub}. Once
+     * running, the client plays every game the hub assigns to the session, one
+     * after another over this one connection, until the hub tells it to shut
+     * down.
+     *
+     * @param rules
+     * @param policy
+     * @param host
+     *            Host the GameHub runs on
+     * @param port
+     *            Port the GameHub is listening on
+     * @param stateClass
+     * @param sessionId
+     *            Id of the session, see
+     *            {@link GameHub#newSessionListener(String, String, Player, Class)}
+     */
+    public GameClient(final R rules, final Policy<S, A> policy, final String host,
+            final int port, final Class<S> stateClass, final String sessionId)
+    {
+        this(rules, policy, connect(host, port), stateClass, null, new Handshake(sessionId,
+                DEFAULT_CODECS, SESSION_FEATURES));
+    }
+
+    /**
+     * Creates a session client that joins the {@link Lobby} of a
+     * {@link GameHub}. Once running, the client plays every game the lobby
+     * matches it into, one after another over this one connection, until the
+     * lobby shuts down.
+     *
+     * @param rules
+     *            Rules of every game named
+     * @param policy
+     * @param host
+     *            Host the GameHub runs on
+     * @param port
+     *            Port the GameHub is listening on
+     * @param stateClass
+     * @param lobbyGames
+     *            Names of the games to wait in line for
+     */
+    public GameClient(final R rules, final Policy<S, A> policy, final String host,
+            final int port, final Class<S> stateClass, final List<String> lobbyGames)
+    {
+        this(rules, policy, connect(host, port), stateClass, null, new Handshake(UUID
+                .randomUUID().toString(), lobbyGames, DEFAULT_CODECS, SESSION_FEATURES));
+    }
+
+    /**
+     * Creates a client and handshakes with the server on the provided host
+     * and port. Blocks until the server has answered the handshake.
+     *
+     * @param rules
+     * @param policy
+     * @param host
+     *            Host the server runs on
+     * @param port
+     *            Port the server is listening on
+     * @param stateClass
+     * @param gameId
+     *            Id of the game to join if the server is a {@link GameHub},
+     *            null otherwise
+     * @param player
+     *            Player to join the game as if the server is a GameHub, null
+     *            otherwise
+     * @param codecs
+     *            Names of the codecs this client is willing to use, most
+     *            preferred first
+     */
+    public GameClient(final R rules, final Policy<S, A> policy, final String host,
+            final int port, final Class<S> stateClass, final String gameId, final Player player,
+            final List<String> codecs)
+    {
+        this(rules, policy, connect(host, port), stateClass, null, gameId == null
+                ? new Handshake(codecs, FEATURES)
+                : new Handshake(gameId, player, codecs, FEATURES));
+    }
+
+    /**
+     * Creates a client that needs no Rules: the server hands it the actions
+     * available in every state, and it answers with the index of the one its
+     * policy chose (see {@link Handshake#ACTION_INDICES}). Blocks until the
+     * server has answered the handshake.
+     *
+     * The policy should choose one of the very actions it is handed. Any other
+     * action is looked up among them by equals, so actions that don't
+     * implement it are rejected.
+     *
+     * @param policy
+     * @param host
+     *            Host the server runs on
+     * @param port
+     *            Port the server is listening on
+     * @param stateClass
+     * @param actionClass
+     *            Class of the game's actions
+     * @param gameId
+     *            Id of the game to join if the server is a {@link GameHub},
+     *            null otherwise
+     * @param player
+     *            Player to join the game as if the server is a GameHub, null
+     *            otherwise
+     */
+    public GameClient(final Policy<S, A> policy, final String host, final int port,
+            final Class<S> stateClass, final Class<A> actionClass, final String gameId,
+            final Player player)
+    {
+        this(null, policy, connect(host, port), stateClass, actionClass, gameId == null
+                ? new Handshake(DEFAULT_CODECS, INDEX_FEATURES) : new Handshake(gameId, player,
+                        DEFAULT_CODECS, INDEX_FEATURES));
+    }
+
+    /**
+     * Creates a session client that needs no Rules, see
+     * {@link #GameClient(Policy, String, int, Class, Class, String, Player)} and
+     * {@link #GameClient(Rules, Policy, String, int, Class, String)}.
+     *
+     * @param policy
+     * @param host
+     *            Host the GameHub runs on
+     * @param port
+     *            Port the GameHub is listening on
+     * @param stateClass
+     * @param actionClass
+     *            Class of the game's actions
+     * @param sessionId
+     *            Id of the session, see
+     *            {@link GameHub#newSessionListener(String, String, Player, Class)}
+     */
+    public GameClient(final Policy<S, A> policy, final String host, final int port,
+            final Class<S> stateClass, final Class<A> actionClass, final String sessionId)
+    {
+        this(null, policy, connect(host, port), stateClass, actionClass, new Handshake(sessionId,
+                DEFAULT_CODECS, INDEX_SESSION_FEATURES));
+    }
+
+    /**
+     * Creates a client on an already open transport, such as the client end of
+     * an {@link InProcessGameListener}, and handshakes over it. Blocks until
+     * the server has answered the handshake.
+     *
+     * @param rules
+     * @param policy
+     * @param transport
+     *            Transport to the server
+     * @param stateClass
+     */
+    public GameClient(final R rules, final Policy<S, A> policy, final FrameTransport transport,
             final Class<S> stateClass)
     {
-        Validate.notNull(rules, "Cannot create a GameClient from a null rule set");
+        this(rules, policy, transport, stateClass, null, new Handshake(DEFAULT_CODECS, FEATURES));
+    }
+
+    /**
+     * Creates a client that needs no Rules on an already open transport, see
+     * {@link #GameClient(Policy, String, int, Class, Class, String, Player)}.
+     *
+     * @param policy
+     * @param transport
+     *            Transport to the server
+     * @param stateClass
+     * @param actionClass
+     *            Class of the game's actions
+     */
+    public GameClient(final Policy<S, A> policy, final FrameTransport transport,
+            final Class<S> stateClass, final Class<A> actionClass)
+    {
+        this(null, policy, transport, stateClass, actionClass, new Handshake(DEFAULT_CODECS,
+                INDEX_FEATURES));
+    }
+
+    @SuppressWarnings("unchecked")
+    private GameClient(final R rules, final Policy<S, A> policy, final FrameTransport transport,
+            final Class<S> stateClass, final Class<A> actionClass, final Handshake handshake)
+    {
+        Validate.isTrue(rules != null || actionClass != null,
+                "Cannot create a GameClient without a rule set or an Action class");
         Validate.notNull(policy, "Cannot create a GameClient from a null policy");
+        Validate.notNull(transport, "Cannot create a GameClient on a null transport");
         Validate.notNull(stateClass, "Cannot create a GameClient with a null State class");
         policy_ = policy;
         rules_ = rules;
-        // TODO: Make ip address come into play
+        server_ = transport;
+        stateClass_ = stateClass;
+        actionsClass_ = actionClass == null ? null : (Class<A[]>) Array.newInstance(actionClass, 0)
+                .getClass();
+        SerializationUtils.prepareTypes(stateClass);
+        if(actionClass != null)
+        {
+            SerializationUtils.prepareTypes(actionClass);
+        }
+        stateDiffer_ = StateDiffers.forClass(stateClass);
+        /* Patches only make sense to clients that know how to apply them */
+        handshake(stateDiffer_ != null && handshake.getFeatures().contains(Handshake.DELTA_STATES)
+                ? handshake.withFeature(Handshake.STATE_PATCHES) : handshake);
+        LOG.info("Started {} client with {} policy over {}", GameClient.class.getSimpleName(),
+                policy, transport.getClass().getSimpleName());
+    }
+
+    /**
+     * Opens a connection to a server, for the clients that take an already
+     * open transport.
+     *
+     * @param host
+     *            Name or address of the host the server runs on
+     * @param port
+     *            Port the server is listening on
+     * @return Blocking connection to the server
+     */
+    public static FramedConnection connect(final String host, final int port)
+    {
+        Validate.notNull(host, "Cannot connect to a null host");
         try
         {
-            server_ = new Socket("localhost", port);
+            final SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            return new FramedConnection(channel);
         }
         catch(final IOException e)
         {
-            LOG.error("Could not create a server socket on {}", port, e);
+            LOG.error("Could not connect to {}:{}", host, port, e);
             throw new RuntimeException(e);
         }
+    }
 
-        stateClass_ = stateClass;
-        LOG.info("Started {} client with {} policy on port {}", GameClient.class.getSimpleName(),
-                policy, port);
+    /**
+     * Sends the provided handshake and switches the transport over to the
+     * codec the server answers with. Shared by every client that talks to a
+     * {@link NetworkAutomator} or {@link GameHub}.
+     *
+     * @param server
+     *            Transport to handshake over
+     * @param handshake
+     *            Handshake to send
+     * @return The server's answer
+     * @throws IOException
+     *             if the server hangs up or answers with anything else
+     */
+    static HandshakeResponse handshake(final FrameTransport server, final Handshake handshake)
+            throws IOException
+    {
+        server.send(MessageType.HANDSHAKE, handshake);
+        final HandshakeResponse response = server.readFrame(MessageType.HANDSHAKE_RESPONSE,
+                HandshakeResponse.class);
+        final WireCodec codec = SerializationUtils.codec(response.getCodec());
+        Validate.notNull(codec, String.format("Server chose unknown codec %s", response
+                .getCodec()));
+        server.setCodec(codec);
+        return response;
     }
 
-    private S readStateFromServer() throws InterruptedException
+    private void handshake(final Handshake handshake)
     {
         try
         {
-            final BufferedReader serverReader = new BufferedReader(new InputStreamReader(
-                    server_.getInputStream()));
-            NetworkUtils.awaitBuffer(serverReader);
-            final String stateJson = serverReader.readLine();
-            final S state = SerializationUtils.readValue(stateJson, stateClass_);
-            return state;
+            final HandshakeResponse response = handshake(server_, handshake);
+            deltaStates_ = response.getFeatures().contains(Handshake.DELTA_STATES);
+            statePatches_ = response.getFeatures().contains(Handshake.STATE_PATCHES);
+            actionIndices_ = response.getFeatures().contains(Handshake.ACTION_INDICES);
+            Validate.isTrue(actionIndices_ || rules_ != null, String.format(
+                    "Server did not agree to %s, and this client has no rule set",
+                    Handshake.ACTION_INDICES));
+            LOG.info("Sent {}, server answered with {}", handshake, response);
         }
         catch(final IOException e)
         {
             LOG.error("Encountered unexpected exception while "
-                    + "attempting to receive a state from the server", e);
+                    + "attempting to handshake with the server", e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Decodes the state in the frame just read. Deltas and patches are applied
+     * to the last state received; if that isn't possible, the state is
+     * requested in full.
+     *
+     * @param type
+     *            Type of the frame just read
+     * @return The state the server sent, or null if it has to be resent
+     */
+    private S decodeState(final MessageType type) throws IOException
+    {
+        if(type == MessageType.STATE)
+        {
+            if(!deltaStates_)
+            {
+                return server_.decodePayload(stateClass_);
+            }
+            /* Any state sent in full may be followed by deltas or patches against it */
+            lastState_ = server_.copyPayload();
+            sequence_ = 0;
+            final S state = server_.getCodec().readValue(new ByteArrayInputStream(lastState_),
+                    stateClass_);
+            lastPatched_ = state;
+            return state;
+        }
+        if(type == MessageType.STATE_PATCH && statePatches_)
+        {
+            final S state = applyPatch(stateDiffer_);
+            if(state == null)
+            {
+                writeFrameToServer(MessageType.RESYNC, sequence_);
+            }
+            return state;
+        }
+        if(type != MessageType.STATE_DELTA || !deltaStates_)
+        {
+            throw new IOException(String.format("Expected a %s frame, but received a %s frame",
+                    MessageType.STATE, type));
+        }
+        final StateDelta delta = server_.decodePayload(StateDelta.class);
+        final S state = applyDelta(delta);
+        if(state == null)
+        {
+            writeFrameToServer(MessageType.RESYNC, delta.getSequence());
+        }
+        return state;
+    }
+
+    /* Returns null if there is nothing to patch, or the patch doesn't apply */
+    private <D> S applyPatch(final StateDiffer<S, D> differ)
+    {
+        final D diff = server_.decodePayload(differ.getDiffClass());
+        lastState_ = null;
+        if(lastPatched_ == null)
+        {
+            LOG.warn("Received a patch without a state to apply it to, requesting the full state");
+            return null;
+        }
+        try
+        {
+            lastPatched_ = differ.apply(lastPatched_, diff);
+            return lastPatched_;
+        }
+        catch(final IllegalArgumentException e)
+        {
+            LOG.warn("Could not apply {}, requesting the full state", diff, e);
+            lastPatched_ = null;
+            return null;
+        }
+    }
+
+    private Collection<A> availableActions(final S state) throws IOException
+    {
+        if(actionIndices_)
+        {
+            if(actions_ == null)
+            {
+                throw new IOException(String.format(
+                        "Expected a %s frame before the state, but received none",
+                        MessageType.ACTIONS));
+            }
+            return Collections.unmodifiableList(Arrays.asList(actions_));
+        }
+        /*
+         * TODO: See if there's a better way of determining what player we
+         * are...
+         */
+        final Player player = rules_.getCurrentPlayer(state);
+        LOG.debug("Current player: {}", player);
+        return rules_.getAvailableActions(player, state);
+    }
+
+    private void startGame(final GameStart game)
+    {
+        /* Neither deltas, patches nor available actions span games */
+        lastState_ = null;
+        lastPatched_ = null;
+        sequence_ = 0;
+        actions_ = null;
+        LOG.info("Starting {}", game);
+    }
+
+    private void endGame(final GameEnd end)
+    {
+        gamesPlayed_.incrementAndGet();
+        if(end.getScore() != null)
+        {
+            scores_.add(end.getScore());
+        }
+        LOG.info("Finished {}, {} games played", end, gamesPlayed_.get());
+    }
+
+    /* Returns null if the delta doesn't follow from the last state */
+    private S applyDelta(final StateDelta delta)
+    {
+        lastPatched_ = null;
+        if(lastState_ == null || delta.getSequence() != sequence_ + 1)
+        {
+            LOG.warn("Received {}, but expected sequence {}, requesting the full state", delta,
+                    sequence_ + 1);
+            lastState_ = null;
+            return null;
+        }
+        try
+        {
+            lastState_ = delta.applyTo(lastState_);
+            sequence_ = delta.getSequence();
+            return server_.getCodec().readValue(new ByteArrayInputStream(lastState_),
+                    stateClass_);
+        }
+        catch(final IllegalArgumentException e)
+        {
+            LOG.warn("Could not apply {}, requesting the full state", delta, e);
+            lastState_ = null;
+            return null;
+        }
+    }
+
     private void writeActionToServer(final A action)
     {
-        final String stateAsJson = SerializationUtils.writeValue(action);
+        if(!actionIndices_)
+        {
+            writeFrameToServer(MessageType.ACTION, action);
+            return;
+        }
+        writeFrameToServer(MessageType.ACTION_INDEX, indexOf(action));
+        actions_ = null;
+    }
+
+    /*
+     * Policies hand back one of the actions they were given, so try identity
+     * first. Anything else can only be found if A implements equals
+     */
+    private int indexOf(final A action)
+    {
+        for(int i = 0; i < actions_.length; ++i)
+        {
+            if(actions_[i] == action)
+            {
+                return i;
+            }
+        }
+        final int index = Arrays.asList(actions_).indexOf(action);
+        Validate.isTrue(index >= 0, String.format(
+                "Policy %s chose %s, which is not one of the available actions %s", policy_,
+                action, Arrays.toString(actions_)));
+        return index;
+    }
+
+    private void writeFrameToServer(final MessageType type, final Object value)
+    {
         try
         {
-            final DataOutputStream outputStream = new DataOutputStream(server_.getOutputStream());
-            outputStream.writeBytes(stateAsJson + System.lineSeparator());
+            server_.send(type, value);
         }
         catch(final IOException e)
         {
             LOG.error("Encountered unexpected exception while writing {} out to the server",
-                    stateAsJson, e);
+                    value, e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Answers states seen before from the provided cache from now on, instead
+     * of asking the policy again. Only sound if the policy always chooses the
+     * same action in the same state. Cached answers are taken from the actions
+     * available in the current state, so they work with action indices whether
+     * or not A implements equals.
+     *
+     * @param decisionCache
+     *            Cache to answer from, or null to always ask the policy
+     */
+    public void setDecisionCache(final DecisionCache<S, A> decisionCache)
+    {
+        decisionCache_ = decisionCache;
+    }
+
+    /**
+     * @return Number of games this client has been told are over. Only
+     *         session clients are told
+     */
+    public long getGamesPlayed()
+    {
+        return gamesPlayed_.get();
+    }
+
+    /**
+     * @return How often this client's player got each Score, over every
+     *         scored game it has played
+     */
+    public Multiset<Score> getScores()
+    {
+        return ImmutableMultiset.copyOf(scores_);
+    }
+
+    /**
+     * Hangs up on the server. A running client stops as soon as it notices.
+     */
+    public void shutdown()
+    {
+        shuttingDown_ = true;
+        try
+        {
+            server_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing server connection, swallowing",
+                    e);
+        }
+    }
+
     @Override
     public void run()
     {
         try
         {
-            /*
-             * TODO: Figure out some kind of signal/event driven architecture so
-             * we can shutdown our threads cleanly
-             */
             while(true)
             {
-                final S state = readStateFromServer();
-
-                /*
-                 * TODO: See if there's a better way of determining what player
-                 * we are...
-                 */
-                final Player player = rules_.getCurrentPlayer(state);
-                LOG.info("Current player: {}", player);
-                final Collection<A> actions = rules_.getAvailableActions(player, state);
-                LOG.info("Available actions: {}", actions);
-                final A chosenAction = policy_.chooseAction(state, actions);
-                LOG.info("Chose action: {}", chosenAction);
+                final MessageType type = server_.readFrame();
+                if(type == null)
+                {
+                    LOG.info("Server closed the connection, stopping client");
+                    break;
+                }
+                if(type == MessageType.GAME_START)
+                {
+                    startGame(server_.decodePayload(GameStart.class));
+                    continue;
+                }
+                if(type == MessageType.GAME_END)
+                {
+                    endGame(server_.decodePayload(GameEnd.class));
+                    continue;
+                }
+                if(type == MessageType.SHUTDOWN)
+                {
+                    LOG.info("Server ended session {} after {} games, stopping client",
+                            server_.decodePayload(String.class), gamesPlayed_.get());
+                    break;
+                }
+                if(type == MessageType.ACTIONS && actionIndices_)
+                {
+                    actions_ = server_.decodePayload(actionsClass_);
+                    continue;
+                }
+
+                final S state = decodeState(type);
+                if(state == null)
+                {
+                    continue;
+                }
+
+                final Collection<A> actions = availableActions(state);
+                LOG.debug("Available actions: {}", actions);
+                final DecisionCache<S, A> decisionCache = decisionCache_;
+                final A chosenAction = decisionCache == null ? policy_.chooseAction(state,
+                        actions) : decisionCache.chooseAction(state, actions, policy_);
+                LOG.debug("Chose action: {}", chosenAction);
                 writeActionToServer(chosenAction);
             }
         }
         catch(final Exception e)
         {
-            LOG.error("Caught unexpected exception while running Client", e);
+            if(shuttingDown_)
+            {
+                LOG.info("Client was shut down, stopping");
+            }
+            else
+            {
+                LOG.error("Caught unexpected exception while running Client", e);
+            }
+        }
+        finally
+        {
+            if(!shuttingDown_)
+            {
+                shutdown();
+            }
         }
     }
 }
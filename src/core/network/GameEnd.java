@@ -0,0 +1,55 @@
+package core.network;
+
+import utils.Validate;
+
+import core.Score;
+
+/**
+ * Payload of a {@link MessageType#GAME_END} frame. Ends the game a session's
+ * client was last sent a {@link GameStart} for.
+ *
+ * @author wallstop
+ */
+public final class GameEnd
+{
+    private String gameId_;
+    private Score score_;
+
+    /* For Jackson */
+    private GameEnd()
+    {
+    }
+
+    /**
+     * @param gameId
+     *            Id of the game that ended
+     * @param score
+     *            How the client's player did, or null if the game was cut
+     *            short before it could be scored
+     */
+    public GameEnd(final String gameId, final Score score)
+    {
+        Validate.notNull(gameId, "Cannot create a GameEnd for a null game id");
+        gameId_ = gameId;
+        score_ = score;
+    }
+
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    /**
+     * @return How the client's player did, or null if the game wasn't scored
+     */
+    public Score getScore()
+    {
+        return score_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("GameEnd [gameId=%s, score=%s]", gameId_, score_);
+    }
+}
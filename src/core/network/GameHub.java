@@ -0,0 +1,497 @@
+package core.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import core.Player;
+
+/**
+ * A GameHub hosts any number of games and players on a single port. Instead of
+ * dedicating a ServerSocket (and a blocked thread) to every Player of every
+ * game, all client connections are multiplexed over one Selector driven by a
+ * single event loop thread.
+ *
+ * Clients identify themselves by sending a {@link Handshake} as their first
+ * frame. The hub uses the handshake's game id and player to route the client
+ * to the GameListener that was created for it via
+ * {@link #newListener(String, Player, Class)}. Handshakes for games or players
+ * that the hub doesn't know about are rejected by closing the connection.
+ *
+ * A single client may also play many games at once as a batch client. Its
+ * listeners are created via
+ * {@link #newBatchedListener(String, String, Player, Class)}, and it
+ * handshakes once with the client id they were created for.
+ *
+ * A single client may also play many games one after another as a session
+ * client. Its listeners are created via
+ * {@link #newSessionListener(String, String, Player, Class)}, and it
+ * handshakes once with the session id they were created for. Session clients
+ * may also turn up unannounced and join the hub's {@link Lobby}, which matches
+ * them into games itself.
+ *
+ * @author wallstop
+ */
+public class GameHub
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GameHub.class);
+
+    /* We define valid ports to be within [0, 65536), where 0 is ephemeral */
+    private static final int MAX_PORT = (1 << 16);
+    private static final int MIN_PORT = -1;
+
+    private final ServerSocketChannel serverChannel_;
+    private final Selector selector_;
+    private final Thread eventLoop_;
+
+    /* Work that needs to happen on the event loop, submitted by other threads */
+    private final Queue<Runnable> pendingTasks_ = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<Map.Entry<String, Player>, HubGameListener<?, ?>> awaitingListeners_ = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HubBatchClient> batchClients_ = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HubSession> sessions_ = new ConcurrentHashMap<>();
+    private volatile Lobby lobby_ = null;
+
+    private static final long DEFAULT_BATCH_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private volatile long batchLingerNanos_ = DEFAULT_BATCH_LINGER_NANOS;
+    private final ScheduledExecutorService timer_;
+
+    private volatile boolean running_ = true;
+
+    /**
+     * Binds a new hub to the provided port and starts its event loop.
+     *
+     * @param port
+     *            Port to listen on, or 0 to let the OS pick an ephemeral port
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public GameHub(final int port) throws IOException
+    {
+        Validate.inOpenInterval(port, MIN_PORT, MAX_PORT);
+        selector_ = Selector.open();
+        serverChannel_ = ServerSocketChannel.open();
+        serverChannel_.bind(new InetSocketAddress(port));
+        serverChannel_.configureBlocking(false);
+        serverChannel_.register(selector_, SelectionKey.OP_ACCEPT);
+
+        eventLoop_ = new Thread(this::runEventLoop, String.format("%s-%d",
+                GameHub.class.getSimpleName(), getPort()));
+        eventLoop_.setDaemon(true);
+        timer_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat(eventLoop_.getName() + "-timer").build());
+        eventLoop_.start();
+        LOG.info("Started {} on port {}", GameHub.class.getSimpleName(), getPort());
+    }
+
+    /**
+     * Creates a GameListener that will be attached to whichever client
+     * handshakes with the provided game id and player.
+     *
+     * @param gameId
+     *            Identifier of the game the listener belongs to
+     * @param player
+     *            Player the listener is for
+     * @param actionClass
+     *            Class of the actions the client will respond with
+     * @return A GameListener that will be connected once the client handshakes
+     * @throws IllegalArgumentException
+     *             if any argument is null or a listener for the same game and
+     *             player is already awaiting a client
+     */
+    public <S, A> GameListener<S, A> newListener(final String gameId, final Player player,
+            final Class<A> actionClass)
+    {
+        Validate.notNull(gameId, "Cannot create a GameListener for a null game id");
+        Validate.notNull(player, "Cannot create a GameListener for a null player");
+        Validate.isTrue(running_, "Cannot create a GameListener on a GameHub that has shut down");
+        final HubGameListener<S, A> listener = new HubGameListener<>(this, gameId, player,
+                actionClass);
+        final HubGameListener<?, ?> existing = awaitingListeners_.putIfAbsent(
+                Maps.immutableEntry(gameId, player), listener);
+        Validate.isTrue(existing == null, String.format(
+                "Game %s already has a listener awaiting Player %s", gameId, player));
+        return listener;
+    }
+
+    /**
+     * Creates a GameListener whose player will be played by the batch client
+     * that handshakes with the provided client id. Any number of listeners,
+     * across any number of games, may share a client id; their requests are
+     * batched together.
+     *
+     * @param clientId
+     *            Id of the batch client that will play the player
+     * @param gameId
+     *            Identifier of the game the listener belongs to
+     * @param player
+     *            Player the listener is for
+     * @param actionClass
+     *            Class of the actions the client will respond with
+     * @return A GameListener that is connected whenever the batch client is
+     */
+    public <S, A> GameListener<S, A> newBatchedListener(final String clientId,
+            final String gameId, final Player player, final Class<A> actionClass)
+    {
+        Validate.notNull(clientId, "Cannot create a GameListener for a null client id");
+        Validate.notNull(gameId, "Cannot create a GameListener for a null game id");
+        Validate.notNull(player, "Cannot create a GameListener for a null player");
+        Validate.isTrue(running_, "Cannot create a GameListener on a GameHub that has shut down");
+        return batchClients_.computeIfAbsent(clientId, id -> new HubBatchClient(this, id))
+                .newListener(gameId, player, actionClass);
+    }
+
+    /**
+     * Creates a GameListener whose player will be played by the session client
+     * that handshakes with the provided session id. Any number of listeners
+     * may share a session id; their games are played one after another, in
+     * the order the listeners were created, over the client's one connection.
+     * Each listener is connected once its game's turn comes up.
+     *
+     * @param sessionId
+     *            Id of the session client that will play the player
+     * @param gameId
+     *            Identifier of the game the listener belongs to
+     * @param player
+     *            Player the listener is for
+     * @param actionClass
+     *            Class of the actions the client will respond with
+     * @return A GameListener that is connected when its game starts on the
+     *         session
+     * @throws IllegalArgumentException
+     *             if any argument is null or the session has been closed
+     */
+    public <S, A> GameListener<S, A> newSessionListener(final String sessionId,
+            final String gameId, final Player player, final Class<A> actionClass)
+    {
+        Validate.notNull(sessionId, "Cannot create a GameListener for a null session id");
+        Validate.notNull(gameId, "Cannot create a GameListener for a null game id");
+        Validate.notNull(player, "Cannot create a GameListener for a null player");
+        Validate.isTrue(running_, "Cannot create a GameListener on a GameHub that has shut down");
+        return sessions_.computeIfAbsent(sessionId, id -> new HubSession(this, id)).newListener(
+                gameId, player, actionClass);
+    }
+
+    /**
+     * Stops assigning games to a session. Once the games already assigned
+     * have been played, its client is told to shut down.
+     *
+     * @param sessionId
+     *            Id of the session to close
+     */
+    public void closeSession(final String sessionId)
+    {
+        Validate.notNull(sessionId, "Cannot close a null session id");
+        final HubSession session = sessions_.get(sessionId);
+        if(session != null)
+        {
+            session.close();
+        }
+    }
+
+    /**
+     * Called by a new {@link Lobby}, which the hub hands its lobby clients to
+     * from then on.
+     */
+    void setLobby(final Lobby lobby)
+    {
+        Validate.isTrue(lobby_ == null, String.format("GameHub on port %d already has a Lobby",
+                getPort()));
+        lobby_ = lobby;
+    }
+
+    /**
+     * Called once the client of a lobby session has disconnected.
+     */
+    void leaveLobby(final String sessionId)
+    {
+        final Lobby lobby = lobby_;
+        if(lobby == null)
+        {
+            forgetSession(sessionId);
+            return;
+        }
+        lobby.leave(sessionId);
+    }
+
+    /**
+     * Drops a lobby session that will never be assigned another game.
+     */
+    void forgetSession(final String sessionId)
+    {
+        sessions_.remove(sessionId);
+    }
+
+    /**
+     * Sets how long a batch client's next batch may wait for the games of its
+     * last batch to come back before being sent anyway.
+     *
+     * @param linger
+     *            Non-negative amount of time to wait
+     * @param unit
+     *            Unit of the linger
+     */
+    public void setBatchLinger(final long linger, final TimeUnit unit)
+    {
+        Validate.isTrue(linger >= 0, "Cannot linger for a negative amount of time");
+        Validate.notNull(unit, "Cannot linger with a null TimeUnit");
+        batchLingerNanos_ = unit.toNanos(linger);
+    }
+
+    public long getBatchLinger(final TimeUnit unit)
+    {
+        return unit.convert(batchLingerNanos_, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the provided task once the delay has elapsed, off the event loop.
+     */
+    void schedule(final Runnable task, final long delay, final TimeUnit unit)
+    {
+        timer_.schedule(task, delay, unit);
+    }
+
+    /**
+     * Stops routing clients to a listener that no longer wants one.
+     */
+    void forget(final HubGameListener<?, ?> listener)
+    {
+        awaitingListeners_.remove(Maps.immutableEntry(listener.getGameId(), listener.getPlayer()),
+                listener);
+    }
+
+    /**
+     * Runs the provided task on the event loop. This is the only safe way for
+     * other threads to change Selector registrations.
+     */
+    void execute(final Runnable task)
+    {
+        pendingTasks_.add(task);
+        selector_.wakeup();
+    }
+
+    /**
+     * Called from the event loop with the handshake a client sent.
+     */
+    void route(final HubConnection connection, final Handshake handshake) throws IOException
+    {
+        if(handshake.getClientId() != null)
+        {
+            final HubBatchClient client = batchClients_.computeIfAbsent(handshake.getClientId(),
+                    id -> new HubBatchClient(this, id));
+            if(!client.attach(connection, handshake))
+            {
+                LOG.warn("Batch client {} is already connected, closing connection",
+                        handshake.getClientId());
+                connection.close();
+            }
+            return;
+        }
+        if(handshake.getSessionId() != null)
+        {
+            final Lobby lobby = lobby_;
+            final boolean joining = lobby != null && !handshake.getLobbyGames().isEmpty()
+                    && !sessions_.containsKey(handshake.getSessionId());
+            final HubSession session = joining ? sessions_.computeIfAbsent(handshake
+                    .getSessionId(), id -> new HubSession(this, id, true)) : sessions_
+                    .get(handshake.getSessionId());
+            if(session == null || !session.attach(connection, handshake))
+            {
+                LOG.warn("Session {} is unknown or already connected, closing connection",
+                        handshake.getSessionId());
+                connection.close();
+                return;
+            }
+            if(joining && !lobby.join(handshake.getSessionId(), handshake.getLobbyGames()))
+            {
+                session.close();
+            }
+            return;
+        }
+
+        final HubGameListener<?, ?> listener = awaitingListeners_.remove(Maps.immutableEntry(
+                handshake.getGameId(), handshake.getPlayer()));
+        if(listener == null)
+        {
+            LOG.warn("No game is awaiting {}, closing connection", handshake);
+            connection.close();
+            return;
+        }
+        connection.attach(listener, listener.acceptHandshake(handshake));
+        listener.attach(connection);
+    }
+
+    private void runEventLoop()
+    {
+        while(running_)
+        {
+            try
+            {
+                selector_.select();
+                runPendingTasks();
+                final Iterator<SelectionKey> selectedKeys = selector_.selectedKeys().iterator();
+                while(selectedKeys.hasNext())
+                {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    handle(key);
+                }
+            }
+            catch(final ClosedSelectorException e)
+            {
+                break;
+            }
+            catch(final Exception e)
+            {
+                LOG.error("Caught unexpected exception in {} event loop, swallowing",
+                        GameHub.class.getSimpleName(), e);
+            }
+        }
+        closeEverything();
+    }
+
+    private void runPendingTasks()
+    {
+        Runnable task;
+        while((task = pendingTasks_.poll()) != null)
+        {
+            task.run();
+        }
+    }
+
+    private void handle(final SelectionKey key)
+    {
+        if(!key.isValid())
+        {
+            return;
+        }
+        if(key.isAcceptable())
+        {
+            accept();
+            return;
+        }
+
+        final HubConnection connection = (HubConnection) key.attachment();
+        try
+        {
+            if(key.isReadable())
+            {
+                connection.onReadable();
+            }
+            if(key.isValid() && key.isWritable())
+            {
+                connection.onWritable();
+            }
+        }
+        catch(final IOException e)
+        {
+            LOG.warn("Caught exception while servicing {}, closing it", connection, e);
+            connection.close();
+        }
+    }
+
+    private void accept()
+    {
+        try
+        {
+            final SocketChannel channel = serverChannel_.accept();
+            if(channel == null)
+            {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            final HubConnection connection = new HubConnection(this, channel);
+            connection.register(selector_);
+            LOG.info("Accepted connection from {}", channel.getRemoteAddress());
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while accepting a connection on port {}",
+                    getPort(), e);
+        }
+    }
+
+    private void closeEverything()
+    {
+        final IOException shutdown = new IOException(GameHub.class.getSimpleName()
+                + " shut down before a client connected");
+        /* Tell session clients to exit while their connections are still open */
+        sessions_.values().forEach(session -> session.shutdown(shutdown));
+        try
+        {
+            for(final SelectionKey key : selector_.keys())
+            {
+                if(key.attachment() instanceof HubConnection)
+                {
+                    ((HubConnection) key.attachment()).close();
+                }
+            }
+            selector_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing selector, swallowing", e);
+        }
+
+        try
+        {
+            serverChannel_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing server channel, swallowing", e);
+        }
+
+        awaitingListeners_.values().forEach(listener -> listener.markConnectionFailed(shutdown));
+        awaitingListeners_.clear();
+        batchClients_.values().forEach(client -> client.shutdown(shutdown));
+        timer_.shutdownNow();
+        LOG.info("{} disconnected", GameHub.class.getSimpleName());
+    }
+
+    public int getPort()
+    {
+        return serverChannel_.socket().getLocalPort();
+    }
+
+    /**
+     * Stops the event loop, closing every connection the hub owns. Listeners
+     * still awaiting a client fail their connection futures.
+     */
+    public void shutdown()
+    {
+        running_ = false;
+        selector_.wakeup();
+        try
+        {
+            eventLoop_.join();
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for the {} event loop to finish",
+                    GameHub.class.getSimpleName());
+        }
+    }
+}
@@ -1,155 +1,214 @@
 package core.network;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import utils.NetworkUtils;
 import utils.SerializationUtils;
 import utils.Validate;
 
-public class GameListener<S, A>
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import core.Score;
+
+/**
+ * GameListeners are the server-side end of a single Player's connection. They
+ * know how to hand a state to whatever client is on the other end and wait for
+ * that client to respond with an action.
+ *
+ * Most clients have a connection of their own, see {@link FramedGameListener}.
+ * Batch clients instead share theirs between many games, see
+ * {@link GameHub#newBatchedListener(String, String, core.Player, Class)}.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public abstract class GameListener<S, A>
 {
-    private static final Logger LOG = LoggerFactory.getLogger(GameListener.class);
-
-    /* We define valid ports to be within (1, 65536) */
-    private static final int MAX_PORT = (1 << 16);
-    private static final int MIN_PORT = 1;
-
-    protected final ServerSocket serverSocket_;
-    protected final Class<A> actionType_;;
+    protected final Class<A> actionType_;
+    private final SettableFuture<Void> connection_ = SettableFuture.create();
+    private volatile boolean connected_ = false;
 
-    protected Socket clientConnection_;
+    /* Passed as a timeout to wait forever */
+    protected static final long NO_TIMEOUT = Long.MAX_VALUE;
 
-    public GameListener(final int port, final Class<A> actionClass) throws IOException
+    protected GameListener(final Class<A> actionClass)
     {
-        Validate.inOpenInterval(port, MIN_PORT, MAX_PORT);
         Validate.notNull(actionClass, "Cannot create a GameListener for a null Action class");
-        serverSocket_ = new ServerSocket(port);
         actionType_ = actionClass;
+        SerializationUtils.prepareTypes(actionClass);
     }
 
-    public A requestChooseAction(final S gameState)
+    /**
+     * Requests an action for a state whose available actions are already
+     * known. Clients that are handed the available actions along with the
+     * state get them; everyone else works them out for themselves.
+     *
+     * @param gameState
+     *            State, already filtered for the listener's player
+     * @param availableActions
+     *            Actions available to the player in that state
+     * @return The action the client chose
+     */
+    public A requestChooseAction(final S gameState, final Collection<A> availableActions)
     {
-        Validate.notNull(clientConnection_,
-                "Cannot make transactions with a null client connection");
-        writeStateToClient(gameState);
-        final A action = readResponseFromClient();
-        return action;
-    }
-
-    private void writeStateToClient(final S gameState)
-    {
-        final String stateAsJson = SerializationUtils.writeValue(gameState);
-
         try
         {
-            final DataOutputStream outputStream = new DataOutputStream(
-                    clientConnection_.getOutputStream());
-            outputStream.writeBytes(stateAsJson + System.lineSeparator());
+            return requestChooseAction(gameState, availableActions, NO_TIMEOUT,
+                    TimeUnit.NANOSECONDS);
         }
-        catch(final IOException e)
+        catch(final TimeoutException e)
         {
-            LOG.error("Encountered unexpected exception while writing {} out to the client",
-                    stateAsJson, e);
-            throw new RuntimeException(e);
+            throw new IllegalStateException("Timed out on a request without a timeout", e);
         }
     }
 
-    private A readResponseFromClient()
+    /**
+     * Requests an action, giving up once the timeout elapses. The client may
+     * still answer late; a late answer is never mistaken for the answer to a
+     * later request.
+     *
+     * @param gameState
+     *            State, already filtered for the listener's player
+     * @param availableActions
+     *            Actions available to the player in that state
+     * @param timeout
+     *            Maximum amount of time to wait for the client. 0 only takes
+     *            an answer that has already arrived
+     * @param unit
+     *            Unit of the timeout
+     * @return The action the client chose
+     * @throws TimeoutException
+     *             if the client didn't answer in time
+     */
+    public abstract A requestChooseAction(final S gameState,
+            final Collection<A> availableActions, final long timeout, final TimeUnit unit)
+            throws TimeoutException;
+
+    /**
+     * Requests an action, waiting for the answer on the provided executor
+     * rather than the calling thread. Requests to many listeners can then be
+     * in flight at once, each client thinking while the others are sent their
+     * states. Only one request per listener may be in flight at a time.
+     *
+     * @param gameState
+     *            State, already filtered for the listener's player
+     * @param availableActions
+     *            Actions available to the player in that state
+     * @param timeout
+     *            Maximum amount of time to wait for the client, counted from
+     *            when the state was sent
+     * @param unit
+     *            Unit of the timeout
+     * @param executor
+     *            Executor to wait for the answer on
+     * @return Future of the action the client chose, failed with a
+     *         TimeoutException if the client didn't answer in time
+     */
+    public abstract ListenableFuture<A> requestChooseActionAsync(final S gameState,
+            final Collection<A> availableActions, final long timeout, final TimeUnit unit,
+            final Executor executor);
+
+    /**
+     * @see #requestChooseActionAsync(Object, Collection, long, TimeUnit,
+     *      Executor)
+     */
+    public ListenableFuture<A> requestChooseActionAsync(final S gameState,
+            final Collection<A> availableActions, final Executor executor)
     {
-        try
-        {
-            final BufferedReader clientReader = new BufferedReader(new InputStreamReader(
-                    clientConnection_.getInputStream()));
+        return requestChooseActionAsync(gameState, availableActions, NO_TIMEOUT,
+                TimeUnit.NANOSECONDS, executor);
+    }
 
-            NetworkUtils.awaitBuffer(clientReader);
-            final String actionResponse = clientReader.readLine();
-            final A action = SerializationUtils.readValue(actionResponse, actionType_);
-            return action;
-        }
-        catch(final IOException e)
-        {
-            LOG.error("Encountered unexpected exception while "
-                    + "attempting to receive an action response from client", e);
-            throw new RuntimeException(e);
-        }
+    /**
+     * @return True if the client answers with indices into the available
+     *         actions it was sent, so every action this listener returns is
+     *         one of them
+     */
+    public boolean sendsActionIndices()
+    {
+        return false;
+    }
 
+    /**
+     * Tells the client that its game is over and how its player did. Only
+     * session clients (see {@link Handshake#SESSIONS}) are told; they go on to
+     * their next game once this listener is disconnected. Everyone else is
+     * simply disconnected.
+     *
+     * @param score
+     *            How the client's player did, or null if the game wasn't
+     *            scored
+     */
+    public void endGame(final Score score)
+    {
     }
 
-    public void connect()
+    /**
+     * Future that completes once a client has attached to this listener, or
+     * fails if the client could not be attached.
+     *
+     * @return Future tracking the client connection of this listener
+     */
+    public ListenableFuture<Void> connectionFuture()
     {
-        try
-        {
-            final Socket socket = serverSocket_.accept();
-            if(socket == null)
-            {
-                LOG.error("Attempted to establish a connection on port "
-                        + "{}, but accept() returned null", serverSocket_.getLocalPort());
-                throw new RuntimeException("Could not establish client connection");
-            }
-            LOG.info("Successfully established connection on {}:{}",
-                    serverSocket_.getInetAddress(), serverSocket_.getLocalPort());
-            clientConnection_ = socket;
-        }
-        catch(final IOException e)
-        {
-            LOG.error("Caught unexpeced exception while listening on port {}",
-                    serverSocket_.getLocalPort(), e);
-            throw new RuntimeException(e);
-        }
+        return connection_;
     }
 
-    public void disconnect()
+    public boolean isConnected()
     {
-        disconnectClient();
-        disconnectServer();
+        return connected_;
     }
 
-    private void disconnectClient()
+    /**
+     * Should be called by subclasses once a client has been attached
+     */
+    protected void markConnected()
     {
-        if(clientConnection_ != null)
-        {
-            try
-            {
-                clientConnection_.close();
-                clientConnection_ = null;
-                LOG.info("Client connection disconnected");
-            }
-            catch(final Exception e)
-            {
-                LOG.error("Caught unexpected exception while "
-                        + "closing client connection, swallowing", e);
-            }
-        }
-        else
-        {
-            LOG.info("Disconnect called on an already disconnectd clientConnection");
-        }
+        connected_ = true;
+        connection_.set(null);
     }
 
-    private void disconnectServer()
+    /**
+     * Should be called by subclasses if a client could not be attached
+     *
+     * @param cause
+     *            Reason the client could not be attached
+     */
+    protected void markConnectionFailed(final Throwable cause)
     {
-        try
-        {
-            serverSocket_.close();
-        }
-        catch(final Exception e)
-        {
-            LOG.error("Caught unexpected exception while "
-                    + "closign server connection, swallowing", e);
-        }
-        LOG.info("Server socket disconnected");
+        connection_.setException(cause);
+    }
+
+    /**
+     * Should be called by subclasses once their client has been detached
+     */
+    protected void markDisconnected()
+    {
+        connected_ = false;
     }
 
-    public int getPort()
+    /**
+     * Blocks until a client has attached to this listener.
+     */
+    public abstract void connect();
+
+    /**
+     * @return True if the client is only attached by {@link #connect()}, which
+     *         then needs a thread to block on. Listeners whose clients are
+     *         attached elsewhere, say by a GameHub's event loop, complete
+     *         {@link #connectionFuture()} without one
+     */
+    public boolean connectBlocks()
     {
-        return serverSocket_.getLocalPort();
+        return true;
     }
+
+    public abstract void disconnect();
+
+    public abstract int getPort();
 }
@@ -0,0 +1,47 @@
+package core.network;
+
+import utils.Validate;
+
+import core.Player;
+
+/**
+ * Payload of a {@link MessageType#GAME_START} frame. Every state a session's
+ * client is sent from here until the matching {@link GameEnd} belongs to this
+ * game, and should be answered as this Player.
+ *
+ * @author wallstop
+ */
+public final class GameStart
+{
+    private String gameId_;
+    private Player player_;
+
+    /* For Jackson */
+    private GameStart()
+    {
+    }
+
+    public GameStart(final String gameId, final Player player)
+    {
+        Validate.notNull(gameId, "Cannot create a GameStart for a null game id");
+        Validate.notNull(player, "Cannot create a GameStart for a null player");
+        gameId_ = gameId;
+        player_ = player;
+    }
+
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    public Player getPlayer()
+    {
+        return player_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("GameStart [gameId=%s, player=%s]", gameId_, player_);
+    }
+}
@@ -0,0 +1,279 @@
+package core.network;
+
+import java.util.Collections;
+import java.util.List;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+
+import core.Player;
+
+/**
+ * First frame a client sends on every connection. It tells the server which
+ * wire codecs the client understands, most preferred first, and is answered
+ * with a {@link HandshakeResponse} naming the codec the connection will use.
+ *
+ * Since many games and players share a single port on a {@link GameHub}, a
+ * client connecting to a hub also needs to identify which game it wants to
+ * join and which player it wants to play as. Clients on a dedicated port leave
+ * both null.
+ *
+ * A batch client instead identifies itself with a client id, and is then sent
+ * the states of every game it was assigned on the hub, many at a time (see
+ * {@link StateBatch}).
+ *
+ * A session client identifies itself with a session id, and then plays every
+ * game assigned to that session on the hub, one after another, over its one
+ * connection (see {@link #SESSIONS}). A session client may instead name the
+ * games it is willing to play, in which case the hub's {@link Lobby} matches it
+ * with other clients waiting for the same game.
+ *
+ * Clients may also ask for optional protocol features, like
+ * {@link #DELTA_STATES}. The response lists the ones the server agreed to.
+ *
+ * Handshakes and their responses are always JSON, whatever codec ends up being
+ * negotiated, so any client can bootstrap a connection.
+ *
+ * @author wallstop
+ */
+public final class Handshake
+{
+    /* The server may send STATE_DELTA frames, see StateDelta */
+    public static final String DELTA_STATES = "delta-states";
+    /*
+     * The server may send STATE_PATCH frames, see StateDiffer. Only used
+     * along with DELTA_STATES
+     */
+    public static final String STATE_PATCHES = "state-patches";
+    /*
+     * The client understands GAME_START, GAME_END and SHUTDOWN frames, and so
+     * can play many games over one connection
+     */
+    public static final String SESSIONS = "sessions";
+    /*
+     * Every state is preceded by an ACTIONS frame listing the actions
+     * available in it, and answered with an ACTION_INDEX frame instead of an
+     * ACTION frame
+     */
+    public static final String ACTION_INDICES = "action-indices";
+
+    private String gameId_;
+    private Player player_;
+    private List<String> codecs_;
+    private List<String> features_;
+    private String clientId_;
+    private int maxBatchSize_;
+    private String sessionId_;
+    private List<String> lobbyGames_;
+
+    /* For Jackson */
+    private Handshake()
+    {
+    }
+
+    /**
+     * Creates a handshake for a client on a dedicated port.
+     *
+     * @param codecs
+     *            Names of the codecs the client understands, most preferred
+     *            first
+     * @param features
+     *            Names of the optional features the client supports
+     */
+    public Handshake(final List<String> codecs, final List<String> features)
+    {
+        Validate.notNull(codecs, "Cannot create a Handshake with null codecs");
+        Validate.notNull(features, "Cannot create a Handshake with null features");
+        codecs_ = ImmutableList.copyOf(codecs);
+        features_ = ImmutableList.copyOf(features);
+    }
+
+    public Handshake(final String gameId, final Player player)
+    {
+        this(gameId, player, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /**
+     * Creates a handshake for a client of a {@link GameHub}.
+     *
+     * @param gameId
+     *            Id of the game to join
+     * @param player
+     *            Player to join the game as
+     * @param codecs
+     *            Names of the codecs the client understands, most preferred
+     *            first
+     * @param features
+     *            Names of the optional features the client supports
+     */
+    public Handshake(final String gameId, final Player player, final List<String> codecs,
+            final List<String> features)
+    {
+        this(codecs, features);
+        Validate.notNull(gameId, "Cannot create a Handshake for a null game id");
+        Validate.notNull(player, "Cannot create a Handshake for a null player");
+        gameId_ = gameId;
+        player_ = player;
+    }
+
+    /**
+     * Creates a handshake for a batch client of a {@link GameHub}.
+     *
+     * @param clientId
+     *            Id the client's games were assigned to
+     * @param maxBatchSize
+     *            Maximum number of states the client wants in a single batch
+     * @param codecs
+     *            Names of the codecs the client understands, most preferred
+     *            first
+     */
+    public Handshake(final String clientId, final int maxBatchSize, final List<String> codecs)
+    {
+        this(codecs, Collections.emptyList());
+        Validate.notNull(clientId, "Cannot create a Handshake for a null client id");
+        Validate.isTrue(maxBatchSize > 0, String.format(
+                "Cannot create a Handshake with a batch size of %d", maxBatchSize));
+        clientId_ = clientId;
+        maxBatchSize_ = maxBatchSize;
+    }
+
+    /**
+     * Creates a handshake for a session client of a {@link GameHub}.
+     *
+     * @param sessionId
+     *            Id the client's games were assigned to
+     * @param codecs
+     *            Names of the codecs the client understands, most preferred
+     *            first
+     * @param features
+     *            Names of the optional features the client supports, which
+     *            must include {@link #SESSIONS}
+     */
+    public Handshake(final String sessionId, final List<String> codecs,
+            final List<String> features)
+    {
+        this(codecs, features);
+        Validate.notNull(sessionId, "Cannot create a Handshake for a null session id");
+        Validate.isTrue(features.contains(SESSIONS), String.format(
+                "Cannot create a session Handshake without the %s feature", SESSIONS));
+        sessionId_ = sessionId;
+    }
+
+    /**
+     * Creates a handshake for a session client that joins a hub's
+     * {@link Lobby} rather than being assigned games up front.
+     *
+     * @param sessionId
+     *            Id of the session, unique among the hub's sessions
+     * @param lobbyGames
+     *            Names of the games the client is willing to play, see
+     *            {@link Lobby#register(String, core.Rules, List, Class,
+     *            java.util.function.Function)}
+     * @param codecs
+     *            Names of the codecs the client understands, most preferred
+     *            first
+     * @param features
+     *            Names of the optional features the client supports, which
+     *            must include {@link #SESSIONS}
+     */
+    public Handshake(final String sessionId, final List<String> lobbyGames,
+            final List<String> codecs, final List<String> features)
+    {
+        this(sessionId, codecs, features);
+        Validate.notNull(lobbyGames, "Cannot create a lobby Handshake with null games");
+        Validate.isTrue(!lobbyGames.isEmpty(), "Cannot create a lobby Handshake without any games");
+        lobbyGames_ = ImmutableList.copyOf(lobbyGames);
+    }
+
+    /**
+     * @param feature
+     *            Name of an optional feature
+     * @return A copy of this handshake that also asks for the feature
+     */
+    Handshake withFeature(final String feature)
+    {
+        Validate.notNull(feature, "Cannot ask for a null feature");
+        final Handshake handshake = new Handshake();
+        handshake.gameId_ = gameId_;
+        handshake.player_ = player_;
+        handshake.codecs_ = codecs_;
+        handshake.features_ = ImmutableList.<String> builder().addAll(getFeatures()).add(feature)
+                .build();
+        handshake.clientId_ = clientId_;
+        handshake.maxBatchSize_ = maxBatchSize_;
+        handshake.sessionId_ = sessionId_;
+        handshake.lobbyGames_ = lobbyGames_;
+        return handshake;
+    }
+
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    public Player getPlayer()
+    {
+        return player_;
+    }
+
+    /**
+     * @return Id of the batch client, or null if this isn't one
+     */
+    public String getClientId()
+    {
+        return clientId_;
+    }
+
+    /**
+     * @return Id of the session, or null if this isn't a session client
+     */
+    public String getSessionId()
+    {
+        return sessionId_;
+    }
+
+    /**
+     * @return Names of the games a lobby client is willing to play, empty for
+     *         every other client
+     */
+    public List<String> getLobbyGames()
+    {
+        return lobbyGames_ == null ? Collections.emptyList() : Collections
+                .unmodifiableList(lobbyGames_);
+    }
+
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize_;
+    }
+
+    /**
+     * @return Names of the codecs the client understands, most preferred
+     *         first. Empty if the client didn't say, in which case JSON is
+     *         used.
+     */
+    public List<String> getCodecs()
+    {
+        return codecs_ == null ? Collections.emptyList() : Collections
+                .unmodifiableList(codecs_);
+    }
+
+    /**
+     * @return Names of the optional features the client supports
+     */
+    public List<String> getFeatures()
+    {
+        return features_ == null ? Collections.emptyList() : Collections
+                .unmodifiableList(features_);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+                "Handshake [gameId=%s, player=%s, clientId=%s, sessionId=%s, lobbyGames=%s, "
+                        + "codecs=%s, features=%s]", gameId_, player_, clientId_, sessionId_,
+                lobbyGames_, codecs_, features_);
+    }
+}
@@ -0,0 +1,51 @@
+package core.network;
+
+import java.util.Collections;
+import java.util.List;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The server's answer to a {@link Handshake}. Every frame after this one is
+ * encoded with the codec named here, and only the optional features listed
+ * here may be used.
+ *
+ * @author wallstop
+ */
+public final class HandshakeResponse
+{
+    private String codec_;
+    private List<String> features_;
+
+    /* For Jackson */
+    private HandshakeResponse()
+    {
+    }
+
+    public HandshakeResponse(final String codec, final List<String> features)
+    {
+        Validate.notNull(codec, "Cannot create a HandshakeResponse for a null codec");
+        Validate.notNull(features, "Cannot create a HandshakeResponse with null features");
+        codec_ = codec;
+        features_ = ImmutableList.copyOf(features);
+    }
+
+    public String getCodec()
+    {
+        return codec_;
+    }
+
+    public List<String> getFeatures()
+    {
+        return features_ == null ? Collections.emptyList() : Collections
+                .unmodifiableList(features_);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("HandshakeResponse [codec=%s, features=%s]", codec_, features_);
+    }
+}
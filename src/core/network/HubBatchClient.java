@@ -0,0 +1,349 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferInputStream;
+import utils.SerializationUtils;
+import utils.WireCodec;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import core.Player;
+
+/**
+ * Server-side end of a single batch client on a {@link GameHub}. Every
+ * {@link BatchedGameListener} assigned to the client id funnels its requests
+ * through here, no matter which game it belongs to.
+ *
+ * At most one {@link StateBatch} is in flight at a time; requests made while
+ * one is outstanding are queued and go out together as soon as it's answered.
+ * Since the games in the answered batch will typically come right back with
+ * their next state, the next batch waits until as many requests are queued as
+ * were just answered, or until the hub's batch linger elapses, whichever
+ * comes first.
+ *
+ * @author wallstop
+ */
+final class HubBatchClient implements HubEndpoint
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HubBatchClient.class);
+
+    private static final class Request
+    {
+        private final StateBatch.Entry entry_;
+        private final SettableFuture<byte[]> action_ = SettableFuture.create();
+
+        private Request(final StateBatch.Entry entry)
+        {
+            entry_ = entry;
+        }
+    }
+
+    private final GameHub hub_;
+    private final String clientId_;
+
+    /* Event loop only */
+    private final ByteBufferInputStream payloadStream_ = new ByteBufferInputStream();
+
+    private final Object lock_ = new Object();
+    /* Guarded by lock_ */
+    private final Set<BatchedGameListener<?, ?>> listeners_ = new HashSet<>();
+    private final Queue<Request> queued_ = new ArrayDeque<>();
+    private List<Request> inFlight_ = null;
+    private long batchId_ = 0;
+    private int expectedRequests_ = 1;
+    private boolean lingering_ = false;
+    private HubConnection connection_ = null;
+    private int maxBatchSize_ = 1;
+    private final Runnable lingerExpired_ = this::onLingerExpired;
+
+    HubBatchClient(final GameHub hub, final String clientId)
+    {
+        hub_ = hub;
+        clientId_ = clientId;
+    }
+
+    String getClientId()
+    {
+        return clientId_;
+    }
+
+    <S, A> BatchedGameListener<S, A> newListener(final String gameId, final Player player,
+            final Class<A> actionClass)
+    {
+        final BatchedGameListener<S, A> listener = new BatchedGameListener<>(hub_, this, gameId,
+                player, actionClass);
+        final boolean connected;
+        synchronized(lock_)
+        {
+            listeners_.add(listener);
+            connected = connection_ != null;
+        }
+        if(connected)
+        {
+            listener.markConnected();
+        }
+        return listener;
+    }
+
+    void forget(final BatchedGameListener<?, ?> listener)
+    {
+        synchronized(lock_)
+        {
+            listeners_.remove(listener);
+        }
+    }
+
+    /**
+     * Called from the event loop with the handshake of a client claiming this
+     * client id.
+     *
+     * @return False if another client already holds the id, in which case the
+     *         connection was left alone
+     */
+    boolean attach(final HubConnection connection, final Handshake handshake) throws IOException
+    {
+        final List<BatchedGameListener<?, ?>> listeners;
+        synchronized(lock_)
+        {
+            if(connection_ != null)
+            {
+                return false;
+            }
+            connection.attach(this, new HandshakeResponse(SerializationUtils.negotiateCodec(
+                    handshake.getCodecs()).name(), Collections.emptyList()));
+            connection_ = connection;
+            maxBatchSize_ = handshake.getMaxBatchSize();
+            listeners = new ArrayList<>(listeners_);
+        }
+        LOG.info("Batch client {} connected via {}, serving {} listeners", clientId_,
+                connection, listeners.size());
+        listeners.forEach(BatchedGameListener::markConnected);
+        return true;
+    }
+
+    /**
+     * @return The codec the client's batches are encoded with, or null if it
+     *         isn't connected
+     */
+    WireCodec getCodec()
+    {
+        synchronized(lock_)
+        {
+            return connection_ == null ? null : connection_.codecFor(MessageType.BATCH_STATES);
+        }
+    }
+
+    /**
+     * Queues a single game's request for the next batch.
+     *
+     * @param entry
+     *            The game's state and actions
+     * @param codec
+     *            Codec the entry was encoded with, see {@link #getCodec()}
+     * @return Future holding the action the client chose, encoded with the
+     *         same codec
+     */
+    ListenableFuture<byte[]> submit(final StateBatch.Entry entry, final WireCodec codec)
+    {
+        final Request request = new Request(entry);
+        synchronized(lock_)
+        {
+            if(connection_ == null)
+            {
+                return Futures.immediateFailedFuture(new IOException(String.format(
+                        "Batch client %s is not connected", clientId_)));
+            }
+            /* The client reconnected since the entry was encoded */
+            if(connection_.codecFor(MessageType.BATCH_STATES) != codec)
+            {
+                return Futures.immediateFailedFuture(new IOException(String.format(
+                        "Batch client %s no longer speaks %s", clientId_, codec.name())));
+            }
+            queued_.add(request);
+            if(inFlight_ == null)
+            {
+                if(queued_.size() >= Math.min(expectedRequests_, maxBatchSize_))
+                {
+                    flush();
+                }
+                else if(!lingering_)
+                {
+                    lingering_ = true;
+                    hub_.schedule(lingerExpired_, hub_.getBatchLinger(TimeUnit.NANOSECONDS),
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        return request.action_;
+    }
+
+    private void onLingerExpired()
+    {
+        synchronized(lock_)
+        {
+            lingering_ = false;
+            if(inFlight_ == null)
+            {
+                flush();
+            }
+        }
+    }
+
+    /* Caller must hold lock_ with nothing in flight */
+    private void flush()
+    {
+        while(inFlight_ == null && connection_ != null && !queued_.isEmpty())
+        {
+            final int size = Math.min(queued_.size(), maxBatchSize_);
+            final List<Request> batch = new ArrayList<>(size);
+            final List<StateBatch.Entry> entries = new ArrayList<>(size);
+            for(int i = 0; i < size; ++i)
+            {
+                final Request request = queued_.poll();
+                batch.add(request);
+                entries.add(request.entry_);
+            }
+
+            inFlight_ = batch;
+            try
+            {
+                connection_.send(MessageType.BATCH_STATES, new StateBatch(++batchId_, entries));
+            }
+            catch(final IOException e)
+            {
+                LOG.warn("Could not send a batch to {}, closing it", clientId_, e);
+                connection_.close();
+            }
+            catch(final RuntimeException e)
+            {
+                LOG.error("Could not encode batch {} for {}", batchId_, clientId_, e);
+                inFlight_ = null;
+                batch.forEach(request -> request.action_.setException(e));
+            }
+        }
+    }
+
+    @Override
+    public void onFrame(final ByteBuffer source, final int start, final int end)
+    {
+        final HubConnection connection;
+        synchronized(lock_)
+        {
+            connection = connection_;
+        }
+        if(connection == null)
+        {
+            return;
+        }
+        final ActionBatch actions;
+        try
+        {
+            final MessageType type = Frames.type(source, start);
+            if(type != MessageType.BATCH_ACTIONS)
+            {
+                throw new IOException(String.format("Expected a %s frame, but received a %s frame",
+                        MessageType.BATCH_ACTIONS, type));
+            }
+            actions = connection.codecFor(type).readValue(
+                    payloadStream_.wrap(source, start + Frames.HEADER_SIZE, end),
+                    ActionBatch.class);
+        }
+        catch(final IOException | IllegalArgumentException e)
+        {
+            LOG.warn("Received a malformed batch from {}, closing it", clientId_, e);
+            connection.close();
+            return;
+        }
+
+        final List<Request> answered;
+        synchronized(lock_)
+        {
+            answered = inFlight_;
+            if(answered == null || actions.getBatchId() != batchId_
+                    || actions.getActions().size() != answered.size())
+            {
+                LOG.warn("Batch client {} answered batch {} with {} actions, "
+                        + "but batch {} is in flight, closing it", clientId_,
+                        actions.getBatchId(), actions.getActions().size(), batchId_);
+                connection.close();
+                return;
+            }
+            inFlight_ = null;
+            expectedRequests_ = Math.max(1, answered.size());
+        }
+
+        for(int i = 0; i < answered.size(); ++i)
+        {
+            answered.get(i).action_.set(actions.getActions().get(i));
+        }
+
+        synchronized(lock_)
+        {
+            if(inFlight_ == null && queued_.size() >= Math.min(expectedRequests_, maxBatchSize_))
+            {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public void onDisconnect()
+    {
+        final List<Request> failed = new ArrayList<>();
+        final List<BatchedGameListener<?, ?>> listeners;
+        synchronized(lock_)
+        {
+            connection_ = null;
+            if(inFlight_ != null)
+            {
+                failed.addAll(inFlight_);
+                inFlight_ = null;
+            }
+            failed.addAll(queued_);
+            queued_.clear();
+            listeners = new ArrayList<>(listeners_);
+        }
+        LOG.info("Batch client {} disconnected, failing {} requests", clientId_, failed.size());
+        final EOFException cause = new EOFException(String.format("Batch client %s disconnected",
+                clientId_));
+        failed.forEach(request -> request.action_.setException(cause));
+        listeners.forEach(BatchedGameListener::markDisconnected);
+    }
+
+    /**
+     * Called once the hub shuts down. Listeners still awaiting the client fail
+     * their connection futures.
+     */
+    void shutdown(final Throwable cause)
+    {
+        final List<BatchedGameListener<?, ?>> listeners;
+        synchronized(lock_)
+        {
+            listeners = new ArrayList<>(listeners_);
+            listeners_.clear();
+        }
+        listeners.forEach(listener -> listener.markConnectionFailed(cause));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [clientId=%s]", HubBatchClient.class.getSimpleName(), clientId_);
+    }
+}
@@ -0,0 +1,266 @@
+package core.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.WireCodec;
+
+import core.metrics.NetworkMetrics;
+
+/**
+ * A single non-blocking client channel owned by a {@link GameHub}. Reads only
+ * ever happen on the hub's event loop; writes may come from any thread, and
+ * whatever the socket can't take immediately is left for the event loop to
+ * finish. Both directions reuse a single buffer for the life of the
+ * connection.
+ *
+ * @author wallstop
+ */
+final class HubConnection
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HubConnection.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final GameHub hub_;
+    private final SocketChannel channel_;
+    private final AtomicBoolean closed_ = new AtomicBoolean(false);
+
+    /* Event loop only. Received bytes live in [0, position) */
+    private ByteBuffer readBuffer_ = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final ByteBufferInputStream handshakeStream_ = new ByteBufferInputStream();
+
+    /* Guarded by writeLock_. Unsent bytes live in [0, position) */
+    private final Object writeLock_ = new Object();
+    private final ByteBufferOutputStream writeStream_ = new ByteBufferOutputStream(
+            ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+    private boolean writePending_ = false;
+    private final Runnable enableWrites_ = this::enableWrites;
+
+    private SelectionKey key_;
+    private volatile HubEndpoint listener_;
+    private volatile WireCodec codec_ = SerializationUtils.JSON;
+
+    HubConnection(final GameHub hub, final SocketChannel channel)
+    {
+        hub_ = hub;
+        channel_ = channel;
+    }
+
+    void register(final Selector selector) throws IOException
+    {
+        key_ = channel_.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Called from the event loop once the client's handshake has been routed
+     * to a listener. Answers the handshake and switches to the negotiated
+     * codec.
+     */
+    void attach(final HubEndpoint listener, final HandshakeResponse response)
+            throws IOException
+    {
+        send(MessageType.HANDSHAKE_RESPONSE, response);
+        codec_ = SerializationUtils.codec(response.getCodec());
+        listener_ = listener;
+    }
+
+    /**
+     * @param type
+     *            Type of a frame
+     * @return The codec frames of that type are encoded with on this
+     *         connection
+     */
+    WireCodec codecFor(final MessageType type)
+    {
+        return Frames.codecFor(type, codec_);
+    }
+
+    /**
+     * Called from the event loop whenever the channel has bytes for us.
+     */
+    void onReadable() throws IOException
+    {
+        final int read = channel_.read(readBuffer_);
+        if(read < 0)
+        {
+            LOG.info("{} reached end of stream", this);
+            close();
+            return;
+        }
+        NetworkMetrics.global().bytesIn(read);
+
+        int frameStart = 0;
+        int frameEnd;
+        while(!closed_.get()
+                && (frameEnd = Frames.frameEnd(readBuffer_, frameStart, readBuffer_.position())) >= 0)
+        {
+            onFrame(frameStart, frameEnd);
+            frameStart = frameEnd;
+        }
+        Frames.discard(readBuffer_, frameStart);
+
+        /* Make sure the next (possibly partial) frame will fit */
+        if(!readBuffer_.hasRemaining())
+        {
+            final int required = readBuffer_.position() >= Frames.HEADER_SIZE ? Frames.frameSize(
+                    readBuffer_, 0) : Frames.HEADER_SIZE;
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(required,
+                    readBuffer_.capacity() << 1));
+            readBuffer_.flip();
+            grown.put(readBuffer_);
+            readBuffer_ = grown;
+        }
+    }
+
+    private void onFrame(final int start, final int end) throws IOException
+    {
+        final HubEndpoint listener = listener_;
+        if(listener != null)
+        {
+            listener.onFrame(readBuffer_, start, end);
+            return;
+        }
+
+        final MessageType type = Frames.type(readBuffer_, start);
+        if(type != MessageType.HANDSHAKE)
+        {
+            LOG.warn("Expected a {} frame, but received a {} frame, closing {}",
+                    MessageType.HANDSHAKE, type, this);
+            close();
+            return;
+        }
+
+        final Handshake handshake;
+        try
+        {
+            handshake = SerializationUtils.readValue(
+                    handshakeStream_.wrap(readBuffer_, start + Frames.HEADER_SIZE, end),
+                    Handshake.class);
+        }
+        catch(final IllegalArgumentException e)
+        {
+            LOG.warn("Received a malformed handshake, closing {}", this, e);
+            close();
+            return;
+        }
+        hub_.route(this, handshake);
+    }
+
+    /**
+     * Sends a single frame holding the provided value to the client. Safe to
+     * call from any thread.
+     */
+    void send(final MessageType type, final Object value) throws IOException
+    {
+        synchronized(writeLock_)
+        {
+            final int start = Frames.beginFrame(writeStream_, type);
+            try
+            {
+                codecFor(type).writeValue(value, writeStream_);
+            }
+            catch(final RuntimeException e)
+            {
+                writeStream_.buffer().position(start);
+                throw e;
+            }
+            Frames.endFrame(writeStream_.buffer(), start);
+
+            /* If the event loop is already draining, it'll pick this up too */
+            if(writePending_)
+            {
+                return;
+            }
+            drain();
+            if(writeStream_.buffer().position() == 0)
+            {
+                return;
+            }
+            writePending_ = true;
+        }
+        hub_.execute(enableWrites_);
+    }
+
+    /* Caller must hold writeLock_ */
+    private void drain() throws IOException
+    {
+        final ByteBuffer buffer = writeStream_.buffer();
+        buffer.flip();
+        try
+        {
+            NetworkMetrics.global().bytesOut(channel_.write(buffer));
+        }
+        finally
+        {
+            buffer.compact();
+        }
+    }
+
+    private void enableWrites()
+    {
+        if(key_.isValid())
+        {
+            key_.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Called from the event loop whenever the channel can take more bytes.
+     */
+    void onWritable() throws IOException
+    {
+        synchronized(writeLock_)
+        {
+            drain();
+            if(writeStream_.buffer().position() == 0)
+            {
+                writePending_ = false;
+                key_.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    void close()
+    {
+        if(!closed_.compareAndSet(false, true))
+        {
+            return;
+        }
+        if(key_ != null)
+        {
+            key_.cancel();
+        }
+        try
+        {
+            channel_.close();
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while closing {}, swallowing", this, e);
+        }
+
+        final HubEndpoint listener = listener_;
+        if(listener != null)
+        {
+            listener.onDisconnect();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [channel=%s, listener=%s]", HubConnection.class.getSimpleName(),
+                channel_, listener_);
+    }
+}
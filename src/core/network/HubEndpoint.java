@@ -0,0 +1,24 @@
+package core.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Whatever a {@link HubConnection} delivers its frames to once the client's
+ * handshake has been routed. Both methods are called from the hub's event
+ * loop, so implementations must not block in them.
+ *
+ * @author wallstop
+ */
+interface HubEndpoint
+{
+    /**
+     * Called with every frame the client sends. The frame lives in [start,
+     * end) of source, and only for the duration of the call.
+     */
+    void onFrame(ByteBuffer source, int start, int end);
+
+    /**
+     * Called once the client's connection has been closed, from either side.
+     */
+    void onDisconnect();
+}
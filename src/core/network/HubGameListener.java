@@ -0,0 +1,249 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.Validate;
+
+import com.google.common.util.concurrent.Futures;
+
+import core.Player;
+
+/**
+ * GameListener whose client is multiplexed over a {@link GameHub}. No thread is
+ * dedicated to this listener; the hub's event loop copies frames into this
+ * listener's inbound buffer as they arrive, and the thread calling
+ * {@link #requestChooseAction(Object)} decodes them straight out of it.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+class HubGameListener<S, A> extends FramedGameListener<S, A> implements HubEndpoint
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HubGameListener.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final GameHub hub_;
+    private final String gameId_;
+    private final Player player_;
+
+    /* Guarded by itself. Received frames live in [0, position) */
+    private final ByteBufferOutputStream inbound_ = new ByteBufferOutputStream(
+            ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+    private final ByteBufferInputStream payloadStream_ = new ByteBufferInputStream();
+    private boolean disconnected_ = false;
+    /* End of the frame last returned by receiveFrame, discarded by the next one */
+    private int consumed_ = 0;
+    private MessageType frameType_ = null;
+
+    private volatile HubConnection hubConnection_;
+
+    HubGameListener(final GameHub hub, final String gameId, final Player player,
+            final Class<A> actionClass)
+    {
+        super(actionClass);
+        hub_ = hub;
+        gameId_ = gameId;
+        player_ = player;
+    }
+
+    String getGameId()
+    {
+        return gameId_;
+    }
+
+    Player getPlayer()
+    {
+        return player_;
+    }
+
+    /**
+     * Called from the hub's event loop once a client has handshaked as this
+     * listener's game and player.
+     */
+    void attach(final HubConnection connection)
+    {
+        hubConnection_ = connection;
+        LOG.info("Player {} of game {} connected via {}", player_, gameId_, connection);
+        markConnected();
+    }
+
+    @Override
+    public void onFrame(final ByteBuffer source, final int start, final int end)
+    {
+        synchronized(inbound_)
+        {
+            Frames.copyFrame(source, start, end, inbound_);
+            inbound_.notifyAll();
+        }
+    }
+
+    @Override
+    public void onDisconnect()
+    {
+        markDisconnected();
+        synchronized(inbound_)
+        {
+            disconnected_ = true;
+            inbound_.notifyAll();
+        }
+    }
+
+    @Override
+    protected void sendFrame(final MessageType type, final Object value) throws IOException
+    {
+        hubConnection_.send(type, value);
+    }
+
+    @Override
+    protected MessageType receiveFrame(final long timeoutNanos) throws IOException
+    {
+        synchronized(inbound_)
+        {
+            Frames.discard(inbound_.buffer(), consumed_);
+            consumed_ = 0;
+            frameType_ = null;
+
+            final ByteBuffer buffer = awaitFrame(timeoutNanos);
+            consumed_ = Frames.frameEnd(buffer, 0, buffer.position());
+            frameType_ = Frames.type(buffer, 0);
+            return frameType_;
+        }
+    }
+
+    /**
+     * @return Number of answers that have arrived but were never received, so
+     *         will never be skipped by this listener
+     */
+    int getUnreadAnswers()
+    {
+        synchronized(inbound_)
+        {
+            final ByteBuffer buffer = inbound_.buffer();
+            int unread = 0;
+            try
+            {
+                for(int start = consumed_, end = Frames.frameEnd(buffer, start, buffer
+                        .position()); end >= 0; start = end, end = Frames.frameEnd(buffer, start,
+                        buffer.position()))
+                {
+                    if(isAnswer(Frames.type(buffer, start)))
+                    {
+                        ++unread;
+                    }
+                }
+            }
+            catch(final IOException e)
+            {
+                LOG.warn("Player {} of game {} buffered a garbled frame", player_, gameId_, e);
+            }
+            return unread;
+        }
+    }
+
+    @Override
+    protected <T> T decodeFrame(final Class<T> clazz)
+    {
+        synchronized(inbound_)
+        {
+            Validate.notNull(frameType_, "Cannot decode a frame before receiving one");
+            /* The event loop may have grown the buffer since, so wrap it again */
+            return hubConnection_.codecFor(frameType_).readValue(
+                    payloadStream_.wrap(inbound_.buffer(), Frames.HEADER_SIZE, consumed_), clazz);
+        }
+    }
+
+    /* Caller must hold the inbound_ lock */
+    private ByteBuffer awaitFrame(final long timeoutNanos) throws IOException
+    {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        try
+        {
+            while(Frames.frameEnd(inbound_.buffer(), 0, inbound_.buffer().position()) < 0)
+            {
+                if(disconnected_)
+                {
+                    throw new EOFException(String.format("Player %s of game %s disconnected",
+                            player_, gameId_));
+                }
+                if(timeoutNanos == NO_TIMEOUT)
+                {
+                    inbound_.wait();
+                    continue;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                {
+                    throw new SocketTimeoutException(String.format(
+                            "Player %s of game %s sent no frame within %dns", player_, gameId_,
+                            timeoutNanos));
+                }
+                TimeUnit.NANOSECONDS.timedWait(inbound_, remaining);
+            }
+            return inbound_.buffer();
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format(
+                    "Interrupted while awaiting a frame from Player %s of game %s", player_,
+                    gameId_));
+        }
+    }
+
+    @Override
+    public void connect()
+    {
+        Futures.getUnchecked(connectionFuture());
+    }
+
+    /* The hub attaches the client from its event loop */
+    @Override
+    public boolean connectBlocks()
+    {
+        return false;
+    }
+
+    @Override
+    public void disconnect()
+    {
+        hub_.forget(this);
+        final HubConnection connection = hubConnection_;
+        if(connection != null)
+        {
+            connection.close();
+            LOG.info("Disconnected Player {} of game {}", player_, gameId_);
+        }
+        else
+        {
+            markConnectionFailed(new IOException(String.format(
+                    "Disconnected before Player %s of game %s connected", player_, gameId_)));
+            LOG.info("Disconnected Player {} of game {} before it connected", player_, gameId_);
+        }
+    }
+
+    @Override
+    public int getPort()
+    {
+        return hub_.getPort();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [gameId=%s, player=%s]", HubGameListener.class.getSimpleName(),
+                gameId_, player_);
+    }
+}
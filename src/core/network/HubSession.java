@@ -0,0 +1,323 @@
+package core.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.SerializationUtils;
+import utils.Validate;
+
+import core.Player;
+import core.Score;
+
+/**
+ * Server-side end of a single session client on a {@link GameHub}. Every
+ * {@link SessionGameListener} assigned to the session id is queued up here and
+ * played over the session's one connection, one game at a time: each game is
+ * opened with a {@link GameStart} and closed with a {@link GameEnd}, after
+ * which the next queued game starts right away.
+ *
+ * Once the session is closed (see {@link GameHub#closeSession(String)}) and
+ * its last game has ended, the client is sent a {@link MessageType#SHUTDOWN}
+ * frame so it can exit.
+ *
+ * Sessions a client opened by joining the hub's {@link Lobby} belong to that
+ * one connection: once it is gone the session never takes another client, and
+ * games the lobby still assigns it fail to connect straight away.
+ *
+ * @author wallstop
+ */
+final class HubSession implements HubEndpoint
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HubSession.class);
+
+    private final GameHub hub_;
+    private final String sessionId_;
+    private final boolean lobby_;
+
+    private final Object lock_ = new Object();
+    /* Guarded by lock_ */
+    private final Queue<SessionGameListener<?, ?>> queued_ = new ArrayDeque<>();
+    private SessionGameListener<?, ?> current_ = null;
+    private HubConnection connection_ = null;
+    private Handshake handshake_ = null;
+    private boolean closing_ = false;
+    /* Set once the client of a lobby session has disconnected */
+    private boolean departed_ = false;
+    private long gamesPlayed_ = 0;
+    /* Late answers to timed out requests of games that have already ended */
+    private int framesToSkip_ = 0;
+
+    HubSession(final GameHub hub, final String sessionId)
+    {
+        this(hub, sessionId, false);
+    }
+
+    HubSession(final GameHub hub, final String sessionId, final boolean lobby)
+    {
+        hub_ = hub;
+        sessionId_ = sessionId;
+        lobby_ = lobby;
+    }
+
+    String getSessionId()
+    {
+        return sessionId_;
+    }
+
+    <S, A> SessionGameListener<S, A> newListener(final String gameId, final Player player,
+            final Class<A> actionClass)
+    {
+        final SessionGameListener<S, A> listener = new SessionGameListener<>(hub_, this, gameId,
+                player, actionClass);
+        synchronized(lock_)
+        {
+            Validate.isTrue(!closing_, String.format(
+                    "Cannot add game %s to session %s, it has been closed", gameId, sessionId_));
+            if(departed_)
+            {
+                listener.markConnectionFailed(new IOException(String.format(
+                        "Session %s left the lobby before game %s started", sessionId_, gameId)));
+                return listener;
+            }
+            queued_.add(listener);
+            startNext();
+        }
+        return listener;
+    }
+
+    /**
+     * Called from the event loop with the handshake of a client claiming this
+     * session id.
+     *
+     * @return False if another client already holds the id, in which case the
+     *         connection was left alone
+     */
+    boolean attach(final HubConnection connection, final Handshake handshake) throws IOException
+    {
+        synchronized(lock_)
+        {
+            if(connection_ != null || departed_)
+            {
+                return false;
+            }
+            final List<String> features = new ArrayList<>();
+            features.add(Handshake.SESSIONS);
+            /* Whether deltas are actually sent is up to each game's listener */
+            if(handshake.getFeatures().contains(Handshake.DELTA_STATES))
+            {
+                features.add(Handshake.DELTA_STATES);
+                if(handshake.getFeatures().contains(Handshake.STATE_PATCHES))
+                {
+                    features.add(Handshake.STATE_PATCHES);
+                }
+            }
+            /* Every game's listener is handed this same handshake, so they all agree to it */
+            if(handshake.getFeatures().contains(Handshake.ACTION_INDICES))
+            {
+                features.add(Handshake.ACTION_INDICES);
+            }
+            connection.attach(this, new HandshakeResponse(SerializationUtils.negotiateCodec(
+                    handshake.getCodecs()).name(), features));
+            connection_ = connection;
+            handshake_ = handshake;
+            LOG.info("Session {} connected via {}, {} games queued", sessionId_, connection,
+                    queued_.size());
+            startNext();
+        }
+        return true;
+    }
+
+    /* Caller must hold lock_ */
+    private void startNext()
+    {
+        if(connection_ == null || current_ != null)
+        {
+            return;
+        }
+        final SessionGameListener<?, ?> next = queued_.poll();
+        if(next == null)
+        {
+            if(closing_)
+            {
+                sendShutdown();
+            }
+            return;
+        }
+
+        current_ = next;
+        next.acceptHandshake(handshake_);
+        try
+        {
+            connection_.send(MessageType.GAME_START, new GameStart(next.getGameId(), next
+                    .getPlayer()));
+        }
+        catch(final IOException e)
+        {
+            LOG.warn("Could not start game {} on session {}, closing it", next.getGameId(),
+                    sessionId_, e);
+            connection_.close();
+            next.markConnectionFailed(e);
+            return;
+        }
+        next.attach(connection_);
+    }
+
+    /**
+     * Ends the listener's game, telling the client how it went if the game
+     * was under way, and starts the next queued game.
+     */
+    void end(final SessionGameListener<?, ?> listener, final Score score)
+    {
+        synchronized(lock_)
+        {
+            if(queued_.remove(listener))
+            {
+                LOG.info("Game {} left session {} before it started", listener.getGameId(),
+                        sessionId_);
+                return;
+            }
+            if(current_ != listener)
+            {
+                return;
+            }
+            current_ = null;
+            ++gamesPlayed_;
+            /* Late answers already buffered by the listener left with it */
+            framesToSkip_ += Math.max(0, listener.getLateResponses()
+                    - listener.getUnreadAnswers());
+            if(connection_ != null)
+            {
+                try
+                {
+                    connection_.send(MessageType.GAME_END, new GameEnd(listener.getGameId(),
+                            score));
+                }
+                catch(final IOException e)
+                {
+                    LOG.warn("Could not end game {} on session {}, closing it",
+                            listener.getGameId(), sessionId_, e);
+                    connection_.close();
+                    return;
+                }
+            }
+            startNext();
+        }
+    }
+
+    /**
+     * Stops taking new games. The client is told to shut down once every game
+     * already queued has been played.
+     */
+    void close()
+    {
+        synchronized(lock_)
+        {
+            closing_ = true;
+            if(current_ == null && queued_.isEmpty() && connection_ != null)
+            {
+                sendShutdown();
+            }
+        }
+    }
+
+    /* Caller must hold lock_. The client hangs up once it has read this */
+    private void sendShutdown()
+    {
+        LOG.info("Session {} is done after {} games, shutting its client down", sessionId_,
+                gamesPlayed_);
+        try
+        {
+            connection_.send(MessageType.SHUTDOWN, sessionId_);
+        }
+        catch(final IOException e)
+        {
+            LOG.warn("Could not shut down session {}, closing it", sessionId_, e);
+            connection_.close();
+        }
+    }
+
+    @Override
+    public void onFrame(final ByteBuffer source, final int start, final int end)
+    {
+        final HubConnection connection;
+        /* Delivered under the lock so end() sees every frame its listener was handed */
+        synchronized(lock_)
+        {
+            if(framesToSkip_ > 0)
+            {
+                --framesToSkip_;
+                return;
+            }
+            if(current_ != null)
+            {
+                current_.onFrame(source, start, end);
+                return;
+            }
+            connection = connection_;
+        }
+        if(connection != null)
+        {
+            LOG.warn("Session {} sent a frame between games, closing it", sessionId_);
+            connection.close();
+        }
+    }
+
+    @Override
+    public void onDisconnect()
+    {
+        final SessionGameListener<?, ?> current;
+        final int queued;
+        synchronized(lock_)
+        {
+            connection_ = null;
+            handshake_ = null;
+            framesToSkip_ = 0;
+            current = current_;
+            current_ = null;
+            queued = queued_.size();
+            departed_ = lobby_;
+        }
+        LOG.info("Session {} disconnected, {} games still queued for it", sessionId_, queued);
+        if(current != null)
+        {
+            current.onDisconnect();
+        }
+        if(lobby_)
+        {
+            hub_.leaveLobby(sessionId_);
+        }
+    }
+
+    /**
+     * Called once the hub shuts down. Games still queued fail their
+     * connection futures.
+     */
+    void shutdown(final Throwable cause)
+    {
+        final List<SessionGameListener<?, ?>> queued;
+        synchronized(lock_)
+        {
+            closing_ = true;
+            queued = new ArrayList<>(queued_);
+            queued_.clear();
+            if(current_ == null && connection_ != null)
+            {
+                sendShutdown();
+            }
+        }
+        queued.forEach(listener -> listener.markConnectionFailed(cause));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [sessionId=%s]", HubSession.class.getSimpleName(), sessionId_);
+    }
+}
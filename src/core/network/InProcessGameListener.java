@@ -0,0 +1,128 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GameListener whose client lives in the same JVM and is reached through an
+ * {@link InProcessTransport} rather than a socket. Hand the client its end of
+ * the transport (see {@link #getClientTransport()}), typically by creating a
+ * {@link GameClient} on it; from there the two talk exactly as they would over
+ * the network, handshake included.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public class InProcessGameListener<S, A> extends FramedGameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(InProcessGameListener.class);
+
+    /* In-process listeners are not bound to any port */
+    public static final int NO_PORT = -1;
+
+    private final InProcessTransport clientConnection_;
+    private final InProcessTransport clientTransport_;
+
+    /**
+     * Creates a listener that hands payloads to its client as they are.
+     *
+     * @param actionClass
+     */
+    public InProcessGameListener(final Class<A> actionClass)
+    {
+        this(actionClass, InProcessTransport.DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param actionClass
+     * @param capacity
+     *            Number of frames that can be in flight in either direction, a
+     *            positive power of two
+     * @param serialize
+     *            True to encode every payload with the negotiated codec, as a
+     *            socket would, false to hand the values over as they are
+     */
+    public InProcessGameListener(final Class<A> actionClass, final int capacity,
+            final boolean serialize)
+    {
+        super(actionClass);
+        final InProcessTransport[] ends = InProcessTransport.pair(capacity, serialize);
+        clientConnection_ = ends[0];
+        clientTransport_ = ends[1];
+    }
+
+    /**
+     * @return The end of the transport the client should use
+     */
+    public FrameTransport getClientTransport()
+    {
+        return clientTransport_;
+    }
+
+    @Override
+    protected void sendFrame(final MessageType type, final Object value) throws IOException
+    {
+        clientConnection_.send(type, value);
+    }
+
+    @Override
+    protected MessageType receiveFrame(final long timeoutNanos) throws IOException
+    {
+        final MessageType type = clientConnection_.readFrame(timeoutNanos, TimeUnit.NANOSECONDS);
+        if(type == null)
+        {
+            throw new EOFException("In-process client closed the connection");
+        }
+        return type;
+    }
+
+    @Override
+    protected <T> T decodeFrame(final Class<T> clazz)
+    {
+        return clientConnection_.decodePayload(clazz);
+    }
+
+    /**
+     * Blocks until the client has handshaked on its end of the transport.
+     */
+    @Override
+    public void connect()
+    {
+        try
+        {
+            handshake(clientConnection_);
+            markConnected();
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while awaiting an in-process client", e);
+            markConnectionFailed(e);
+            throw new RuntimeException(e);
+        }
+        catch(final RuntimeException e)
+        {
+            markConnectionFailed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void disconnect()
+    {
+        clientConnection_.close();
+        markDisconnected();
+        LOG.info("In-process client connection disconnected");
+    }
+
+    @Override
+    public int getPort()
+    {
+        return NO_PORT;
+    }
+}
@@ -0,0 +1,332 @@
+package core.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import core.metrics.NetworkMetrics;
+
+/**
+ * One end of a pair of transports that hand frames straight to each other
+ * through bounded, lock-free rings, for listeners and clients that live in
+ * the same JVM (see {@link InProcessGameListener}). Nothing touches a socket.
+ *
+ * By default payloads are handed over as they are: the state a listener sends
+ * is the very object its client's policy sees, so neither side may change a
+ * value once it has been sent. A payload is only converted (through a tree,
+ * never through bytes) if it is decoded as a class it isn't an instance of.
+ * Pairs created to serialize instead encode every payload with the negotiated
+ * codec and decode it on the other side, exactly as a socket would, at the
+ * cost of the copies.
+ *
+ * Not thread safe; one thread may read while another writes, but no more.
+ *
+ * @author wallstop
+ */
+public final class InProcessTransport implements FrameTransport
+{
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /* How long a sender waits between looks at a full ring */
+    private static final long FULL_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    /* A single frame. The payload is the value itself, or its encoding */
+    private static final class Frame
+    {
+        private final MessageType type_;
+        private final Object payload_;
+
+        private Frame(final MessageType type, final Object payload)
+        {
+            type_ = type;
+            payload_ = payload;
+        }
+    }
+
+    /*
+     * Bounded ring for a single producer and a single consumer. The consumer
+     * parks while it's empty and the producer wakes it on every frame.
+     */
+    private static final class FrameRing
+    {
+        private final Frame[] slots_;
+        /* Sequence number last published in each slot */
+        private final AtomicLongArray published_;
+        private final int mask_;
+        /* Next sequence to publish, only written by the producer */
+        private volatile long head_ = 0;
+        /* Next sequence to consume, only written by the consumer */
+        private volatile long tail_ = 0;
+        /* Consumer parked on the ring, if any */
+        private volatile Thread waiter_ = null;
+
+        private FrameRing(final int capacity)
+        {
+            slots_ = new Frame[capacity];
+            published_ = new AtomicLongArray(capacity);
+            for(int i = 0; i < capacity; ++i)
+            {
+                published_.set(i, -1);
+            }
+            mask_ = capacity - 1;
+        }
+
+        private boolean offer(final Frame frame)
+        {
+            final long head = head_;
+            if(head - tail_ >= slots_.length)
+            {
+                return false;
+            }
+            final int index = (int) head & mask_;
+            slots_[index] = frame;
+            published_.lazySet(index, head);
+            head_ = head + 1;
+            wake();
+            return true;
+        }
+
+        private Frame poll()
+        {
+            final long tail = tail_;
+            final int index = (int) tail & mask_;
+            if(published_.get(index) != tail)
+            {
+                return null;
+            }
+            final Frame frame = slots_[index];
+            slots_[index] = null;
+            tail_ = tail + 1;
+            return frame;
+        }
+
+        private void wake()
+        {
+            final Thread waiter = waiter_;
+            if(waiter != null)
+            {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /* Shared by both ends, so closing either one closes the pair */
+    private static final class Link
+    {
+        private volatile boolean closed_ = false;
+    }
+
+    private final FrameRing inbound_;
+    private final FrameRing outbound_;
+    private final Link link_;
+    private final boolean serialize_;
+
+    /* Only used to encode when serializing */
+    private final ByteBufferOutputStream writeStream_;
+    private final ByteBufferInputStream payloadStream_ = new ByteBufferInputStream();
+
+    private Frame frame_ = null;
+    private volatile WireCodec codec_ = SerializationUtils.JSON;
+
+    private InProcessTransport(final FrameRing inbound, final FrameRing outbound,
+            final Link link, final boolean serialize)
+    {
+        inbound_ = inbound;
+        outbound_ = outbound;
+        link_ = link;
+        serialize_ = serialize;
+        writeStream_ = serialize ? new ByteBufferOutputStream(ByteBuffer
+                .allocate(FramedConnection.DEFAULT_BUFFER_SIZE)) : null;
+    }
+
+    /**
+     * Creates two connected ends, each of which receives what the other
+     * sends.
+     *
+     * @param capacity
+     *            Number of frames that can be in flight in either direction, a
+     *            positive power of two
+     * @param serialize
+     *            True to send payloads as their encoding, false to send the
+     *            values themselves
+     * @return Both ends, the listener's first
+     */
+    public static InProcessTransport[] pair(final int capacity, final boolean serialize)
+    {
+        Validate.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1, String.format(
+                "Cannot create a transport of capacity %d, it must be a positive power of two",
+                capacity));
+        final FrameRing toClient = new FrameRing(capacity);
+        final FrameRing toListener = new FrameRing(capacity);
+        final Link link = new Link();
+        return new InProcessTransport[] {
+                new InProcessTransport(toListener, toClient, link, serialize),
+                new InProcessTransport(toClient, toListener, link, serialize) };
+    }
+
+    public boolean isSerializing()
+    {
+        return serialize_;
+    }
+
+    @Override
+    public void send(final MessageType type, final Object value) throws IOException
+    {
+        Validate.notNull(type, "Cannot send a frame with a null MessageType");
+        final Frame frame = new Frame(type, serialize_ ? encode(type, value) : value);
+        while(!outbound_.offer(frame))
+        {
+            /* Only a reader that has fallen far behind fills the ring */
+            if(link_.closed_)
+            {
+                throw new ClosedChannelException();
+            }
+            LockSupport.parkNanos(FULL_BACKOFF_NANOS);
+        }
+        if(link_.closed_)
+        {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private byte[] encode(final MessageType type, final Object value)
+    {
+        writeStream_.buffer().clear();
+        codecFor(type).writeValue(value, writeStream_);
+        final ByteBuffer encoded = writeStream_.buffer();
+        NetworkMetrics.global().bytesOut(encoded.position());
+        return Arrays.copyOf(encoded.array(), encoded.position());
+    }
+
+    @Override
+    public MessageType readFrame(final long timeout, final TimeUnit unit) throws IOException
+    {
+        Validate.isTrue(timeout >= 0, "Cannot read a frame with a negative timeout");
+        Validate.notNull(unit, "Cannot read a frame with a null TimeUnit");
+        final long timeoutNanos = unit.toNanos(timeout);
+        final boolean timed = timeoutNanos != Long.MAX_VALUE;
+        final long deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+
+        frame_ = null;
+        Frame frame;
+        while((frame = inbound_.poll()) == null)
+        {
+            if(link_.closed_)
+            {
+                /* Whatever was sent before the close is still delivered */
+                frame = inbound_.poll();
+                if(frame == null)
+                {
+                    return null;
+                }
+                break;
+            }
+            final long remaining = timed ? deadline - System.nanoTime() : 0;
+            if(timed && remaining <= 0)
+            {
+                throw new SocketTimeoutException(String.format(
+                        "No frame arrived within %dns", timeoutNanos));
+            }
+            inbound_.waiter_ = Thread.currentThread();
+            /* A frame published before the waiter was set would never wake us */
+            if(inbound_.head_ == inbound_.tail_ && !link_.closed_)
+            {
+                if(timed)
+                {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                else
+                {
+                    LockSupport.park(this);
+                }
+            }
+            inbound_.waiter_ = null;
+        }
+        frame_ = frame;
+        if(serialize_)
+        {
+            NetworkMetrics.global().bytesIn(((byte[]) frame.payload_).length);
+        }
+        return frame.type_;
+    }
+
+    @Override
+    public <T> T decodePayload(final Class<T> clazz)
+    {
+        Validate.notNull(frame_, "Cannot decode a payload before reading a frame");
+        final Object payload = frame_.payload_;
+        if(serialize_)
+        {
+            final byte[] bytes = (byte[]) payload;
+            return codecFor(frame_.type_).readValue(payloadStream_.wrap(ByteBuffer.wrap(bytes), 0,
+                    bytes.length), clazz);
+        }
+        if(payload == null || clazz.isInstance(payload))
+        {
+            return clazz.cast(payload);
+        }
+        /* Sent as one class, read as another, such as a state read as a tree */
+        final JsonNode tree = payload instanceof JsonNode ? (JsonNode) payload
+                : SerializationUtils.valueToTree(payload);
+        return SerializationUtils.treeToValue(tree, clazz);
+    }
+
+    /* Values handed over as they are get encoded here, as they would have been sent */
+    @Override
+    public byte[] copyPayload()
+    {
+        Validate.notNull(frame_, "Cannot copy a payload before reading a frame");
+        final Object payload = frame_.payload_;
+        if(serialize_)
+        {
+            return ((byte[]) payload).clone();
+        }
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        codecFor(frame_.type_).writeValue(payload, encoded);
+        return encoded.toByteArray();
+    }
+
+    @Override
+    public void setCodec(final WireCodec codec)
+    {
+        Validate.notNull(codec, "Cannot frame with a null codec");
+        codec_ = codec;
+    }
+
+    @Override
+    public WireCodec getCodec()
+    {
+        return codec_;
+    }
+
+    private WireCodec codecFor(final MessageType type)
+    {
+        return Frames.codecFor(type, codec_);
+    }
+
+    /**
+     * Closes both ends. Frames already sent can still be read; after them,
+     * reads on either end return null.
+     */
+    @Override
+    public void close()
+    {
+        link_.closed_ = true;
+        inbound_.wake();
+        outbound_.wake();
+    }
+}
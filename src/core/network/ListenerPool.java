@@ -0,0 +1,359 @@
+package core.network;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Pool of server sockets bound to ephemeral ports, each already accepting its
+ * next client. A {@link NetworkAutomator} created on a pool leases one
+ * listener per player instead of binding a fresh server socket for every
+ * player of every game. Its listeners give their sockets back on
+ * {@link NetworkAutomator#shutdown()}, and the pool retires them.
+ *
+ * Every idle and leased socket accepts through a single selector thread, so
+ * waiting for clients takes no thread per socket. A client's handshake is
+ * read on a short-lived thread once it has connected. Since the accept is
+ * already pending when a listener is leased, a client connecting to a leased
+ * port is picked up right away.
+ *
+ * Each socket serves a single lease: once its listener is done with it, it is
+ * closed and a fresh one is bound in its place, so a client that connects to
+ * a port after its game was shut down is refused instead of being handed to
+ * another game.
+ *
+ * @author wallstop
+ */
+public class ListenerPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ListenerPool.class);
+
+    private final Queue<PooledSocket> idle_ = new ConcurrentLinkedQueue<>();
+    private final Set<PooledSocket> all_ = ConcurrentHashMap.newKeySet();
+    private final Selector selector_;
+    /* Selector registrations, which are only safe to change from the acceptor thread */
+    private final Queue<Runnable> pendingTasks_ = new ConcurrentLinkedQueue<>();
+    private final Thread acceptor_;
+    private final ExecutorService handshakes_ = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat(ListenerPool.class.getSimpleName() + "-handshake-%d").build());
+
+    private volatile boolean running_ = true;
+
+    /**
+     * @param initialSize
+     *            Number of server sockets to bind up front. The pool grows
+     *            past this on demand
+     * @throws IOException
+     *             if the sockets could not be bound
+     */
+    public ListenerPool(final int initialSize) throws IOException
+    {
+        Validate.isTrue(initialSize >= 0, String.format(
+                "Cannot create a ListenerPool with %d sockets", initialSize));
+        selector_ = Selector.open();
+        acceptor_ = new Thread(this::runAcceptLoop, ListenerPool.class.getSimpleName()
+                + "-acceptor");
+        acceptor_.setDaemon(true);
+        acceptor_.start();
+        try
+        {
+            for(int i = 0; i < initialSize; ++i)
+            {
+                idle_.add(newSocket());
+            }
+        }
+        catch(final IOException e)
+        {
+            shutdown();
+            throw e;
+        }
+        LOG.info("Created {} with {} sockets", ListenerPool.class.getSimpleName(), initialSize);
+    }
+
+    /**
+     * Leases a listener on an idle socket, binding a new one if none are
+     * idle. The socket is replaced by a fresh one when the listener
+     * disconnects.
+     *
+     * @param actionClass
+     *            Class of the actions the client will respond with
+     * @return A listener whose client is already being accepted
+     * @throws IOException
+     *             if a new socket was needed but could not be bound
+     */
+    public <S, A> GameListener<S, A> lease(final Class<A> actionClass) throws IOException
+    {
+        Validate.isTrue(running_, "Cannot lease from a ListenerPool that has been shut down");
+        PooledSocket socket = idle_.poll();
+        if(socket == null)
+        {
+            socket = newSocket();
+            LOG.info("No idle sockets, grew {} to {}", ListenerPool.class.getSimpleName(),
+                    all_.size());
+        }
+        return new PooledGameListener<>(this, socket, actionClass);
+    }
+
+    private PooledSocket newSocket() throws IOException
+    {
+        final ServerSocketChannel channel = SocketGameListener.bind(0);
+        try
+        {
+            channel.configureBlocking(false);
+        }
+        catch(final IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        final PooledSocket socket = new PooledSocket(channel);
+        all_.add(socket);
+        execute(socket::register);
+        return socket;
+    }
+
+    /* Runs the provided task on the acceptor thread */
+    private void execute(final Runnable task)
+    {
+        pendingTasks_.add(task);
+        selector_.wakeup();
+    }
+
+    private void runAcceptLoop()
+    {
+        while(running_)
+        {
+            try
+            {
+                selector_.select();
+                Runnable task;
+                while((task = pendingTasks_.poll()) != null)
+                {
+                    task.run();
+                }
+                final Iterator<SelectionKey> selectedKeys = selector_.selectedKeys().iterator();
+                while(selectedKeys.hasNext())
+                {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if(key.isValid() && key.isAcceptable())
+                    {
+                        ((PooledSocket) key.attachment()).accept(key);
+                    }
+                }
+            }
+            catch(final ClosedSelectorException e)
+            {
+                break;
+            }
+            catch(final Exception e)
+            {
+                LOG.error("Caught unexpected exception in {} acceptor, swallowing",
+                        ListenerPool.class.getSimpleName(), e);
+            }
+        }
+        try
+        {
+            selector_.close();
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while closing selector, swallowing", e);
+        }
+    }
+
+    /**
+     * Reads the handshake of a client that just connected off the acceptor
+     * thread.
+     *
+     * @param handshake
+     *            Reads and answers the handshake
+     */
+    void handshake(final Runnable handshake)
+    {
+        handshakes_.execute(handshake);
+    }
+
+    /**
+     * Closes a socket once its listener is done with it, along with any client
+     * it accepted that the listener didn't take, and binds a fresh idle socket
+     * in its place.
+     *
+     * @param socket
+     *            Socket to retire
+     */
+    void release(final PooledSocket socket)
+    {
+        socket.closeUnclaimed();
+        all_.remove(socket);
+        if(!running_)
+        {
+            return;
+        }
+        try
+        {
+            final PooledSocket replacement = newSocket();
+            idle_.add(replacement);
+            /* Pairs with shutdown(), which sets running_ before closing idle sockets */
+            if(!running_ && idle_.remove(replacement))
+            {
+                replacement.closeUnclaimed();
+            }
+        }
+        catch(final IOException e)
+        {
+            LOG.warn("Could not bind a socket to replace port {}, the pool will grow on demand",
+                    socket.getPort(), e);
+        }
+    }
+
+    public int getIdleCount()
+    {
+        return idle_.size();
+    }
+
+    /**
+     * @return Number of sockets the pool has open, idle or leased
+     */
+    public int size()
+    {
+        return all_.size();
+    }
+
+    /**
+     * Closes every socket of the pool, leased or not. Listeners still
+     * awaiting a client fail to connect, clients that are already connected
+     * keep playing.
+     */
+    public void shutdown()
+    {
+        running_ = false;
+        all_.forEach(PooledSocket::close);
+        PooledSocket idle;
+        while((idle = idle_.poll()) != null)
+        {
+            idle.closeUnclaimed();
+        }
+        selector_.wakeup();
+        /* Handshakes already being read are let finish */
+        handshakes_.shutdown();
+        LOG.info("{} shut down", ListenerPool.class.getSimpleName());
+    }
+
+    /**
+     * A bound server socket along with the accept of its one client
+     */
+    final class PooledSocket
+    {
+        final ServerSocketChannel channel_;
+        /* Completed by the acceptor thread, or failed once the socket is closed */
+        final SettableFuture<SocketChannel> pendingAccept_ = SettableFuture.create();
+
+        private PooledSocket(final ServerSocketChannel channel)
+        {
+            channel_ = channel;
+        }
+
+        private void register()
+        {
+            try
+            {
+                channel_.register(selector_, SelectionKey.OP_ACCEPT, this);
+            }
+            catch(final ClosedChannelException e)
+            {
+                pendingAccept_.setException(e);
+            }
+        }
+
+        private void accept(final SelectionKey key)
+        {
+            try
+            {
+                final SocketChannel client = channel_.accept();
+                if(client == null)
+                {
+                    return;
+                }
+                key.cancel();
+                if(!pendingAccept_.set(client))
+                {
+                    client.close();
+                }
+            }
+            catch(final IOException e)
+            {
+                key.cancel();
+                pendingAccept_.setException(e);
+            }
+        }
+
+        int getPort()
+        {
+            return channel_.socket().getLocalPort();
+        }
+
+        private void close()
+        {
+            try
+            {
+                channel_.close();
+            }
+            catch(final Exception e)
+            {
+                LOG.error("Caught unexpected exception while closing pooled socket on port {}, "
+                        + "swallowing", getPort(), e);
+            }
+            pendingAccept_.setException(new ClosedChannelException());
+        }
+
+        /* Closes the socket along with any client it accepted that nobody took */
+        private void closeUnclaimed()
+        {
+            close();
+            Futures.addCallback(pendingAccept_, new FutureCallback<SocketChannel>()
+            {
+                @Override
+                public void onSuccess(final SocketChannel client)
+                {
+                    try
+                    {
+                        client.close();
+                    }
+                    catch(final IOException e)
+                    {
+                        LOG.error("Caught unexpected exception while closing unclaimed client, "
+                                + "swallowing", e);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable exception)
+                {
+                }
+            });
+        }
+    }
+}
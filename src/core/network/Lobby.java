@@ -0,0 +1,388 @@
+package core.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import core.Player;
+import core.Rules;
+import core.Score;
+import core.network.MatchmakingQueue.Ticket;
+
+/**
+ * Matchmaking for a {@link GameHub}. Clients connect to the hub's one port
+ * with a lobby {@link Handshake} naming the games they are willing to play,
+ * and wait in line for each of them. As soon as enough clients are waiting for
+ * a game, they are seated in a new {@link NetworkAutomator} on the hub, which
+ * plays the game over the connections they already have. Once it is over, the
+ * clients that are still connected get back in line.
+ *
+ * Lines are lock free, so clients joining and leaving never wait on one
+ * another or on games being set up.
+ *
+ * @author wallstop
+ */
+public class Lobby
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Lobby.class);
+
+    private static final long DEFAULT_CONNECTION_TIMEOUT_SECONDS = 30;
+
+    /**
+     * A game the lobby matches clients into
+     */
+    private static final class LobbyGame<S, A, R extends Rules<S, A>>
+    {
+        private final String name_;
+        private final R rules_;
+        private final List<Player> players_;
+        private final Class<A> actionClass_;
+        private final Function<? super S, Map<Player, Score>> scorer_;
+        private final MatchmakingQueue queue_;
+
+        private LobbyGame(final String name, final R rules, final List<Player> players,
+                final Class<A> actionClass, final Function<? super S, Map<Player, Score>> scorer)
+        {
+            name_ = name;
+            rules_ = rules;
+            players_ = ImmutableList.copyOf(players);
+            actionClass_ = actionClass;
+            scorer_ = scorer;
+            queue_ = new MatchmakingQueue(players.size());
+        }
+    }
+
+    /**
+     * A connected lobby client
+     */
+    private static final class Member
+    {
+        private final String sessionId_;
+        private final List<LobbyGame<?, ?, ?>> games_;
+        /* The ticket it is waiting with, or was last matched with */
+        private volatile Ticket ticket_ = null;
+        private volatile boolean left_ = false;
+
+        private Member(final String sessionId, final List<LobbyGame<?, ?, ?>> games)
+        {
+            sessionId_ = sessionId;
+            games_ = games;
+        }
+    }
+
+    private final GameHub hub_;
+    private final ConcurrentMap<String, LobbyGame<?, ?, ?>> games_ = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Member> members_ = new ConcurrentHashMap<>();
+    private final ExecutorService gameThreads_;
+    private volatile long connectionTimeoutNanos_ = TimeUnit.SECONDS
+            .toNanos(DEFAULT_CONNECTION_TIMEOUT_SECONDS);
+    private volatile boolean running_ = true;
+
+    private final LongAdder matches_ = new LongAdder();
+    private final LongAdder gamesPlayed_ = new LongAdder();
+    private final LongAdder gamesFailed_ = new LongAdder();
+
+    /**
+     * Opens a lobby on the provided hub. A hub has at most one lobby.
+     *
+     * @param hub
+     *            Hub whose lobby clients to match
+     */
+    public Lobby(final GameHub hub)
+    {
+        Validate.notNull(hub, "Cannot create a Lobby on a null GameHub");
+        hub_ = hub;
+        gameThreads_ = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("Lobby-" + hub.getPort() + "-%d").build());
+        hub.setLobby(this);
+    }
+
+    /**
+     * Offers a game to lobby clients. Clients are seated as the players in
+     * order of arrival, so each match needs as many clients as the game has
+     * players.
+     *
+     * @param name
+     *            Name clients ask for the game by
+     * @param rules
+     *            Rules every match of the game is played by
+     * @param players
+     *            Players of the game, in seating order
+     * @param actionClass
+     *            Class of the actions clients respond with
+     * @param scorer
+     *            Scores each match once its terminal state is reached, telling
+     *            every client how it did
+     * @throws IllegalArgumentException
+     *             if any argument is null, there are no players, or a game is
+     *             already offered under the name
+     */
+    public <S, A, R extends Rules<S, A>> void register(final String name, final R rules,
+            final List<Player> players, final Class<A> actionClass,
+            final Function<? super S, Map<Player, Score>> scorer)
+    {
+        Validate.notNull(name, "Cannot register a game with a null name");
+        Validate.notNull(rules, "Cannot register a game with null Rules");
+        Validate.notNull(players, "Cannot register a game with null players");
+        Validate.isTrue(!players.isEmpty(), "Cannot register a game without any players");
+        Validate.notNull(actionClass, "Cannot register a game with a null actionClass");
+        Validate.notNull(scorer, "Cannot register a game with a null scorer");
+        Validate.isTrue(games_.putIfAbsent(name, new LobbyGame<>(name, rules, players,
+                actionClass, scorer)) == null, String.format(
+                "Cannot register game %s, it is already registered", name));
+        LOG.info("Lobby on port {} now offers {} for {} players", hub_.getPort(), name, players
+                .size());
+    }
+
+    /**
+     * Sets how long each match waits for its clients to start it before
+     * giving up on it. By default, 30 seconds.
+     *
+     * @param timeout
+     *            Non-negative amount of time to wait
+     * @param unit
+     *            Unit of the timeout
+     */
+    public void setConnectionTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot wait for clients with a negative timeout");
+        Validate.notNull(unit, "Cannot wait for clients with a null TimeUnit");
+        connectionTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Called from the hub's event loop once a lobby client has connected.
+     *
+     * @return False if the lobby offers none of the client's games, in which
+     *         case the client should be sent away
+     */
+    boolean join(final String sessionId, final List<String> gameNames)
+    {
+        final List<LobbyGame<?, ?, ?>> games = new ArrayList<>(gameNames.size());
+        for(final String name : gameNames)
+        {
+            final LobbyGame<?, ?, ?> game = games_.get(name);
+            if(game != null && !games.contains(game))
+            {
+                games.add(game);
+            }
+        }
+        if(!running_ || games.isEmpty())
+        {
+            LOG.warn("Lobby on port {} has no game for session {} among {}", hub_.getPort(),
+                    sessionId, gameNames);
+            return false;
+        }
+        final Member member = new Member(sessionId, games);
+        members_.put(sessionId, member);
+        enqueue(member);
+        return true;
+    }
+
+    /**
+     * Called once a lobby client has disconnected. If it was waiting, it is
+     * taken out of line; if it was playing, its game fails.
+     */
+    void leave(final String sessionId)
+    {
+        final Member member = members_.remove(sessionId);
+        if(member == null)
+        {
+            hub_.forgetSession(sessionId);
+            return;
+        }
+        member.left_ = true;
+        final Ticket ticket = member.ticket_;
+        /* Otherwise its game is still being set up, and forgets it once it's over */
+        if(ticket == null || ticket.cancel())
+        {
+            hub_.forgetSession(sessionId);
+        }
+    }
+
+    private void enqueue(final Member member)
+    {
+        final Ticket ticket = new Ticket(member.sessionId_);
+        member.ticket_ = ticket;
+        /* Pairs with leave(), which sets left_ before reading ticket_ */
+        if(member.left_)
+        {
+            if(ticket.cancel())
+            {
+                hub_.forgetSession(member.sessionId_);
+            }
+            return;
+        }
+        if(!running_)
+        {
+            /* Sends the client away; it is forgotten once it hangs up */
+            ticket.cancel();
+            hub_.closeSession(member.sessionId_);
+            return;
+        }
+        member.games_.forEach(game -> game.queue_.add(ticket));
+        member.games_.forEach(this::drain);
+    }
+
+    private void drain(final LobbyGame<?, ?, ?> game)
+    {
+        if(!game.queue_.drain(match -> start(game, match)) || !running_)
+        {
+            return;
+        }
+        /* Retried off this thread, which may be the hub's event loop */
+        try
+        {
+            gameThreads_.execute(() -> drain(game));
+        }
+        catch(final RejectedExecutionException e)
+        {
+            LOG.debug("Lobby on port {} shut down before retrying {}", hub_.getPort(),
+                    game.name_, e);
+        }
+    }
+
+    private <S, A, R extends Rules<S, A>> void start(final LobbyGame<S, A, R> game,
+            final List<Ticket> match)
+    {
+        matches_.increment();
+        try
+        {
+            gameThreads_.execute(() -> play(game, match));
+        }
+        catch(final RuntimeException e)
+        {
+            LOG.warn("Lobby on port {} could not start {} for {}", hub_.getPort(), game.name_,
+                    match, e);
+            finish(match);
+        }
+    }
+
+    private <S, A, R extends Rules<S, A>> void play(final LobbyGame<S, A, R> game,
+            final List<Ticket> match)
+    {
+        final Map<Player, String> playersToSessions = new LinkedHashMap<>();
+        for(int i = 0; i < match.size(); ++i)
+        {
+            playersToSessions.put(game.players_.get(i), match.get(i).getSessionId());
+        }
+        NetworkAutomator<S, A, R> automator = null;
+        Map<Player, Score> scores = Collections.emptyMap();
+        try
+        {
+            automator = NetworkAutomator.onSessions(game.rules_, game.players_,
+                    game.actionClass_, hub_, playersToSessions);
+            automator.setConnectionTimeout(connectionTimeoutNanos_, TimeUnit.NANOSECONDS);
+            scores = game.scorer_.apply(automator.playGameToCompletion());
+            gamesPlayed_.increment();
+        }
+        catch(final RuntimeException e)
+        {
+            gamesFailed_.increment();
+            LOG.warn("Lobby on port {} failed {} between {}", hub_.getPort(), game.name_,
+                    playersToSessions, e);
+        }
+        finally
+        {
+            if(automator != null)
+            {
+                automator.shutdown(scores == null ? Collections.emptyMap() : scores);
+            }
+            finish(match);
+        }
+    }
+
+    /* Puts every client of a finished match that is still around back in line */
+    private void finish(final List<Ticket> match)
+    {
+        for(final Ticket ticket : match)
+        {
+            final Member member = members_.get(ticket.getSessionId());
+            if(member == null)
+            {
+                hub_.forgetSession(ticket.getSessionId());
+            }
+            else
+            {
+                enqueue(member);
+            }
+        }
+    }
+
+    /**
+     * @return Number of matches made so far
+     */
+    public long getMatches()
+    {
+        return matches_.sum();
+    }
+
+    /**
+     * @return Number of matches played to completion so far
+     */
+    public long getGamesPlayed()
+    {
+        return gamesPlayed_.sum();
+    }
+
+    /**
+     * @return Number of matches that failed, say because a client
+     *         disconnected partway through
+     */
+    public long getGamesFailed()
+    {
+        return gamesFailed_.sum();
+    }
+
+    /**
+     * @return Number of lobby clients currently connected, waiting or playing
+     */
+    public int getMembers()
+    {
+        return members_.size();
+    }
+
+    /**
+     * Stops making matches and tells every lobby client to shut down once its
+     * current game, if any, is over.
+     */
+    public void shutdown()
+    {
+        running_ = false;
+        members_.values().forEach(member -> {
+            final Ticket ticket = member.ticket_;
+            if(ticket != null)
+            {
+                ticket.cancel();
+            }
+            hub_.closeSession(member.sessionId_);
+        });
+        gameThreads_.shutdown();
+        LOG.info("Lobby on port {} shut down after {} matches", hub_.getPort(), getMatches());
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Lobby [port=%d, games=%s, members=%d, matches=%d]", hub_
+                .getPort(), games_.keySet(), getMembers(), getMatches());
+    }
+}
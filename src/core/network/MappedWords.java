@@ -0,0 +1,145 @@
+package core.network;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+
+import utils.Validate;
+
+/**
+ * Acquire and release accesses to the words of a memory-mapped file, for the
+ * head, tail and closed words of a {@link SharedMemoryTransport}. Everything
+ * else in the file is read and written through the buffer itself.
+ *
+ * Java 8 has no public API for ordered accesses to off-heap memory; that
+ * arrived in 9 with MethodHandles.byteBufferViewVarHandle, which this class
+ * should become once the target allows it. Until then it goes through
+ * sun.misc.Unsafe, which is looked up reflectively so that nothing is compiled
+ * against internal APIs. This is the only class that touches it.
+ *
+ * @author wallstop
+ */
+final class MappedWords
+{
+    private static final MethodHandle GET_INT_VOLATILE;
+    private static final MethodHandle PUT_INT_VOLATILE;
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_ORDERED_LONG;
+    private static final MethodHandle GET_LONG;
+    private static final long ADDRESS_OFFSET;
+    static
+    {
+        try
+        {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final MethodType getInt = MethodType.methodType(int.class, Object.class, long.class);
+            final MethodType putInt = MethodType.methodType(void.class, Object.class, long.class,
+                    int.class);
+            final MethodType getLong = MethodType.methodType(long.class, Object.class, long.class);
+            final MethodType putLong = MethodType.methodType(void.class, Object.class, long.class,
+                    long.class);
+            GET_INT_VOLATILE = lookup.findVirtual(unsafeClass, "getIntVolatile", getInt).bindTo(
+                    unsafe);
+            PUT_INT_VOLATILE = lookup.findVirtual(unsafeClass, "putIntVolatile", putInt).bindTo(
+                    unsafe);
+            GET_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "getLongVolatile", getLong)
+                    .bindTo(unsafe);
+            PUT_ORDERED_LONG = lookup.findVirtual(unsafeClass, "putOrderedLong", putLong).bindTo(
+                    unsafe);
+            GET_LONG = lookup.findVirtual(unsafeClass, "getLong", getLong).bindTo(unsafe);
+            ADDRESS_OFFSET = (long) lookup.findVirtual(unsafeClass, "objectFieldOffset",
+                    MethodType.methodType(long.class, Field.class)).bindTo(unsafe).invoke(
+                    Buffer.class.getDeclaredField("address"));
+        }
+        catch(final Throwable e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /* Held so the mapping outlives every access through its address */
+    private final MappedByteBuffer map_;
+    private final long address_;
+
+    MappedWords(final MappedByteBuffer map)
+    {
+        Validate.notNull(map, "Cannot access the words of a null buffer");
+        map_ = map;
+        try
+        {
+            address_ = (long) GET_LONG.invokeExact((Object) map, ADDRESS_OFFSET);
+        }
+        catch(final Throwable e)
+        {
+            throw new IllegalStateException("Could not find the address of a mapped buffer", e);
+        }
+    }
+
+    private long addressOf(final int offset, final int size)
+    {
+        if(offset < 0 || offset > map_.capacity() - size)
+        {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Cannot access %d bytes at %d of a %d byte mapping", size, offset, map_
+                            .capacity()));
+        }
+        return address_ + offset;
+    }
+
+    int getIntAcquire(final int offset)
+    {
+        try
+        {
+            return (int) GET_INT_VOLATILE.invokeExact((Object) null, addressOf(offset,
+                    Integer.BYTES));
+        }
+        catch(final Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setIntRelease(final int offset, final int value)
+    {
+        try
+        {
+            PUT_INT_VOLATILE.invokeExact((Object) null, addressOf(offset, Integer.BYTES), value);
+        }
+        catch(final Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    long getLongAcquire(final int offset)
+    {
+        try
+        {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, addressOf(offset,
+                    Long.BYTES));
+        }
+        catch(final Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setLongRelease(final int offset, final long value)
+    {
+        try
+        {
+            PUT_ORDERED_LONG.invokeExact((Object) null, addressOf(offset, Long.BYTES), value);
+        }
+        catch(final Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
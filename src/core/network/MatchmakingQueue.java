@@ -0,0 +1,239 @@
+package core.network;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sessions waiting in a {@link Lobby} for one particular game, grouped into
+ * matches of that game's number of players in the order they arrived.
+ *
+ * Adding a session never blocks. Whichever thread drains the queue forms every
+ * match it can; a thread that finds another already draining leaves its
+ * session for that one to pick up. A session waiting for several games waits
+ * in each of their queues with the same {@link Ticket}, and the first queue to
+ * claim it wins. A match whose tickets another queue is still claiming after
+ * a few attempts is left for the next drain, so draining never spins for
+ * long on whichever thread, such as the hub's event loop, happens to do it.
+ *
+ * @author wallstop
+ */
+final class MatchmakingQueue
+{
+    /**
+     * A session's place in line, shared by every queue it waits in
+     */
+    static final class Ticket
+    {
+        private static final int WAITING = 0;
+        /* Held by a queue for as long as it takes to claim the rest of a match */
+        private static final int CLAIMING = 1;
+        private static final int TAKEN = 2;
+
+        private final String sessionId_;
+        private final AtomicInteger state_ = new AtomicInteger(WAITING);
+
+        Ticket(final String sessionId)
+        {
+            sessionId_ = sessionId;
+        }
+
+        String getSessionId()
+        {
+            return sessionId_;
+        }
+
+        private boolean isTaken()
+        {
+            return state_.get() == TAKEN;
+        }
+
+        private boolean claim()
+        {
+            return state_.compareAndSet(WAITING, CLAIMING);
+        }
+
+        private void release()
+        {
+            state_.set(WAITING);
+        }
+
+        private void take()
+        {
+            state_.set(TAKEN);
+        }
+
+        /**
+         * Takes the ticket out of every queue, unless a match already has.
+         *
+         * @return True if the ticket was still waiting
+         */
+        boolean cancel()
+        {
+            while(true)
+            {
+                if(state_.compareAndSet(WAITING, TAKEN))
+                {
+                    return true;
+                }
+                if(state_.get() == TAKEN)
+                {
+                    return false;
+                }
+                /* Another thread is mid-claim, and will shortly take or release it */
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Ticket [sessionId=%s, state=%d]", sessionId_, state_.get());
+        }
+    }
+
+    /* Attempts at claiming a match before leaving it for the next drain */
+    private static final int MAX_CLAIM_ATTEMPTS = 16;
+
+    private final int matchSize_;
+    private final Queue<Ticket> arrivals_ = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining_ = new AtomicBoolean(false);
+    /* Only touched by the thread that holds draining_ */
+    private final ArrayDeque<Ticket> waiting_ = new ArrayDeque<>();
+    /* Set by the last drain if it left a contended match behind */
+    private volatile boolean contended_ = false;
+
+    MatchmakingQueue(final int matchSize)
+    {
+        matchSize_ = matchSize;
+    }
+
+    void add(final Ticket ticket)
+    {
+        arrivals_.add(ticket);
+    }
+
+    /**
+     * Forms as many matches as the waiting sessions allow. Returns straight
+     * away if another thread is already draining the queue; that thread will
+     * also see every ticket added before this call.
+     *
+     * @param onMatch
+     *            Called with the tickets of each match, in seating order
+     * @return True if this call left a match behind because another queue was
+     *         still claiming its tickets, in which case the queue should be
+     *         drained again later
+     */
+    boolean drain(final Consumer<List<Ticket>> onMatch)
+    {
+        /* Retries a match the last drain left behind at most once per call */
+        boolean retry = contended_;
+        boolean contended = false;
+        /* Re-check after letting go, in case a ticket arrived as the last drain finished */
+        while((retry || !arrivals_.isEmpty()) && draining_.compareAndSet(false, true))
+        {
+            retry = false;
+            try
+            {
+                for(Ticket ticket = arrivals_.poll(); ticket != null; ticket = arrivals_.poll())
+                {
+                    waiting_.add(ticket);
+                }
+                contended = !formMatches(onMatch);
+                contended_ = contended;
+            }
+            finally
+            {
+                draining_.set(false);
+            }
+        }
+        return contended;
+    }
+
+    /*
+     * Caller must hold draining_. Returns false if it gave up on a match whose
+     * tickets another queue was claiming
+     */
+    private boolean formMatches(final Consumer<List<Ticket>> onMatch)
+    {
+        final List<Ticket> match = new ArrayList<>(matchSize_);
+        int attempts = 0;
+        while(true)
+        {
+            match.clear();
+            for(final Iterator<Ticket> it = waiting_.iterator(); it.hasNext()
+                    && match.size() < matchSize_;)
+            {
+                final Ticket ticket = it.next();
+                if(ticket.isTaken())
+                {
+                    it.remove();
+                }
+                else
+                {
+                    match.add(ticket);
+                }
+            }
+            if(match.size() < matchSize_)
+            {
+                return true;
+            }
+            if(!claimAll(match))
+            {
+                /* The other queue takes or releases them within its own claim */
+                if(++attempts >= MAX_CLAIM_ATTEMPTS)
+                {
+                    return false;
+                }
+                Thread.yield();
+                continue;
+            }
+            attempts = 0;
+            match.forEach(Ticket::take);
+            /* The match is exactly the head of the line, stale tickets having been dropped */
+            for(int i = 0; i < matchSize_; ++i)
+            {
+                waiting_.poll();
+            }
+            onMatch.accept(new ArrayList<>(match));
+        }
+    }
+
+    /* Either claims every ticket, or none of them */
+    private static boolean claimAll(final List<Ticket> match)
+    {
+        for(int i = 0; i < match.size(); ++i)
+        {
+            if(!match.get(i).claim())
+            {
+                for(int j = 0; j < i; ++j)
+                {
+                    match.get(j).release();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Approximate number of tickets in line, some of which may
+     *         already have been taken by another queue
+     */
+    int size()
+    {
+        return arrivals_.size() + waiting_.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("MatchmakingQueue [matchSize=%d, size=%d]", matchSize_, size());
+    }
+}
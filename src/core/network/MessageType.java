@@ -0,0 +1,104 @@
+package core.network;
+
+/**
+ * Every frame on the wire is tagged with one of these, so either side knows
+ * what to decode the payload as.
+ *
+ * @author wallstop
+ */
+public enum MessageType
+{
+    /* Client -> Server, first frame of every connection. Always JSON */
+    HANDSHAKE((byte) 0),
+    /* Server -> Client, a state the client needs to choose an action for */
+    STATE((byte) 1),
+    /* Client -> Server, the action chosen for the last state */
+    ACTION((byte) 2),
+    /* Server -> Client, answer to a HANDSHAKE. Always JSON */
+    HANDSHAKE_RESPONSE((byte) 3),
+    /*
+     * Server -> Client, a StateDelta against the last state the client saw.
+     * Always in StateDelta's own binary format
+     */
+    STATE_DELTA((byte) 4),
+    /* Client -> Server, a StateDelta or patch could not be applied, resend the full state */
+    RESYNC((byte) 5),
+    /* Server -> Client, a StateBatch of states from many games */
+    BATCH_STATES((byte) 6),
+    /* Client -> Server, an ActionBatch answering the last StateBatch */
+    BATCH_ACTIONS((byte) 7),
+    /* Server -> Client, a GameStart; the session's next states belong to it */
+    GAME_START((byte) 8),
+    /* Server -> Client, a GameEnd for the game the session was playing */
+    GAME_END((byte) 9),
+    /*
+     * Server -> Client, the session id; the session is over, the client should
+     * exit. Also GameCoordinator -> GameWorker, the worker id
+     */
+    SHUTDOWN((byte) 10),
+    /* Spectator -> SpectatorServer, first frame of every spectator connection. Always JSON */
+    SUBSCRIBE((byte) 11),
+    /* SpectatorServer -> Spectator, a SpectatorUpdate for a game the spectator watches */
+    SPECTATOR_UPDATE((byte) 12),
+    /* Server -> Client, the ordered actions available in the state that follows */
+    ACTIONS((byte) 13),
+    /* Client -> Server, index into the last ACTIONS of the action chosen for the last state */
+    ACTION_INDEX((byte) 14),
+    /* GameWorker -> GameCoordinator, first frame of every worker connection, a WorkerHello */
+    WORKER_HELLO((byte) 15),
+    /* GameCoordinator -> GameWorker, an Assignment of a game to play */
+    ASSIGNMENT((byte) 16),
+    /* GameWorker -> GameCoordinator, an AssignmentResult for a finished Assignment */
+    ASSIGNMENT_RESULT((byte) 17),
+    /* Server -> Client, a StateDiffer's diff against the last state the client saw */
+    STATE_PATCH((byte) 18);
+
+    private static final MessageType[] BY_ID;
+    static
+    {
+        int maxId = 0;
+        for(final MessageType type : values())
+        {
+            maxId = Math.max(maxId, type.id_);
+        }
+        BY_ID = new MessageType[maxId + 1];
+        for(final MessageType type : values())
+        {
+            BY_ID[type.id_] = type;
+        }
+    }
+
+    private final byte id_;
+
+    private MessageType(final byte id)
+    {
+        id_ = id;
+    }
+
+    /**
+     * @return The byte this type is tagged with on the wire
+     */
+    public byte id()
+    {
+        return id_;
+    }
+
+    /**
+     * @return True if frames of this type are part of the handshake, and so
+     *         are always JSON regardless of the negotiated codec
+     */
+    public boolean isHandshake()
+    {
+        return this == HANDSHAKE || this == HANDSHAKE_RESPONSE || this == SUBSCRIBE;
+    }
+
+    /**
+     * @param id
+     *            Byte a frame was tagged with
+     * @return The MessageType for the id, or null if there is none
+     */
+    public static MessageType fromId(final byte id)
+    {
+        return (0 <= id && id < BY_ID.length) ? BY_ID[id] : null;
+    }
+}
@@ -1,24 +1,31 @@
 package core.network;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import utils.NetworkUtils;
+import utils.SerializationUtils;
 import utils.Validate;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -27,7 +34,13 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import core.Automator;
 import core.Player;
+import core.Policy;
 import core.Rules;
+import core.Score;
+import core.metrics.NetworkMetrics;
+import core.metrics.TurnPhase;
+import core.record.GameRecorder;
+import core.rollout.GameSnapshot;
 
 /**
  * NetworkAutomators provide a way of running a simulation via a ruleset without
@@ -46,6 +59,20 @@ import core.Rules;
  * with creating the necessary clients to connect to those ports for those
  * players.
  *
+ * Alternatively, a NetworkAutomator can be created on top of a shared
+ * {@link GameHub}. In that case, all players of all games share the hub's
+ * port, and clients find their game by handshaking with {@link #getGameId()}
+ * and the Player they want to play as. Players may also be played by batch
+ * clients, many games at a time, or by session clients (see
+ * {@link #onSessions(Rules, Collection, Class, GameHub, Map)}), one game after
+ * another over a single connection.
+ *
+ * Clients written in Java may also run in the same JVM, connected through
+ * in-process transports rather than ports (see
+ * {@link #inProcess(Rules, Collection, Class, boolean)}), and clients on the
+ * same host in any language through memory-mapped files (see
+ * {@link #onSharedMemory(Rules, Collection, Class, Path, WaitStrategy)}).
+ *
  * @author wallstop
  *
  * @param <S>
@@ -60,17 +87,43 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
 
     private static final int MAX_PORTS = (1 << 16);
 
+    private static final AtomicLong GAME_IDS = new AtomicLong(0);
+
+    private final String gameId_ = Long.toString(GAME_IDS.incrementAndGet());
+
     private final ListeningExecutorService threadPool_ = MoreExecutors.listeningDecorator(Executors
             .newWorkStealingPool());
 
     private final AtomicInteger succesfulClientConnections_ = new AtomicInteger(0);
     private final AtomicInteger failedClientConnections_ = new AtomicInteger(0);
 
+    /* Completes once every listener has a client, fails as soon as one can't */
+    private final ListenableFuture<?> allClientConnections_;
+    private volatile long connectionTimeoutNanos_ = Long.MAX_VALUE;
+
+    private final long createdNanos_ = System.nanoTime();
+    /* 0 until the first action has been requested */
+    private volatile long firstTurnNanos_ = 0;
+
+    /* Long.MAX_VALUE means no deadline */
+    private volatile long turnTimeoutNanos_ = Long.MAX_VALUE;
+    private volatile long gameTimeoutNanos_ = Long.MAX_VALUE;
+    private volatile FallbackPolicy<S, A> fallbackPolicy_ = FallbackPolicy.random();
+    private final Map<Player, AtomicInteger> timeouts_ = new ConcurrentHashMap<>();
+    /* Last action each player's client chose itself, for the fallback policy */
+    private final Map<Player, A> previousActions_ = new ConcurrentHashMap<>();
+
+    /* Null unless the game is being recorded */
+    private volatile GameRecorder recorder_ = null;
+    /* Null unless the game is being watched */
+    private volatile SpectatorServer spectators_ = null;
+    private int turn_ = 0;
+
     /**
-     * Creates a game server for the specified game
+     * Creates a game server for the specified game, binding every player's
+     * listener to an ephemeral port picked by the OS
      *
      * @param game
-     * @throws IOException
      */
     public NetworkAutomator(final R rules, final Collection<Player> players,
             final Class<A> actionClass)
@@ -83,21 +136,238 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
         Validate.notNull(actionClass, "Cannot create a GameServer with a null actionClass");
 
         final Map<Player, GameListener<S, A>> playersToGameListeners = initializeListenersFromPlayers(
-                players, actionClass);
+                players, () -> new SocketGameListener<S, A>(actionClass));
+        playersToListeners_ = ImmutableMap.copyOf(playersToGameListeners);
+        allClientConnections_ = Futures.allAsList(playersToListeners_.values().stream()
+                .map(GameListener::connectionFuture).collect(Collectors.toList()));
+        currentState_ = initialState(players);
+    }
+
+    /**
+     * Creates a game server for the specified game whose players' listeners
+     * are leased from the provided pool. They are already bound and accepting,
+     * so the game is ready for clients as soon as it's created. On
+     * {@link #shutdown()} they are handed back, and the pool closes their
+     * sockets and binds fresh ones in their place.
+     *
+     * @param rules
+     * @param players
+     * @param actionClass
+     * @param listenerPool
+     *            Pool to lease one listener per player from
+     */
+    public NetworkAutomator(final R rules, final Collection<Player> players,
+            final Class<A> actionClass, final ListenerPool listenerPool)
+    {
+        super(rules, players);
+        Validate.notNull(actionClass, "Cannot create a GameServer with a null actionClass");
+        Validate.notNull(listenerPool, "Cannot create a GameServer on a null ListenerPool");
+
+        final Map<Player, GameListener<S, A>> playersToGameListeners = initializeListenersFromPlayers(
+                players, () -> listenerPool.<S, A> lease(actionClass));
+        playersToListeners_ = ImmutableMap.copyOf(playersToGameListeners);
+        allClientConnections_ = Futures.allAsList(playersToListeners_.values().stream()
+                .map(GameListener::connectionFuture).collect(Collectors.toList()));
+        currentState_ = initialState(players);
+    }
+
+    /**
+     * Creates a game server for the specified game whose players all connect
+     * through the provided hub
+     *
+     * @param rules
+     * @param players
+     * @param actionClass
+     * @param hub
+     *            Shared GameHub that clients will handshake with
+     */
+    public NetworkAutomator(final R rules, final Collection<Player> players,
+            final Class<A> actionClass, final GameHub hub)
+    {
+        this(rules, players, actionClass, hub, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a game server for the specified game whose players all connect
+     * through the provided hub. Players mapped to a batch client id are played
+     * by that batch client, together with every other game on the hub that
+     * maps a player to the same id; the rest handshake individually.
+     *
+     * @param rules
+     * @param players
+     * @param actionClass
+     * @param hub
+     *            Shared GameHub that clients will handshake with
+     * @param playersToClients
+     *            Batch client id for each player that should be played by one
+     */
+    public NetworkAutomator(final R rules, final Collection<Player> players,
+            final Class<A> actionClass, final GameHub hub,
+            final Map<Player, String> playersToClients)
+    {
+        this(rules, players, actionClass, hub, playersToClients, (gameId, player, clientId) -> {
+            LOG.info("Mapping Player {} of game {} to hub port {}, batch client {}", player,
+                    gameId, hub.getPort(), clientId);
+            return clientId == null ? hub.newListener(gameId, player, actionClass) : hub
+                    .newBatchedListener(clientId, gameId, player, actionClass);
+        });
+    }
+
+    /**
+     * Creates a game server for the specified game whose players are all
+     * played by session clients of the provided hub. The game is queued on
+     * each player's session and starts once every session has gotten to it,
+     * so one session client can play any number of games back to back over a
+     * single connection. Pass the players' Scores to
+     * {@link #shutdown(Map)} to tell the clients how the game went.
+     *
+     * Sessions play their games in the order they were created, so games that
+     * share sessions should be created from one thread, and a session can't
+     * play more than one player of the same game.
+     *
+     * @param rules
+     * @param players
+     * @param actionClass
+     * @param hub
+     *            Shared GameHub the session clients handshake with
+     * @param playersToSessions
+     *            Session id for every player
+     * @return A game server for the game
+     */
+    public static <S, A, R extends Rules<S, A>> NetworkAutomator<S, A, R> onSessions(
+            final R rules, final Collection<Player> players, final Class<A> actionClass,
+            final GameHub hub, final Map<Player, String> playersToSessions)
+    {
+        Validate.notNull(playersToSessions, "Cannot create a GameServer with null sessions");
+        Validate.isTrue(new HashSet<>(playersToSessions.values()).size() == playersToSessions
+                .size(), String.format("Cannot create a GameServer where a session plays more "
+                + "than one player: %s", playersToSessions));
+        return new NetworkAutomator<>(rules, players, actionClass, hub, playersToSessions, (
+                gameId, player, sessionId) -> {
+            Validate.notNull(sessionId, String.format(
+                    "Cannot create a GameServer without a session for Player %s", player));
+            LOG.info("Mapping Player {} of game {} to hub port {}, session {}", player, gameId,
+                    hub.getPort(), sessionId);
+            return hub.newSessionListener(sessionId, gameId, player, actionClass);
+        });
+    }
+
+    /**
+     * Creates a game server for the specified game whose players' clients run
+     * in this JVM and talk to it through {@link InProcessTransport}s instead
+     * of sockets. Clients go through the same handshake and frames as they
+     * would over the network; start them with
+     * {@link #startInProcessClients(Map, Class)}, or hand
+     * {@link #getClientTransports()} to clients of your own.
+     *
+     * @param rules
+     * @param players
+     * @param actionClass
+     * @param serialize
+     *            True to encode every state and action with the negotiated
+     *            codec, as a socket would, false to hand the values over as
+     *            they are
+     * @return A game server for the game
+     */
+    public static <S, A, R extends Rules<S, A>> NetworkAutomator<S, A, R> inProcess(
+            final R rules, final Collection<Player> players, final Class<A> actionClass,
+            final boolean serialize)
+    {
+        Validate.notNull(actionClass, "Cannot create a GameServer with a null actionClass");
+        return new NetworkAutomator<S, A, R>(rules, players, () -> new InProcessGameListener<S, A>(
+                actionClass, InProcessTransport.DEFAULT_CAPACITY, serialize));
+    }
+
+    /**
+     * Creates a game server for the specified game whose players' clients run
+     * on this host and talk to it through memory-mapped files instead of
+     * sockets, one file per player (see {@link SharedMemoryTransport} for the
+     * layout clients need to follow). Clients find their file through
+     * {@link #getPlayersToFiles()}.
+     *
+     * @param rules
+     * @param players
+     * @param actionClass
+     * @param directory
+     *            Directory to create the files in
+     * @param waitStrategy
+     *            How the listeners wait for their clients' answers
+     * @return A game server for the game
+     */
+    public static <S, A, R extends Rules<S, A>> NetworkAutomator<S, A, R> onSharedMemory(
+            final R rules, final Collection<Player> players, final Class<A> actionClass,
+            final Path directory, final WaitStrategy waitStrategy)
+    {
+        Validate.notNull(actionClass, "Cannot create a GameServer with a null actionClass");
+        Validate.notNull(directory, "Cannot create a GameServer in a null directory");
+        Validate.notNull(waitStrategy, "Cannot create a GameServer with a null WaitStrategy");
+        /* Temp files are unique even across processes sharing the directory */
+        return new NetworkAutomator<S, A, R>(rules, players, () -> new SharedMemoryGameListener<S, A>(
+                Files.createTempFile(directory, "markov-", ".ring"), actionClass,
+                SharedMemoryTransport.DEFAULT_CAPACITY, waitStrategy));
+    }
+
+    private NetworkAutomator(final R rules, final Collection<Player> players,
+            final ListenerSource<S, A> listenerSource)
+    {
+        super(rules, players);
+        final Map<Player, GameListener<S, A>> playersToGameListeners = initializeListenersFromPlayers(
+                players, listenerSource);
+        playersToListeners_ = ImmutableMap.copyOf(playersToGameListeners);
+        allClientConnections_ = Futures.allAsList(playersToListeners_.values().stream()
+                .map(GameListener::connectionFuture).collect(Collectors.toList()));
+        currentState_ = initialState(players);
+    }
+
+    private NetworkAutomator(final R rules, final Collection<Player> players,
+            final Class<A> actionClass, final GameHub hub,
+            final Map<Player, String> playersToClients, final HubListenerSource<S, A> listenerSource)
+    {
+        super(rules, players);
+        Validate.notNull(actionClass, "Cannot create a GameServer with a null actionClass");
+        Validate.notNull(hub, "Cannot create a GameServer on a null GameHub");
+        Validate.notNull(playersToClients, "Cannot create a GameServer with null clients");
+
+        final Map<Player, GameListener<S, A>> playersToGameListeners = Maps
+                .newHashMapWithExpectedSize(players.size());
+        for(final Player player : players)
+        {
+            Validate.notNull(player, "Cannot create a GameServer for a game that has a null player");
+            final GameListener<S, A> listener = listenerSource.open(gameId_, player,
+                    playersToClients.get(player));
+            playersToGameListeners.put(player, listener);
+            attachClientConnectionCallback(listener.connectionFuture());
+        }
         playersToListeners_ = ImmutableMap.copyOf(playersToGameListeners);
-        currentState_ = rules_.generateInitialState(players);
+        allClientConnections_ = Futures.allAsList(playersToListeners_.values().stream()
+                .map(GameListener::connectionFuture).collect(Collectors.toList()));
+        currentState_ = initialState(players);
+    }
+
+    /* Prepares the state's class, which only clients would otherwise have done */
+    private S initialState(final Collection<Player> players)
+    {
+        final S initialState = rules_.generateInitialState(players);
+        SerializationUtils.prepareTypes(initialState.getClass());
+        return initialState;
+    }
+
+    /* Creates the hub listener for a single Player of a game, given its client id if it has one */
+    @FunctionalInterface
+    private interface HubListenerSource<S, A>
+    {
+        GameListener<S, A> open(String gameId, Player player, String clientId);
     }
 
     /*
      * This should only ever be called from Constructor. This is a bundled init
-     * method; it constructs all GameListeners, maps Players to those listeners,
-     * and also spawns threads to await on socket connections for those
-     * listeners
+     * method; it opens a GameListener per Player, maps Players to those
+     * listeners, and also spawns threads to await on socket connections for
+     * those listeners that block to connect
      */
     private Map<Player, GameListener<S, A>> initializeListenersFromPlayers(
-            final Collection<Player> players, final Class<A> actionClass)
-            {
-        final Set<Integer> usedPorts = Sets.newHashSetWithExpectedSize(players.size());
+            final Collection<Player> players, final ListenerSource<S, A> listenerSource)
+    {
         final Map<Player, GameListener<S, A>> playersToGameListeners = Maps
                 .newHashMapWithExpectedSize(players.size());
         try
@@ -106,44 +376,37 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
             {
                 Validate.notNull(player,
                         "Cannot create a GameServer for a game that has a null player");
-                /*
-                 * Doesn't really matter what port the're on, so just pick one
-                 * randomly (but make sure we haven't picked it before)
-                 */
-                int port;
-                /*
-                 * Offset the ports by some amount in an attempt to avoid
-                 * overlap with existing / currently used / common ports
-                 * (best-effort, if this fails, come up with a better
-                 * methodology)
-                 */
-                final int portOffset = 10000;
-                do
-                {
-                    port = ThreadLocalRandom.current().nextInt(MAX_PORTS - portOffset) + portOffset
-                            + 1;
-                }
-                while(usedPorts.add(port));
-
-                LOG.info("Mapping Player {} to port {}", player, port);
-                final GameListener<S, A> listener = new GameListener<S, A>(port, actionClass);
+                final GameListener<S, A> listener = listenerSource.open();
                 playersToGameListeners.put(player, listener);
-                final ListenableFuture<Void> waitingConnection = threadPool_.submit(() ->
+                LOG.info("Mapping Player {} to port {}", player, listener.getPort());
+                /* Only listeners that accept their own client need a thread to wait on */
+                if(listener.connectBlocks())
                 {
-                    listener.connect();
-                    return null;
-                });
-                attachClientConnectionCallback(waitingConnection);
+                    threadPool_.submit(() ->
+                    {
+                        listener.connect();
+                        return null;
+                    });
+                }
+                attachClientConnectionCallback(listener.connectionFuture());
             }
         }
         catch(final IOException e)
         {
             LOG.error("Encountered unexpected exception while initializing listeners for {}",
                     players, e);
+            playersToGameListeners.values().forEach(GameListener::disconnect);
             throw new RuntimeException(e);
         }
         return playersToGameListeners;
-            }
+    }
+
+    /* Opens the listener for a single Player */
+    @FunctionalInterface
+    private interface ListenerSource<S, A>
+    {
+        GameListener<S, A> open() throws IOException;
+    }
 
     /**
      * We need a way to update our counts of currently connected players as well
@@ -163,6 +426,7 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
             public void onFailure(final Throwable exception)
             {
                 final int totalFailures = failedClientConnections_.incrementAndGet();
+                NetworkMetrics.global().connectionFailed();
                 LOG.error("A client failed to connect, {} total failures", totalFailures, exception);
             }
 
@@ -170,34 +434,226 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
             public void onSuccess(final Void success)
             {
                 final int totalConnections = succesfulClientConnections_.incrementAndGet();
+                NetworkMetrics.global().connectionSucceeded();
                 LOG.info("A client connected, {} total connections", totalConnections);
             }
                 });
     }
 
     /**
-     * Blocks until all clients have successfully connected or throw errors
+     * Records every turn from now on, along with the end of the game, to the
+     * provided recorder. Recording never blocks the game.
+     *
+     * @param recorder
+     *            Recorder to hand turns to, or null to stop recording
+     */
+    public void setRecorder(final GameRecorder recorder)
+    {
+        recorder_ = recorder;
+    }
+
+    /**
+     * Publishes the state after every turn from now on to the provided
+     * spectator server. Publishing never blocks the game.
+     *
+     * @param spectators
+     *            Server to publish turns to, or null to stop publishing
+     */
+    public void setSpectators(final SpectatorServer spectators)
+    {
+        spectators_ = spectators;
+    }
+
+    /**
+     * Sets how long {@link #awaitAllClientConnections()} waits for clients
+     * before giving up. By default, it waits forever.
+     *
+     * @param timeout
+     *            Non-negative amount of time to wait
+     * @param unit
+     *            Unit of the timeout
+     */
+    public void setConnectionTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot wait for clients with a negative timeout");
+        Validate.notNull(unit, "Cannot wait for clients with a null TimeUnit");
+        connectionTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets how long a client has to answer each of its turns. A client that
+     * doesn't answer in time has its action chosen by the fallback policy
+     * (see {@link #setFallbackPolicy(FallbackPolicy)}) instead. By default,
+     * turns have no deadline.
+     *
+     * @param timeout
+     *            Non-negative amount of time per turn
+     * @param unit
+     *            Unit of the timeout
+     */
+    public void setTurnTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot give turns a negative timeout");
+        Validate.notNull(unit, "Cannot give turns a timeout with a null TimeUnit");
+        turnTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets how long the whole game may take, counted from its first turn. Once
+     * it's used up, clients only get actions in that they had already sent,
+     * and every other turn is decided by the fallback policy (see
+     * {@link #setFallbackPolicy(FallbackPolicy)}). By default, games have no
+     * deadline.
+     *
+     * @param timeout
+     *            Non-negative amount of time per game
+     * @param unit
+     *            Unit of the timeout
+     */
+    public void setGameTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot give a game a negative timeout");
+        Validate.notNull(unit, "Cannot give a game a timeout with a null TimeUnit");
+        gameTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets what happens when a client misses its turn's deadline. Defaults to
+     * {@link FallbackPolicy#random()}.
+     */
+    public void setFallbackPolicy(final FallbackPolicy<S, A> fallbackPolicy)
+    {
+        Validate.notNull(fallbackPolicy, "Cannot use a null FallbackPolicy");
+        fallbackPolicy_ = fallbackPolicy;
+    }
+
+    /**
+     * @return Number of turns the player's client missed the deadline of
+     */
+    public int getTimeouts(final Player player)
+    {
+        final AtomicInteger timeouts = timeouts_.get(player);
+        return timeouts == null ? 0 : timeouts.get();
+    }
+
+    /**
+     * @return Number of turns each player's client missed the deadline of,
+     *         for every player that missed any
+     */
+    public Map<Player, Integer> getTimeouts()
+    {
+        return timeouts_.entrySet().stream().collect(
+                Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get()));
+    }
+
+    /* How long the current turn may take, given both deadlines */
+    private long remainingTurnNanos()
+    {
+        final long gameTimeout = gameTimeoutNanos_;
+        if(gameTimeout == Long.MAX_VALUE)
+        {
+            return turnTimeoutNanos_;
+        }
+        final long gameRemaining = Math.max(0, firstTurnNanos_ + gameTimeout - System.nanoTime());
+        return Math.min(turnTimeoutNanos_, gameRemaining);
+    }
+
+    /**
+     * Sends states to clients as deltas against the previous state, with a
+     * full state at least once every keyframeInterval states, to every client
+     * that supports them. States with a {@link StateDiffer} registered (see
+     * {@link StateDiffers}) are sent as its diffs instead. Takes effect from
+     * the next state sent, whether the clients have connected yet or not.
+     *
+     * @param keyframeInterval
+     *            Maximum number of states between full states. 0 or 1 sends
+     *            every state in full
+     */
+    public void setKeyframeInterval(final int keyframeInterval)
+    {
+        /* Batch clients are sent every state in full */
+        playersToListeners_.values().stream().filter(
+                listener -> listener instanceof FramedGameListener).forEach(
+                listener -> ((FramedGameListener<S, A>) listener).setKeyframeInterval(
+                        keyframeInterval));
+    }
+
+    /**
+     * Blocks until all clients have successfully connected, a client fails to
+     * connect, or the connection timeout (see
+     * {@link #setConnectionTimeout(long, TimeUnit)}) elapses
      *
-     * @throws InterruptedException
      * @return True if all clients have connected successfully, false otherwise
      */
     public boolean awaitAllClientConnections()
     {
-        NetworkUtils.awaitTrue(() -> areAllClientsConnected() || hasAClientConnectionFailed());
-        LOG.info(hasAClientConnectionFailed() ? "A client had a problem connecting"
-                : "All clients connected successfully");
-
-        return !(hasAClientConnectionFailed());
+        return awaitAllClientConnections(connectionTimeoutNanos_, TimeUnit.NANOSECONDS);
     }
 
-    private boolean hasAClientConnectionFailed()
+    /**
+     * Blocks until all clients have successfully connected, a client fails to
+     * connect, or the timeout elapses. Wakes up as soon as the last client
+     * connects; there is no polling involved.
+     *
+     * @param timeout
+     *            Maximum amount of time to wait
+     * @param unit
+     *            Unit of the timeout
+     * @return True if all clients have connected successfully, false otherwise
+     */
+    public boolean awaitAllClientConnections(final long timeout, final TimeUnit unit)
     {
-        return failedClientConnections_.get() != 0;
+        try
+        {
+            allClientConnections_.get(timeout, unit);
+            LOG.info("All clients connected successfully");
+            return true;
+        }
+        catch(final ExecutionException e)
+        {
+            LOG.info("A client had a problem connecting", e.getCause());
+        }
+        catch(final TimeoutException e)
+        {
+            LOG.info("Timed out after {} {} waiting for clients to connect, {} of {} connected",
+                    timeout, unit, succesfulClientConnections_.get(), numPlayers());
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.info("Interrupted while waiting for clients to connect");
+        }
+        return false;
     }
 
     private boolean areAllClientsConnected()
     {
-        return succesfulClientConnections_.get() == numPlayers();
+        return allClientConnections_.isDone() && succesfulClientConnections_.get() == numPlayers();
+    }
+
+    /**
+     * Identifier of this game. Clients connecting through a {@link GameHub}
+     * need to handshake with this id.
+     *
+     * @return This game's id
+     */
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    /**
+     * Time from this game's creation until the first action was requested,
+     * covering listener setup and waiting for every client to connect.
+     *
+     * @return The time to first turn, or -1 if no action has been requested
+     *         yet
+     */
+    public long getTimeToFirstTurn(final TimeUnit unit)
+    {
+        final long firstTurn = firstTurnNanos_;
+        return firstTurn == 0 ? -1 : unit.convert(firstTurn - createdNanos_,
+                TimeUnit.NANOSECONDS);
     }
 
     public int numPlayers()
@@ -220,9 +676,89 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
                                 .getPort()));
     }
 
+    /**
+     * @return The client end of every in-process player's transport, see
+     *         {@link #inProcess(Rules, Collection, Class, boolean)}
+     */
+    public Map<Player, FrameTransport> getClientTransports()
+    {
+        return playersToListeners_.entrySet().stream()
+                .filter(entry -> entry.getValue() instanceof InProcessGameListener)
+                .collect(Collectors.toMap(entry -> entry.getKey(),
+                        entry -> ((InProcessGameListener<S, A>) entry.getValue())
+                                .getClientTransport()));
+    }
+
+    /**
+     * @return The file every shared memory player's client should map, see
+     *         {@link #onSharedMemory(Rules, Collection, Class, Path, WaitStrategy)}
+     */
+    public Map<Player, Path> getPlayersToFiles()
+    {
+        return playersToListeners_.entrySet().stream()
+                .filter(entry -> entry.getValue() instanceof SharedMemoryGameListener)
+                .collect(Collectors.toMap(entry -> entry.getKey(),
+                        entry -> ((SharedMemoryGameListener<S, A>) entry.getValue()).getFile()));
+    }
+
+    /**
+     * Starts a {@link GameClient} for every in-process player, each on a
+     * daemon thread of its own, playing the provided policy. The clients stop
+     * once this game server is shut down.
+     *
+     * @param playersToPolicies
+     *            Policy to play each in-process player with
+     * @param stateClass
+     *            Class of the game's states
+     */
+    public void startInProcessClients(final Map<Player, ? extends Policy<S, A>> playersToPolicies,
+            final Class<S> stateClass)
+    {
+        Validate.notNull(playersToPolicies, "Cannot start clients with null policies");
+        Validate.notNull(stateClass, "Cannot start clients with a null State class");
+        getClientTransports().forEach((player, transport) ->
+        {
+            final Policy<S, A> policy = playersToPolicies.get(player);
+            Validate.notNull(policy, String.format("Cannot start a client for Player %s "
+                    + "without a policy", player));
+            /* Handshaking blocks until the listener answers, so it happens on the thread too */
+            final Thread client = new Thread(() -> new GameClient<S, A, R>(rules_, policy,
+                    transport, stateClass).run(), "InProcessClient-" + gameId_ + "-" + player);
+            client.setDaemon(true);
+            client.start();
+        });
+    }
+
     public void shutdown()
     {
         playersToListeners_.values().forEach(listener -> listener.disconnect());
+        /* Otherwise its idle threads linger for a minute after every game */
+        threadPool_.shutdown();
+    }
+
+    /**
+     * Tells every client how its player did, then disconnects them. Session
+     * clients go on to their next game; everyone else is simply disconnected.
+     *
+     * @param scores
+     *            Score of each player. Players without one are told the game
+     *            wasn't scored
+     */
+    public void shutdown(final Map<Player, Score> scores)
+    {
+        Validate.notNull(scores, "Cannot end a game with null scores");
+        playersToListeners_.forEach((player, listener) -> listener.endGame(scores.get(player)));
+        shutdown();
+    }
+
+    private boolean isPlayersTurn(final Player player)
+    {
+        if(rules_ instanceof SimultaneousRules)
+        {
+            return ((SimultaneousRules<S, A>) rules_).getActingPlayers(currentState_).contains(
+                    player);
+        }
+        return Objects.equals(player, rules_.getCurrentPlayer(currentState_));
     }
 
     @Override
@@ -238,17 +774,21 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
             Validate.isTrue(allClientsConnected, "Cannot play a game to completion when"
                     + " clients have failed to connect");
         }
-        for(int turns = 0; (!(Objects.equals(player, rules_.getCurrentPlayer(currentState_))) && !(rules_
-                .isTerminal(currentState_))); ++turns)
+        for(int turns = 0; !isPlayersTurn(player) && !(rules_.isTerminal(currentState_)); ++turns)
         {
             advanceSingleAction();
-            LOG.info("Advanced {} turns waiting Player {}. Current Player: {}", turns, player,
+            LOG.debug("Advanced {} turns waiting Player {}. Current Player: {}", turns, player,
                     rules_.getCurrentPlayer(currentState_));
         }
 
         return currentState();
     }
 
+    /**
+     * Plays a single turn. If the rules are {@link SimultaneousRules}, every
+     * acting player is sent its state at once and the turn waits on all of
+     * their answers together; otherwise only the current player is asked.
+     */
     @Override
     public S advanceSingleAction()
     {
@@ -258,23 +798,209 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
             Validate.isTrue(allClientsConnected, "Cannot play a game to completion when"
                     + " clients have failed to connect");
         }
+        if(rules_ instanceof SimultaneousRules)
+        {
+            return advanceSimultaneousTurn((SimultaneousRules<S, A>) rules_);
+        }
 
         final Player currentPlayer = rules_.getCurrentPlayer(currentState_);
-        final GameListener<S, A> listenerForPlayer = playersToListeners_.get(currentPlayer);
-        Validate.notNull(listenerForPlayer, String.format(
-                "Rules %s reported player %s, but we have no knowledge of it (%s)", rules_,
-                currentPlayer, playersToListeners_));
+        final GameListener<S, A> listenerForPlayer = listenerFor(currentPlayer);
         final Collection<A> availableActions = rules_.getAvailableActions(currentPlayer,
                 currentState_);
+        final NetworkMetrics metrics = NetworkMetrics.global();
+        final long start = System.nanoTime();
         final S filteredState = rules_.filterState(currentState_, currentPlayer);
-        final A chosenAction = listenerForPlayer.requestChooseAction(filteredState);
-        Validate.isTrue(availableActions.contains(chosenAction), String.format(
-                "Cannot take Action %s, it is not valid. Valid actions: %s", chosenAction,
-                availableActions));
+        metrics.recordSince(TurnPhase.FILTER_STATE, start);
+        markFirstTurn(metrics);
+        A chosenAction;
+        boolean fellBack = false;
+        try
+        {
+            chosenAction = listenerForPlayer.requestChooseAction(filteredState, availableActions,
+                    remainingTurnNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch(final TimeoutException e)
+        {
+            chosenAction = fallBack(currentPlayer, filteredState, availableActions);
+            fellBack = true;
+        }
+        final long chosen = System.nanoTime();
+        validateAction(currentPlayer, listenerForPlayer, chosenAction, availableActions, fellBack);
+        final long validated = metrics.recordSince(TurnPhase.VALIDATE, chosen);
+        final GameRecorder recorder = recorder_;
+        /* Recorded states are encoded later, the transition may change this one in place */
+        final S recordedState = recorder != null ? rules_.copyState(filteredState) : null;
         currentState_ = rules_.transition(currentState_, chosenAction);
+        metrics.recordSince(TurnPhase.TRANSITION, validated);
+        metrics.turnPlayed();
+        if(recorder != null)
+        {
+            recorder.record(gameId_, turn_, currentPlayer, recordedState, availableActions,
+                    chosenAction, fellBack);
+        }
+        endTurn(metrics, recorder);
         return currentState();
     }
 
+    /* Every acting player is asked at once, the turn lasts as long as the slowest of them */
+    private S advanceSimultaneousTurn(final SimultaneousRules<S, A> rules)
+    {
+        final Collection<Player> actingPlayers = rules.getActingPlayers(currentState_);
+        Validate.isTrue(!actingPlayers.isEmpty(), String.format(
+                "Rules %s reported no acting players for a game that isn't over", rules));
+        final NetworkMetrics metrics = NetworkMetrics.global();
+        markFirstTurn(metrics);
+        final long timeoutNanos = remainingTurnNanos();
+        final Map<Player, S> filteredStates = Maps.newLinkedHashMap();
+        final Map<Player, Collection<A>> availableActions = Maps.newLinkedHashMap();
+        final Map<Player, ListenableFuture<A>> requests = Maps.newLinkedHashMap();
+        for(final Player player : actingPlayers)
+        {
+            final GameListener<S, A> listener = listenerFor(player);
+            final Collection<A> actions = rules.getAvailableActions(player, currentState_);
+            final long start = System.nanoTime();
+            final S filteredState = rules.filterState(currentState_, player);
+            metrics.recordSince(TurnPhase.FILTER_STATE, start);
+            filteredStates.put(player, filteredState);
+            availableActions.put(player, actions);
+            requests.put(player, listener.requestChooseActionAsync(filteredState, actions,
+                    timeoutNanos, TimeUnit.NANOSECONDS, threadPool_));
+        }
+
+        final Map<Player, A> chosenActions = Maps.newLinkedHashMap();
+        final Set<Player> fellBack = new HashSet<>();
+        for(final Map.Entry<Player, ListenableFuture<A>> request : requests.entrySet())
+        {
+            final Player player = request.getKey();
+            A chosenAction;
+            try
+            {
+                chosenAction = awaitAction(request.getValue());
+            }
+            catch(final TimeoutException e)
+            {
+                chosenAction = fallBack(player, filteredStates.get(player), availableActions
+                        .get(player));
+                fellBack.add(player);
+            }
+            /* Only the validation itself, not the wait for the slowest answer */
+            final long chosen = System.nanoTime();
+            validateAction(player, listenerFor(player), chosenAction, availableActions
+                    .get(player), fellBack.contains(player));
+            metrics.recordSince(TurnPhase.VALIDATE, chosen);
+            chosenActions.put(player, chosenAction);
+        }
+        final GameRecorder recorder = recorder_;
+        if(recorder != null)
+        {
+            /* Recorded states are encoded later, the transition may change these in place */
+            filteredStates.replaceAll((player, state) -> rules.copyState(state));
+        }
+        final long start = System.nanoTime();
+        currentState_ = rules.transition(currentState_, chosenActions);
+        metrics.recordSince(TurnPhase.TRANSITION, start);
+        metrics.turnPlayed();
+        if(recorder != null)
+        {
+            chosenActions.forEach((player, action) -> recorder.record(gameId_, turn_, player,
+                    filteredStates.get(player), availableActions.get(player), action, fellBack
+                            .contains(player)));
+        }
+        endTurn(metrics, recorder);
+        return currentState();
+    }
+
+    private GameListener<S, A> listenerFor(final Player player)
+    {
+        final GameListener<S, A> listener = playersToListeners_.get(player);
+        Validate.notNull(listener, String.format(
+                "Rules %s reported player %s, but we have no knowledge of it (%s)", rules_,
+                player, playersToListeners_));
+        return listener;
+    }
+
+    private void markFirstTurn(final NetworkMetrics metrics)
+    {
+        if(firstTurnNanos_ == 0)
+        {
+            firstTurnNanos_ = System.nanoTime();
+            metrics.gameStarted();
+            LOG.info("Game {} reached its first turn {}us after it was created", gameId_,
+                    getTimeToFirstTurn(TimeUnit.MICROSECONDS));
+        }
+    }
+
+    private A fallBack(final Player player, final S filteredState,
+            final Collection<A> availableActions)
+    {
+        final int timeouts = timeouts_.computeIfAbsent(player, ignored -> new AtomicInteger(0))
+                .incrementAndGet();
+        final A chosenAction = fallbackPolicy_.chooseAction(player, filteredState,
+                availableActions, previousActions_.get(player));
+        LOG.warn("Player {} of game {} missed its deadline ({} times so far), fell back to {}",
+                player, gameId_, timeouts, chosenAction);
+        return chosenAction;
+    }
+
+    private void validateAction(final Player player, final GameListener<S, A> listener,
+            final A chosenAction, final Collection<A> availableActions, final boolean fellBack)
+    {
+        /* Clients that answer with indices can only pick from availableActions */
+        if(fellBack || !listener.sendsActionIndices())
+        {
+            Validate.isTrue(availableActions.contains(chosenAction), String.format(
+                    "Cannot take Action %s, it is not valid. Valid actions: %s", chosenAction,
+                    availableActions));
+        }
+        if(!fellBack)
+        {
+            previousActions_.put(player, chosenAction);
+        }
+    }
+
+    private static <A> A awaitAction(final ListenableFuture<A> request) throws TimeoutException
+    {
+        try
+        {
+            return request.get();
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for actions", e);
+        }
+        catch(final ExecutionException e)
+        {
+            if(e.getCause() instanceof TimeoutException)
+            {
+                throw (TimeoutException) e.getCause();
+            }
+            if(e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void endTurn(final NetworkMetrics metrics, final GameRecorder recorder)
+    {
+        ++turn_;
+        final SpectatorServer spectators = spectators_;
+        if(spectators != null)
+        {
+            spectators.publish(gameId_, turn_, currentState_, rules_, playersToListeners_.keySet());
+        }
+        if(rules_.isTerminal(currentState_))
+        {
+            metrics.gameCompleted();
+            if(recorder != null)
+            {
+                recorder.endGame(gameId_);
+            }
+        }
+    }
+
     @Override
     public S playGameToCompletion()
     {
@@ -302,6 +1028,39 @@ public class NetworkAutomator<S, A, R extends Rules<S, A>> extends Automator<S,
         return rules_.copyState(currentState_);
     }
 
+    /**
+     * Takes a snapshot of the game as it is now, which any number of
+     * independent branches can be forked off of (see
+     * {@link core.rollout.Rollouts}). The state is copied once, however many
+     * branches are forked.
+     *
+     * @return Snapshot of the current state
+     */
+    public GameSnapshot<S, A> snapshot()
+    {
+        return new GameSnapshot<>(rules_, currentState_, gameId_, turn_);
+    }
+
+    /**
+     * Continues the game from a snapshot instead of the initial state, e.g. to
+     * have a branch played out by clients. Only allowed before the first turn.
+     *
+     * @param snapshot
+     *            Snapshot of a game with the same rules and players
+     */
+    public void resumeFrom(final GameSnapshot<S, A> snapshot)
+    {
+        Validate.notNull(snapshot, "Cannot resume from a null snapshot");
+        Validate.isTrue(firstTurnNanos_ == 0, String.format(
+                "Cannot resume game %s from a snapshot, it has already started", gameId_));
+        Validate.isTrue(playersToListeners_.containsKey(snapshot.getCurrentPlayer())
+                || snapshot.isTerminal(), String.format(
+                "Cannot resume game %s from %s, its current player isn't part of the game",
+                gameId_, snapshot));
+        currentState_ = snapshot.copyState();
+        turn_ = snapshot.getTurn();
+    }
+
     @Override
     public S currentStateFilteredForPlayer(final Player player)
     {
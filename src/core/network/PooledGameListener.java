@@ -0,0 +1,148 @@
+package core.network;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * SocketGameListener leased from a {@link ListenerPool}. Its client is taken
+ * from the accept the pool already has pending on the socket and handshaken
+ * with on one of the pool's threads, so nothing blocks waiting for it to
+ * connect. Disconnecting hands the socket back to the pool, which retires it.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+final class PooledGameListener<S, A> extends SocketGameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PooledGameListener.class);
+
+    private final ListenerPool pool_;
+    private final ListenerPool.PooledSocket socket_;
+    /*
+     * This lease's view of the socket's pending accept. Cancelled on
+     * disconnect, so a client that connects afterwards is never handshaken
+     * with
+     */
+    private final SettableFuture<SocketChannel> client_ = SettableFuture.create();
+    private final AtomicBoolean released_ = new AtomicBoolean(false);
+
+    PooledGameListener(final ListenerPool pool, final ListenerPool.PooledSocket socket,
+            final Class<A> actionClass)
+    {
+        super(socket.channel_, actionClass);
+        pool_ = pool;
+        socket_ = socket;
+        Futures.addCallback(socket.pendingAccept_, new FutureCallback<SocketChannel>()
+        {
+            @Override
+            public void onSuccess(final SocketChannel client)
+            {
+                client_.set(client);
+            }
+
+            @Override
+            public void onFailure(final Throwable exception)
+            {
+                client_.setException(exception);
+            }
+        });
+        Futures.addCallback(client_, new FutureCallback<SocketChannel>()
+        {
+            @Override
+            public void onSuccess(final SocketChannel client)
+            {
+                try
+                {
+                    pool_.handshake(() -> attachPooled(client));
+                }
+                catch(final RejectedExecutionException e)
+                {
+                    markConnectionFailed(new IOException("Pool of port " + getPort()
+                            + " was shut down before its client handshook", e));
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable exception)
+            {
+                markConnectionFailed(exception instanceof CancellationException ? new IOException(
+                        "Listener on port " + getPort()
+                                + " was disconnected before a client connected") : exception);
+            }
+        });
+    }
+
+    private void attachPooled(final SocketChannel client)
+    {
+        try
+        {
+            attach(client);
+        }
+        catch(final IOException | RuntimeException e)
+        {
+            LOG.error("Could not handshake with the client on port {}", getPort(), e);
+            markConnectionFailed(e);
+        }
+    }
+
+    @Override
+    protected void attach(final SocketChannel client) throws IOException
+    {
+        client.socket().setTcpNoDelay(true);
+        final FramedConnection connection = new FramedConnection(client);
+        clientConnection_ = connection;
+        /*
+         * A disconnect that ran before the connection was assigned found none
+         * to close, and the socket may already be leased again
+         */
+        if(released_.get())
+        {
+            disconnectClient();
+            throw new IOException("Listener on port " + getPort()
+                    + " was disconnected before its client handshook");
+        }
+        handshake(connection);
+        markConnected();
+        LOG.info("Handshook with the pooled client on port {}", getPort());
+    }
+
+    @Override
+    public void connect()
+    {
+        Futures.getUnchecked(connectionFuture());
+    }
+
+    /* The pool accepts the client and handshakes on a thread of its own */
+    @Override
+    public boolean connectBlocks()
+    {
+        return false;
+    }
+
+    @Override
+    public void disconnect()
+    {
+        if(!released_.compareAndSet(false, true))
+        {
+            LOG.info("Disconnect called on an already released listener");
+            return;
+        }
+        /* Whoever won, the socket's pending client is now spoken for or abandoned */
+        client_.cancel(false);
+        disconnectClient();
+        pool_.release(socket_);
+        LOG.info("Returned socket on port {} to the pool", getPort());
+    }
+}
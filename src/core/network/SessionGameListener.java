@@ -0,0 +1,69 @@
+package core.network;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import core.Player;
+import core.Score;
+
+/**
+ * GameListener whose Player is played by a session client on a
+ * {@link GameHub}. The listener is connected once its game's turn on the
+ * session comes up (see {@link HubSession}), and hands the session on to the
+ * next game when it ends or is disconnected.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+final class SessionGameListener<S, A> extends HubGameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SessionGameListener.class);
+
+    private final HubSession session_;
+    private final AtomicBoolean ended_ = new AtomicBoolean(false);
+
+    SessionGameListener(final GameHub hub, final HubSession session, final String gameId,
+            final Player player, final Class<A> actionClass)
+    {
+        super(hub, gameId, player, actionClass);
+        session_ = session;
+    }
+
+    @Override
+    public void endGame(final Score score)
+    {
+        if(ended_.compareAndSet(false, true))
+        {
+            session_.end(this, score);
+        }
+    }
+
+    @Override
+    public void disconnect()
+    {
+        /* A game that wasn't ended explicitly was cut short */
+        endGame(null);
+        markDisconnected();
+        if(!connectionFuture().isDone())
+        {
+            markConnectionFailed(new IOException(String.format(
+                    "Disconnected before session %s got to Player %s of game %s",
+                    session_.getSessionId(), getPlayer(), getGameId())));
+        }
+        LOG.info("Player {} of game {} released session {}", getPlayer(), getGameId(),
+                session_.getSessionId());
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [sessionId=%s, gameId=%s, player=%s]",
+                SessionGameListener.class.getSimpleName(), session_.getSessionId(), getGameId(),
+                getPlayer());
+    }
+}
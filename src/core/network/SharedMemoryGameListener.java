@@ -0,0 +1,131 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * GameListener for a client on the same host that talks to it through a
+ * memory-mapped file (see {@link SharedMemoryTransport} for its layout) rather
+ * than a socket. The listener creates the file on construction; the client
+ * maps it, either with {@link SharedMemoryTransport#attach(Path, WaitStrategy)}
+ * or from any other language, and handshakes as it would over TCP. The file is
+ * deleted on {@link #disconnect()}.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public class SharedMemoryGameListener<S, A> extends FramedGameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMemoryGameListener.class);
+
+    private final Path file_;
+    private final SharedMemoryTransport clientConnection_;
+
+    /**
+     * @param file
+     *            File to create for the client to map, replacing whatever was
+     *            there
+     * @param actionClass
+     * @param capacity
+     *            Size in bytes of each direction's ring, a power of two. No
+     *            single state or action may encode to more
+     * @param waitStrategy
+     *            How to wait for the client's answers
+     * @throws IOException
+     *             if the file could not be created
+     */
+    public SharedMemoryGameListener(final Path file, final Class<A> actionClass,
+            final int capacity, final WaitStrategy waitStrategy) throws IOException
+    {
+        super(actionClass);
+        file_ = file;
+        clientConnection_ = SharedMemoryTransport.create(file, capacity, waitStrategy);
+        LOG.info("Created shared memory transport {} with {} byte rings", file, capacity);
+    }
+
+    /**
+     * @return File the client should map
+     */
+    public Path getFile()
+    {
+        return file_;
+    }
+
+    @Override
+    protected void sendFrame(final MessageType type, final Object value) throws IOException
+    {
+        clientConnection_.send(type, value);
+    }
+
+    @Override
+    protected MessageType receiveFrame(final long timeoutNanos) throws IOException
+    {
+        final MessageType type = clientConnection_.readFrame(timeoutNanos, TimeUnit.NANOSECONDS);
+        if(type == null)
+        {
+            throw new EOFException("Client on " + file_ + " closed the connection");
+        }
+        return type;
+    }
+
+    @Override
+    protected <T> T decodeFrame(final Class<T> clazz)
+    {
+        return clientConnection_.decodePayload(clazz);
+    }
+
+    /**
+     * Blocks until the client has mapped the file and handshaked.
+     */
+    @Override
+    public void connect()
+    {
+        try
+        {
+            handshake(clientConnection_);
+            markConnected();
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while awaiting a client on {}", file_, e);
+            markConnectionFailed(e);
+            throw new RuntimeException(e);
+        }
+        catch(final RuntimeException e)
+        {
+            markConnectionFailed(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void disconnect()
+    {
+        clientConnection_.close();
+        markDisconnected();
+        try
+        {
+            /* A client that still has it mapped keeps its mapping */
+            Files.deleteIfExists(file_);
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while deleting {}, swallowing", file_, e);
+        }
+        LOG.info("Shared memory client connection on {} disconnected", file_);
+    }
+
+    @Override
+    public int getPort()
+    {
+        return InProcessGameListener.NO_PORT;
+    }
+}
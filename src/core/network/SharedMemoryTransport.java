@@ -0,0 +1,373 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import utils.ByteBufferInputStream;
+import utils.ByteBufferOutputStream;
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import core.metrics.NetworkMetrics;
+
+/**
+ * One end of a connection over a memory-mapped file holding a pair of
+ * single-producer, single-consumer byte rings, for clients on the same host
+ * that would rather not pay for loopback TCP. Frames are exactly those sent
+ * over a socket (see {@link Frames}), so a client in any language only needs
+ * to swap its socket reads and writes for ring reads and writes.
+ *
+ * The listener creates the file (see {@link SharedMemoryGameListener}); the
+ * client maps it and opens with a HANDSHAKE frame, as it would on a socket.
+ * The file is laid out as
+ *
+ * <pre>
+ * offset                      size  contents
+ * 0                           4     magic, 0x4D4B5652 ("MKVR")
+ * 4                           4     layout version, 1
+ * 8                           4     capacity of each ring's data in bytes, a power of two
+ * 64                          4     listener closed, 0 or 1
+ * 68                          4     client closed, 0 or 1
+ * 128                         -     ring 0, listener to client
+ * 128 + 128 + capacity        -     ring 1, client to listener
+ *
+ * ring:
+ * 0                           8     head, total bytes ever written; only the producer writes it
+ * 64                          8     tail, total bytes ever read; only the consumer writes it
+ * 128                         capacity  data; byte n of the stream is at data[n % capacity]
+ * </pre>
+ *
+ * Header words are in the host's native byte order, and the head, tail and
+ * closed words must be read with acquire and written with release semantics
+ * (C11 atomic_load_explicit/atomic_store_explicit). Frames are written whole:
+ * the producer waits until capacity - (head - tail) bytes are free, copies
+ * the frame in (wrapping around the end of the data), then publishes the new
+ * head. The consumer waits until a whole frame lies between tail and head,
+ * copies it out, then publishes the new tail. A frame may therefore be no
+ * larger than the capacity. A side that is done sets its closed word; the
+ * other side drains what is left and then treats the ring as closed.
+ *
+ * The ordered accesses go through {@link MappedWords}; frames are copied in
+ * and out through the mapped buffer itself.
+ *
+ * Not thread safe; one thread may read while another writes, but no more.
+ *
+ * @author wallstop
+ */
+public final class SharedMemoryTransport implements FrameTransport
+{
+    public static final int MAGIC = 0x4D4B5652;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    /* Header offsets, see the class comment */
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int CLOSED_OFFSET = 64;
+    private static final int HEADER_SIZE = 128;
+    private static final int TAIL_OFFSET = 64;
+    private static final int RING_HEADER_SIZE = 128;
+
+    private static final int LISTENER = 0;
+    private static final int CLIENT = 1;
+
+    private final MappedWords words_;
+    /* Separate views so one thread can read while another writes */
+    private final ByteBuffer writeView_;
+    private final ByteBuffer readView_;
+    private final int ownClosed_;
+    private final int peerClosed_;
+    private final int writeHead_;
+    private final int writeTail_;
+    private final int writeData_;
+    private final int readHead_;
+    private final int readTail_;
+    private final int readData_;
+    private final int capacity_;
+    private final int mask_;
+    private final WaitStrategy waitStrategy_;
+
+    private final ByteBufferOutputStream writeStream_ = new ByteBufferOutputStream(ByteBuffer
+            .allocate(FramedConnection.DEFAULT_BUFFER_SIZE));
+    private final ByteBufferInputStream payloadStream_ = new ByteBufferInputStream();
+    private ByteBuffer readBuffer_ = ByteBuffer.allocate(FramedConnection.DEFAULT_BUFFER_SIZE);
+
+    private MessageType frameType_ = null;
+    private volatile boolean closed_ = false;
+    private volatile WireCodec codec_ = SerializationUtils.JSON;
+
+    private SharedMemoryTransport(final MappedByteBuffer map, final int capacity, final int side,
+            final WaitStrategy waitStrategy)
+    {
+        words_ = new MappedWords(map);
+        writeView_ = map.duplicate();
+        readView_ = map.duplicate();
+        capacity_ = capacity;
+        mask_ = capacity - 1;
+        waitStrategy_ = waitStrategy;
+        ownClosed_ = CLOSED_OFFSET + Integer.BYTES * side;
+        peerClosed_ = CLOSED_OFFSET + Integer.BYTES * (1 - side);
+        final int ring0 = HEADER_SIZE;
+        final int ring1 = ring0 + RING_HEADER_SIZE + capacity;
+        final int write = side == LISTENER ? ring0 : ring1;
+        final int read = side == LISTENER ? ring1 : ring0;
+        writeHead_ = write;
+        writeTail_ = write + TAIL_OFFSET;
+        writeData_ = write + RING_HEADER_SIZE;
+        readHead_ = read;
+        readTail_ = read + TAIL_OFFSET;
+        readData_ = read + RING_HEADER_SIZE;
+    }
+
+    /**
+     * @return Size of the file holding rings of the provided capacity
+     */
+    public static long fileSize(final int capacity)
+    {
+        return HEADER_SIZE + 2L * (RING_HEADER_SIZE + capacity);
+    }
+
+    /**
+     * Creates the file, replacing whatever was there, and returns the
+     * listener's end of it.
+     *
+     * @param file
+     *            File to create
+     * @param capacity
+     *            Size in bytes of each ring, a positive power of two. No frame
+     *            may be larger
+     * @param waitStrategy
+     *            How to wait for the client
+     * @throws IOException
+     *             if the file could not be created or mapped
+     */
+    public static SharedMemoryTransport create(final Path file, final int capacity,
+            final WaitStrategy waitStrategy) throws IOException
+    {
+        Validate.notNull(file, "Cannot create a shared memory transport on a null file");
+        Validate.isTrue(capacity >= Frames.HEADER_SIZE && Integer.bitCount(capacity) == 1,
+                String.format("Cannot create rings of capacity %d, it must be a power of two",
+                        capacity));
+        Validate.notNull(waitStrategy, "Cannot create a shared memory transport with a null "
+                + "WaitStrategy");
+        final MappedByteBuffer map;
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE))
+        {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+        }
+        map.order(ByteOrder.nativeOrder());
+        map.putInt(CAPACITY_OFFSET, capacity);
+        map.putInt(Integer.BYTES, VERSION);
+        /* Magic last, a client that sees it sees the rest */
+        new MappedWords(map).setIntRelease(0, MAGIC);
+        return new SharedMemoryTransport(map, capacity, LISTENER, waitStrategy);
+    }
+
+    /**
+     * Maps a file created by {@link #create(Path, int, WaitStrategy)} and
+     * returns the client's end of it.
+     *
+     * @param file
+     *            File the listener created
+     * @param waitStrategy
+     *            How to wait for the listener
+     * @throws IOException
+     *             if the file could not be mapped, or isn't a transport
+     */
+    public static SharedMemoryTransport attach(final Path file, final WaitStrategy waitStrategy)
+            throws IOException
+    {
+        Validate.notNull(file, "Cannot attach to a null file");
+        Validate.notNull(waitStrategy, "Cannot attach with a null WaitStrategy");
+        final MappedByteBuffer map;
+        try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE))
+        {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        map.order(ByteOrder.nativeOrder());
+        if(map.capacity() < HEADER_SIZE || new MappedWords(map).getIntAcquire(0) != MAGIC)
+        {
+            throw new IOException(file + " is not a shared memory transport");
+        }
+        final int version = map.getInt(Integer.BYTES);
+        if(version != VERSION)
+        {
+            throw new IOException(String.format("%s is version %d, only %d is supported", file,
+                    version, VERSION));
+        }
+        final int capacity = map.getInt(CAPACITY_OFFSET);
+        if(Integer.bitCount(capacity) != 1 || map.capacity() < fileSize(capacity))
+        {
+            throw new IOException(String.format("%s has a corrupt capacity of %d", file, capacity));
+        }
+        return new SharedMemoryTransport(map, capacity, CLIENT, waitStrategy);
+    }
+
+    @Override
+    public void send(final MessageType type, final Object value) throws IOException
+    {
+        writeStream_.buffer().clear();
+        final int start = Frames.beginFrame(writeStream_, type);
+        codecFor(type).writeValue(value, writeStream_);
+        final ByteBuffer frame = writeStream_.buffer();
+        Frames.endFrame(frame, start);
+        final int size = frame.position();
+        if(size > capacity_)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot send a frame of %d bytes through rings of %d bytes", size, capacity_));
+        }
+
+        final long head = words_.getLongAcquire(writeHead_);
+        int attempt = 0;
+        while(capacity_ - (head - words_.getLongAcquire(writeTail_)) < size)
+        {
+            if(closed_ || isPeerClosed())
+            {
+                throw new ClosedChannelException();
+            }
+            waitStrategy_.idle(attempt++, Long.MAX_VALUE);
+        }
+        copyIn(frame.array(), head, size);
+        /* Publishes the frame to the consumer */
+        words_.setLongRelease(writeHead_, head + size);
+        NetworkMetrics.global().bytesOut(size);
+    }
+
+    private void copyIn(final byte[] frame, final long head, final int size)
+    {
+        final int offset = (int) head & mask_;
+        final int first = Math.min(size, capacity_ - offset);
+        writeView_.position(writeData_ + offset);
+        writeView_.put(frame, 0, first);
+        writeView_.position(writeData_);
+        writeView_.put(frame, first, size - first);
+    }
+
+    private void copyOut(final long tail, final byte[] destination, final int size)
+    {
+        final int offset = (int) tail & mask_;
+        final int first = Math.min(size, capacity_ - offset);
+        readView_.position(readData_ + offset);
+        readView_.get(destination, 0, first);
+        readView_.position(readData_);
+        readView_.get(destination, first, size - first);
+    }
+
+    @Override
+    public MessageType readFrame(final long timeout, final TimeUnit unit) throws IOException
+    {
+        Validate.isTrue(timeout >= 0, "Cannot read a frame with a negative timeout");
+        Validate.notNull(unit, "Cannot read a frame with a null TimeUnit");
+        final long timeoutNanos = unit.toNanos(timeout);
+        final boolean timed = timeoutNanos != Long.MAX_VALUE;
+        final long deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+        frameType_ = null;
+
+        final long tail = words_.getLongAcquire(readTail_);
+        final byte[] header = readBuffer_.array();
+        int attempt = 0;
+        while(true)
+        {
+            /* Closed is read first, so nothing published before the close is missed */
+            final boolean peerClosed = isPeerClosed();
+            final long available = words_.getLongAcquire(readHead_) - tail;
+            if(available >= Frames.HEADER_SIZE)
+            {
+                copyOut(tail, header, Frames.HEADER_SIZE);
+                if(available >= Frames.frameSize(readBuffer_, 0))
+                {
+                    break;
+                }
+            }
+            if(peerClosed || closed_)
+            {
+                if(available == 0)
+                {
+                    return null;
+                }
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            final long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if(remaining <= 0)
+            {
+                throw new SocketTimeoutException(String.format("No frame arrived within %d %s",
+                        timeout, unit));
+            }
+            waitStrategy_.idle(attempt++, remaining);
+        }
+
+        final int size = Frames.frameSize(readBuffer_, 0);
+        frameType_ = Frames.type(readBuffer_, 0);
+        if(readBuffer_.capacity() < size)
+        {
+            readBuffer_ = ByteBuffer.allocate(Math.max(size, readBuffer_.capacity() << 1));
+        }
+        copyOut(tail, readBuffer_.array(), size);
+        /* The frame is ours now, hand its bytes back to the producer */
+        words_.setLongRelease(readTail_, tail + size);
+        NetworkMetrics.global().bytesIn(size);
+        payloadStream_.wrap(readBuffer_, Frames.HEADER_SIZE, size);
+        return frameType_;
+    }
+
+    @Override
+    public <T> T decodePayload(final Class<T> clazz)
+    {
+        Validate.notNull(frameType_, "Cannot decode a payload before reading a frame");
+        return codecFor(frameType_).readValue(payloadStream_, clazz);
+    }
+
+    @Override
+    public byte[] copyPayload()
+    {
+        Validate.notNull(frameType_, "Cannot copy a payload before reading a frame");
+        return payloadStream_.copyRemaining();
+    }
+
+    @Override
+    public void setCodec(final WireCodec codec)
+    {
+        Validate.notNull(codec, "Cannot frame with a null codec");
+        codec_ = codec;
+    }
+
+    @Override
+    public WireCodec getCodec()
+    {
+        return codec_;
+    }
+
+    private WireCodec codecFor(final MessageType type)
+    {
+        return Frames.codecFor(type, codec_);
+    }
+
+    private boolean isPeerClosed()
+    {
+        return words_.getIntAcquire(peerClosed_) != 0;
+    }
+
+    /**
+     * Tells the other side this one is done. The file itself is left as it
+     * is; it's the listener's to delete.
+     */
+    @Override
+    public void close()
+    {
+        closed_ = true;
+        words_.setIntRelease(ownClosed_, 1);
+    }
+}
@@ -0,0 +1,45 @@
+package core.network;
+
+import java.util.Collection;
+import java.util.Map;
+
+import core.Player;
+import core.Rules;
+
+/**
+ * Rules for games in which several players act at once, each choosing without
+ * seeing what the others chose, such as rock-paper-scissors or games with
+ * simultaneous orders. A {@link NetworkAutomator} playing by these rules sends
+ * every acting player its state at once and waits on all of their answers
+ * together, so a turn takes as long as the slowest player rather than the sum
+ * of all of them.
+ *
+ * {@link Rules#getCurrentPlayer(Object)} should return one of the acting
+ * players, and {@link Rules#transition(Object, Object)} apply a single one of
+ * their actions, for code that only knows about one player per turn.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public interface SimultaneousRules<S, A> extends Rules<S, A>
+{
+    /**
+     * @param state
+     *            State of a game that isn't over
+     * @return Every player who must choose an action in the state
+     */
+    Collection<Player> getActingPlayers(S state);
+
+    /**
+     * Applies the actions every acting player chose at once.
+     *
+     * @param state
+     *            State the players acted in
+     * @param actions
+     *            Action each acting player chose
+     * @return The resulting state
+     */
+    S transition(S state, Map<Player, A> actions);
+}
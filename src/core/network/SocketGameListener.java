@@ -0,0 +1,217 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+/**
+ * GameListener that owns a dedicated server socket and accepts exactly one
+ * client on it. The client's connection is framed once and reused for every
+ * turn.
+ *
+ * The server socket is either bound by the listener itself or, for pooled
+ * listeners (see {@link ListenerPool}), bound ahead of time and handed in.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public class SocketGameListener<S, A> extends FramedGameListener<S, A>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SocketGameListener.class);
+
+    /* We define valid ports to be within [0, 65536), where 0 is ephemeral */
+    private static final int MAX_PORT = (1 << 16);
+    private static final int MIN_PORT = -1;
+    private static final int EPHEMERAL_PORT = 0;
+
+    protected final ServerSocketChannel serverSocket_;
+
+    /*
+     * Lives as long as the client, so nothing it buffered is lost. Volatile,
+     * as pooled listeners attach on a thread of the pool's
+     */
+    protected volatile FramedConnection clientConnection_;
+
+    /**
+     * Binds a new listener to whichever port the OS picks. The port can't
+     * collide with one already in use, so this never fails on a busy port.
+     *
+     * @param actionClass
+     * @throws IOException
+     *             if no port could be bound
+     */
+    public SocketGameListener(final Class<A> actionClass) throws IOException
+    {
+        this(EPHEMERAL_PORT, actionClass);
+    }
+
+    /**
+     * @param port
+     *            Port to listen on, or 0 to let the OS pick an ephemeral port
+     * @param actionClass
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public SocketGameListener(final int port, final Class<A> actionClass) throws IOException
+    {
+        this(bind(port), actionClass);
+    }
+
+    /**
+     * @param serverSocket
+     *            Already bound server socket to accept the client on
+     * @param actionClass
+     */
+    protected SocketGameListener(final ServerSocketChannel serverSocket,
+            final Class<A> actionClass)
+    {
+        super(actionClass);
+        Validate.notNull(serverSocket, "Cannot create a SocketGameListener on a null socket");
+        serverSocket_ = serverSocket;
+    }
+
+    static ServerSocketChannel bind(final int port) throws IOException
+    {
+        Validate.inOpenInterval(port, MIN_PORT, MAX_PORT);
+        final ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        try
+        {
+            serverSocket.bind(new InetSocketAddress(port));
+        }
+        catch(final IOException e)
+        {
+            serverSocket.close();
+            throw e;
+        }
+        return serverSocket;
+    }
+
+    @Override
+    protected void sendFrame(final MessageType type, final Object value) throws IOException
+    {
+        clientConnection_.send(type, value);
+    }
+
+    @Override
+    protected MessageType receiveFrame(final long timeoutNanos) throws IOException
+    {
+        /* Blocks until the client's frame arrives, no polling involved */
+        final MessageType type = clientConnection_.readFrame(timeoutNanos, TimeUnit.NANOSECONDS);
+        if(type == null)
+        {
+            throw new EOFException("Client on port " + getPort() + " closed the connection");
+        }
+        return type;
+    }
+
+    @Override
+    protected <T> T decodeFrame(final Class<T> clazz)
+    {
+        return clientConnection_.decodePayload(clazz);
+    }
+
+    @Override
+    public void connect()
+    {
+        try
+        {
+            final SocketChannel socket = serverSocket_.accept();
+            if(socket == null)
+            {
+                LOG.error("Attempted to establish a connection on port "
+                        + "{}, but accept() returned null", getPort());
+                throw new RuntimeException("Could not establish client connection");
+            }
+            attach(socket);
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpeced exception while listening on port {}", getPort(), e);
+            markConnectionFailed(e);
+            throw new RuntimeException(e);
+        }
+        catch(final RuntimeException e)
+        {
+            markConnectionFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Frames the accepted client's connection and handshakes with it.
+     *
+     * @param socket
+     *            The client's socket
+     * @throws IOException
+     *             if the handshake failed
+     */
+    protected void attach(final SocketChannel socket) throws IOException
+    {
+        LOG.info("Successfully established connection on {}", serverSocket_.getLocalAddress());
+        socket.socket().setTcpNoDelay(true);
+        clientConnection_ = new FramedConnection(socket);
+        handshake(clientConnection_);
+        markConnected();
+    }
+
+    @Override
+    public void disconnect()
+    {
+        disconnectClient();
+        disconnectServer();
+    }
+
+    protected void disconnectClient()
+    {
+        final FramedConnection clientConnection = clientConnection_;
+        if(clientConnection != null)
+        {
+            try
+            {
+                clientConnection.close();
+                clientConnection_ = null;
+                markDisconnected();
+                LOG.info("Client connection disconnected");
+            }
+            catch(final Exception e)
+            {
+                LOG.error("Caught unexpected exception while "
+                        + "closing client connection, swallowing", e);
+            }
+        }
+        else
+        {
+            LOG.info("Disconnect called on an already disconnectd clientConnection");
+        }
+    }
+
+    private void disconnectServer()
+    {
+        try
+        {
+            serverSocket_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while "
+                    + "closign server connection, swallowing", e);
+        }
+        LOG.info("Server socket disconnected");
+    }
+
+    @Override
+    public int getPort()
+    {
+        return serverSocket_.socket().getLocalPort();
+    }
+}
@@ -0,0 +1,99 @@
+package core.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import core.Player;
+
+/**
+ * Watches games streamed by a {@link SpectatorServer}. Blocking; meant to be
+ * driven by a single thread calling {@link #next()} in a loop.
+ *
+ * @author wallstop
+ */
+public class SpectatorClient implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SpectatorClient.class);
+
+    private final FramedConnection server_;
+    private final Subscription subscription_;
+
+    /**
+     * Connects to the spectator server on the provided host and port and
+     * subscribes. Blocks until the server has answered the subscription.
+     *
+     * @param host
+     *            Host the SpectatorServer runs on
+     * @param port
+     *            Port the SpectatorServer is listening on
+     * @param gameId
+     *            Id of the game to watch, or null to watch every game
+     * @param player
+     *            Player whose view to watch, or null for the full state
+     * @throws IOException
+     *             if the server could not be reached or refused the
+     *             subscription
+     */
+    public SpectatorClient(final String host, final int port, final String gameId,
+            final Player player) throws IOException
+    {
+        subscription_ = new Subscription(gameId, player, GameClient.DEFAULT_CODECS);
+        server_ = GameClient.connect(host, port);
+        try
+        {
+            server_.send(MessageType.SUBSCRIBE, subscription_);
+            final HandshakeResponse response = server_.readFrame(MessageType.HANDSHAKE_RESPONSE,
+                    HandshakeResponse.class);
+            final WireCodec codec = SerializationUtils.codec(response.getCodec());
+            Validate.notNull(codec, String.format("Server chose unknown codec %s",
+                    response.getCodec()));
+            server_.setCodec(codec);
+            LOG.info("Sent {}, server answered with {}", subscription_, response);
+        }
+        catch(final IOException | RuntimeException e)
+        {
+            server_.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Blocks until the next update arrives.
+     *
+     * @return The next update, or null once the server has gone
+     * @throws IOException
+     *             if the server could not be read from or sent garbage
+     */
+    public SpectatorUpdate next() throws IOException
+    {
+        final MessageType type = server_.readFrame();
+        if(type == null)
+        {
+            return null;
+        }
+        if(type != MessageType.SPECTATOR_UPDATE)
+        {
+            throw new IOException(String.format("Expected a %s frame, but received a %s frame",
+                    MessageType.SPECTATOR_UPDATE, type));
+        }
+        return server_.decodePayload(SpectatorUpdate.class);
+    }
+
+    public Subscription getSubscription()
+    {
+        return subscription_;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        server_.close();
+    }
+}
@@ -0,0 +1,237 @@
+package core.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferInputStream;
+import utils.SerializationUtils;
+import utils.WireCodec;
+
+import core.Player;
+import core.metrics.NetworkMetrics;
+
+/**
+ * A single non-blocking spectator channel owned by a {@link SpectatorServer}.
+ * Everything happens on the server's event loop.
+ *
+ * A spectator is never sent more than one update per game at a time: while
+ * an update is still being written, newer updates for the same game replace
+ * each other, so a spectator that can't keep up skips turns rather than
+ * holding on to them.
+ *
+ * @author wallstop
+ */
+final class SpectatorConnection
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SpectatorConnection.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final SpectatorServer server_;
+    private final SocketChannel channel_;
+    private SelectionKey key_;
+    private boolean closed_ = false;
+
+    /* Until the subscription arrives. Received bytes live in [0, position) */
+    private ByteBuffer readBuffer_ = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final ByteBufferInputStream subscriptionStream_ = new ByteBufferInputStream();
+
+    private Subscription subscription_ = null;
+    private Optional<Player> view_ = Optional.empty();
+    private WireCodec codec_ = SerializationUtils.JSON;
+
+    /* Frame being written, and the latest frame after it for each game */
+    private ByteBuffer current_ = null;
+    private final Map<String, ByteBuffer> next_ = new LinkedHashMap<>();
+
+    SpectatorConnection(final SpectatorServer server, final SocketChannel channel)
+    {
+        server_ = server;
+        channel_ = channel;
+    }
+
+    void register(final Selector selector) throws IOException
+    {
+        key_ = channel_.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    Subscription getSubscription()
+    {
+        return subscription_;
+    }
+
+    /**
+     * @return View the spectator watches, empty for the full state
+     */
+    Optional<Player> getView()
+    {
+        return view_;
+    }
+
+    WireCodec getCodec()
+    {
+        return codec_;
+    }
+
+    /**
+     * @return True if the spectator subscribed to the provided game
+     */
+    boolean watches(final String gameId)
+    {
+        return subscription_ != null
+                && (subscription_.getGameId() == null || subscription_.getGameId().equals(gameId));
+    }
+
+    void onReadable() throws IOException
+    {
+        final int read = channel_.read(readBuffer_);
+        if(read < 0)
+        {
+            LOG.info("{} reached end of stream", this);
+            close();
+            return;
+        }
+        NetworkMetrics.global().bytesIn(read);
+        if(subscription_ != null)
+        {
+            /* Nothing is expected after the subscription */
+            readBuffer_.clear();
+            return;
+        }
+
+        final int frameEnd = Frames.frameEnd(readBuffer_, 0, readBuffer_.position());
+        if(frameEnd < 0)
+        {
+            if(!readBuffer_.hasRemaining())
+            {
+                final int required = readBuffer_.position() >= Frames.HEADER_SIZE ? Frames
+                        .frameSize(readBuffer_, 0) : Frames.HEADER_SIZE;
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(required,
+                        readBuffer_.capacity() << 1));
+                readBuffer_.flip();
+                grown.put(readBuffer_);
+                readBuffer_ = grown;
+            }
+            return;
+        }
+        final MessageType type = Frames.type(readBuffer_, 0);
+        if(type != MessageType.SUBSCRIBE)
+        {
+            LOG.warn("Expected a {} frame, but received a {} frame, closing {}",
+                    MessageType.SUBSCRIBE, type, this);
+            close();
+            return;
+        }
+        final Subscription subscription;
+        try
+        {
+            subscription = SerializationUtils.readValue(subscriptionStream_.wrap(readBuffer_,
+                    Frames.HEADER_SIZE, frameEnd), Subscription.class);
+        }
+        catch(final IllegalArgumentException e)
+        {
+            LOG.warn("Received a malformed subscription, closing {}", this, e);
+            close();
+            return;
+        }
+        readBuffer_ = ByteBuffer.allocate(64);
+        codec_ = SerializationUtils.negotiateCodec(subscription.getCodecs());
+        offer(null, server_.encode(MessageType.HANDSHAKE_RESPONSE, new HandshakeResponse(codec_
+                .name(), Collections.emptyList()), SerializationUtils.JSON));
+        subscription_ = subscription;
+        view_ = Optional.ofNullable(subscription.getPlayer());
+        server_.subscribed(this);
+        LOG.info("Received {} on {}", subscription, this);
+    }
+
+    /**
+     * Queues a frame, replacing whichever frame for the same game was still
+     * waiting, and writes as much as the socket will take.
+     *
+     * @param gameId
+     *            Game the frame is about, or null for frames that must not be
+     *            replaced
+     * @param frame
+     *            Complete frame, shared with other spectators and never
+     *            changed
+     */
+    void offer(final String gameId, final ByteBuffer frame) throws IOException
+    {
+        if(closed_)
+        {
+            return;
+        }
+        if(current_ == null)
+        {
+            current_ = frame.duplicate();
+        }
+        else if(next_.put(gameId, frame) != null)
+        {
+            server_.skipped();
+        }
+        onWritable();
+    }
+
+    void onWritable() throws IOException
+    {
+        while(current_ != null)
+        {
+            NetworkMetrics.global().bytesOut(channel_.write(current_));
+            if(current_.hasRemaining())
+            {
+                key_.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            current_ = null;
+            final Iterator<ByteBuffer> next = next_.values().iterator();
+            if(next.hasNext())
+            {
+                current_ = next.next().duplicate();
+                next.remove();
+            }
+        }
+        key_.interestOps(SelectionKey.OP_READ);
+    }
+
+    void close()
+    {
+        if(closed_)
+        {
+            return;
+        }
+        closed_ = true;
+        current_ = null;
+        next_.clear();
+        if(key_ != null)
+        {
+            key_.cancel();
+        }
+        try
+        {
+            channel_.close();
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while closing {}, swallowing", this, e);
+        }
+        server_.unsubscribed(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [channel=%s, subscription=%s]",
+                SpectatorConnection.class.getSimpleName(), channel_, subscription_);
+    }
+}
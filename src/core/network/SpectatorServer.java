@@ -0,0 +1,438 @@
+package core.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferOutputStream;
+import utils.Validate;
+import utils.WireCodec;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
+import core.Player;
+import core.Rules;
+
+/**
+ * Streams live games to any number of spectators on a single port, e.g.
+ * dashboards and analysis processes watching a tournament. Games publish to
+ * it after every turn (see
+ * {@link NetworkAutomator#setSpectators(SpectatorServer)}); spectators connect,
+ * send a {@link Subscription} and are then sent a {@link SpectatorUpdate} for
+ * every turn of the games they watch.
+ *
+ * Spectators never slow a game down. Publishing only filters the state for
+ * the views somebody watches and hands it to the server's event loop, which
+ * encodes each view once per codec and shares the encoded frame between every
+ * spectator of it. Updates that haven't been sent yet are replaced by newer
+ * ones for the same game, both before they are encoded and per spectator, so
+ * a spectator that can't keep up skips turns (see {@link #getSkipped()})
+ * rather than buffering them.
+ *
+ * @author wallstop
+ */
+public class SpectatorServer
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SpectatorServer.class);
+
+    /* We define valid ports to be within [0, 65536), where 0 is ephemeral */
+    private static final int MAX_PORT = (1 << 16);
+    private static final int MIN_PORT = -1;
+
+    /* The state of a game after a turn, in every view somebody watches */
+    private static final class Update
+    {
+        private final String gameId_;
+        private final int turn_;
+        private final Map<Optional<Player>, Object> views_;
+
+        private Update(final String gameId, final int turn, final Map<Optional<Player>, Object> views)
+        {
+            gameId_ = gameId;
+            turn_ = turn;
+            views_ = views;
+        }
+    }
+
+    private final ServerSocketChannel serverChannel_;
+    private final Selector selector_;
+    private final Thread eventLoop_;
+    private volatile boolean running_ = true;
+
+    /* Latest unsent update of each game */
+    private final ConcurrentMap<String, Update> pendingUpdates_ = new ConcurrentHashMap<>();
+    private final AtomicBoolean wakeupPending_ = new AtomicBoolean(false);
+
+    /* Event loop only */
+    private final List<SpectatorConnection> spectators_ = new ArrayList<>();
+    private final ByteBufferOutputStream scratch_ = new ByteBufferOutputStream(ByteBuffer
+            .allocate(FramedConnection.DEFAULT_BUFFER_SIZE));
+
+    /* Rebuilt by the event loop whenever a spectator comes or goes, counting spectators per view */
+    private volatile Map<String, Multiset<Optional<Player>>> viewsByGame_ = ImmutableMap.of();
+    private volatile Multiset<Optional<Player>> viewsOfAllGames_ = ImmutableMultiset.of();
+
+    private final LongAdder published_ = new LongAdder();
+    private final LongAdder skipped_ = new LongAdder();
+
+    /**
+     * Binds a new server to the provided port and starts its event loop.
+     *
+     * @param port
+     *            Port to listen on, or 0 to let the OS pick an ephemeral port
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public SpectatorServer(final int port) throws IOException
+    {
+        Validate.inOpenInterval(port, MIN_PORT, MAX_PORT);
+        selector_ = Selector.open();
+        serverChannel_ = ServerSocketChannel.open();
+        serverChannel_.bind(new InetSocketAddress(port));
+        serverChannel_.configureBlocking(false);
+        serverChannel_.register(selector_, SelectionKey.OP_ACCEPT);
+
+        eventLoop_ = new Thread(this::runEventLoop, String.format("%s-%d",
+                SpectatorServer.class.getSimpleName(), getPort()));
+        eventLoop_.setDaemon(true);
+        eventLoop_.start();
+        LOG.info("Started {} on port {}", SpectatorServer.class.getSimpleName(), getPort());
+    }
+
+    /**
+     * Publishes the state of a game after a turn. Never blocks, and costs
+     * next to nothing for games nobody watches. Spectators are sent copies of
+     * the state, so the game is free to change it afterwards.
+     *
+     * @param gameId
+     *            Game the state belongs to
+     * @param turn
+     *            Number of turns played to reach the state
+     * @param state
+     *            The state
+     * @param rules
+     *            Rules to filter the state for players' views with
+     * @param players
+     *            Players of the game
+     */
+    public <S> void publish(final String gameId, final int turn, final S state,
+            final Rules<S, ?> rules, final Collection<Player> players)
+    {
+        final Multiset<Optional<Player>> gameViews = viewsByGame_.get(gameId);
+        final Multiset<Optional<Player>> allViews = viewsOfAllGames_;
+        if(gameViews == null && allViews.isEmpty())
+        {
+            return;
+        }
+        final Map<Optional<Player>, Object> views = new HashMap<>();
+        for(final Multiset<Optional<Player>> wanted : Arrays.asList(gameViews, allViews))
+        {
+            if(wanted == null)
+            {
+                continue;
+            }
+            for(final Optional<Player> view : wanted.elementSet())
+            {
+                if(views.containsKey(view))
+                {
+                    continue;
+                }
+                if(!view.isPresent())
+                {
+                    views.put(view, rules.copyState(state));
+                }
+                else if(players.contains(view.get()))
+                {
+                    /* Filtered states may share whatever the game goes on to change */
+                    views.put(view, rules.copyState(rules.filterState(state, view.get())));
+                }
+            }
+        }
+        published_.increment();
+        final Update replaced = pendingUpdates_.put(gameId, new Update(gameId, turn, views));
+        if(replaced != null)
+        {
+            /* Once for every spectator the replaced update would have been sent to */
+            for(final Optional<Player> view : replaced.views_.keySet())
+            {
+                skipped_.add(allViews.count(view) + (gameViews == null ? 0 : gameViews
+                        .count(view)));
+            }
+        }
+        if(wakeupPending_.compareAndSet(false, true))
+        {
+            selector_.wakeup();
+        }
+    }
+
+    /**
+     * @return Number of updates published by games that somebody watched
+     */
+    public long getPublished()
+    {
+        return published_.sum();
+    }
+
+    /**
+     * @return Number of updates, counted once per spectator, that were
+     *         replaced by newer ones before they could be sent
+     */
+    public long getSkipped()
+    {
+        return skipped_.sum();
+    }
+
+    public int getPort()
+    {
+        return serverChannel_.socket().getLocalPort();
+    }
+
+    void skipped()
+    {
+        skipped_.increment();
+    }
+
+    /**
+     * Called from the event loop once a spectator has subscribed.
+     */
+    void subscribed(final SpectatorConnection spectator)
+    {
+        spectators_.add(spectator);
+        rebuildViews();
+    }
+
+    /**
+     * Called from the event loop once a spectator has gone.
+     */
+    void unsubscribed(final SpectatorConnection spectator)
+    {
+        if(spectators_.remove(spectator))
+        {
+            rebuildViews();
+        }
+    }
+
+    private void rebuildViews()
+    {
+        final Map<String, Multiset<Optional<Player>>> viewsByGame = new HashMap<>();
+        final Multiset<Optional<Player>> viewsOfAllGames = HashMultiset.create();
+        for(final SpectatorConnection spectator : spectators_)
+        {
+            final String gameId = spectator.getSubscription().getGameId();
+            (gameId == null ? viewsOfAllGames : viewsByGame.computeIfAbsent(gameId,
+                    ignored -> HashMultiset.create())).add(spectator.getView());
+        }
+        final ImmutableMap.Builder<String, Multiset<Optional<Player>>> views = ImmutableMap
+                .builder();
+        viewsByGame.forEach((gameId, gameViews) -> views.put(gameId, ImmutableMultiset.copyOf(
+                gameViews)));
+        viewsByGame_ = views.build();
+        viewsOfAllGames_ = ImmutableMultiset.copyOf(viewsOfAllGames);
+    }
+
+    /**
+     * Encodes a single frame into a buffer of its own, to be shared between
+     * spectators. Event loop only.
+     */
+    ByteBuffer encode(final MessageType type, final Object value, final WireCodec codec)
+    {
+        scratch_.buffer().clear();
+        final int start = Frames.beginFrame(scratch_, type);
+        codec.writeValue(value, scratch_);
+        final ByteBuffer frame = scratch_.buffer();
+        Frames.endFrame(frame, start);
+        return ByteBuffer.wrap(Arrays.copyOf(frame.array(), frame.position()));
+    }
+
+    private void runEventLoop()
+    {
+        while(running_)
+        {
+            try
+            {
+                selector_.select();
+                wakeupPending_.set(false);
+                sendPendingUpdates();
+                final Iterator<SelectionKey> selectedKeys = selector_.selectedKeys().iterator();
+                while(selectedKeys.hasNext())
+                {
+                    final SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    handle(key);
+                }
+            }
+            catch(final ClosedSelectorException e)
+            {
+                break;
+            }
+            catch(final Exception e)
+            {
+                LOG.error("Caught unexpected exception in {} event loop, swallowing",
+                        SpectatorServer.class.getSimpleName(), e);
+            }
+        }
+        closeEverything();
+    }
+
+    private void sendPendingUpdates()
+    {
+        final List<SpectatorConnection> failed = new ArrayList<>();
+        for(final String gameId : pendingUpdates_.keySet())
+        {
+            /* Takes whatever was published last, even if it arrived after the key was seen */
+            final Update update = pendingUpdates_.remove(gameId);
+            if(update == null)
+            {
+                continue;
+            }
+            /* Every spectator of a view shares the one frame encoded for it */
+            final Map<Optional<Player>, Map<WireCodec, ByteBuffer>> frames = new HashMap<>();
+            for(final SpectatorConnection spectator : spectators_)
+            {
+                final Object state = update.views_.get(spectator.getView());
+                if(state == null || !spectator.watches(update.gameId_))
+                {
+                    continue;
+                }
+                final ByteBuffer frame = frames.computeIfAbsent(spectator.getView(),
+                        ignored -> new HashMap<>()).computeIfAbsent(spectator.getCodec(),
+                        codec -> encode(MessageType.SPECTATOR_UPDATE, new SpectatorUpdate(
+                                update.gameId_, update.turn_, spectator.getView().orElse(null),
+                                state), codec));
+                try
+                {
+                    spectator.offer(update.gameId_, frame);
+                }
+                catch(final IOException e)
+                {
+                    LOG.warn("Caught exception while sending to {}, closing it", spectator, e);
+                    failed.add(spectator);
+                }
+            }
+        }
+        failed.forEach(SpectatorConnection::close);
+    }
+
+    private void handle(final SelectionKey key)
+    {
+        if(!key.isValid())
+        {
+            return;
+        }
+        if(key.isAcceptable())
+        {
+            accept();
+            return;
+        }
+
+        final SpectatorConnection spectator = (SpectatorConnection) key.attachment();
+        try
+        {
+            if(key.isReadable())
+            {
+                spectator.onReadable();
+            }
+            if(key.isValid() && key.isWritable())
+            {
+                spectator.onWritable();
+            }
+        }
+        catch(final IOException e)
+        {
+            LOG.warn("Caught exception while servicing {}, closing it", spectator, e);
+            spectator.close();
+        }
+    }
+
+    private void accept()
+    {
+        try
+        {
+            final SocketChannel channel = serverChannel_.accept();
+            if(channel == null)
+            {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            new SpectatorConnection(this, channel).register(selector_);
+            LOG.info("Accepted spectator from {}", channel.getRemoteAddress());
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Caught unexpected exception while accepting a spectator on port {}",
+                    getPort(), e);
+        }
+    }
+
+    private void closeEverything()
+    {
+        try
+        {
+            for(final SelectionKey key : selector_.keys())
+            {
+                if(key.attachment() instanceof SpectatorConnection)
+                {
+                    ((SpectatorConnection) key.attachment()).close();
+                }
+            }
+            selector_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing selector, swallowing", e);
+        }
+
+        try
+        {
+            serverChannel_.close();
+        }
+        catch(final Exception e)
+        {
+            LOG.error("Caught unexpected exception while closing server channel, swallowing", e);
+        }
+        LOG.info("{} disconnected", SpectatorServer.class.getSimpleName());
+    }
+
+    /**
+     * Stops the event loop, disconnecting every spectator.
+     */
+    public void shutdown()
+    {
+        running_ = false;
+        selector_.wakeup();
+        try
+        {
+            eventLoop_.join();
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for the {} event loop to finish",
+                    SpectatorServer.class.getSimpleName());
+        }
+    }
+}
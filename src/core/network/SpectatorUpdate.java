@@ -0,0 +1,93 @@
+package core.network;
+
+import utils.SerializationUtils;
+import utils.Validate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import core.Player;
+
+/**
+ * Payload of a {@link MessageType#SPECTATOR_UPDATE} frame: the state of a game
+ * right after one of its turns, as seen by the view the spectator subscribed
+ * to. Spectators that fall behind are only sent the latest state of each game
+ * they watch, so turns may be skipped.
+ *
+ * @author wallstop
+ */
+public final class SpectatorUpdate
+{
+    private String gameId_;
+    private int turn_;
+    private Player player_;
+    /* The state itself when sent, a tree when received */
+    @JsonDeserialize(as = JsonNode.class)
+    private Object state_;
+
+    /* For Jackson */
+    private SpectatorUpdate()
+    {
+    }
+
+    /**
+     * @param gameId
+     *            Game the state belongs to
+     * @param turn
+     *            Number of turns played to reach the state
+     * @param player
+     *            Player the state was filtered for, or null if it wasn't
+     * @param state
+     *            The state
+     */
+    public SpectatorUpdate(final String gameId, final int turn, final Player player,
+            final Object state)
+    {
+        Validate.notNull(gameId, "Cannot create a SpectatorUpdate for a null game id");
+        gameId_ = gameId;
+        turn_ = turn;
+        player_ = player;
+        state_ = state;
+    }
+
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    public int getTurn()
+    {
+        return turn_;
+    }
+
+    /**
+     * @return Player the state was filtered for, or null for the full state
+     */
+    public Player getPlayer()
+    {
+        return player_;
+    }
+
+    /**
+     * @param stateClass
+     *            Class of the game's states
+     * @return The state
+     */
+    public <S> S getState(final Class<S> stateClass)
+    {
+        if(stateClass.isInstance(state_))
+        {
+            return stateClass.cast(state_);
+        }
+        final JsonNode tree = state_ instanceof JsonNode ? (JsonNode) state_ : SerializationUtils
+                .valueToTree(state_);
+        return SerializationUtils.treeToValue(tree, stateClass);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("SpectatorUpdate [gameId=%s, turn=%d, player=%s, state=%s]",
+                gameId_, turn_, player_, state_);
+    }
+}
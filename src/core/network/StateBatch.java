@@ -0,0 +1,120 @@
+package core.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import utils.WireCodec;
+
+import core.Player;
+
+/**
+ * Payload of a {@link MessageType#BATCH_STATES} frame: the states of many
+ * games, each with the actions available in it. The client answers with an
+ * {@link ActionBatch} holding one action per entry, in the same order.
+ *
+ * States and actions are carried already encoded with the codec the client
+ * negotiated, each through its own type's prepared writer and reader (see
+ * {@link utils.SerializationUtils#prepareTypes(Class...)}), so a single batch
+ * can span games of different types without building a tree of every value.
+ * Smile carries the encodings as they are; JSON has to base64 them.
+ *
+ * @author wallstop
+ */
+public final class StateBatch
+{
+    private long batchId_;
+    private List<Entry> entries_;
+
+    /**
+     * A single game awaiting an action
+     */
+    public static final class Entry
+    {
+        private String gameId_;
+        private Player player_;
+        private byte[] state_;
+        private byte[] actions_;
+
+        /* For Jackson */
+        private Entry()
+        {
+        }
+
+        public Entry(final String gameId, final Player player, final byte[] state,
+                final byte[] actions)
+        {
+            gameId_ = gameId;
+            player_ = player;
+            state_ = state;
+            actions_ = actions;
+        }
+
+        public String getGameId()
+        {
+            return gameId_;
+        }
+
+        public Player getPlayer()
+        {
+            return player_;
+        }
+
+        /**
+         * @return Encoding of the state
+         */
+        public byte[] getState()
+        {
+            return state_;
+        }
+
+        /**
+         * @return Encoding of an array of the actions available in the state
+         */
+        public byte[] getActions()
+        {
+            return actions_;
+        }
+    }
+
+    /* For Jackson */
+    private StateBatch()
+    {
+    }
+
+    public StateBatch(final long batchId, final List<Entry> entries)
+    {
+        batchId_ = batchId;
+        entries_ = entries;
+    }
+
+    public long getBatchId()
+    {
+        return batchId_;
+    }
+
+    public List<Entry> getEntries()
+    {
+        return entries_ == null ? Collections.emptyList() : Collections
+                .unmodifiableList(entries_);
+    }
+
+    /**
+     * Encodes a single state, array of actions or action of a batch.
+     */
+    static byte[] encode(final WireCodec codec, final Object value)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.writeValue(value, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a single state, array of actions or action of a batch.
+     */
+    static <T> T decode(final WireCodec codec, final byte[] encoded, final Class<T> clazz)
+    {
+        return codec.readValue(new ByteArrayInputStream(encoded), clazz);
+    }
+}
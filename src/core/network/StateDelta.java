@@ -0,0 +1,374 @@
+package core.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import utils.Validate;
+import utils.WireCodec;
+
+/**
+ * The difference between two encodings of a state, as written by the codec
+ * the client negotiated. A delta is a list of edits in order of their offsets,
+ * each replacing a run of the previous encoding's bytes with new ones. The
+ * client decodes the result exactly as if the state had been sent in full.
+ *
+ * Only the bytes between the common prefix and suffix of the two encodings
+ * are compared. If that window has the same length in both, every run of
+ * differing bytes becomes an edit of its own, runs only a few equal bytes
+ * apart being merged; otherwise the whole window is replaced by a single
+ * edit. Nothing is ever decoded, but the state is still encoded in full to be
+ * diffed, so deltas mostly save bandwidth; states whose changes can be found
+ * without encoding them are better sent with a {@link StateDiffer}.
+ *
+ * Deltas are always written in the binary format of {@link #CODEC}, whatever
+ * codec was negotiated, so their bytes are never base64ed into JSON.
+ *
+ * Deltas are numbered from 1 after every state sent in full, which is what
+ * delta 1 applies to. A client applies a delta only if its sequence is one
+ * past the last one it applied; otherwise it asks for the state in full with a
+ * {@link MessageType#RESYNC} frame.
+ *
+ * @author wallstop
+ */
+public final class StateDelta
+{
+    /* Runs of differing bytes closer than this are sent as one edit */
+    private static final int MIN_GAP = 8;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /**
+     * Writes deltas as their sequence (int64) and number of edits (int32),
+     * then every edit as its offset, removed length and byte count (int32
+     * each) followed by its bytes, all big-endian. Reads and writes nothing
+     * but StateDeltas.
+     */
+    public static final WireCodec CODEC = new WireCodec()
+    {
+        @Override
+        public String name()
+        {
+            return "state-delta";
+        }
+
+        @Override
+        public void writeValue(final Object value, final OutputStream out)
+        {
+            Validate.isTrue(value instanceof StateDelta, String.format(
+                    "Cannot write %s as a StateDelta", value));
+            final StateDelta delta = (StateDelta) value;
+            try
+            {
+                writeInt(out, (int) (delta.sequence_ >>> 32));
+                writeInt(out, (int) delta.sequence_);
+                final List<Edit> edits = delta.getEdits();
+                writeInt(out, edits.size());
+                for(final Edit edit : edits)
+                {
+                    writeInt(out, edit.offset_);
+                    writeInt(out, edit.removed_);
+                    final byte[] bytes = edit.getBytes();
+                    writeInt(out, bytes.length);
+                    out.write(bytes);
+                }
+            }
+            catch(final IOException e)
+            {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public <T> T readValue(final InputStream in, final Class<T> clazz)
+        {
+            Validate.isTrue(clazz == StateDelta.class, String.format(
+                    "Cannot read a StateDelta as %s", clazz));
+            try
+            {
+                final long sequence = ((long) readInt(in) << 32) | (readInt(in) & 0xFFFFFFFFL);
+                final int count = readInt(in);
+                if(count < 0 || count > Frames.MAX_PAYLOAD_SIZE)
+                {
+                    throw new IOException(String.format("Delta claims %d edits", count));
+                }
+                final List<Edit> edits = new ArrayList<>();
+                for(int i = 0; i < count; ++i)
+                {
+                    final int offset = readInt(in);
+                    final int removed = readInt(in);
+                    final int length = readInt(in);
+                    if(length < 0 || length > Frames.MAX_PAYLOAD_SIZE)
+                    {
+                        throw new IOException(String.format("Edit claims %d bytes", length));
+                    }
+                    final byte[] bytes = new byte[length];
+                    readFully(in, bytes);
+                    edits.add(new Edit(offset, removed, bytes));
+                }
+                return clazz.cast(new StateDelta(sequence, edits));
+            }
+            catch(final IOException e)
+            {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    };
+
+    private static void writeInt(final OutputStream out, final int value) throws IOException
+    {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readInt(final InputStream in) throws IOException
+    {
+        int value = 0;
+        for(int i = 0; i < Integer.BYTES; ++i)
+        {
+            final int b = in.read();
+            if(b < 0)
+            {
+                throw new EOFException("StateDelta ended mid-integer");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private static void readFully(final InputStream in, final byte[] bytes) throws IOException
+    {
+        int read = 0;
+        while(read < bytes.length)
+        {
+            final int count = in.read(bytes, read, bytes.length - read);
+            if(count < 0)
+            {
+                throw new EOFException("StateDelta ended mid-edit");
+            }
+            read += count;
+        }
+    }
+
+    private long sequence_;
+    private List<Edit> edits_;
+
+    /**
+     * A single run of bytes that was replaced
+     */
+    public static final class Edit
+    {
+        private int offset_;
+        private int removed_;
+        private byte[] bytes_;
+
+        /* For Jackson */
+        private Edit()
+        {
+        }
+
+        Edit(final int offset, final int removed, final byte[] bytes)
+        {
+            offset_ = offset;
+            removed_ = removed;
+            bytes_ = bytes;
+        }
+
+        /**
+         * @return Where the run starts in the previous encoding
+         */
+        public int getOffset()
+        {
+            return offset_;
+        }
+
+        /**
+         * @return Length of the run in the previous encoding
+         */
+        public int getRemoved()
+        {
+            return removed_;
+        }
+
+        /**
+         * @return What the run is replaced with
+         */
+        public byte[] getBytes()
+        {
+            return bytes_ == null ? NO_BYTES : bytes_;
+        }
+    }
+
+    /* For Jackson */
+    private StateDelta()
+    {
+    }
+
+    private StateDelta(final long sequence, final List<Edit> edits)
+    {
+        sequence_ = sequence;
+        edits_ = edits;
+    }
+
+    /**
+     * Computes the delta that turns before into after.
+     *
+     * @param before
+     *            Encoding the client already has
+     * @param after
+     *            Encoding the client should end up with
+     * @param sequence
+     *            Sequence number of the new delta
+     * @return The delta between the two encodings
+     */
+    public static StateDelta between(final byte[] before, final byte[] after, final long sequence)
+    {
+        Validate.notNull(before, "Cannot compute a delta from a null encoding");
+        Validate.notNull(after, "Cannot compute a delta to a null encoding");
+        return between(before, before.length, after, after.length, sequence);
+    }
+
+    /**
+     * Computes the delta that turns the first beforeLength bytes of before
+     * into the first afterLength bytes of after, so encodings can be diffed
+     * in the buffers they were written to. Only the edits are copied out.
+     *
+     * @param before
+     *            Buffer holding the encoding the client already has
+     * @param beforeLength
+     *            Length of that encoding
+     * @param after
+     *            Buffer holding the encoding the client should end up with
+     * @param afterLength
+     *            Length of that encoding
+     * @param sequence
+     *            Sequence number of the new delta
+     * @return The delta between the two encodings
+     */
+    public static StateDelta between(final byte[] before, final int beforeLength,
+            final byte[] after, final int afterLength, final long sequence)
+    {
+        Validate.notNull(before, "Cannot compute a delta from a null encoding");
+        Validate.notNull(after, "Cannot compute a delta to a null encoding");
+        Validate.isTrue(beforeLength >= 0 && beforeLength <= before.length, String.format(
+                "Cannot compute a delta from %d bytes of a %d byte buffer", beforeLength,
+                before.length));
+        Validate.isTrue(afterLength >= 0 && afterLength <= after.length, String.format(
+                "Cannot compute a delta to %d bytes of a %d byte buffer", afterLength,
+                after.length));
+        final int shorter = Math.min(beforeLength, afterLength);
+        int prefix = 0;
+        while(prefix < shorter && before[prefix] == after[prefix])
+        {
+            ++prefix;
+        }
+        int suffix = 0;
+        while(suffix < shorter - prefix
+                && before[beforeLength - 1 - suffix] == after[afterLength - 1 - suffix])
+        {
+            ++suffix;
+        }
+        final int beforeEnd = beforeLength - suffix;
+        final int afterEnd = afterLength - suffix;
+
+        final List<Edit> edits = new ArrayList<>();
+        if(beforeEnd != afterEnd)
+        {
+            edits.add(new Edit(prefix, beforeEnd - prefix, Arrays.copyOfRange(after, prefix,
+                    afterEnd)));
+            return new StateDelta(sequence, edits);
+        }
+        /* Both windows start and end on a differing byte */
+        int i = prefix;
+        while(i < afterEnd)
+        {
+            final int start = i;
+            int end = i + 1;
+            for(i = end; i < afterEnd && i - end < MIN_GAP; ++i)
+            {
+                if(before[i] != after[i])
+                {
+                    end = i + 1;
+                }
+            }
+            edits.add(new Edit(start, end - start, Arrays.copyOfRange(after, start, end)));
+            while(i < afterEnd && before[i] == after[i])
+            {
+                ++i;
+            }
+        }
+        return new StateDelta(sequence, edits);
+    }
+
+    /**
+     * Applies this delta to the provided encoding, which is left as it is.
+     *
+     * @param before
+     *            Encoding the delta was computed against
+     * @return The resulting encoding
+     * @throws IllegalArgumentException
+     *             if the delta doesn't fit the encoding
+     */
+    public byte[] applyTo(final byte[] before)
+    {
+        Validate.notNull(before, "Cannot apply a delta to a null encoding");
+        long length = before.length;
+        int read = 0;
+        /* Checked by hand, so applying a delta that fits formats no messages */
+        for(final Edit edit : getEdits())
+        {
+            if(edit.getOffset() < read || edit.getRemoved() < 0
+                    || edit.getOffset() + (long) edit.getRemoved() > before.length)
+            {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot apply %s to %d bytes, its edits overlap or run past the end",
+                        this, before.length));
+            }
+            length += edit.getBytes().length - edit.getRemoved();
+            read = edit.getOffset() + edit.getRemoved();
+        }
+        if(length > Frames.MAX_PAYLOAD_SIZE)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot apply %s, it would make a %d byte state", this, length));
+        }
+
+        final byte[] after = new byte[(int) length];
+        int written = 0;
+        read = 0;
+        for(final Edit edit : getEdits())
+        {
+            final int kept = edit.getOffset() - read;
+            System.arraycopy(before, read, after, written, kept);
+            written += kept;
+            System.arraycopy(edit.getBytes(), 0, after, written, edit.getBytes().length);
+            written += edit.getBytes().length;
+            read = edit.getOffset() + edit.getRemoved();
+        }
+        System.arraycopy(before, read, after, written, before.length - read);
+        return after;
+    }
+
+    public long getSequence()
+    {
+        return sequence_;
+    }
+
+    public List<Edit> getEdits()
+    {
+        return edits_ == null ? Collections.emptyList() : Collections.unmodifiableList(edits_);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("StateDelta [sequence=%d, edits=%d]", sequence_, getEdits()
+                .size());
+    }
+}
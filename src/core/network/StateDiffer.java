@@ -0,0 +1,67 @@
+package core.network;
+
+/**
+ * Works out what changed between two states of a game, so that a client that
+ * agreed to {@link Handshake#STATE_PATCHES} can be sent only that instead of
+ * the whole state. Unlike a {@link StateDelta}, the state is never encoded in
+ * full to find the changes; a board game's differ might produce nothing more
+ * than the cells that were filled in. Register differs with
+ * {@link StateDiffers#register(Class, StateDiffer)}, on both the server and
+ * the client.
+ *
+ * Diffs are sent with the negotiated codec, so they should be plain data
+ * classes like the states themselves.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ *            State type
+ * @param <D>
+ *            Diff type
+ */
+public interface StateDiffer<S, D>
+{
+    /**
+     * @return Class diffs are decoded as
+     */
+    Class<D> getDiffClass();
+
+    /**
+     * Works out what changed between two states. Neither state may be
+     * modified.
+     *
+     * @param previous
+     *            State the client already has
+     * @param next
+     *            State the client should end up with
+     * @return The diff, or null if next should be sent in full instead
+     */
+    D diff(S previous, S next);
+
+    /**
+     * Applies a diff to the state it was taken from. The client keeps the
+     * state it hands its policy as the base for the next diff, so previous may
+     * not be modified and the result may not share anything with it that a
+     * later diff would change.
+     *
+     * @param previous
+     *            State the diff was taken from
+     * @param diff
+     *            The diff
+     * @return The state the diff was taken to
+     * @throws IllegalArgumentException
+     *             if the diff doesn't apply to the state
+     */
+    S apply(S previous, D diff);
+
+    /**
+     * The server keeps what this returns as the base for the next diff, while
+     * the game goes on to transition the state it was handed.
+     *
+     * @param state
+     *            State that was just sent
+     * @return A copy of the state that later transitions won't change, or the
+     *         state itself if transitions never change states in place
+     */
+    S retain(S state);
+}
@@ -0,0 +1,47 @@
+package core.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import utils.Validate;
+
+/**
+ * Registry of the {@link StateDiffer} of every state class that has one.
+ * Listeners look differs up by the class of each state they send, clients by
+ * the state class they were created with, so register a differ for the
+ * concrete class of the states, before any client is created.
+ *
+ * @author wallstop
+ */
+public final class StateDiffers
+{
+    private static final ConcurrentMap<Class<?>, StateDiffer<?, ?>> DIFFERS = new ConcurrentHashMap<>();
+
+    private StateDiffers()
+    {
+    }
+
+    /**
+     * @param stateClass
+     *            Concrete class of the states
+     * @param differ
+     *            Differ of the states, replacing any registered before
+     */
+    public static <S> void register(final Class<S> stateClass, final StateDiffer<S, ?> differ)
+    {
+        Validate.notNull(stateClass, "Cannot register a StateDiffer for a null class");
+        Validate.notNull(differ, "Cannot register a null StateDiffer");
+        DIFFERS.put(stateClass, differ);
+    }
+
+    /**
+     * @param stateClass
+     *            Concrete class of the states
+     * @return The registered differ, or null if the class has none
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> StateDiffer<S, ?> forClass(final Class<? extends S> stateClass)
+    {
+        return (StateDiffer<S, ?>) DIFFERS.get(stateClass);
+    }
+}
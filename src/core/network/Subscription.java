@@ -0,0 +1,75 @@
+package core.network;
+
+import java.util.List;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+
+import core.Player;
+
+/**
+ * Payload of a {@link MessageType#SUBSCRIBE} frame, the first frame a
+ * spectator sends a {@link SpectatorServer}. It names the game to watch, or
+ * every game, and whose view of it: the full state, or the state as filtered
+ * for one player. It is answered with a {@link HandshakeResponse} naming the
+ * codec updates will be encoded with.
+ *
+ * @author wallstop
+ */
+public final class Subscription
+{
+    private String gameId_;
+    private Player player_;
+    private List<String> codecs_;
+
+    /* For Jackson */
+    private Subscription()
+    {
+    }
+
+    /**
+     * @param gameId
+     *            Id of the game to watch, or null to watch every game
+     * @param player
+     *            Player whose view to watch, or null for the full state
+     * @param codecs
+     *            Names of the codecs the spectator understands, most preferred
+     *            first
+     */
+    public Subscription(final String gameId, final Player player, final List<String> codecs)
+    {
+        Validate.notNull(codecs, "Cannot create a Subscription with null codecs");
+        gameId_ = gameId;
+        player_ = player;
+        codecs_ = ImmutableList.copyOf(codecs);
+    }
+
+    /**
+     * @return Id of the game to watch, or null for every game
+     */
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    /**
+     * @return Player whose view to watch, or null for the full state
+     */
+    public Player getPlayer()
+    {
+        return player_;
+    }
+
+    public List<String> getCodecs()
+    {
+        return codecs_ == null ? ImmutableList.of() : codecs_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Subscription [gameId=%s, player=%s, codecs=%s]", gameId_, player_,
+                codecs_);
+    }
+}
@@ -0,0 +1,52 @@
+package core.network;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a {@link SharedMemoryTransport} waits for the other side when there is
+ * nothing to read or no room to write. The other side may be another process,
+ * so there is no one to wake a waiter up; every strategy polls.
+ *
+ * @author wallstop
+ */
+public enum WaitStrategy
+{
+    /*
+     * Parks between polls. Costs next to no CPU while waiting, but adds up to
+     * PARK_NANOS (plus the OS's timer slack) to every wait
+     */
+    PARK,
+    /*
+     * Busy-spins for SPINS polls, yields for YIELDS more, then parks like
+     * PARK. Answers that come back within the spin arrive within a
+     * microsecond, at the cost of a core per waiter while it spins. Without
+     * a core to spare, spinning only delays the side being waited on
+     */
+    SPIN_THEN_PARK;
+
+    public static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    public static final int SPINS = 20_000;
+    public static final int YIELDS = 100;
+
+    /**
+     * Waits once, before the next poll.
+     *
+     * @param attempt
+     *            Number of polls that have come up empty so far in this wait
+     * @param maxNanos
+     *            Longest the wait may take
+     */
+    public void idle(final int attempt, final long maxNanos)
+    {
+        if(this == SPIN_THEN_PARK && attempt < SPINS + YIELDS)
+        {
+            if(attempt >= SPINS)
+            {
+                Thread.yield();
+            }
+            return;
+        }
+        LockSupport.parkNanos(Math.min(PARK_NANOS, maxNanos));
+    }
+}
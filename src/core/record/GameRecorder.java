@@ -0,0 +1,251 @@
+package core.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import com.google.common.collect.ImmutableList;
+
+import core.Player;
+
+/**
+ * Records every turn of the games it is given to (see
+ * {@link core.network.NetworkAutomator#setRecorder(GameRecorder)}) into an
+ * append-only log of memory-mapped segments, for training and replay. Read
+ * logs back with a {@link RecordLogReader}.
+ *
+ * Recording never blocks a game: turns are handed to a single writer thread
+ * through a bounded lock-free ring, and turns that find the ring full are
+ * dropped (see {@link #getDropped()}). Encoding happens on the writer thread,
+ * so a recorded state must not be changed after it is handed over; the
+ * NetworkAutomator hands over copies.
+ *
+ * @author wallstop
+ */
+public class GameRecorder implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GameRecorder.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_RING_CAPACITY = 64 * 1024;
+
+    /* How long the writer sleeps when there's nothing to write */
+    private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /* A turn, or the end of a game if the payload is null */
+    private static final class Entry
+    {
+        private final String gameId_;
+        private final int turn_;
+        private final TurnRecord.Payload payload_;
+
+        private Entry(final String gameId, final int turn, final TurnRecord.Payload payload)
+        {
+            gameId_ = gameId;
+            turn_ = turn;
+            payload_ = payload;
+        }
+    }
+
+    /* Unique to this recorder, see RecordFormat */
+    private final String recorderId_ = String.format("%016x", new SecureRandom().nextLong());
+    private final RecordRing<Entry> ring_;
+    private final SegmentWriter writer_;
+    private final Thread writerThread_;
+    private volatile boolean running_ = true;
+
+    private final LongAdder recorded_ = new LongAdder();
+    private final LongAdder dropped_ = new LongAdder();
+
+    /**
+     * Records to the provided directory with {@link SerializationUtils#SMILE},
+     * in segments of {@link #DEFAULT_SEGMENT_SIZE} bytes.
+     */
+    public GameRecorder(final Path directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_RING_CAPACITY, SerializationUtils.SMILE);
+    }
+
+    /**
+     * @param directory
+     *            Directory to write segments to, created if need be. Segments
+     *            already in it are kept, new ones are numbered after them
+     * @param segmentSize
+     *            Size in bytes of each segment file
+     * @param ringCapacity
+     *            Number of turns that can be waiting to be written, a power of
+     *            two
+     * @param codec
+     *            Codec to encode turns with
+     * @throws IOException
+     *             if the first segment could not be created
+     */
+    public GameRecorder(final Path directory, final int segmentSize, final int ringCapacity,
+            final WireCodec codec) throws IOException
+    {
+        Validate.notNull(directory, "Cannot record to a null directory");
+        Validate.isTrue(segmentSize > 1024, String.format(
+                "Cannot record to segments of only %d bytes", segmentSize));
+        Validate.notNull(codec, "Cannot record with a null codec");
+        ring_ = new RecordRing<>(ringCapacity);
+        writer_ = new SegmentWriter(directory, segmentSize, codec, recorderId_);
+        writerThread_ = new Thread(this::runWriter, GameRecorder.class.getSimpleName() + "-"
+                + directory.getFileName());
+        writerThread_.setDaemon(true);
+        writerThread_.start();
+    }
+
+    /**
+     * Hands a turn to the writer. Never blocks.
+     *
+     * @param gameId
+     *            Game the turn is from
+     * @param turn
+     *            Index of the turn within the game
+     * @param player
+     *            Player who took the turn
+     * @param state
+     *            State as the player saw it. Must not change afterwards
+     * @param availableActions
+     *            Actions the player could choose from
+     * @param action
+     *            Action that was taken
+     * @param fellBack
+     *            True if the action was chosen by a fallback policy
+     * @return False if the turn was dropped because the writer is behind or
+     *         the recorder is closed
+     */
+    public boolean record(final String gameId, final int turn, final Player player,
+            final Object state, final Collection<?> availableActions, final Object action,
+            final boolean fellBack)
+    {
+        if(!running_)
+        {
+            dropped_.increment();
+            return false;
+        }
+        /* The rules may reuse their collection, the state is theirs not to change */
+        final TurnRecord.Payload payload = new TurnRecord.Payload(player, state, ImmutableList
+                .copyOf(availableActions), action, fellBack);
+        if(!ring_.offer(new Entry(gameId, turn, payload)))
+        {
+            dropped_.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks a game as over, adding it to the log's index once its turns are
+     * written. Never blocks; if the writer is behind, the game is indexed
+     * when the recorder closes instead.
+     */
+    public void endGame(final String gameId)
+    {
+        if(running_)
+        {
+            ring_.offer(new Entry(gameId, -1, null));
+        }
+    }
+
+    /**
+     * @return Id that qualifies the game ids this recorder writes, see
+     *         {@link TurnRecord#getGameId()}
+     */
+    public String getRecorderId()
+    {
+        return recorderId_;
+    }
+
+    /**
+     * @return Number of turns written so far
+     */
+    public long getRecorded()
+    {
+        return recorded_.sum();
+    }
+
+    /**
+     * @return Number of turns dropped because the writer was behind
+     */
+    public long getDropped()
+    {
+        return dropped_.sum();
+    }
+
+    private void runWriter()
+    {
+        try
+        {
+            while(running_ || !ring_.isEmpty())
+            {
+                final Entry entry = ring_.poll();
+                if(entry == null)
+                {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    continue;
+                }
+                if(entry.payload_ == null)
+                {
+                    writer_.endGame(entry.gameId_);
+                }
+                else if(writer_.append(entry.gameId_, entry.turn_, entry.payload_))
+                {
+                    recorded_.increment();
+                }
+                else
+                {
+                    dropped_.increment();
+                }
+            }
+        }
+        catch(final IOException | RuntimeException e)
+        {
+            running_ = false;
+            LOG.error("Recorder could not write, no more turns will be recorded", e);
+        }
+        finally
+        {
+            try
+            {
+                writer_.close();
+            }
+            catch(final IOException e)
+            {
+                LOG.error("Caught unexpected exception while closing record log, swallowing", e);
+            }
+        }
+    }
+
+    /**
+     * Stops taking turns, writes every turn already handed over and closes
+     * the log.
+     */
+    @Override
+    public void close()
+    {
+        running_ = false;
+        try
+        {
+            writerThread_.join();
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for the recorder to finish writing");
+        }
+        LOG.info("Recorder closed, {} turns recorded and {} dropped", getRecorded(), getDropped());
+    }
+}
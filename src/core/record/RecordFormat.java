@@ -0,0 +1,62 @@
+package core.record;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of a record log directory.
+ *
+ * Turns are appended to segment files named by their index ("00000000.seg",
+ * "00000001.seg", ...), each mapped whole into memory. A segment starts with
+ * a header of {@link #MAGIC}, {@link #VERSION} and the name of the codec its
+ * payloads are encoded with (a byte length, then the UTF-8 name). Frames
+ * follow, each an int length and then:
+ *
+ * <pre>
+ * short gameIdLength, byte[] gameId (UTF-8), int turn, byte[] payload
+ * </pre>
+ *
+ * where the game id is that of the NetworkAutomator, qualified with the id of
+ * the recorder that wrote it ("recorderId/gameId"). Automators number their
+ * games from 1 in every JVM, so the recorder id keeps the games of different
+ * runs and workers sharing a directory apart. The payload is the codec's
+ * encoding of the player, state, available actions and chosen action (see
+ * {@link TurnRecord}). A length of 0 means no more frames have been written
+ * yet, and {@link #END_OF_SEGMENT} means they continue in the next segment. The
+ * length of a frame is written after its contents, so a frame is either
+ * complete or not there at all.
+ *
+ * Finished games are listed in {@link #INDEX_FILE}, one tab-separated line
+ * per game: game id, segment of its first turn, position of that turn's frame
+ * and the number of turns recorded.
+ *
+ * @author wallstop
+ */
+final class RecordFormat
+{
+    static final int MAGIC = 0x4D4B5652;
+    static final int VERSION = 1;
+    static final int END_OF_SEGMENT = -1;
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_FILE = "games.idx";
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    private RecordFormat()
+    {
+    }
+
+    static String recordId(final String recorderId, final String gameId)
+    {
+        return recorderId + '/' + gameId;
+    }
+
+    static String segmentName(final int index)
+    {
+        return String.format("%08d%s", index, SEGMENT_SUFFIX);
+    }
+
+    static int segmentIndex(final String name)
+    {
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,308 @@
+package core.record;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import utils.ByteBufferInputStream;
+import utils.SerializationUtils;
+import utils.Validate;
+import utils.WireCodec;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Reads a record log written by a {@link GameRecorder}, one turn at a time,
+ * straight out of read-only mappings of its segments. Moving to the next turn
+ * only reads its frame header; the payload is decoded only if asked for, so
+ * scanning a log costs little more than the disk reads.
+ *
+ * <pre>
+ * try(RecordLogReader reader = new RecordLogReader(directory))
+ * {
+ *     while(reader.next())
+ *     {
+ *         TurnRecord turn = reader.record();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * Not thread safe.
+ *
+ * @author wallstop
+ */
+public final class RecordLogReader implements Closeable
+{
+    /**
+     * Where a finished game starts in the log
+     */
+    public static final class GameEntry
+    {
+        private final String gameId_;
+        private final String segment_;
+        private final int position_;
+        private final int turns_;
+
+        private GameEntry(final String gameId, final String segment, final int position,
+                final int turns)
+        {
+            gameId_ = gameId;
+            segment_ = segment;
+            position_ = position;
+            turns_ = turns;
+        }
+
+        public String getGameId()
+        {
+            return gameId_;
+        }
+
+        public int getTurns()
+        {
+            return turns_;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s [gameId=%s, segment=%s, position=%d, turns=%d]",
+                    GameEntry.class.getSimpleName(), gameId_, segment_, position_, turns_);
+        }
+    }
+
+    private final Path directory_;
+    private final List<Path> segments_;
+    private final ByteBufferInputStream payloadStream_ = new ByteBufferInputStream();
+
+    private int nextSegment_ = 0;
+    private ByteBuffer segment_ = null;
+    private WireCodec codec_ = null;
+
+    /* The current frame */
+    private int payloadStart_ = -1;
+    private int payloadEnd_ = -1;
+    private String gameId_ = null;
+    private int turn_ = -1;
+
+    /**
+     * @param directory
+     *            Directory a GameRecorder wrote to
+     * @throws IOException
+     *             if the directory could not be listed
+     */
+    public RecordLogReader(final Path directory) throws IOException
+    {
+        Validate.notNull(directory, "Cannot read records from a null directory");
+        directory_ = directory;
+        final List<Path> segments = new ArrayList<>();
+        try(final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*"
+                + RecordFormat.SEGMENT_SUFFIX))
+        {
+            stream.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        segments_ = ImmutableList.copyOf(segments);
+    }
+
+    /**
+     * Moves to the next turn of the log.
+     *
+     * @return False once every turn has been read
+     * @throws IOException
+     *             if a segment could not be mapped or is not a segment
+     */
+    public boolean next() throws IOException
+    {
+        while(true)
+        {
+            if(segment_ == null)
+            {
+                if(nextSegment_ >= segments_.size())
+                {
+                    return false;
+                }
+                openSegment(segments_.get(nextSegment_++), -1);
+            }
+            if(readFrame())
+            {
+                return true;
+            }
+            segment_ = null;
+        }
+    }
+
+    private void openSegment(final Path path, final int position) throws IOException
+    {
+        final MappedByteBuffer segment;
+        try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(segment.getInt() != RecordFormat.MAGIC)
+        {
+            throw new IOException(path + " is not a record segment");
+        }
+        final int version = segment.getInt();
+        if(version != RecordFormat.VERSION)
+        {
+            throw new IOException(String.format("%s is version %d, only %d can be read", path,
+                    version, RecordFormat.VERSION));
+        }
+        final byte[] codecName = new byte[segment.get()];
+        segment.get(codecName);
+        final String name = new String(codecName, RecordFormat.CHARSET);
+        codec_ = SerializationUtils.codec(name);
+        if(codec_ == null)
+        {
+            throw new IOException(String.format("%s was written with unknown codec %s", path, name));
+        }
+        if(position >= 0)
+        {
+            segment.position(position);
+        }
+        segment_ = segment;
+    }
+
+    /* False at the end of the segment */
+    private boolean readFrame()
+    {
+        if(segment_.remaining() < Integer.BYTES)
+        {
+            return false;
+        }
+        final int position = segment_.position();
+        final int length = segment_.getInt(position);
+        if(length <= 0 || length > segment_.limit() - position - Integer.BYTES)
+        {
+            return false;
+        }
+        final int start = position + Integer.BYTES;
+        final byte[] id = new byte[segment_.getShort(start)];
+        segment_.position(start + Short.BYTES);
+        segment_.get(id);
+        gameId_ = new String(id, RecordFormat.CHARSET);
+        turn_ = segment_.getInt();
+        payloadStart_ = segment_.position();
+        payloadEnd_ = start + length;
+        segment_.position(payloadEnd_);
+        return true;
+    }
+
+    public String gameId()
+    {
+        Validate.notNull(gameId_, "Cannot read a turn before calling next()");
+        return gameId_;
+    }
+
+    public int turn()
+    {
+        Validate.notNull(gameId_, "Cannot read a turn before calling next()");
+        return turn_;
+    }
+
+    /**
+     * @return Read-only view of the current turn's encoded payload, valid
+     *         until the reader is closed
+     */
+    public ByteBuffer payload()
+    {
+        Validate.notNull(gameId_, "Cannot read a turn before calling next()");
+        final ByteBuffer payload = segment_ == null ? null : segment_.duplicate();
+        Validate.notNull(payload, "Cannot read a turn past the end of the log");
+        payload.limit(payloadEnd_).position(payloadStart_);
+        return payload.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The current turn, decoded
+     */
+    public TurnRecord record()
+    {
+        Validate.notNull(gameId_, "Cannot read a turn before calling next()");
+        return codec_.readValue(payloadStream_.wrap(segment_, payloadStart_, payloadEnd_),
+                TurnRecord.class).withHeader(gameId_, turn_);
+    }
+
+    /**
+     * @return Every finished game in the log's index, by its qualified game id
+     *         (see {@link TurnRecord#getGameId()}), in the order they finished
+     * @throws IOException
+     *             if the index could not be read
+     */
+    public Map<String, GameEntry> games() throws IOException
+    {
+        final Map<String, GameEntry> games = new LinkedHashMap<>();
+        final Path index = directory_.resolve(RecordFormat.INDEX_FILE);
+        if(!Files.exists(index))
+        {
+            return games;
+        }
+        try(final BufferedReader reader = Files.newBufferedReader(index, RecordFormat.CHARSET))
+        {
+            String line;
+            while((line = reader.readLine()) != null)
+            {
+                final String[] fields = line.split("\t");
+                if(fields.length == 4)
+                {
+                    games.put(fields[0], new GameEntry(fields[0], fields[1], Integer
+                            .parseInt(fields[2]), Integer.parseInt(fields[3])));
+                }
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Reads every turn of a single game, using the index to skip straight to
+     * its first turn. Moves the reader; iterating with {@link #next()}
+     * afterwards continues from the game's last turn.
+     *
+     * @param game
+     *            Game as listed by {@link #games()}
+     * @return The game's turns, in order
+     * @throws IOException
+     *             if the game's segments could not be read
+     */
+    public List<TurnRecord> readGame(final GameEntry game) throws IOException
+    {
+        Validate.notNull(game, "Cannot read a null game");
+        final int segment = segments_.indexOf(directory_.resolve(game.segment_));
+        Validate.isTrue(segment >= 0, String.format("Segment %s of game %s is missing",
+                game.segment_, game.gameId_));
+        openSegment(segments_.get(segment), game.position_);
+        nextSegment_ = segment + 1;
+
+        /* Turns of games played at the same time are interleaved */
+        final List<TurnRecord> turns = new ArrayList<>(game.turns_);
+        while(turns.size() < game.turns_ && next())
+        {
+            if(game.gameId_.equals(gameId_))
+            {
+                turns.add(record());
+            }
+        }
+        return turns;
+    }
+
+    @Override
+    public void close()
+    {
+        /* Mappings are released once they're unreachable */
+        segment_ = null;
+        gameId_ = null;
+    }
+}
@@ -0,0 +1,97 @@
+package core.record;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import utils.Validate;
+
+/**
+ * Bounded, lock-free ring buffer for any number of producers and a single
+ * consumer. Producers never block: offering to a full ring fails right away.
+ *
+ * @author wallstop
+ *
+ * @param <T>
+ */
+final class RecordRing<T>
+{
+    private final Object[] slots_;
+    /* Sequence number last published in each slot */
+    private final AtomicLongArray published_;
+    private final int mask_;
+    /* Next sequence to claim */
+    private final AtomicLong head_ = new AtomicLong(0);
+    /* Next sequence to consume, only written by the consumer */
+    private volatile long tail_ = 0;
+
+    /**
+     * @param capacity
+     *            Positive power of two
+     */
+    RecordRing(final int capacity)
+    {
+        Validate.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1, String.format(
+                "Cannot create a ring of capacity %d, it must be a positive power of two",
+                capacity));
+        slots_ = new Object[capacity];
+        published_ = new AtomicLongArray(capacity);
+        for(int i = 0; i < capacity; ++i)
+        {
+            published_.set(i, -1);
+        }
+        mask_ = capacity - 1;
+    }
+
+    /**
+     * @return False if the ring was full, in which case nothing was added
+     */
+    boolean offer(final T value)
+    {
+        while(true)
+        {
+            final long head = head_.get();
+            if(head - tail_ >= slots_.length)
+            {
+                return false;
+            }
+            if(head_.compareAndSet(head, head + 1))
+            {
+                final int index = (int) head & mask_;
+                slots_[index] = value;
+                /* Releases the slot write to the consumer */
+                published_.lazySet(index, head);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Only to be called by the consumer.
+     *
+     * @return The oldest value, or null if there is none yet
+     */
+    @SuppressWarnings("unchecked")
+    T poll()
+    {
+        final long tail = tail_;
+        final int index = (int) tail & mask_;
+        if(published_.get(index) != tail)
+        {
+            return null;
+        }
+        final T value = (T) slots_[index];
+        slots_[index] = null;
+        tail_ = tail + 1;
+        return value;
+    }
+
+    boolean isEmpty()
+    {
+        return head_.get() == tail_;
+    }
+
+    int capacity()
+    {
+        return slots_.length;
+    }
+}
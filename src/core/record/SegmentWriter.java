@@ -0,0 +1,189 @@
+package core.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.ByteBufferOutputStream;
+import utils.WireCodec;
+
+/**
+ * Appends frames to the memory-mapped segments of a record log (see
+ * {@link RecordFormat}) and keeps its game index. Only ever used by the
+ * writer thread of a {@link GameRecorder}.
+ *
+ * @author wallstop
+ */
+final class SegmentWriter implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentWriter.class);
+
+    /* Where a game's first turn is and how many turns it has so far */
+    private static final class OpenGame
+    {
+        private final String segment_;
+        private final int position_;
+        private int turns_ = 0;
+
+        private OpenGame(final String segment, final int position)
+        {
+            segment_ = segment;
+            position_ = position;
+        }
+    }
+
+    private final Path directory_;
+    private final int segmentSize_;
+    private final WireCodec codec_;
+    private final ByteBufferOutputStream scratch_ = new ByteBufferOutputStream(ByteBuffer
+            .allocate(8 * 1024));
+    private final Writer index_;
+    /* Game ids restart with every JVM, so the log qualifies them with the recorder's */
+    private final String recorderId_;
+    private final Map<String, OpenGame> openGames_ = new HashMap<>();
+
+    private int segmentIndex_;
+    private String segmentName_;
+    private MappedByteBuffer segment_ = null;
+
+    SegmentWriter(final Path directory, final int segmentSize, final WireCodec codec,
+            final String recorderId) throws IOException
+    {
+        directory_ = directory;
+        recorderId_ = recorderId;
+        segmentSize_ = segmentSize;
+        codec_ = codec;
+        Files.createDirectories(directory);
+        /* Never overwrite what an earlier recorder left behind */
+        segmentIndex_ = nextSegmentIndex(directory);
+        index_ = Files.newBufferedWriter(directory.resolve(RecordFormat.INDEX_FILE),
+                RecordFormat.CHARSET, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        openSegment();
+    }
+
+    private static int nextSegmentIndex(final Path directory) throws IOException
+    {
+        int next = 0;
+        try(final DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*"
+                + RecordFormat.SEGMENT_SUFFIX))
+        {
+            for(final Path segment : segments)
+            {
+                next = Math.max(next, RecordFormat.segmentIndex(segment.getFileName()
+                        .toString()) + 1);
+            }
+        }
+        return next;
+    }
+
+    private void openSegment() throws IOException
+    {
+        segmentName_ = RecordFormat.segmentName(segmentIndex_++);
+        try(final FileChannel channel = FileChannel.open(directory_.resolve(segmentName_),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            segment_ = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize_);
+        }
+        final byte[] codecName = codec_.name().getBytes(RecordFormat.CHARSET);
+        segment_.putInt(RecordFormat.MAGIC).putInt(RecordFormat.VERSION)
+                .put((byte) codecName.length).put(codecName);
+        LOG.info("Recording to segment {}", directory_.resolve(segmentName_));
+    }
+
+    /**
+     * @return False if the turn was too large to fit in a segment, in which
+     *         case it was skipped
+     */
+    boolean append(final String gameId, final int turn, final TurnRecord.Payload payload)
+            throws IOException
+    {
+        final ByteBuffer frame = scratch_.buffer();
+        frame.clear();
+        final byte[] id = RecordFormat.recordId(recorderId_, gameId).getBytes(
+                RecordFormat.CHARSET);
+        scratch_.ensureRemaining(Short.BYTES + id.length + Integer.BYTES);
+        scratch_.buffer().putShort((short) id.length).put(id).putInt(turn);
+        codec_.writeValue(payload, scratch_);
+        /* The stream may have grown into a new buffer */
+        final ByteBuffer encoded = scratch_.buffer();
+        encoded.flip();
+
+        final int frameSize = Integer.BYTES + encoded.remaining();
+        /* Room is always left for the END_OF_SEGMENT marker */
+        if(frameSize + Integer.BYTES > segmentSize_ - headerSize())
+        {
+            LOG.warn("Turn {} of game {} is {} bytes, too large for {} byte segments, skipping it",
+                    turn, gameId, frameSize, segmentSize_);
+            return false;
+        }
+        if(segment_.remaining() < frameSize + Integer.BYTES)
+        {
+            segment_.putInt(segment_.position(), RecordFormat.END_OF_SEGMENT);
+            segment_.force();
+            openSegment();
+        }
+
+        final int position = segment_.position();
+        final OpenGame game = openGames_.computeIfAbsent(gameId, ignored -> new OpenGame(
+                segmentName_, position));
+        ++game.turns_;
+        segment_.position(position + Integer.BYTES);
+        segment_.put(encoded);
+        /* Length last, so the frame only appears once it's whole */
+        segment_.putInt(position, encoded.limit());
+        return true;
+    }
+
+    private int headerSize()
+    {
+        return 2 * Integer.BYTES + 1 + codec_.name().getBytes(RecordFormat.CHARSET).length;
+    }
+
+    /**
+     * Adds a game that has no more turns coming to the index.
+     */
+    void endGame(final String gameId) throws IOException
+    {
+        final OpenGame game = openGames_.remove(gameId);
+        if(game == null)
+        {
+            return;
+        }
+        index_.write(String.format("%s\t%s\t%d\t%d%n", RecordFormat.recordId(recorderId_,
+                gameId), game.segment_, game.position_, game.turns_));
+        index_.flush();
+    }
+
+    /**
+     * Pushes everything written so far out to the files.
+     */
+    void flush() throws IOException
+    {
+        segment_.force();
+        index_.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        /* Games that never ended are still worth finding */
+        for(final String gameId : openGames_.keySet().toArray(new String[0]))
+        {
+            endGame(gameId);
+        }
+        flush();
+        index_.close();
+    }
+}
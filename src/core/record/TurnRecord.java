@@ -0,0 +1,129 @@
+package core.record;
+
+import java.util.Collection;
+import java.util.List;
+
+import utils.SerializationUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+
+import core.Player;
+
+/**
+ * A single recorded turn: the state a player was shown, the actions it had to
+ * choose from and the action that was taken. The state and actions are kept
+ * as trees until asked for as a specific class, so records can be read
+ * without knowing what game they're from.
+ *
+ * @author wallstop
+ */
+public final class TurnRecord
+{
+    /* Filled in from the frame header, not the payload */
+    private transient String gameId_;
+    private transient int turn_;
+
+    private Player player_;
+    private JsonNode state_;
+    private JsonNode actions_;
+    private JsonNode action_;
+    private boolean fellBack_;
+
+    private TurnRecord()
+    {
+    }
+
+    TurnRecord withHeader(final String gameId, final int turn)
+    {
+        gameId_ = gameId;
+        turn_ = turn;
+        return this;
+    }
+
+    /**
+     * @return Id of the game, qualified with the id of the recorder that wrote
+     *         it (see {@link GameRecorder#getRecorderId()}) so it is unique
+     *         within the log
+     */
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    /**
+     * @return Index of the turn within its game, starting at 0
+     */
+    public int getTurn()
+    {
+        return turn_;
+    }
+
+    public Player getPlayer()
+    {
+        return player_;
+    }
+
+    /**
+     * @return The state, already filtered for the player, as a tree
+     */
+    public JsonNode getState()
+    {
+        return state_;
+    }
+
+    public <S> S getState(final Class<S> stateClass)
+    {
+        return SerializationUtils.treeToValue(state_, stateClass);
+    }
+
+    public <A> List<A> getAvailableActions(final Class<A> actionClass)
+    {
+        final ImmutableList.Builder<A> actions = ImmutableList.builder();
+        actions_.forEach(action -> actions.add(SerializationUtils.treeToValue(action, actionClass)));
+        return actions.build();
+    }
+
+    public <A> A getAction(final Class<A> actionClass)
+    {
+        return SerializationUtils.treeToValue(action_, actionClass);
+    }
+
+    /**
+     * @return True if the player's client didn't answer in time and the action
+     *         was chosen by a {@link core.network.FallbackPolicy}
+     */
+    public boolean isFallback()
+    {
+        return fellBack_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [gameId=%s, turn=%d, player=%s, action=%s, fellBack=%b]",
+                TurnRecord.class.getSimpleName(), gameId_, turn_, player_, action_, fellBack_);
+    }
+
+    /**
+     * What a turn is written as; reads back as a TurnRecord
+     */
+    static final class Payload
+    {
+        private final Player player_;
+        private final Object state_;
+        private final Collection<?> actions_;
+        private final Object action_;
+        private final boolean fellBack_;
+
+        Payload(final Player player, final Object state, final Collection<?> actions,
+                final Object action, final boolean fellBack)
+        {
+            player_ = player;
+            state_ = state;
+            actions_ = actions;
+            action_ = action;
+            fellBack_ = fellBack;
+        }
+    }
+}
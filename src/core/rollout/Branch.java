@@ -0,0 +1,132 @@
+package core.rollout;
+
+import java.util.Collection;
+import java.util.Map;
+
+import utils.Validate;
+
+import core.Player;
+import core.Policy;
+import core.Rules;
+
+/**
+ * One line of play forked off a {@link GameSnapshot}, advanced in-process. Its
+ * state is the snapshot's until the first move, which copies it if the rules
+ * require it; after that the branch owns its state outright.
+ *
+ * Not thread safe; each branch is meant to be played out by a single thread.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public final class Branch<S, A>
+{
+    private final Rules<S, A> rules_;
+    private S state_;
+    /* True while state_ is still the snapshot's and must be copied before a move */
+    private boolean shared_;
+    private final int startTurn_;
+    private int turn_;
+
+    Branch(final Rules<S, A> rules, final S state, final int turn, final boolean copyOnWrite)
+    {
+        rules_ = rules;
+        state_ = state;
+        shared_ = copyOnWrite;
+        startTurn_ = turn;
+        turn_ = turn;
+    }
+
+    /**
+     * Plays a single move.
+     *
+     * @param action
+     *            One of the current player's available actions
+     * @return The state after the move. Must not be changed
+     */
+    public S apply(final A action)
+    {
+        Validate.isTrue(!isTerminal(), "Cannot move in a branch whose game is over");
+        if(shared_)
+        {
+            state_ = rules_.copyState(state_);
+            shared_ = false;
+        }
+        state_ = rules_.transition(state_, action);
+        ++turn_;
+        return state_;
+    }
+
+    /**
+     * Plays the branch out, each player's moves chosen by its policy from the
+     * state as that player sees it.
+     *
+     * @param policies
+     *            Policy of every player of the game
+     * @param maxTurns
+     *            Most turns to play before giving up on reaching the end
+     * @return The state the branch stopped at. Must not be changed
+     */
+    public S playOut(final Map<Player, ? extends Policy<S, A>> policies, final int maxTurns)
+    {
+        Validate.notNull(policies, "Cannot play a branch out with null policies");
+        Validate.isTrue(maxTurns >= 0, String.format("Cannot play %d turns", maxTurns));
+        for(int i = 0; i < maxTurns && !isTerminal(); ++i)
+        {
+            final Player player = rules_.getCurrentPlayer(state_);
+            final Policy<S, A> policy = policies.get(player);
+            Validate.notNull(policy, String.format("No policy to play Player %s with", player));
+            apply(policy.chooseAction(rules_.filterState(state_, player), getAvailableActions()));
+        }
+        return state_;
+    }
+
+    /**
+     * @see #playOut(Map, int)
+     */
+    public S playOut(final Map<Player, ? extends Policy<S, A>> policies)
+    {
+        return playOut(policies, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return The branch's current state. Must not be changed
+     */
+    public S getState()
+    {
+        return state_;
+    }
+
+    public Player getCurrentPlayer()
+    {
+        return rules_.getCurrentPlayer(state_);
+    }
+
+    public Collection<A> getAvailableActions()
+    {
+        return rules_.getAvailableActions(rules_.getCurrentPlayer(state_), state_);
+    }
+
+    public boolean isTerminal()
+    {
+        return rules_.isTerminal(state_);
+    }
+
+    /**
+     * @return Number of turns of the game played, before and after the fork
+     */
+    public int getTurn()
+    {
+        return turn_;
+    }
+
+    /**
+     * @return Number of turns played since the fork
+     */
+    public int getTurnsPlayed()
+    {
+        return turn_ - startTurn_;
+    }
+}
@@ -0,0 +1,138 @@
+package core.rollout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utils.Validate;
+
+import core.Player;
+import core.Rules;
+
+/**
+ * A game frozen at some turn, as taken by
+ * {@link core.network.NetworkAutomator#snapshot()}. The snapshot owns a
+ * private copy of the state that is never changed, so any number of
+ * {@link Branch}es can be forked off it, from any number of threads.
+ *
+ * Branches share the snapshot's state until they make their first move, and
+ * only copy it then. Rules whose transitions never change the state they are
+ * given can skip even that copy (see {@link #withPersistentRules()}).
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ */
+public final class GameSnapshot<S, A>
+{
+    private final Rules<S, A> rules_;
+    private final S state_;
+    private final String gameId_;
+    private final int turn_;
+    private final boolean persistentRules_;
+
+    /**
+     * @param rules
+     *            Rules the game is played by
+     * @param state
+     *            State to snapshot. Copied, so the caller may go on changing it
+     * @param gameId
+     *            Game the snapshot is of
+     * @param turn
+     *            Number of turns played so far
+     */
+    public GameSnapshot(final Rules<S, A> rules, final S state, final String gameId,
+            final int turn)
+    {
+        this(rules, rules.copyState(state), gameId, turn, false);
+    }
+
+    private GameSnapshot(final Rules<S, A> rules, final S state, final String gameId,
+            final int turn, final boolean persistentRules)
+    {
+        Validate.notNull(rules, "Cannot snapshot a game with null rules");
+        Validate.notNull(state, "Cannot snapshot a null state");
+        rules_ = rules;
+        state_ = state;
+        gameId_ = gameId;
+        turn_ = turn;
+        persistentRules_ = persistentRules;
+    }
+
+    /**
+     * @return A snapshot of the same state whose branches never copy it,
+     *         which is only safe if the rules' transitions always return a new
+     *         state and leave the one they were given alone
+     */
+    public GameSnapshot<S, A> withPersistentRules()
+    {
+        return new GameSnapshot<>(rules_, state_, gameId_, turn_, true);
+    }
+
+    /**
+     * @return A new, independent branch starting at this snapshot
+     */
+    public Branch<S, A> fork()
+    {
+        return new Branch<>(rules_, state_, turn_, !persistentRules_);
+    }
+
+    /**
+     * @param count
+     *            Number of branches
+     * @return That many new, independent branches
+     */
+    public List<Branch<S, A>> fork(final int count)
+    {
+        Validate.isTrue(count >= 0, String.format("Cannot fork %d branches", count));
+        final List<Branch<S, A>> branches = new ArrayList<>(count);
+        for(int i = 0; i < count; ++i)
+        {
+            branches.add(fork());
+        }
+        return branches;
+    }
+
+    public Rules<S, A> getRules()
+    {
+        return rules_;
+    }
+
+    /**
+     * @return A copy of the snapshot's state, free to be changed
+     */
+    public S copyState()
+    {
+        return rules_.copyState(state_);
+    }
+
+    public Player getCurrentPlayer()
+    {
+        return rules_.getCurrentPlayer(state_);
+    }
+
+    public boolean isTerminal()
+    {
+        return rules_.isTerminal(state_);
+    }
+
+    public String getGameId()
+    {
+        return gameId_;
+    }
+
+    /**
+     * @return Number of turns played before the snapshot was taken
+     */
+    public int getTurn()
+    {
+        return turn_;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [gameId=%s, turn=%d]", GameSnapshot.class.getSimpleName(),
+                gameId_, turn_);
+    }
+}
@@ -0,0 +1,137 @@
+package core.rollout;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import utils.Validate;
+
+/**
+ * Plays many branches of a {@link GameSnapshot} in parallel on a fork-join
+ * pool and aggregates what they come to. A rollout is any function of a
+ * fresh branch: it may play the branch out in-process, or hand it to a new
+ * {@link core.network.NetworkAutomator} (see
+ * {@link core.network.NetworkAutomator#resumeFrom(GameSnapshot)}) to be
+ * played by clients.
+ *
+ * <pre>
+ * double wins = Rollouts.run(snapshot, 1000, branch -&gt; score(branch.playOut(policies)),
+ *         Collectors.averagingDouble(score -&gt; score), pool);
+ * </pre>
+ *
+ * @author wallstop
+ */
+public final class Rollouts
+{
+    private Rollouts()
+    {
+    }
+
+    /**
+     * Runs the rollout on the provided number of fresh branches of the
+     * snapshot, in parallel, and aggregates the results.
+     *
+     * @param snapshot
+     *            Snapshot to fork
+     * @param branches
+     *            Number of branches to fork
+     * @param rollout
+     *            What to do with each branch
+     * @param aggregate
+     *            How to combine the rollouts' results
+     * @param pool
+     *            Pool to run the rollouts on
+     * @return The aggregate of every rollout's result
+     * @throws IllegalStateException
+     *             if a rollout threw, or the calling thread was interrupted
+     */
+    public static <S, A, T, R> R run(final GameSnapshot<S, A> snapshot, final int branches,
+            final Function<? super Branch<S, A>, ? extends T> rollout,
+            final Collector<? super T, ?, R> aggregate, final ForkJoinPool pool)
+    {
+        Validate.notNull(snapshot, "Cannot roll out a null snapshot");
+        Validate.isTrue(branches >= 0, String.format("Cannot roll out %d branches", branches));
+        Validate.notNull(rollout, "Cannot roll out with a null rollout");
+        Validate.notNull(aggregate, "Cannot aggregate rollouts with a null collector");
+        Validate.notNull(pool, "Cannot roll out on a null pool");
+        /* A parallel stream started from inside the pool runs on the pool */
+        return await(pool.submit(() -> IntStream.range(0, branches).parallel()
+                .mapToObj(i -> rollout.apply(snapshot.fork())).collect(aggregate)));
+    }
+
+    /**
+     * @see #run(GameSnapshot, int, Function, Collector, ForkJoinPool)
+     */
+    public static <S, A, T, R> R run(final GameSnapshot<S, A> snapshot, final int branches,
+            final Function<? super Branch<S, A>, ? extends T> rollout,
+            final Collector<? super T, ?, R> aggregate)
+    {
+        return run(snapshot, branches, rollout, aggregate, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates every action available to the current player of the
+     * snapshot: for each, forks the provided number of branches, plays the
+     * action in all of them, runs the rollout on each and aggregates the
+     * results. Every branch of every action runs in parallel.
+     *
+     * @param snapshot
+     *            Snapshot to evaluate the actions of
+     * @param branchesPerAction
+     *            Number of branches to fork per action
+     * @param rollout
+     *            What to do with each branch, once the action has been played
+     * @param aggregate
+     *            How to combine the results of an action's rollouts
+     * @param pool
+     *            Pool to run the rollouts on
+     * @return The aggregate of each action, in the order the rules listed the
+     *         actions
+     */
+    public static <S, A, T, R> Map<A, R> evaluateActions(final GameSnapshot<S, A> snapshot,
+            final int branchesPerAction, final Function<? super Branch<S, A>, ? extends T> rollout,
+            final Collector<? super T, ?, R> aggregate, final ForkJoinPool pool)
+    {
+        Validate.notNull(snapshot, "Cannot evaluate the actions of a null snapshot");
+        Validate.isTrue(!snapshot.isTerminal(), "Cannot evaluate actions of a finished game");
+        Validate.isTrue(branchesPerAction >= 0, String.format(
+                "Cannot roll out %d branches per action", branchesPerAction));
+        Validate.notNull(rollout, "Cannot roll out with a null rollout");
+        Validate.notNull(aggregate, "Cannot aggregate rollouts with a null collector");
+        Validate.notNull(pool, "Cannot roll out on a null pool");
+        final Collection<A> actions = snapshot.fork().getAvailableActions();
+        return await(pool.submit(() -> actions.stream().flatMap(
+                action -> IntStream.range(0, branchesPerAction).mapToObj(i -> action)).parallel()
+                .collect(Collectors.groupingBy(Function.identity(), LinkedHashMap::new,
+                        Collectors.mapping(action ->
+                        {
+                            final Branch<S, A> branch = snapshot.fork();
+                            branch.apply(action);
+                            return rollout.apply(branch);
+                        }, aggregate)))));
+    }
+
+    private static <R> R await(final Future<R> result)
+    {
+        try
+        {
+            return result.get();
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for rollouts", e);
+        }
+        catch(final ExecutionException e)
+        {
+            throw new IllegalStateException("A rollout failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package core.tournament;
+
+import java.util.Map;
+
+import core.Player;
+import core.Score;
+
+/**
+ * Turns the terminal state of a game into a Score for each of its players.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ */
+@FunctionalInterface
+public interface GameScorer<S>
+{
+    Map<Player, Score> score(S terminalState);
+}
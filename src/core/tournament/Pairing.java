@@ -0,0 +1,79 @@
+package core.tournament;
+
+import java.util.Objects;
+
+import utils.Validate;
+
+/**
+ * Two entrants meeting in a single game. The first entrant takes the first
+ * seat of the game, the second entrant the second.
+ *
+ * @author wallstop
+ */
+public final class Pairing
+{
+    private final String first_;
+    private final String second_;
+
+    public Pairing(final String first, final String second)
+    {
+        Validate.notNull(first, "Cannot create a Pairing with a null first entrant");
+        Validate.notNull(second, "Cannot create a Pairing with a null second entrant");
+        first_ = first;
+        second_ = second;
+    }
+
+    public String getFirst()
+    {
+        return first_;
+    }
+
+    public String getSecond()
+    {
+        return second_;
+    }
+
+    /**
+     * @return The same pairing with the seats swapped
+     */
+    public Pairing swapped()
+    {
+        return new Pairing(second_, first_);
+    }
+
+    /**
+     * @return The same pairing with its entrants in a fixed order, regardless
+     *         of who took which seat. Results are tallied under this.
+     */
+    public Pairing canonical()
+    {
+        return first_.compareTo(second_) <= 0 ? this : swapped();
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if(this == other)
+        {
+            return true;
+        }
+        if(!(other instanceof Pairing))
+        {
+            return false;
+        }
+        final Pairing pairing = (Pairing) other;
+        return first_.equals(pairing.first_) && second_.equals(pairing.second_);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(first_, second_);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s vs %s", first_, second_);
+    }
+}
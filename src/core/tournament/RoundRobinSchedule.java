@@ -0,0 +1,55 @@
+package core.tournament;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * See {@link Schedule#roundRobin(List, int)}
+ *
+ * @author wallstop
+ */
+final class RoundRobinSchedule implements Schedule
+{
+    private final List<String> entrants_;
+    private final int gamesPerPairing_;
+    private boolean scheduled_ = false;
+
+    RoundRobinSchedule(final List<String> entrants, final int gamesPerPairing)
+    {
+        Validate.notNull(entrants, "Cannot schedule null entrants");
+        Validate.isTrue(entrants.size() >= 2, "Cannot schedule fewer than two entrants");
+        Validate.isTrue(gamesPerPairing > 0, String.format(
+                "Cannot schedule %d games per pairing", gamesPerPairing));
+        entrants_ = ImmutableList.copyOf(entrants);
+        gamesPerPairing_ = gamesPerPairing;
+    }
+
+    @Override
+    public synchronized List<Pairing> nextRound(final TournamentResult results)
+    {
+        if(scheduled_)
+        {
+            return Collections.emptyList();
+        }
+        scheduled_ = true;
+
+        final List<Pairing> games = new ArrayList<>();
+        for(int i = 0; i < entrants_.size(); ++i)
+        {
+            for(int j = i + 1; j < entrants_.size(); ++j)
+            {
+                final Pairing pairing = new Pairing(entrants_.get(i), entrants_.get(j));
+                for(int game = 0; game < gamesPerPairing_; ++game)
+                {
+                    games.add(game % 2 == 0 ? pairing : pairing.swapped());
+                }
+            }
+        }
+        return games;
+    }
+}
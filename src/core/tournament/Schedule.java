@@ -0,0 +1,41 @@
+package core.tournament;
+
+import java.util.List;
+
+/**
+ * Decides which entrants of a {@link Tournament} meet, one round at a time.
+ * Every game of a round is played before the next round is asked for, so
+ * schedules may pair entrants based on the results so far.
+ *
+ * @author wallstop
+ */
+public interface Schedule
+{
+    /**
+     * @param results
+     *            Results of every round played so far
+     * @return The games of the next round, one Pairing per game, or an empty
+     *         list if the tournament is over
+     */
+    List<Pairing> nextRound(TournamentResult results);
+
+    /**
+     * Every entrant plays every other entrant gamesPerPairing times, in a
+     * single round. Seats alternate from game to game.
+     */
+    static Schedule roundRobin(final List<String> entrants, final int gamesPerPairing)
+    {
+        return new RoundRobinSchedule(entrants, gamesPerPairing);
+    }
+
+    /**
+     * Each round pairs entrants with similar points who haven't met yet, for
+     * the provided number of rounds. Each pairing plays gamesPerPairing games,
+     * alternating seats. With an odd number of entrants, the lowest ranked
+     * entrant without a bye sits the round out.
+     */
+    static Schedule swiss(final List<String> entrants, final int rounds, final int gamesPerPairing)
+    {
+        return new SwissSchedule(entrants, rounds, gamesPerPairing);
+    }
+}
@@ -0,0 +1,109 @@
+package core.tournament;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * See {@link Schedule#swiss(List, int, int)}
+ *
+ * @author wallstop
+ */
+final class SwissSchedule implements Schedule
+{
+    private final List<String> entrants_;
+    private final int rounds_;
+    private final int gamesPerPairing_;
+
+    private int round_ = 0;
+    private final Set<Pairing> played_ = new HashSet<>();
+    private final Set<String> byes_ = new HashSet<>();
+
+    SwissSchedule(final List<String> entrants, final int rounds, final int gamesPerPairing)
+    {
+        Validate.notNull(entrants, "Cannot schedule null entrants");
+        Validate.isTrue(entrants.size() >= 2, "Cannot schedule fewer than two entrants");
+        Validate.isTrue(rounds > 0, String.format("Cannot schedule %d rounds", rounds));
+        Validate.isTrue(gamesPerPairing > 0, String.format(
+                "Cannot schedule %d games per pairing", gamesPerPairing));
+        entrants_ = ImmutableList.copyOf(entrants);
+        rounds_ = rounds;
+        gamesPerPairing_ = gamesPerPairing;
+    }
+
+    @Override
+    public synchronized List<Pairing> nextRound(final TournamentResult results)
+    {
+        if(round_ >= rounds_)
+        {
+            return Collections.emptyList();
+        }
+        ++round_;
+
+        /* Best first, ties broken by name so rounds are reproducible */
+        final LinkedList<String> unpaired = new LinkedList<>(entrants_);
+        unpaired.sort(Comparator.comparingDouble((final String entrant) -> -results
+                .getPoints(entrant)).thenComparing(Comparator.naturalOrder()));
+
+        if(unpaired.size() % 2 != 0)
+        {
+            final ListIterator<String> lowest = unpaired.listIterator(unpaired.size());
+            String bye = null;
+            while(lowest.hasPrevious())
+            {
+                final String candidate = lowest.previous();
+                if(!byes_.contains(candidate))
+                {
+                    bye = candidate;
+                    break;
+                }
+            }
+            /* Everyone has had a bye, start over */
+            if(bye == null)
+            {
+                byes_.clear();
+                bye = unpaired.getLast();
+            }
+            byes_.add(bye);
+            unpaired.remove(bye);
+        }
+
+        final List<Pairing> games = new ArrayList<>();
+        while(!unpaired.isEmpty())
+        {
+            final String first = unpaired.removeFirst();
+            String second = null;
+            for(final String candidate : unpaired)
+            {
+                if(!played_.contains(new Pairing(first, candidate).canonical()))
+                {
+                    second = candidate;
+                    break;
+                }
+            }
+            /* Everyone left has been played already, take the closest in rank */
+            if(second == null)
+            {
+                second = unpaired.getFirst();
+            }
+            unpaired.remove(second);
+
+            final Pairing pairing = new Pairing(first, second);
+            played_.add(pairing.canonical());
+            for(int game = 0; game < gamesPerPairing_; ++game)
+            {
+                games.add(game % 2 == 0 ? pairing : pairing.swapped());
+            }
+        }
+        return games;
+    }
+}
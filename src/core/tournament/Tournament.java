@@ -0,0 +1,244 @@
+package core.tournament;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import utils.Validate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import core.Player;
+import core.Rules;
+import core.Score;
+import core.network.FallbackPolicy;
+import core.network.ForfeitException;
+import core.network.GameHub;
+import core.network.NetworkAutomator;
+
+/**
+ * Plays two-player games between entrants according to a {@link Schedule},
+ * many at a time, and tallies the results.
+ *
+ * Entrants are batch clients (see {@link core.network.BatchGameClient}) on a
+ * shared {@link GameHub}, identified by their client ids. Each entrant keeps
+ * its one connection for the whole tournament; every game it's scheduled for
+ * is simply routed over it, batched together with the rest of its games.
+ *
+ * @author wallstop
+ *
+ * @param <S>
+ * @param <A>
+ * @param <R>
+ */
+public class Tournament<S, A, R extends Rules<S, A>>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Tournament.class);
+
+    private final GameHub hub_;
+    private final R rules_;
+    private final List<Player> seats_;
+    private final Class<A> actionClass_;
+    private final GameScorer<S> scorer_;
+    private final ToDoubleFunction<Score> points_;
+    private final int maxConcurrentGames_;
+
+    private volatile long connectionTimeoutNanos_ = Long.MAX_VALUE;
+    private volatile long turnTimeoutNanos_ = Long.MAX_VALUE;
+    private volatile long gameTimeoutNanos_ = Long.MAX_VALUE;
+    private volatile FallbackPolicy<S, A> fallbackPolicy_ = FallbackPolicy.random();
+
+    /**
+     * @param hub
+     *            Hub the entrants are connected to
+     * @param rules
+     * @param seats
+     *            The two Players of every game. The first entrant of a
+     *            Pairing plays the first of them
+     * @param actionClass
+     * @param scorer
+     *            Scores each finished game
+     * @param points
+     *            How many points a Score is worth in the standings
+     * @param maxConcurrentGames
+     *            Maximum number of games in progress at once
+     */
+    public Tournament(final GameHub hub, final R rules, final List<Player> seats,
+            final Class<A> actionClass, final GameScorer<S> scorer,
+            final ToDoubleFunction<Score> points, final int maxConcurrentGames)
+    {
+        Validate.notNull(hub, "Cannot run a Tournament on a null GameHub");
+        Validate.notNull(rules, "Cannot run a Tournament with a null rule set");
+        Validate.notNull(seats, "Cannot run a Tournament with null seats");
+        Validate.isTrue(seats.size() == 2, String.format(
+                "Cannot run a Tournament of games with %d players, only 2", seats.size()));
+        Validate.notNull(actionClass, "Cannot run a Tournament with a null Action class");
+        Validate.notNull(scorer, "Cannot run a Tournament with a null scorer");
+        Validate.notNull(points, "Cannot run a Tournament with a null points function");
+        Validate.isTrue(maxConcurrentGames > 0, String.format(
+                "Cannot run a Tournament with %d concurrent games", maxConcurrentGames));
+        hub_ = hub;
+        rules_ = rules;
+        seats_ = ImmutableList.copyOf(seats);
+        actionClass_ = actionClass;
+        scorer_ = scorer;
+        points_ = points;
+        maxConcurrentGames_ = maxConcurrentGames;
+    }
+
+    /**
+     * Sets how long each game waits for its entrants to be connected before
+     * it's counted as failed. By default, it waits forever.
+     */
+    public void setConnectionTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot wait for entrants with a negative timeout");
+        Validate.notNull(unit, "Cannot wait for entrants with a null TimeUnit");
+        connectionTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets how long an entrant has to answer each turn of every game, see
+     * {@link NetworkAutomator#setTurnTimeout(long, TimeUnit)}. By default,
+     * turns have no deadline.
+     */
+    public void setTurnTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot give turns a negative timeout");
+        Validate.notNull(unit, "Cannot give turns a timeout with a null TimeUnit");
+        turnTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets how long each game may take, see
+     * {@link NetworkAutomator#setGameTimeout(long, TimeUnit)}. By default,
+     * games have no deadline.
+     */
+    public void setGameTimeout(final long timeout, final TimeUnit unit)
+    {
+        Validate.isTrue(timeout >= 0, "Cannot give games a negative timeout");
+        Validate.notNull(unit, "Cannot give games a timeout with a null TimeUnit");
+        gameTimeoutNanos_ = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets what happens when an entrant misses a turn's deadline. A forfeit
+     * (see {@link FallbackPolicy#forfeit()}) counts as a loss for the entrant
+     * that missed it and a win for its opponent. Defaults to
+     * {@link FallbackPolicy#random()}.
+     */
+    public void setFallbackPolicy(final FallbackPolicy<S, A> fallbackPolicy)
+    {
+        Validate.notNull(fallbackPolicy, "Cannot use a null FallbackPolicy");
+        fallbackPolicy_ = fallbackPolicy;
+    }
+
+    /**
+     * Plays every round of the schedule, blocking until the last game is
+     * over.
+     *
+     * @param schedule
+     *            Schedule to play
+     * @return Results of every game played
+     */
+    public TournamentResult run(final Schedule schedule)
+    {
+        Validate.notNull(schedule, "Cannot run a Tournament with a null Schedule");
+        final TournamentResult results = new TournamentResult();
+        final ListeningExecutorService games = MoreExecutors.listeningDecorator(Executors
+                .newFixedThreadPool(maxConcurrentGames_, new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("Tournament-%d").build()));
+        try
+        {
+            List<Pairing> round;
+            while(!(round = schedule.nextRound(results)).isEmpty())
+            {
+                LOG.info("Starting a round of {} games", round.size());
+                final List<ListenableFuture<?>> roundGames = new ArrayList<>(round.size());
+                for(final Pairing pairing : round)
+                {
+                    roundGames.add(games.submit(() -> play(pairing, results)));
+                }
+                Futures.successfulAsList(roundGames).get();
+            }
+        }
+        catch(final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while running a Tournament, stopping early");
+        }
+        catch(final ExecutionException e)
+        {
+            /* successfulAsList never fails */
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            games.shutdownNow();
+            results.finish();
+        }
+        LOG.info("Finished {}", results);
+        return results;
+    }
+
+    private void play(final Pairing pairing, final TournamentResult results)
+    {
+        final Map<Player, String> entrants = ImmutableMap.of(seats_.get(0), pairing.getFirst(),
+                seats_.get(1), pairing.getSecond());
+        final NetworkAutomator<S, A, R> game = new NetworkAutomator<>(rules_, seats_,
+                actionClass_, hub_, entrants);
+        try
+        {
+            game.setConnectionTimeout(connectionTimeoutNanos_, TimeUnit.NANOSECONDS);
+            game.setTurnTimeout(turnTimeoutNanos_, TimeUnit.NANOSECONDS);
+            game.setGameTimeout(gameTimeoutNanos_, TimeUnit.NANOSECONDS);
+            game.setFallbackPolicy(fallbackPolicy_);
+            final S terminalState = game.playGameToCompletion();
+            final Map<Player, Score> scores = scorer_.score(terminalState);
+            final Map<String, Score> entrantScores = Maps.newHashMapWithExpectedSize(2);
+            entrants.forEach((player, entrant) -> {
+                final Score score = scores.get(player);
+                Validate.notNull(score, String.format("%s gave no Score for Player %s", scorer_,
+                        player));
+                entrantScores.put(entrant, score);
+            });
+            results.record(pairing, entrantScores, points_, game
+                    .getTimeToFirstTurn(TimeUnit.NANOSECONDS));
+        }
+        catch(final ForfeitException e)
+        {
+            LOG.info("Game {} between {} ended early: {}", game.getGameId(), pairing, e
+                    .getMessage());
+            final Map<String, Score> entrantScores = Maps.newHashMapWithExpectedSize(2);
+            entrants.forEach((player, entrant) -> entrantScores.put(entrant, player.equals(e
+                    .getPlayer()) ? Score.LOSS : Score.WIN));
+            results.record(pairing, entrantScores, points_, game
+                    .getTimeToFirstTurn(TimeUnit.NANOSECONDS));
+        }
+        catch(final RuntimeException e)
+        {
+            LOG.warn("Game {} between {} could not be completed", game.getGameId(), pairing, e);
+            results.recordFailure();
+        }
+        finally
+        {
+            game.getTimeouts().forEach(
+                    (player, timeouts) -> results.recordTimeouts(entrants.get(player), timeouts));
+            game.shutdown();
+        }
+    }
+}
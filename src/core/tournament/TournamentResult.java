@@ -0,0 +1,201 @@
+package core.tournament;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+
+import core.Score;
+
+/**
+ * Running tally of a {@link Tournament}: which Scores every entrant got
+ * against every other entrant, the points that adds up to, and how fast games
+ * were played. Safe to read while the tournament is still running.
+ *
+ * @author wallstop
+ */
+public final class TournamentResult
+{
+    private final long startNanos_ = System.nanoTime();
+    private volatile long endNanos_ = 0;
+
+    private final Object lock_ = new Object();
+    /* Guarded by lock_. Keyed by canonical pairing, then entrant */
+    private final Map<Pairing, Map<String, Multiset<Score>>> tallies_ = new HashMap<>();
+    private final Map<String, Double> points_ = new HashMap<>();
+    private final Map<String, Integer> timeouts_ = new HashMap<>();
+    private int gamesPlayed_ = 0;
+    private int gamesFailed_ = 0;
+    private long timeToFirstTurnNanos_ = 0;
+
+    TournamentResult()
+    {
+    }
+
+    void record(final Pairing pairing, final Map<String, Score> scores,
+            final ToDoubleFunction<Score> points, final long timeToFirstTurnNanos)
+    {
+        synchronized(lock_)
+        {
+            final Map<String, Multiset<Score>> tally = tallies_.computeIfAbsent(
+                    pairing.canonical(), key -> new HashMap<>());
+            scores.forEach((entrant, score) -> {
+                tally.computeIfAbsent(entrant, key -> HashMultiset.create()).add(score);
+                points_.merge(entrant, points.applyAsDouble(score), Double::sum);
+            });
+            timeToFirstTurnNanos_ += Math.max(timeToFirstTurnNanos, 0);
+            ++gamesPlayed_;
+        }
+    }
+
+    void recordFailure()
+    {
+        synchronized(lock_)
+        {
+            ++gamesFailed_;
+        }
+    }
+
+    void recordTimeouts(final String entrant, final int timeouts)
+    {
+        synchronized(lock_)
+        {
+            timeouts_.merge(entrant, timeouts, Integer::sum);
+        }
+    }
+
+    void finish()
+    {
+        endNanos_ = System.nanoTime();
+    }
+
+    public int getGamesPlayed()
+    {
+        synchronized(lock_)
+        {
+            return gamesPlayed_;
+        }
+    }
+
+    /**
+     * @return Number of games that could not be completed, and so were not
+     *         tallied
+     */
+    public int getGamesFailed()
+    {
+        synchronized(lock_)
+        {
+            return gamesFailed_;
+        }
+    }
+
+    /**
+     * @return Time from the start of the tournament until it finished, or
+     *         until now if it's still running
+     */
+    public long getElapsed(final TimeUnit unit)
+    {
+        final long end = endNanos_ == 0 ? System.nanoTime() : endNanos_;
+        return unit.convert(end - startNanos_, TimeUnit.NANOSECONDS);
+    }
+
+    public double getGamesPerSecond()
+    {
+        final long elapsed = getElapsed(TimeUnit.NANOSECONDS);
+        return elapsed == 0 ? 0 : getGamesPlayed() * (double) TimeUnit.SECONDS.toNanos(1)
+                / elapsed;
+    }
+
+    /**
+     * @return Average time a played game took from its creation to its first
+     *         turn, 0 if none have been played
+     */
+    public long getMeanTimeToFirstTurn(final TimeUnit unit)
+    {
+        synchronized(lock_)
+        {
+            return gamesPlayed_ == 0 ? 0 : unit.convert(timeToFirstTurnNanos_ / gamesPlayed_,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return Total points the entrant has scored so far, 0 if it hasn't
+     *         played
+     */
+    public double getPoints(final String entrant)
+    {
+        synchronized(lock_)
+        {
+            return points_.getOrDefault(entrant, 0.0);
+        }
+    }
+
+    /**
+     * @return Number of turns the entrant missed the deadline of, over every
+     *         game it has played
+     */
+    public int getTimeouts(final String entrant)
+    {
+        synchronized(lock_)
+        {
+            return timeouts_.getOrDefault(entrant, 0);
+        }
+    }
+
+    /**
+     * @return Every entrant that has played, with its points, best first
+     */
+    public List<Map.Entry<String, Double>> getStandings()
+    {
+        final List<Map.Entry<String, Double>> standings = new ArrayList<>();
+        synchronized(lock_)
+        {
+            points_.forEach((entrant, points) -> standings.add(Maps.immutableEntry(entrant,
+                    points)));
+        }
+        standings.sort(Comparator.comparingDouble(
+                (final Map.Entry<String, Double> entry) -> -entry.getValue()).thenComparing(
+                Map.Entry::getKey));
+        return standings;
+    }
+
+    /**
+     * @return For each pairing (regardless of seats), how often each of its
+     *         entrants got each Score
+     */
+    public Map<Pairing, Map<String, Multiset<Score>>> getTallies()
+    {
+        final ImmutableMap.Builder<Pairing, Map<String, Multiset<Score>>> tallies = ImmutableMap
+                .builder();
+        synchronized(lock_)
+        {
+            tallies_.forEach((pairing, tally) -> {
+                final ImmutableMap.Builder<String, Multiset<Score>> copy = ImmutableMap.builder();
+                tally.forEach((entrant, scores) -> copy.put(entrant, ImmutableMultiset
+                        .copyOf(scores)));
+                tallies.put(pairing, copy.build());
+            });
+        }
+        return tallies.build();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [games=%d, failed=%d, elapsed=%dms, gamesPerSecond=%.1f, "
+                + "meanTimeToFirstTurn=%dus, standings=%s]",
+                TournamentResult.class.getSimpleName(), getGamesPlayed(), getGamesFailed(),
+                getElapsed(TimeUnit.MILLISECONDS), getGamesPerSecond(),
+                getMeanTimeToFirstTurn(TimeUnit.MICROSECONDS), getStandings());
+    }
+}
@@ -0,0 +1,301 @@
+package core.utils;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import utils.SerializationUtils;
+import utils.Validate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.KeyDeserializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
+
+/**
+ * Map key codec for enums and small value classes, like Vector2 or Player,
+ * whose fields are all primitives, Strings or enums. A key is written as its
+ * field values joined by commas, ordered by field name, so a Vector2 is
+ * simply "3,4", and an enum as its name, straight to the generator and
+ * without going through an ObjectMapper.
+ *
+ * Keys that can't be written that way (a null field value, or a class with
+ * fields of any other type) are written as nested JSON, the way every key
+ * used to be. Nested JSON keys are recognized and still read, so the compact
+ * format can be rolled out without breaking older peers' keys.
+ *
+ * Like Jackson with the visibility {@link SerializationUtils} uses, keys are
+ * built through their no-arg constructor and have their fields set directly.
+ *
+ * @author wallstop
+ *
+ * @param <T>
+ */
+final class CompactKeyCodec<T>
+{
+    private static final char SEPARATOR = ',';
+    private static final char ESCAPE = '\\';
+
+    private final Class<T> keyClass_;
+    /* Empty if the class can only be written as nested JSON */
+    private final List<Field> fields_;
+    private final Constructor<T> constructor_;
+
+    CompactKeyCodec(final Class<T> keyClass)
+    {
+        Validate.notNull(keyClass, "Cannot create a key codec for a null class");
+        keyClass_ = keyClass;
+        final List<Field> fields = fieldsOf(keyClass);
+        Constructor<T> constructor = null;
+        if(!keyClass.isEnum() && fields.stream().allMatch(CompactKeyCodec::isCompact))
+        {
+            try
+            {
+                constructor = keyClass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                fields.forEach(field -> field.setAccessible(true));
+            }
+            catch(final NoSuchMethodException | SecurityException e)
+            {
+                constructor = null;
+            }
+        }
+        constructor_ = constructor;
+        fields_ = constructor == null ? Collections.emptyList() : ImmutableList.copyOf(fields);
+    }
+
+    private static List<Field> fieldsOf(final Class<?> keyClass)
+    {
+        final List<Field> fields = new ArrayList<>();
+        for(Class<?> current = keyClass; current != null && current != Object.class; current = current
+                .getSuperclass())
+        {
+            for(final Field field : current.getDeclaredFields())
+            {
+                final int modifiers = field.getModifiers();
+                if(!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)
+                        && !field.isSynthetic())
+                {
+                    fields.add(field);
+                }
+            }
+        }
+        /* Declaration order isn't guaranteed to match across JVMs, names are */
+        fields.sort(Comparator.comparing(Field::getName).thenComparing(
+                field -> field.getDeclaringClass().getName()));
+        return fields;
+    }
+
+    private static boolean isCompact(final Field field)
+    {
+        final Class<?> type = Primitives.unwrap(field.getType());
+        return type.isPrimitive() || type == String.class || type.isEnum();
+    }
+
+    /**
+     * @return Whether keys of this class can be written compactly at all
+     */
+    boolean isCompact()
+    {
+        return constructor_ != null || keyClass_.isEnum();
+    }
+
+    String encode(final T key)
+    {
+        if(keyClass_.isEnum())
+        {
+            return ((Enum<?>) key).name();
+        }
+        if(!isCompact())
+        {
+            return SerializationUtils.writeValue(key);
+        }
+        final StringBuilder builder = new StringBuilder();
+        try
+        {
+            for(int i = 0; i < fields_.size(); ++i)
+            {
+                final Object value = fields_.get(i).get(key);
+                if(value == null)
+                {
+                    return SerializationUtils.writeValue(key);
+                }
+                if(i > 0)
+                {
+                    builder.append(SEPARATOR);
+                }
+                appendEscaped(builder, value instanceof Enum ? ((Enum<?>) value).name() : value
+                        .toString());
+            }
+        }
+        catch(final IllegalAccessException e)
+        {
+            throw new IllegalStateException(String.format("Cannot read the fields of %s", key), e);
+        }
+        /* A leading '{' or '"' would read as nested JSON */
+        if(builder.length() > 0 && (builder.charAt(0) == '{' || builder.charAt(0) == '"'))
+        {
+            builder.insert(0, ESCAPE);
+        }
+        return builder.toString();
+    }
+
+    private static void appendEscaped(final StringBuilder builder, final String value)
+    {
+        for(int i = 0; i < value.length(); ++i)
+        {
+            final char character = value.charAt(i);
+            if(character == SEPARATOR || character == ESCAPE)
+            {
+                builder.append(ESCAPE);
+            }
+            builder.append(character);
+        }
+    }
+
+    T decode(final String encoded)
+    {
+        if(isNestedJson(encoded) || !isCompact())
+        {
+            return SerializationUtils.readValue(encoded, keyClass_);
+        }
+        if(keyClass_.isEnum())
+        {
+            return keyClass_.cast(parse(keyClass_, encoded));
+        }
+        final List<String> values = fields_.isEmpty() ? Collections.emptyList() : split(encoded);
+        /* Checked by hand, this runs for every key and Validate formats eagerly */
+        if(values.size() != fields_.size())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot decode %s from key \"%s\", expected %d values but found %d",
+                    keyClass_.getSimpleName(), encoded, fields_.size(), values.size()));
+        }
+        try
+        {
+            final T key = constructor_.newInstance();
+            for(int i = 0; i < fields_.size(); ++i)
+            {
+                final Field field = fields_.get(i);
+                field.set(key, parse(field.getType(), values.get(i)));
+            }
+            return key;
+        }
+        catch(final ReflectiveOperationException e)
+        {
+            throw new IllegalArgumentException(String.format("Cannot decode %s from key \"%s\"",
+                    keyClass_.getSimpleName(), encoded), e);
+        }
+    }
+
+    private static boolean isNestedJson(final String encoded)
+    {
+        return !encoded.isEmpty() && (encoded.charAt(0) == '{' || encoded.charAt(0) == '"');
+    }
+
+    private static List<String> split(final String encoded)
+    {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        for(int i = 0; i < encoded.length(); ++i)
+        {
+            final char character = encoded.charAt(i);
+            if(character == ESCAPE && i + 1 < encoded.length())
+            {
+                value.append(encoded.charAt(++i));
+            }
+            else if(character == SEPARATOR)
+            {
+                values.add(value.toString());
+                value.setLength(0);
+            }
+            else
+            {
+                value.append(character);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object parse(final Class<?> type, final String value)
+    {
+        final Class<?> unwrapped = Primitives.unwrap(type);
+        if(unwrapped == String.class)
+        {
+            return value;
+        }
+        if(unwrapped.isEnum())
+        {
+            return Enum.valueOf((Class<? extends Enum>) unwrapped, value);
+        }
+        if(unwrapped == int.class)
+        {
+            return Integer.parseInt(value);
+        }
+        if(unwrapped == long.class)
+        {
+            return Long.parseLong(value);
+        }
+        if(unwrapped == double.class)
+        {
+            return Double.parseDouble(value);
+        }
+        if(unwrapped == float.class)
+        {
+            return Float.parseFloat(value);
+        }
+        if(unwrapped == boolean.class)
+        {
+            return Boolean.parseBoolean(value);
+        }
+        if(unwrapped == short.class)
+        {
+            return Short.parseShort(value);
+        }
+        if(unwrapped == byte.class)
+        {
+            return Byte.parseByte(value);
+        }
+        if(unwrapped == char.class && value.length() == 1)
+        {
+            return value.charAt(0);
+        }
+        throw new IllegalArgumentException(String.format("Cannot decode a %s from \"%s\"",
+                type.getSimpleName(), value));
+    }
+
+    KeyDeserializer newKeyDeserializer()
+    {
+        return new KeyDeserializer()
+        {
+            @Override
+            public T deserializeKey(final String key, final DeserializationContext context)
+            {
+                return decode(key);
+            }
+        };
+    }
+
+    JsonSerializer<T> newKeySerializer()
+    {
+        return new JsonSerializer<T>()
+        {
+            @Override
+            public void serialize(final T key, final JsonGenerator generator,
+                    final SerializerProvider serializers) throws IOException
+            {
+                generator.writeFieldName(encode(key));
+            }
+        };
+    }
+}
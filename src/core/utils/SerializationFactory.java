@@ -1,23 +1,28 @@
 package core.utils;
 
-import java.io.IOException;
-
-import utils.SerializationUtils;
 import utils.Vector2;
 
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.KeyDeserializer;
 import com.fasterxml.jackson.databind.Module;
-import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import core.Player;
 import core.Score;
 
+/**
+ * Map key (de)serializers for the core classes. Keys are written compactly
+ * (see {@link CompactKeyCodec}), and nested JSON keys written by older
+ * versions are still read.
+ */
 public class SerializationFactory
 {
+    private static final CompactKeyCodec<Vector2> VECTOR2_KEYS = new CompactKeyCodec<>(
+            Vector2.class);
+    private static final CompactKeyCodec<Player> PLAYER_KEYS = new CompactKeyCodec<>(
+            Player.class);
+    private static final CompactKeyCodec<Score> SCORE_KEYS = new CompactKeyCodec<>(Score.class);
+
     public static Module newVector2SerializationModule()
     {
         return new SimpleModule().addKeyDeserializer(Vector2.class, newVector2KeyDeserializer())
@@ -26,28 +31,12 @@ public class SerializationFactory
 
     public static KeyDeserializer newVector2KeyDeserializer()
     {
-        return new KeyDeserializer()
-        {
-            @Override
-            public Vector2 deserializeKey(final String jsonKey, final DeserializationContext context)
-            {
-                return SerializationUtils.readValue(jsonKey, Vector2.class);
-            }
-        };
+        return VECTOR2_KEYS.newKeyDeserializer();
     }
 
     public static JsonSerializer<Vector2> newVector2KeySerializer()
     {
-        return new JsonSerializer<Vector2>()
-        {
-            @Override
-            public void serialize(final Vector2 vector2, final JsonGenerator generator,
-                    final SerializerProvider serializers) throws IOException
-            {
-                final String json = SerializationUtils.writeValue(vector2);
-                generator.writeFieldName(json);
-            }
-        };
+        return VECTOR2_KEYS.newKeySerializer();
     }
 
     public static Module newPlayerSerializationModule()
@@ -59,29 +48,12 @@ public class SerializationFactory
 
     public static KeyDeserializer newPlayerKeyDeserializer()
     {
-        return new KeyDeserializer()
-        {
-            @Override
-            public Player deserializeKey(final String jsonKey, final DeserializationContext context)
-            {
-                return SerializationUtils.readValue(jsonKey, Player.class);
-            }
-        };
+        return PLAYER_KEYS.newKeyDeserializer();
     }
 
     public static JsonSerializer<Player> newPlayerKeySerializer()
     {
-        return new JsonSerializer<Player>()
-        {
-
-            @Override
-            public void serialize(final Player player, final JsonGenerator generator,
-                    final SerializerProvider serializers) throws IOException
-            {
-                final String json = SerializationUtils.writeValue(player);
-                generator.writeFieldName(json);
-            }
-        };
+        return PLAYER_KEYS.newKeySerializer();
     }
 
     public static Module newScoreSerializationModule()
@@ -93,27 +65,11 @@ public class SerializationFactory
 
     public static KeyDeserializer newScoreKeyDeserializer()
     {
-        return new KeyDeserializer()
-        {
-            @Override
-            public Score deserializeKey(final String jsonKey, final DeserializationContext context)
-            {
-                return SerializationUtils.readValue(jsonKey, Score.class);
-            }
-        };
+        return SCORE_KEYS.newKeyDeserializer();
     }
 
     public static JsonSerializer<Score> newScoreKeySerializer()
     {
-        return new JsonSerializer<Score>()
-        {
-            @Override
-            public void serialize(final Score score, final JsonGenerator generator,
-                    final SerializerProvider serializers) throws IOException
-            {
-                final String json = SerializationUtils.writeValue(score);
-                generator.writeFieldName(json);
-            }
-        };
+        return SCORE_KEYS.newKeySerializer();
     }
 }
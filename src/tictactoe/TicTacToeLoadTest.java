@@ -0,0 +1,47 @@
+package tictactoe;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import utils.SerializationUtils;
+
+import core.Player;
+import core.load.LoadGenerator;
+import core.load.LoadReport;
+import core.policies.RandomPolicy;
+
+public class TicTacToeLoadTest
+{
+    /**
+     * Ramps up concurrent TicTacToe games between random synthetic clients.
+     *
+     * @param args
+     *            [maxGames [stepSeconds [thinkMillis [disconnectRate]]]]
+     */
+    public static void main(final String args[])
+    {
+        final int maxGames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final long stepSeconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        final long thinkMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        final double disconnectRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.001;
+
+        final TicTacToeRules rules = new TicTacToeRules();
+        final List<Player> players = Arrays.asList(new Player("Player 1"), new Player("Player 2"));
+        final TicTacToeState initialState = rules.generateInitialState(players);
+        SerializationUtils.finishStartup(initialState, rules.getAvailableActions(rules
+                .getCurrentPlayer(initialState), initialState).iterator().next());
+
+        final LoadGenerator<TicTacToeState, TicTacToeAction, TicTacToeRules> generator = new LoadGenerator<>(
+                rules, players, TicTacToeState.class, TicTacToeAction.class, RandomPolicy::new);
+        generator.setThinkTime(thinkMillis, TimeUnit.MILLISECONDS);
+        generator.setJitter(thinkMillis, TimeUnit.MILLISECONDS);
+        generator.setDisconnectRate(disconnectRate);
+        generator.setTurnTimeout(1, TimeUnit.SECONDS);
+
+        final int step = Math.max(1, maxGames / 10);
+        final LoadReport report = generator.ramp(step, maxGames, step, stepSeconds,
+                TimeUnit.SECONDS);
+        System.out.println(report);
+    }
+}
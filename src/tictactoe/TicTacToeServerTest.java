@@ -4,6 +4,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
+import utils.SerializationUtils;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -22,6 +24,10 @@ public class TicTacToeServerTest
         playersToPolicies.put(new Player("Player 1"), new RandomPolicy<>());
         playersToPolicies.put(new Player("Player 2"), new RandomPolicy<>());
         final TicTacToeRules rules = new TicTacToeRules();
+        final TicTacToeState initialState = rules.generateInitialState(playersToPolicies
+                .keySet());
+        SerializationUtils.finishStartup(initialState, rules.getAvailableActions(rules
+                .getCurrentPlayer(initialState), initialState).iterator().next());
         final NetworkAutomator<TicTacToeState, TicTacToeAction, TicTacToeRules> gameServer = new NetworkAutomator<>(
                 rules, playersToPolicies.keySet(), TicTacToeAction.class);
 
@@ -35,7 +41,7 @@ public class TicTacToeServerTest
             final Player player = playerToPort.getKey();
             final Integer port = playerToPort.getValue();
             final GameClient<TicTacToeState, TicTacToeAction, TicTacToeRules> client = new GameClient<>(
-                    rules, playersToPolicies.get(player), port, TicTacToeState.class);
+                    rules, playersToPolicies.get(player), "localhost", port, TicTacToeState.class);
             playersToClients.put(player, client);
             final Thread clientRunner = new Thread(client);
             threads.add(clientRunner);
@@ -0,0 +1,73 @@
+package tictactoe;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import utils.SerializationUtils;
+
+import com.google.common.collect.ImmutableMap;
+
+import core.Player;
+import core.network.GameClient;
+import core.network.GameHub;
+import core.network.NetworkAutomator;
+import core.policies.RandomPolicy;
+
+public class TicTacToeSessionTest
+{
+    /**
+     * Plays TicTacToe games back to back over two session clients of one hub,
+     * one working out its actions with the rules and one that is handed them
+     * and answers with indices.
+     *
+     * @param args
+     *            [games]
+     */
+    public static void main(final String args[]) throws IOException, InterruptedException
+    {
+        final int games = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+
+        final TicTacToeRules rules = new TicTacToeRules();
+        final List<Player> players = Arrays.asList(new Player("Player 1"), new Player("Player 2"));
+        final TicTacToeState initialState = rules.generateInitialState(players);
+        SerializationUtils.finishStartup(initialState, rules.getAvailableActions(rules
+                .getCurrentPlayer(initialState), initialState).iterator().next());
+
+        final GameHub hub = new GameHub(0);
+        final Map<Player, String> playersToSessions = ImmutableMap.of(players.get(0),
+                "rules-session", players.get(1), "index-session");
+
+        final GameClient<TicTacToeState, TicTacToeAction, TicTacToeRules> rulesClient = new GameClient<>(
+                rules, new RandomPolicy<>(), "localhost", hub.getPort(), TicTacToeState.class,
+                playersToSessions.get(players.get(0)));
+        final GameClient<TicTacToeState, TicTacToeAction, TicTacToeRules> indexClient = new GameClient<>(
+                new RandomPolicy<>(), "localhost", hub.getPort(), TicTacToeState.class,
+                TicTacToeAction.class, playersToSessions.get(players.get(1)));
+        final Thread rulesRunner = new Thread(rulesClient);
+        final Thread indexRunner = new Thread(indexClient);
+        rulesRunner.start();
+        indexRunner.start();
+
+        for(int i = 0; i < games; ++i)
+        {
+            final NetworkAutomator<TicTacToeState, TicTacToeAction, TicTacToeRules> gameServer = NetworkAutomator
+                    .onSessions(rules, players, TicTacToeAction.class, hub, playersToSessions);
+            gameServer.playGameToCompletion();
+            gameServer.shutdown();
+        }
+        playersToSessions.values().forEach(hub::closeSession);
+
+        rulesRunner.join();
+        indexRunner.join();
+        hub.shutdown();
+        if(rulesClient.getGamesPlayed() != games || indexClient.getGamesPlayed() != games)
+        {
+            throw new IllegalStateException(String.format(
+                    "Expected both session clients to play %d games, but they played %d and %d",
+                    games, rulesClient.getGamesPlayed(), indexClient.getGamesPlayed()));
+        }
+        System.out.println(String.format("Played %d games over sessions", games));
+    }
+}
@@ -0,0 +1,119 @@
+package utils;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream over a window of a ByteBuffer. Reads use absolute indices, so the
+ * buffer's own position and limit are never touched. Meant to be re-pointed at
+ * new windows via {@link #wrap(ByteBuffer, int, int)} rather than re-created.
+ *
+ * @author wallstop
+ */
+public final class ByteBufferInputStream extends InputStream
+{
+    private ByteBuffer buffer_;
+    private int position_;
+    private int end_;
+
+    public ByteBufferInputStream()
+    {
+        buffer_ = null;
+        position_ = 0;
+        end_ = 0;
+    }
+
+    /**
+     * Points this stream at the bytes between start (inclusive) and end
+     * (exclusive) of the provided buffer.
+     *
+     * @param buffer
+     *            Buffer to read from
+     * @param start
+     *            Absolute index of the first byte to read
+     * @param end
+     *            Absolute index one past the last byte to read
+     * @return This stream
+     */
+    public ByteBufferInputStream wrap(final ByteBuffer buffer, final int start, final int end)
+    {
+        Validate.notNull(buffer, "Cannot read from a null buffer");
+        Validate.isTrue(0 <= start && start <= end && end <= buffer.limit(), String.format(
+                "Cannot read [%d, %d) from a buffer with limit %d", start, end, buffer.limit()));
+        buffer_ = buffer;
+        position_ = start;
+        end_ = end;
+        return this;
+    }
+
+    @Override
+    public int read()
+    {
+        if(position_ >= end_)
+        {
+            return -1;
+        }
+        return buffer_.get(position_++) & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] bytes, final int offset, final int length)
+    {
+        if(length == 0)
+        {
+            return 0;
+        }
+        if(position_ >= end_)
+        {
+            return -1;
+        }
+        final int count = Math.min(length, end_ - position_);
+        if(buffer_.hasArray())
+        {
+            System.arraycopy(buffer_.array(), buffer_.arrayOffset() + position_, bytes, offset,
+                    count);
+        }
+        else
+        {
+            for(int i = 0; i < count; ++i)
+            {
+                bytes[offset + i] = buffer_.get(position_ + i);
+            }
+        }
+        position_ += count;
+        return count;
+    }
+
+    @Override
+    public long skip(final long count)
+    {
+        final int skipped = (int) Math.max(0, Math.min(count, end_ - position_));
+        position_ += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available()
+    {
+        return end_ - position_;
+    }
+
+    /**
+     * @return A copy of the bytes left to read, which are left unread
+     */
+    public byte[] copyRemaining()
+    {
+        final byte[] bytes = new byte[end_ - position_];
+        for(int i = 0; i < bytes.length; ++i)
+        {
+            bytes[i] = buffer_.get(position_ + i);
+        }
+        return bytes;
+    }
+
+    /* The buffer is owned by whoever wrapped it, never close it */
+    @Override
+    public void close()
+    {
+    }
+}
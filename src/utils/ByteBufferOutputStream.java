@@ -0,0 +1,79 @@
+package utils;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * OutputStream that writes straight into a ByteBuffer, growing it whenever it
+ * runs out of room. Meant to live as long as whatever owns the buffer, so that
+ * steady-state writes don't allocate anything.
+ *
+ * Since the buffer may be replaced when it grows, always grab it via
+ * {@link #buffer()} after writing instead of holding on to it.
+ *
+ * @author wallstop
+ */
+public final class ByteBufferOutputStream extends OutputStream
+{
+    private ByteBuffer buffer_;
+
+    /**
+     * @param buffer
+     *            Buffer to write into, starting at its current position. The
+     *            stream will grow a buffer of the same kind (direct or heap)
+     *            if this one fills up.
+     */
+    public ByteBufferOutputStream(final ByteBuffer buffer)
+    {
+        Validate.notNull(buffer, "Cannot create a ByteBufferOutputStream for a null buffer");
+        buffer_ = buffer;
+    }
+
+    public ByteBuffer buffer()
+    {
+        return buffer_;
+    }
+
+    /**
+     * Makes sure at least the provided number of bytes can be written without
+     * the buffer overflowing.
+     *
+     * @param bytes
+     *            Number of bytes that need to fit
+     */
+    public void ensureRemaining(final int bytes)
+    {
+        if(buffer_.remaining() >= bytes)
+        {
+            return;
+        }
+        final int required = buffer_.position() + bytes;
+        Validate.isTrue(required >= 0, "Cannot grow a ByteBuffer beyond Integer.MAX_VALUE");
+        final int capacity = Math.max(required, buffer_.capacity() << 1);
+        final ByteBuffer grown = buffer_.isDirect() ? ByteBuffer.allocateDirect(capacity)
+                : ByteBuffer.allocate(capacity);
+        buffer_.flip();
+        grown.put(buffer_);
+        buffer_ = grown;
+    }
+
+    @Override
+    public void write(final int b)
+    {
+        ensureRemaining(1);
+        buffer_.put((byte) b);
+    }
+
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length)
+    {
+        ensureRemaining(length);
+        buffer_.put(bytes, offset, length);
+    }
+
+    /* The buffer is owned by whoever created this stream, never close it */
+    @Override
+    public void close()
+    {
+    }
+}
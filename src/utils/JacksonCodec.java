@@ -0,0 +1,129 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * WireCodec backed by a Jackson ObjectMapper. Whatever format the mapper's
+ * factory speaks (JSON, Smile, ...) is the format of the codec.
+ *
+ * Classes that are read and written over and over should be prepared (see
+ * {@link #prepare(Class)}); their ObjectReader and ObjectWriter are then
+ * resolved once instead of on every call. Lookups of prepared classes never
+ * lock.
+ *
+ * @author wallstop
+ */
+public final class JacksonCodec implements WireCodec
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JacksonCodec.class);
+
+    private final String name_;
+    private final ObjectMapper mapper_;
+    private final ConcurrentMap<Class<?>, ObjectReader> readers_ = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers_ = new ConcurrentHashMap<>();
+
+    public JacksonCodec(final String name, final ObjectMapper mapper)
+    {
+        Validate.notNull(name, "Cannot create a JacksonCodec with a null name");
+        Validate.notNull(mapper, "Cannot create a JacksonCodec with a null ObjectMapper");
+        name_ = name;
+        mapper_ = mapper;
+    }
+
+    @Override
+    public String name()
+    {
+        return name_;
+    }
+
+    /**
+     * Resolves, or resolves again after the mapper's modules have changed, the
+     * reader and writer of the provided class.
+     */
+    @Override
+    public void prepare(final Class<?> clazz)
+    {
+        Validate.notNull(clazz, "Cannot prepare a null class");
+        readers_.put(clazz, mapper_.reader(clazz));
+        writers_.put(clazz, mapper_.writerFor(clazz));
+    }
+
+    @Override
+    public void writeValue(final Object value, final OutputStream out)
+    {
+        try
+        {
+            final ObjectWriter writer = writers_.get(value.getClass());
+            if(writer != null)
+            {
+                writer.writeValue(out, value);
+                return;
+            }
+            mapper_.writeValue(out, value);
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Could not write {} as {}", value, name_, e);
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public <T> T readValue(final InputStream in, final Class<T> clazz)
+    {
+        try
+        {
+            final ObjectReader reader = readers_.get(clazz);
+            return reader == null ? mapper_.readValue(in, clazz) : reader.readValue(in);
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Could not convert {} stream into {}", name_, clazz, e);
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Reads a value out of a String, which only makes sense for text formats.
+     */
+    <T> T readValue(final String content, final Class<T> clazz) throws IOException
+    {
+        final ObjectReader reader = readers_.get(clazz);
+        return reader == null ? mapper_.readValue(content, clazz) : reader.readValue(content);
+    }
+
+    /**
+     * Writes a value out as a String, which only makes sense for text
+     * formats.
+     */
+    String writeValueAsString(final Object value) throws IOException
+    {
+        final ObjectWriter writer = writers_.get(value.getClass());
+        return writer == null ? mapper_.writeValueAsString(value) : writer
+                .writeValueAsString(value);
+    }
+
+    <T> T treeToValue(final JsonNode tree, final Class<T> clazz) throws IOException
+    {
+        final ObjectReader reader = readers_.get(clazz);
+        return reader == null ? mapper_.treeToValue(tree, clazz) : reader.readValue(tree);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s [name=%s]", JacksonCodec.class.getSimpleName(), name_);
+    }
+}
@@ -1,14 +1,27 @@
 package utils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableMap;
 
 import core.utils.SerializationFactory;
 
@@ -16,6 +29,11 @@ import core.utils.SerializationFactory;
  * Helper class to read & write our objects into and out of JSON Throws
  * RuntimeExceptions if it can't properly parse the JSON/class
  *
+ * Besides JSON, values can be written in any registered {@link WireCodec}. Out
+ * of the box that's {@link #JSON} and {@link #SMILE}, a compact binary
+ * encoding of the same data model. Both share the same modules, so anything
+ * that can be written as JSON can be written as Smile.
+ *
  * @author wallstop
  */
 public final class SerializationUtils
@@ -23,8 +41,26 @@ public final class SerializationUtils
     private static final Logger LOG = LoggerFactory.getLogger(SerializationUtils.class);
 
     private static final ObjectMapper MAPPER = newDefaultMapper();
+    private static final ObjectMapper SMILE_MAPPER = newDefaultMapper(new SmileFactory());
+
+    private static final JacksonCodec JSON_CODEC = new JacksonCodec("json", MAPPER);
+    public static final WireCodec JSON = JSON_CODEC;
+    public static final WireCodec SMILE = new JacksonCodec("smile", SMILE_MAPPER);
+
+    /* Written only under REGISTRY_LOCK, swapped for an ImmutableMap by freeze() */
+    private static volatile Map<String, WireCodec> codecs_ = new ConcurrentHashMap<>();
+    private static final Set<Class<?>> PREPARED_TYPES = ConcurrentHashMap.newKeySet();
+    private static final Object REGISTRY_LOCK = new Object();
+    private static volatile boolean frozen_ = false;
+
+    /* Number of round trips warmUp(Object...) makes per value and codec */
+    public static final int DEFAULT_WARM_UP_ROUNDS = 10_000;
+
     static
     {
+        registerCodec(JSON);
+        registerCodec(SMILE);
+
         /*
          * Set up core class serializers. While Jackson normally does a great
          * job of automagically constructing classes, it has an edge case for
@@ -46,7 +82,21 @@ public final class SerializationUtils
      */
     public static ObjectMapper newDefaultMapper()
     {
-        final ObjectMapper defaultMapper = new ObjectMapper();
+        return newDefaultMapper(new JsonFactory());
+    }
+
+    /**
+     * Returns an un-decorated ObjectMapper for the provided format, configured
+     * like {@link #newDefaultMapper()}.
+     *
+     * @param factory
+     *            Factory of the format the mapper should read and write
+     * @return An ObjectMapper with configured visibilities.
+     */
+    public static ObjectMapper newDefaultMapper(final JsonFactory factory)
+    {
+        Validate.notNull(factory, "Cannot create an ObjectMapper for a null JsonFactory");
+        final ObjectMapper defaultMapper = new ObjectMapper(factory);
         defaultMapper.setVisibilityChecker(defaultMapper.getSerializationConfig()
                 .getDefaultVisibilityChecker().withFieldVisibility(Visibility.ANY)
                 .withGetterVisibility(Visibility.NONE).withSetterVisibility(Visibility.NONE)
@@ -60,8 +110,201 @@ public final class SerializationUtils
     public static void registerModules(final Module... modules)
     {
         Validate.notNull(modules, "Cannot register a null module!");
-        LOG.info("Registering modules {}", (Object[]) modules);
-        MAPPER.registerModules(modules);
+        synchronized(REGISTRY_LOCK)
+        {
+            Validate.isTrue(!frozen_, "Cannot register modules once serialization is frozen");
+            LOG.info("Registering modules {}", (Object[]) modules);
+            MAPPER.registerModules(modules);
+            SMILE_MAPPER.registerModules(modules);
+            /* Readers and writers resolved before now don't know about the modules */
+            PREPARED_TYPES.forEach(type -> codecs_.values().forEach(codec -> codec.prepare(type)));
+        }
+    }
+
+    /**
+     * Makes a codec available for negotiation. Codecs are keyed by name, so
+     * registering a codec with the name of an existing one replaces it.
+     *
+     * @param codec
+     *            Codec to register
+     */
+    public static void registerCodec(final WireCodec codec)
+    {
+        Validate.notNull(codec, "Cannot register a null codec!");
+        Validate.notNull(codec.name(), "Cannot register a codec without a name!");
+        synchronized(REGISTRY_LOCK)
+        {
+            Validate.isTrue(!frozen_, "Cannot register codecs once serialization is frozen");
+            LOG.info("Registering codec {}", codec.name());
+            PREPARED_TYPES.forEach(codec::prepare);
+            codecs_.put(codec.name(), codec);
+        }
+    }
+
+    /**
+     * Resolves, in every codec, how to read and write the provided classes
+     * once, instead of on every read and write. Classes that are sent over
+     * and over, like states and actions, should be prepared. Safe to call
+     * any number of times, before or after {@link #freeze()}.
+     *
+     * @param types
+     *            Classes that will be read and written
+     */
+    public static void prepareTypes(final Class<?>... types)
+    {
+        Validate.notNull(types, "Cannot prepare null types!");
+        for(final Class<?> type : types)
+        {
+            Validate.notNull(type, "Cannot prepare a null type!");
+            if(PREPARED_TYPES.contains(type))
+            {
+                continue;
+            }
+            synchronized(REGISTRY_LOCK)
+            {
+                if(PREPARED_TYPES.add(type))
+                {
+                    codecs_.values().forEach(codec -> codec.prepare(type));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops any more modules or codecs from being registered. Codec lookups
+     * go through an immutable map from then on, and the configuration every
+     * prepared reader and writer was built with can no longer change under
+     * it. Call once startup is done; calling it again does nothing.
+     */
+    public static void freeze()
+    {
+        synchronized(REGISTRY_LOCK)
+        {
+            if(frozen_)
+            {
+                return;
+            }
+            codecs_ = ImmutableMap.copyOf(codecs_);
+            frozen_ = true;
+            LOG.info("Froze serialization with codecs {} and {} prepared types", codecs_.keySet(),
+                    PREPARED_TYPES.size());
+        }
+    }
+
+    public static boolean isFrozen()
+    {
+        return frozen_;
+    }
+
+    /**
+     * Writes and reads back each sample value {@link #DEFAULT_WARM_UP_ROUNDS}
+     * times with every codec, and as a tree, so introspection and JIT
+     * compilation happen now instead of during the first games. The class of
+     * every sample is prepared along the way.
+     *
+     * @param samples
+     *            Representative values, e.g. an initial state and an action
+     */
+    public static void warmUp(final Object... samples)
+    {
+        Validate.notNull(samples, "Cannot warm up with null samples!");
+        warmUp(Arrays.asList(samples), DEFAULT_WARM_UP_ROUNDS);
+    }
+
+    /**
+     * @param samples
+     *            Representative values, e.g. an initial state and an action
+     * @param rounds
+     *            Number of round trips per sample and codec
+     * @see #warmUp(Object...)
+     */
+    public static void warmUp(final Collection<?> samples, final int rounds)
+    {
+        Validate.notNull(samples, "Cannot warm up with null samples!");
+        Validate.isTrue(rounds >= 0, String.format("Cannot warm up for %d rounds", rounds));
+        final long start = System.nanoTime();
+        final ByteBufferOutputStream out = new ByteBufferOutputStream(ByteBuffer.allocate(4 * 1024));
+        final ByteBufferInputStream in = new ByteBufferInputStream();
+        for(final Object sample : samples)
+        {
+            Validate.notNull(sample, "Cannot warm up with a null sample!");
+            prepareTypes(sample.getClass());
+            for(final WireCodec codec : codecs_.values())
+            {
+                for(int i = 0; i < rounds; ++i)
+                {
+                    out.buffer().clear();
+                    codec.writeValue(sample, out);
+                    final ByteBuffer written = out.buffer();
+                    codec.readValue(in.wrap(written, 0, written.position()), sample.getClass());
+                }
+            }
+            for(int i = 0; i < rounds; ++i)
+            {
+                treeToValue(valueToTree(sample), sample.getClass());
+            }
+        }
+        LOG.info("Warmed up serialization of {} samples in {}ms", samples.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Startup hook for anything that serves or plays games: warms
+     * serialization up with the provided samples (see {@link #warmUp(Object...)}),
+     * then freezes it (see {@link #freeze()}). Neither happens unless called;
+     * call it once every module and codec is registered and before the first
+     * game starts.
+     *
+     * @param samples
+     *            Representative values, e.g. an initial state and an action
+     */
+    public static void finishStartup(final Object... samples)
+    {
+        warmUp(samples);
+        freeze();
+    }
+
+    /**
+     * @param name
+     *            Name of the codec
+     * @return The codec registered under that name, or null if there is none
+     */
+    public static WireCodec codec(final String name)
+    {
+        return name == null ? null : codecs_.get(name);
+    }
+
+    /**
+     * @return Names of every registered codec
+     */
+    public static Collection<String> codecNames()
+    {
+        return Collections.unmodifiableSet(codecs_.keySet());
+    }
+
+    /**
+     * Picks the codec to use for a connection.
+     *
+     * @param preferences
+     *            Names of the codecs the other side understands, most
+     *            preferred first. May be null or empty.
+     * @return The first preferred codec that is registered, or {@link #JSON} if
+     *         none of them are
+     */
+    public static WireCodec negotiateCodec(final List<String> preferences)
+    {
+        if(preferences != null)
+        {
+            for(final String preference : preferences)
+            {
+                final WireCodec codec = codec(preference);
+                if(codec != null)
+                {
+                    return codec;
+                }
+            }
+        }
+        return JSON;
     }
 
     /**
@@ -73,7 +316,7 @@ public final class SerializationUtils
     {
         try
         {
-            return MAPPER.readValue(json, clazz);
+            return JSON_CODEC.readValue(json, clazz);
         }
         catch(final IOException e)
         {
@@ -96,13 +339,86 @@ public final class SerializationUtils
     {
         try
         {
-            return MAPPER.writeValueAsString(value);
+            return JSON_CODEC.writeValueAsString(value);
         }
-        catch(final JsonProcessingException e)
+        catch(final IOException e)
         {
             LOG.error("Could not convert {} into json", value, e);
             throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Reads a value straight out of the provided stream, without building an
+     * intermediate String. The stream is not closed.
+     *
+     * @param json
+     *            Stream positioned at the start of the value, holding UTF-8
+     *            JSON
+     * @param clazz
+     *            Class to read the value as
+     * @return The value
+     * @throws IllegalArgumentException
+     *             if the stream did not hold a valid instance of the class
+     */
+    public static <T> T readValue(final InputStream json, final Class<T> clazz)
+    {
+        return JSON.readValue(json, clazz);
+    }
+
+    /**
+     * Writes the provided value as UTF-8 JSON straight into the provided
+     * stream, without building an intermediate String.
+     *
+     * @param value
+     *            non-null value to write
+     * @param out
+     *            Stream to write to
+     * @throws IllegalArgumentException
+     *             if the value could not be mapped to JSON or the stream could
+     *             not be written to
+     */
+    public static <T> void writeValue(final T value, final OutputStream out)
+    {
+        JSON.writeValue(value, out);
+    }
+
+    /**
+     * Converts the provided value into the tree it would be written as. Trees
+     * are independent of the codec they end up being written with.
+     *
+     * @param value
+     *            non-null value to convert
+     * @return The value as a tree
+     * @throws IllegalArgumentException
+     *             if the value could not be mapped to a tree
+     */
+    public static JsonNode valueToTree(final Object value)
+    {
+        return MAPPER.valueToTree(value);
+    }
+
+    /**
+     * Converts the provided tree back into a value.
+     *
+     * @param tree
+     *            Tree to convert, as built by {@link #valueToTree(Object)}
+     * @param clazz
+     *            Class to read the value as
+     * @return The value
+     * @throws IllegalArgumentException
+     *             if the tree did not hold a valid instance of the class
+     */
+    public static <T> T treeToValue(final JsonNode tree, final Class<T> clazz)
+    {
+        try
+        {
+            return JSON_CODEC.treeToValue(tree, clazz);
+        }
+        catch(final IOException e)
+        {
+            LOG.error("Could not convert {} into {}", tree, clazz, e);
+            throw new IllegalArgumentException(e);
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A format that values can be written to and read from the wire in. Codecs are
+ * identified by name; that name is what clients and servers agree on during
+ * their handshake.
+ *
+ * @author wallstop
+ */
+public interface WireCodec
+{
+    /**
+     * @return Name this codec is negotiated by
+     */
+    String name();
+
+    /**
+     * Writes the provided value into the stream. The stream is not closed.
+     *
+     * @param value
+     *            non-null value to write
+     * @param out
+     *            Stream to write to
+     * @throws IllegalArgumentException
+     *             if the value could not be encoded or the stream could not be
+     *             written to
+     */
+    void writeValue(Object value, OutputStream out);
+
+    /**
+     * Reads a single value out of the stream. The stream is not closed.
+     *
+     * @param in
+     *            Stream positioned at the start of the value
+     * @param clazz
+     *            Class to read the value as
+     * @return The value
+     * @throws IllegalArgumentException
+     *             if the stream did not hold a valid instance of the class
+     */
+    <T> T readValue(InputStream in, Class<T> clazz);
+
+    /**
+     * Does whatever work reading and writing the provided class takes up
+     * front, so that later reads and writes don't have to. Called once for
+     * every type registered with
+     * {@link SerializationUtils#prepareTypes(Class...)}, and again whenever
+     * the codec's configuration may have changed. Does nothing by default.
+     *
+     * @param clazz
+     *            Class that will be read and written
+     */
+    default void prepare(final Class<?> clazz)
+    {
+    }
+}